@@ -0,0 +1,219 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Compares JMH results (in JMH's CSV format) with a stored baseline, so that
+ * regressions can be spotted and numbers tracked over time.
+ * 
+ * A result counts as a regression when it is worse than the baseline by more
+ * than {@link #THRESHOLD} percent and by more than the combined error of both
+ * measurements.
+ * 
+ * Usage: {@code BaselineReport <baseline.csv> <results.csv> [report.txt]}
+ * 
+ * @author Douglas Teoh
+ */
+public final class BaselineReport {
+
+    /** Change in percent that is reported as a regression or improvement. */
+    private static final double THRESHOLD = 5.0;
+
+    private BaselineReport() {
+        throw new AssertionError();
+    }
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BaselineReport <baseline.csv> <results.csv> [report.txt]");
+            System.exit(2);
+        }
+
+        final File baselineFile = new File(args[0]);
+        final File resultsFile = new File(args[1]);
+        if (!resultsFile.isFile()) {
+            System.err.println("No benchmark results in " + resultsFile + ", run 'gradle bench' first.");
+            System.exit(2);
+        }
+        if (!baselineFile.isFile()) {
+            System.err.println("No baseline in " + baselineFile + ", store one with 'gradle benchBaseline'.");
+            System.exit(2);
+        }
+
+        final Map<String, Result> baseline = read(baselineFile);
+        final Map<String, Result> results = read(resultsFile);
+
+        final StringBuilder report = new StringBuilder();
+        int regressions = 0;
+        report.append(String.format("%-100s %14s %14s %9s%n", "Benchmark", "Baseline", "Current", "Change"));
+        for (final Map.Entry<String, Result> entry : results.entrySet()) {
+            final Result current = entry.getValue();
+            final Result base = baseline.get(entry.getKey());
+            if (base == null) {
+                report.append(String.format("%-100s %14s %14.3f %9s  new%n", entry.getKey(), "-", current.score,
+                        "-"));
+                continue;
+            }
+
+            final double change = (current.score - base.score) / base.score * 100.0;
+            final boolean significant = Math.abs(current.score - base.score) > current.error + base.error
+                    && Math.abs(change) > THRESHOLD;
+            String verdict = "";
+            if (significant) {
+                final boolean worse = current.higherIsBetter() ? change < 0 : change > 0;
+                verdict = worse ? "  REGRESSION" : "  improved";
+                if (worse) {
+                    regressions++;
+                }
+            }
+            report.append(String.format("%-100s %14.3f %14.3f %+8.1f%%%s%n", entry.getKey(), base.score,
+                    current.score, change, verdict));
+        }
+        for (final String key : baseline.keySet()) {
+            if (!results.containsKey(key)) {
+                report.append(String.format("%-100s %14.3f %14s %9s  not run%n", key, baseline.get(key).score, "-",
+                        "-"));
+            }
+        }
+        report.append(String.format("%n%d regression(s) of more than %.0f%%.%n", regressions, THRESHOLD));
+
+        System.out.print(report);
+        if (args.length > 2) {
+            final PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(args[2]), "UTF-8"));
+            try {
+                out.print(report);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Read results in JMH's CSV format, keyed by benchmark, mode and
+     * parameters.
+     */
+    private static Map<String, Result> read(final File file) throws IOException {
+        final Map<String, Result> results = Maps.newLinkedHashMap();
+        final BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            final List<String> header = parseLine(in.readLine());
+            final int benchmark = header.indexOf("Benchmark");
+            final int mode = header.indexOf("Mode");
+            final int score = header.indexOf("Score");
+            final int unit = header.indexOf("Unit");
+            final int error = score + 1;
+            if (benchmark < 0 || mode < 0 || score < 0 || unit < 0) {
+                throw new IOException("Not a JMH CSV file: " + file);
+            }
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.trim().length() == 0) {
+                    continue;
+                }
+                final List<String> fields = parseLine(line);
+                final StringBuilder key = new StringBuilder(fields.get(benchmark));
+                for (int i = 0; i < header.size(); i++) {
+                    if (header.get(i).startsWith("Param: ") && i < fields.size() && fields.get(i).length() > 0) {
+                        key.append(' ').append(header.get(i).substring(7)).append('=').append(fields.get(i));
+                    }
+                }
+                key.append(" (").append(fields.get(mode)).append(", ").append(fields.get(unit)).append(')');
+
+                results.put(key.toString(), new Result(fields.get(mode), parse(fields.get(score)), parse(fields
+                        .get(error))));
+            }
+        } finally {
+            in.close();
+        }
+        return results;
+    }
+
+    private static double parse(final String number) {
+        try {
+            final double value = Double.parseDouble(number);
+            // JMH reports a NaN error for single samples.
+            return Double.isNaN(value) ? 0 : value;
+        } catch (final NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Split a CSV line into fields, removing quotes.
+     */
+    private static List<String> parseLine(final String line) {
+        final List<String> fields = Lists.newArrayList();
+        if (line == null) {
+            return fields;
+        }
+
+        final StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (c == '"') {
+                if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /** One benchmark result. */
+    private static final class Result {
+        private final String mode;
+        private final double score;
+        private final double error;
+
+        Result(final String mode, final double score, final double error) {
+            this.mode = mode;
+            this.score = score;
+            this.error = error;
+        }
+
+        /** Throughput is better when higher, times are better when lower. */
+        boolean higherIsBetter() {
+            return "thrpt".equals(mode);
+        }
+    }
+
+}
@@ -0,0 +1,278 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+
+import org.apache.commons.io.IOUtils;
+
+import com.dteoh.tidal.views.models.RippleModel;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Generates realistic benchmark fixtures: mailboxes full of unread emails,
+ * HTML newsletters and raw MIME messages. Fixtures are generated from a seed,
+ * so every run of a benchmark sees the same data.
+ * 
+ * @author Douglas Teoh
+ */
+public final class Fixtures {
+
+    /** Time the newest generated email was received. */
+    public static final long NEWEST = 1288000000000L;
+
+    private static final String[] SENDERS = { "GitHub <noreply@github.com>",
+            "Douglas Teoh <douglas@tidal-app.org>", "Amazon.com <shipment-tracking@amazon.com>",
+            "Google Calendar <calendar-notification@google.com>", "Twitter <notify@twitter.com>",
+            "LinkedIn Updates <updates@linkedin.com>", "The Monthly Digest <digest@news.tidal-app.org>",
+            "Mailing list <java-dev@lists.tidal-app.org>", "Jane Citizen <jane.citizen@example.com>",
+            "Bank Alerts <alerts@bank.example.com>", "Flight Centre <bookings@travel.example.com>",
+            "Unknown" };
+
+    private static final String[] SUBJECTS = { "Your order has shipped", "Weekly project summary",
+            "Invitation: Planning meeting @ Tue 10am", "New comment on pull request", "Your statement is ready",
+            "Lunch on Friday?", "Build failed: tidal-app master", "Re: Release notes for 0.3",
+            "Fwd: Photos from the weekend", "Reminder: password expires in 7 days",
+            "[java-dev] Swing painting performance", "Security alert: new sign-in" };
+
+    private static final String[] WORDS = ("the of and to in is you that it he was for on are as with his they at be "
+            + "this have from or one had by word but not what all were we when your can said there use an each "
+            + "which she do how their if will up other about out many then them these so some her would make like "
+            + "him into time has look two more write go see number no way could people my than first water been "
+            + "call who oil its now find long down day did get come made may part release build meeting order "
+            + "account update password commit review deploy schedule invoice delivery weekend project").split(" ");
+
+    private static final String[] HEADLINES = { "Ten things we learned shipping our first desktop app",
+            "Why your inbox is slower than it should be", "Interview: building tools people actually use",
+            "The quiet return of the desktop application", "A field guide to IMAP servers in the wild",
+            "What changed in Java 6 update 22", "Designing for notifications that do not nag",
+            "Case study: cutting startup time in half" };
+
+    private static String newsletterTemplate;
+    private static String articleTemplate;
+
+    private Fixtures() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Generate the unread emails of a mailbox, newest first.
+     * 
+     * @param size
+     *            Number of emails.
+     * @param seed
+     *            Seed of the generated content.
+     * @return the generated emails.
+     */
+    public static List<RippleModel> mailbox(final int size, final long seed) {
+        final Random random = new Random(seed);
+        final List<RippleModel> ripples = Lists.newArrayListWithCapacity(size);
+        long received = NEWEST;
+        for (int i = 0; i < size; i++) {
+            ripples.add(ripple(random, size - i, received));
+            // Emails arrive in bursts: several in the same second, then a gap.
+            if (random.nextInt(4) == 0) {
+                received -= TimeUnit.MINUTES.toMillis(1 + random.nextInt(120));
+            }
+        }
+        return ripples;
+    }
+
+    /**
+     * Generate an unread email.
+     * 
+     * @param random
+     *            Source of the generated content.
+     * @param messageNumber
+     *            IMAP message number of the email.
+     * @param received
+     *            Time the email was received.
+     * @return the generated email.
+     */
+    public static RippleModel ripple(final Random random, final int messageNumber, final long received) {
+        return new RippleModel.Builder(messageNumber).origin(SENDERS[random.nextInt(SENDERS.length)])
+                .subject(SUBJECTS[random.nextInt(SUBJECTS.length)]).content(
+                        words(random, 40 + random.nextInt(360))).received(received).build();
+    }
+
+    /**
+     * Generate a newsletter, in the style of the HTML newsletters sent by
+     * mailing list services: nested layout tables, inline styles, tracking
+     * links and images.
+     * 
+     * @param articles
+     *            Number of articles in the newsletter.
+     * @param seed
+     *            Seed of the generated content.
+     * @return the HTML of the newsletter.
+     */
+    public static String newsletter(final int articles, final long seed) {
+        loadTemplates();
+
+        final Random random = new Random(seed);
+        final String issue = "issue-" + seed;
+        final StringBuilder body = new StringBuilder();
+        for (int i = 0; i < articles; i++) {
+            final Map<String, String> values = Maps.newHashMap();
+            final String slug = issue + "/" + i;
+            values.put("headline", escape(HEADLINES[random.nextInt(HEADLINES.length)]));
+            values.put("summary", escape(sentences(random, 3)));
+            values.put("summary2", escape(sentences(random, 2)));
+            values.put("link", "https://news.tidal-app.org/r/" + slug
+                    + "?utm_source=newsletter&amp;utm_medium=email&amp;utm_content=article" + i);
+            values.put("image", "https://news.tidal-app.org/images/" + slug + ".jpg");
+            body.append(fill(articleTemplate, values));
+        }
+
+        final Map<String, String> values = Maps.newHashMap();
+        values.put("title", "The Monthly Digest");
+        values.put("issue", issue);
+        values.put("preheader", escape(sentences(random, 2)));
+        values.put("articles", body.toString());
+        return fill(newsletterTemplate, values);
+    }
+
+    /**
+     * Generate a raw MIME message with a multipart body, as downloaded from an
+     * IMAP server.
+     * 
+     * @param subType
+     *            Multipart subtype, "alternative" for a plain text and an HTML
+     *            version of a newsletter, "mixed" for a plain text reply with
+     *            the original email attached.
+     * @param articles
+     *            Number of articles in the newsletter.
+     * @param seed
+     *            Seed of the generated content.
+     * @return the encoded message.
+     */
+    public static byte[] multipartMessage(final String subType, final int articles, final long seed)
+            throws MessagingException, IOException {
+        final Random random = new Random(seed);
+        final String html = newsletter(articles, seed);
+
+        final MimeMultipart multipart = new MimeMultipart(subType);
+        final MimeBodyPart plain = new MimeBodyPart();
+        plain.setText(sentences(random, 8 * Math.max(1, articles)), "UTF-8");
+        multipart.addBodyPart(plain);
+
+        final MimeBodyPart second = new MimeBodyPart();
+        if ("mixed".equals(subType)) {
+            final MimeMessage original = newMessage();
+            original.setSubject(SUBJECTS[random.nextInt(SUBJECTS.length)]);
+            original.setContent(html, "text/html; charset=UTF-8");
+            original.saveChanges();
+            second.setContent(original, "message/rfc822");
+        } else {
+            second.setContent(html, "text/html; charset=UTF-8");
+        }
+        multipart.addBodyPart(second);
+
+        final MimeMessage message = newMessage();
+        message.setSubject(SUBJECTS[random.nextInt(SUBJECTS.length)]);
+        message.setContent(multipart);
+        message.saveChanges();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message.writeTo(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns a mail session without any servers configured.
+     */
+    public static Session session() {
+        return Session.getInstance(new Properties());
+    }
+
+    private static MimeMessage newMessage() throws MessagingException {
+        final MimeMessage message = new MimeMessage(session());
+        message.setFrom(new InternetAddress("digest@news.tidal-app.org"));
+        message.setRecipient(MimeMessage.RecipientType.TO, new InternetAddress("douglas@tidal-app.org"));
+        return message;
+    }
+
+    private static String sentences(final Random random, final int count) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            final String sentence = words(random, 8 + random.nextInt(16));
+            sb.append(Character.toUpperCase(sentence.charAt(0))).append(sentence, 1, sentence.length()).append(
+                    ". ");
+        }
+        return sb.toString().trim();
+    }
+
+    private static String words(final Random random, final int count) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static String escape(final String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    private static String fill(final String template, final Map<String, String> values) {
+        String result = template;
+        for (final Map.Entry<String, String> entry : values.entrySet()) {
+            result = result.replace("${" + entry.getKey() + "}", entry.getValue());
+        }
+        return result;
+    }
+
+    private static synchronized void loadTemplates() {
+        if (newsletterTemplate == null) {
+            newsletterTemplate = resource("newsletter.html");
+            articleTemplate = resource("article.html");
+        }
+    }
+
+    private static String resource(final String name) {
+        final InputStream in = Fixtures.class.getResourceAsStream(name);
+        if (in == null) {
+            throw new IllegalStateException("Missing fixture: " + name);
+        }
+        try {
+            return IOUtils.toString(in, "UTF-8");
+        } catch (final IOException e) {
+            throw new IllegalStateException("Could not read fixture: " + name, e);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+}
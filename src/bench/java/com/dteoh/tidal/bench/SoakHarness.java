@@ -0,0 +1,476 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Method;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+
+import com.dteoh.tidal.configuration.SaveConfigurable;
+import com.dteoh.tidal.configuration.models.Configurable;
+import com.dteoh.tidal.controllers.ViewManager;
+import com.dteoh.tidal.exceptions.DropletCreationException;
+import com.dteoh.tidal.guice.LoggerListener;
+import com.dteoh.tidal.sources.email.AbstractEmailDroplet;
+import com.dteoh.tidal.sources.email.EmailDropletsController;
+import com.dteoh.tidal.sources.email.impl.FakeImapServer;
+import com.dteoh.tidal.sources.email.models.EmailSettings;
+import com.dteoh.tidal.sources.email.models.Protocol;
+import com.dteoh.tidal.util.Clock;
+import com.dteoh.tidal.util.VirtualClock;
+import com.dteoh.tidal.views.View;
+import com.dteoh.tidal.views.models.SnippetArena;
+import com.google.common.collect.Lists;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.matcher.Matchers;
+
+/**
+ * Soak test of email updates. Runs simulated days of polling against a
+ * {@link FakeImapServer}, with new mail arriving before every poll, on a
+ * {@link VirtualClock} so that weeks pass in minutes. Heap, off-heap, thread and
+ * file descriptor usage, and time spent collecting garbage, are sampled every
+ * simulated hour.
+ * 
+ * The first simulated day (or quarter of the run, if shorter) is the warm up.
+ * The run fails if any sample after the warm up exceeds the warmed up maximum
+ * by more than a small allowance, i.e. if usage keeps growing with uptime. The
+ * samples are written to {@code soak.csv} and the trends to {@code soak.txt}.
+ * 
+ * Running once with and once without the {@value SnippetArena#PROPERTY} system
+ * property compares keeping the contents of ripples on and off the heap.
+ * 
+ * Usage: {@code SoakHarness [days] [droplets] [report directory]}
+ * 
+ * @author Douglas Teoh
+ */
+public final class SoakHarness {
+
+    /** Time between polls. */
+    private static final long POLL = EmailDropletsController.UPDATE_SCHEDULE;
+    /** Polls between samples. */
+    private static final int POLLS_PER_SAMPLE = (int) (TimeUnit.HOURS.toMillis(1) / POLL);
+    private static final long POLLS_PER_DAY = TimeUnit.DAYS.toMillis(1) / POLL;
+
+    /** New messages arriving before every poll. */
+    private static final int MESSAGES_PER_POLL = 5;
+    /** Real time allowed for the updates of one poll, in milliseconds. */
+    private static final long UPDATE_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
+    /** Threads or file descriptors allowed on top of the warmed up maximum. */
+    private static final int SLACK = 4;
+    /** Heap allowed on top of the warmed up maximum, as a fraction of it. */
+    private static final double HEAP_GROWTH = 0.5;
+    /** Heap always allowed on top of the warmed up maximum. */
+    private static final long HEAP_SLACK = 8L << 20;
+
+    private static final int HOURS_PER_DAY = 24;
+
+    private SoakHarness() {
+        throw new AssertionError();
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int days = args.length > 0 ? Integer.parseInt(args[0]) : 14;
+        final int dropletCount = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        final File reportDir = new File(args.length > 2 ? args[2] : "build/reports/soak");
+
+        FakeImapServer.useRealProvider();
+        final FakeImapServer server = new FakeImapServer();
+        server.start();
+
+        final VirtualClock clock = new VirtualClock(System.currentTimeMillis());
+        final EmailDropletsController controller = Guice.createInjector(new SoakModule(clock)).getInstance(
+                EmailDropletsController.class);
+
+        final List<AbstractEmailDroplet> droplets = Lists.newArrayList();
+        for (int i = 0; i < dropletCount; i++) {
+            droplets.add(addDroplet(controller, server, i));
+        }
+        controller.scheduleAfterWarmUp();
+
+        final List<Sample> samples = Lists.newArrayList();
+        final long polls = days * POLLS_PER_DAY;
+        final long started = System.nanoTime();
+        int stalls = 0;
+        System.out.printf("Soaking %d droplet(s) for %d simulated day(s), %d polls%n", dropletCount, days, polls);
+        try {
+            for (long poll = 1; poll <= polls; poll++) {
+                deliver(server, clock, poll);
+                final long[] before = handoffs(droplets);
+                clock.advance(POLL, TimeUnit.MILLISECONDS);
+                if (!await(droplets, before)) {
+                    stalls++;
+                }
+                if (poll % POLLS_PER_SAMPLE == 0) {
+                    final Sample sample = Sample.take(poll / POLLS_PER_SAMPLE, poll * dropletCount, stalls);
+                    samples.add(sample);
+                    if (sample.hour % HOURS_PER_DAY == 0) {
+                        System.out.printf("Day %d: %s%n", sample.hour / HOURS_PER_DAY, sample);
+                    }
+                }
+            }
+        } finally {
+            controller.pause();
+            server.stop();
+        }
+
+        final long elapsed = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - started);
+        reportDir.mkdirs();
+        writeSamples(samples, new File(reportDir, "soak.csv"));
+        final boolean bounded = writeReport(samples, days, dropletCount, stalls, elapsed, new File(reportDir,
+                "soak.txt"));
+        System.exit(bounded && stalls == 0 ? 0 : 1);
+    }
+
+    private static AbstractEmailDroplet addDroplet(final EmailDropletsController controller,
+            final FakeImapServer server, final int index) throws DropletCreationException {
+        return controller.addEmailDroplet(new EmailSettings(server.getAddress(), Protocol.imap, "soak" + index,
+                "password"));
+    }
+
+    /**
+     * Replace the INBOX with a batch of new, unread messages, so that every
+     * update sees mail it has not seen before.
+     */
+    private static void deliver(final FakeImapServer server, final Clock clock, final long poll)
+            throws MessagingException {
+        server.clearMessages();
+        final long now = clock.currentTimeMillis();
+        for (int i = 0; i < MESSAGES_PER_POLL; i++) {
+            server.addMessage("\"Sender " + i + "\" <sender" + i + "@tidal-app.org>", "Poll " + poll + " message "
+                    + i, "Message " + i + " delivered before poll " + poll + ".\n", new Date(now - i * 1000L), false);
+        }
+    }
+
+    private static long[] handoffs(final List<AbstractEmailDroplet> droplets) {
+        final long[] counts = new long[droplets.size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = droplets.get(i).getMetrics().getHandoffCount();
+        }
+        return counts;
+    }
+
+    /**
+     * Wait for every droplet to finish the update started by the last poll.
+     * 
+     * @return true if all updates finished in time.
+     */
+    private static boolean await(final List<AbstractEmailDroplet> droplets, final long[] before)
+            throws InterruptedException {
+        final long giveUp = System.currentTimeMillis() + UPDATE_TIMEOUT;
+        for (int i = 0; i < before.length; i++) {
+            while (droplets.get(i).getMetrics().getHandoffCount() <= before[i]) {
+                if (System.currentTimeMillis() > giveUp) {
+                    System.err.println("Update of droplet " + i + " did not finish in time");
+                    return false;
+                }
+                Thread.sleep(1);
+            }
+        }
+        return true;
+    }
+
+    private static void writeSamples(final List<Sample> samples, final File file) throws IOException {
+        final PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            out.println("hour,heap_bytes,direct_bytes,gc_millis,threads,file_descriptors,updates,stalls");
+            for (final Sample s : samples) {
+                out.printf("%d,%d,%d,%d,%d,%d,%d,%d%n", s.hour, s.heap, s.direct, s.gcTime, s.threads, s.fds,
+                        s.updates, s.stalls);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Write the trend report.
+     * 
+     * @return true if every resource stayed within its bound.
+     */
+    private static boolean writeReport(final List<Sample> samples, final int days, final int droplets,
+            final int stalls, final long elapsed, final File file) throws IOException {
+        final int warmUp = Math.max(1, Math.min(HOURS_PER_DAY, samples.size() / 4));
+
+        final StringBuilder report = new StringBuilder();
+        report.append(String.format("Soak of %d droplet(s) over %d simulated day(s) in %ds, %d stalled poll(s)%n",
+                droplets, days, elapsed, stalls));
+        final long gcTime = samples.isEmpty() ? 0 : samples.get(samples.size() - 1).gcTime;
+        report.append(String.format("Ripple contents %s the heap, %dms collecting garbage (%.1fms per day)%n%n",
+                SnippetArena.isEnabled() ? "off" : "on", gcTime, (double) gcTime / Math.max(1, days)));
+        report.append(String.format("%-18s %14s %14s %14s %16s  %s%n", "Resource", "Warmed up", "Limit", "Peak",
+                "Trend per day", "Verdict"));
+
+        boolean bounded = true;
+        for (final Resource resource : Resource.values()) {
+            if (resource.get(samples.get(0)) < 0) {
+                report.append(String.format("%-18s %14s %14s %14s %16s  not available%n", resource.label, "-", "-",
+                        "-", "-"));
+                continue;
+            }
+
+            long warmMax = 0;
+            for (int i = 0; i < warmUp && i < samples.size(); i++) {
+                warmMax = Math.max(warmMax, resource.get(samples.get(i)));
+            }
+            long peak = 0;
+            for (int i = warmUp; i < samples.size(); i++) {
+                peak = Math.max(peak, resource.get(samples.get(i)));
+            }
+            final long limit = resource.limit(warmMax);
+            final boolean ok = peak <= limit;
+            bounded &= ok;
+            report.append(String.format("%-18s %14d %14d %14d %+16.1f  %s%n", resource.label, warmMax, limit, peak,
+                    slope(samples, warmUp, resource) * HOURS_PER_DAY, ok ? "bounded" : "GROWING"));
+        }
+
+        report.append(String.format("%n%s%n", bounded ? "All resources bounded." : "Resource usage keeps growing."));
+        System.out.print(report);
+
+        final PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            out.print(report);
+        } finally {
+            out.close();
+        }
+        return bounded;
+    }
+
+    /**
+     * Least squares slope of a resource after the warm up, per hour.
+     */
+    private static double slope(final List<Sample> samples, final int from, final Resource resource) {
+        final int n = samples.size() - from;
+        if (n < 2) {
+            return 0;
+        }
+        double sumX = 0;
+        double sumY = 0;
+        double sumXY = 0;
+        double sumXX = 0;
+        for (int i = from; i < samples.size(); i++) {
+            final double x = samples.get(i).hour;
+            final double y = resource.get(samples.get(i));
+            sumX += x;
+            sumY += y;
+            sumXY += x * y;
+            sumXX += x * x;
+        }
+        final double denominator = n * sumXX - sumX * sumX;
+        return denominator == 0 ? 0 : (n * sumXY - sumX * sumY) / denominator;
+    }
+
+    /**
+     * Resources watched by the harness.
+     */
+    private enum Resource {
+        HEAP("Heap (bytes)") {
+            @Override
+            long get(final Sample s) {
+                return s.heap;
+            }
+
+            @Override
+            long limit(final long warmMax) {
+                return (long) (warmMax * (1 + HEAP_GROWTH)) + HEAP_SLACK;
+            }
+        },
+        DIRECT("Off-heap (bytes)") {
+            @Override
+            long get(final Sample s) {
+                return s.direct;
+            }
+
+            @Override
+            long limit(final long warmMax) {
+                return (long) (warmMax * (1 + HEAP_GROWTH)) + HEAP_SLACK;
+            }
+        },
+        THREADS("Threads") {
+            @Override
+            long get(final Sample s) {
+                return s.threads;
+            }
+        },
+        FDS("File descriptors") {
+            @Override
+            long get(final Sample s) {
+                return s.fds;
+            }
+        };
+
+        private final String label;
+
+        private Resource(final String label) {
+            this.label = label;
+        }
+
+        abstract long get(Sample s);
+
+        long limit(final long warmMax) {
+            return warmMax + SLACK;
+        }
+    }
+
+    /**
+     * Resource usage at one point of the run.
+     */
+    private static final class Sample {
+        private final long hour;
+        private final long heap;
+        private final long direct;
+        private final long gcTime;
+        private final int threads;
+        private final long fds;
+        private final long updates;
+        private final int stalls;
+
+        /** Time spent in the collections forced by sampling, in milliseconds. */
+        private static long sampledGcTime;
+
+        private Sample(final long hour, final long heap, final long direct, final long gcTime, final int threads,
+                final long fds, final long updates, final int stalls) {
+            this.hour = hour;
+            this.heap = heap;
+            this.direct = direct;
+            this.gcTime = gcTime;
+            this.threads = threads;
+            this.fds = fds;
+            this.updates = updates;
+            this.stalls = stalls;
+        }
+
+        static Sample take(final long hour, final long updates, final int stalls) {
+            // Only live objects count, but collections forced here do not.
+            final long collecting = gcTime() - sampledGcTime;
+            System.gc();
+            System.gc();
+            sampledGcTime = gcTime() - collecting;
+            final long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            final int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+            return new Sample(hour, heap, directMemory(), collecting, threads, openFileDescriptors(), updates, stalls);
+        }
+
+        /**
+         * Total time spent collecting garbage, in milliseconds.
+         */
+        private static long gcTime() {
+            long total = 0;
+            for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                total += Math.max(0, gc.getCollectionTime());
+            }
+            return total;
+        }
+
+        /**
+         * Memory used by direct buffers, or -1 where the JVM does not tell.
+         */
+        private static long directMemory() {
+            try {
+                final Class<?> pool = Class.forName("java.lang.management.BufferPoolMXBean");
+                final Method beans = ManagementFactory.class.getMethod("getPlatformMXBeans", Class.class);
+                for (final Object bean : (List<?>) beans.invoke(null, pool)) {
+                    if ("direct".equals(pool.getMethod("getName").invoke(bean))) {
+                        return ((Number) pool.getMethod("getMemoryUsed").invoke(bean)).longValue();
+                    }
+                }
+                return -1;
+            } catch (final Exception e) {
+                return -1;
+            }
+        }
+
+        /**
+         * Number of open file descriptors, or -1 where the JVM does not tell.
+         */
+        private static long openFileDescriptors() {
+            final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+            try {
+                final Class<?> unix = Class.forName("com.sun.management.UnixOperatingSystemMXBean");
+                if (!unix.isInstance(os)) {
+                    return -1;
+                }
+                final Method count = unix.getMethod("getOpenFileDescriptorCount");
+                return ((Number) count.invoke(os)).longValue();
+            } catch (final Exception e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("heap %dKB, off-heap %dKB, gc %dms, %d threads, %d file descriptors, %d updates",
+                    heap >> 10, direct >> 10, gcTime, threads, fds, updates);
+        }
+    }
+
+    /**
+     * Wires the email droplets controller to the virtual clock, without a user
+     * interface or settings file.
+     */
+    private static final class SoakModule extends AbstractModule {
+        private final Clock clock;
+
+        SoakModule(final Clock clock) {
+            this.clock = clock;
+        }
+
+        @Override
+        protected void configure() {
+            bind(Clock.class).toInstance(clock);
+            bind(SaveConfigurable.class).toInstance(new SaveConfigurable() {
+                @Override
+                public boolean addConfigurable(final Configurable droplet) {
+                    return true;
+                }
+
+                @Override
+                public boolean removeConfigurable(final Configurable droplet) {
+                    return true;
+                }
+
+                @Override
+                public void configurableChanged(final Configurable droplet) {
+                }
+            });
+            bind(ViewManager.class).toInstance(new ViewManager() {
+                @Override
+                public void displayView(final View view) {
+                }
+
+                @Override
+                public void removeView(final View view) {
+                }
+            });
+            bind(EmailDropletsController.class);
+            bindListener(Matchers.any(), new LoggerListener());
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.configuration;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.dteoh.tidal.TidalModule;
+import com.dteoh.tidal.configuration.models.Configurable;
+import com.dteoh.tidal.sources.email.models.EmailSettings;
+import com.dteoh.tidal.sources.email.models.Protocol;
+import com.google.inject.Guice;
+
+/**
+ * Measures saving and loading droplet settings for a number of accounts, in
+ * the encrypted document format (with binary or YAML content) and in the
+ * legacy format where every sensitive field is encrypted separately.
+ * 
+ * @author Douglas Teoh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DropletSettingsBenchmark {
+
+    /** Number of accounts. */
+    @Param({ "10", "100", "1000" })
+    public int accounts;
+
+    /** Content format of the encrypted document. */
+    @Param({ "binary", "yaml" })
+    public String format;
+
+    private ConfigurationController controller;
+    private byte[] sealed;
+    private String legacy;
+
+    @Setup
+    public void setUp() throws Exception {
+        System.setProperty("tidal.settings.format", format);
+        controller = Guice.createInjector(new TidalModule()).getInstance(ConfigurationController.class);
+        controller.changeAuthorizationKey("benchmark password");
+
+        for (int i = 0; i < accounts; i++) {
+            final EmailSettings settings = new EmailSettings("imap" + i + ".tidal-app.org", Protocol.imaps, "user"
+                    + i + "@tidal-app.org", "password" + i);
+            controller.addConfigurable(new Configurable() {
+                @Override
+                public Object getSettings() {
+                    return settings;
+                }
+            });
+        }
+
+        sealed = save();
+        legacy = saveLegacy();
+    }
+
+    @Benchmark
+    public byte[] save() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        controller.saveDropletSettings(out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public Iterable<Object> load() throws Exception {
+        return controller.loadDropletSettings(new ByteArrayInputStream(sealed));
+    }
+
+    @Benchmark
+    public String saveLegacy() throws Exception {
+        final StringWriter out = new StringWriter();
+        controller.saveDropletSettings(out);
+        return out.toString();
+    }
+
+    @Benchmark
+    public Iterable<Object> loadLegacy() {
+        return controller.loadDropletSettings(new StringReader(legacy));
+    }
+
+}
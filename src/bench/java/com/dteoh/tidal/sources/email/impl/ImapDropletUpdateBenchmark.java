@@ -0,0 +1,86 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.sources.email.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dteoh.tidal.sources.email.models.EmailSettings;
+import com.dteoh.tidal.sources.email.models.Protocol;
+
+/**
+ * Measures a whole IMAP droplet update, from connecting to the server to
+ * building the ripples, against a {@link FakeImapServer} with simulated
+ * network latency. The update makes several round trips for every unread
+ * message, so latency dominates once it is above a millisecond.
+ * 
+ * @author Douglas Teoh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.SampleTime, Mode.Throughput })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ImapDropletUpdateBenchmark {
+
+    /** Number of unread messages in the INBOX. */
+    @Param({ "10", "100", "1000" })
+    public int messages;
+
+    /** Latency of every command, in milliseconds. */
+    @Param({ "0", "2" })
+    public long latency;
+
+    private FakeImapServer server;
+    private ImapDroplet droplet;
+
+    @Setup
+    public void setUp() throws Exception {
+        FakeImapServer.useRealProvider();
+        server = new FakeImapServer();
+        server.seed(messages);
+        server.setLatency(latency);
+        server.start();
+        droplet = ImapDroplet.create(new EmailSettings(server.getAddress(), Protocol.imap, "bench", "bench"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        droplet.destroy();
+        server.stop();
+        FakeImapServer.useDefaultProvider();
+    }
+
+    @Benchmark
+    public void update() {
+        droplet.update();
+    }
+
+}
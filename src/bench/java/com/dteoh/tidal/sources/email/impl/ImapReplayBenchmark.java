@@ -0,0 +1,116 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.sources.email.impl;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.SocketFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dteoh.tidal.sources.email.models.EmailSettings;
+import com.dteoh.tidal.sources.email.models.Protocol;
+
+/**
+ * Measures an IMAP droplet update played back from a recorded session, so
+ * that the client side of an update (parsing responses, decoding messages and
+ * building the ripples) is measured without any server or network in the way.
+ * 
+ * A recording made with {@link ImapDroplet#RECORD_PROPERTY} can be given with
+ * {@code -Dtidal.bench.recording=<file>}; otherwise an update of a seeded
+ * {@link FakeImapServer} is recorded first.
+ * 
+ * @author Douglas Teoh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.SampleTime, Mode.Throughput })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ImapReplayBenchmark {
+
+    /** Number of unread messages in a generated recording. */
+    @Param({ "100", "1000" })
+    public int messages;
+
+    private File file;
+    private ReplaySocketFactory transport;
+    private ImapDroplet droplet;
+
+    @Setup
+    public void setUp() throws Exception {
+        final String recorded = System.getProperty("tidal.bench.recording");
+        if (recorded == null) {
+            file = File.createTempFile("tidal-bench", ".rec.gz");
+            record(file);
+        } else {
+            file = new File(recorded);
+        }
+
+        transport = new ReplaySocketFactory(SessionRecording.read(file), false);
+        droplet = ImapDroplet.create(new EmailSettings("localhost", Protocol.imap, "bench", "bench"));
+        droplet.setTransport(transport);
+    }
+
+    @TearDown
+    public void tearDown() {
+        droplet.destroy();
+        if (System.getProperty("tidal.bench.recording") == null) {
+            file.delete();
+        }
+    }
+
+    @Benchmark
+    public void update() {
+        transport.rewind();
+        droplet.update();
+    }
+
+    private void record(final File out) throws Exception {
+        FakeImapServer.useRealProvider();
+        final FakeImapServer server = new FakeImapServer();
+        server.seed(messages);
+        server.start();
+
+        final ImapDroplet recording = ImapDroplet.create(new EmailSettings(server.getAddress(), Protocol.imap,
+                "bench", "bench"));
+        final SessionRecorder recorder = new SessionRecorder(out);
+        try {
+            recording.setTransport(new RecordingSocketFactory(SocketFactory.getDefault(), recorder));
+            recording.update();
+        } finally {
+            recorder.close();
+            recording.destroy();
+            server.stop();
+            FakeImapServer.useDefaultProvider();
+        }
+    }
+
+}
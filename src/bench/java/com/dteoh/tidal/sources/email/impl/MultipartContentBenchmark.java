@@ -0,0 +1,71 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.sources.email.impl;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.Multipart;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.dteoh.tidal.bench.Fixtures;
+
+/**
+ * Measures extracting the text shown in droplets from multipart emails, from
+ * the raw message as downloaded from the IMAP server.
+ * 
+ * @author Douglas Teoh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MultipartContentBenchmark {
+
+    /** Multipart subtype of the email. */
+    @Param({ "alternative", "mixed" })
+    public String subType;
+
+    /** Number of articles in the newsletter in the email. */
+    @Param({ "1", "10", "40" })
+    public int articles;
+
+    private Session session;
+    private byte[] raw;
+
+    @Setup
+    public void setUp() throws Exception {
+        session = Fixtures.session();
+        raw = Fixtures.multipartMessage(subType, articles, 1);
+    }
+
+    @Benchmark
+    public String extractMultipartContent() throws Exception {
+        final MimeMessage message = new MimeMessage(session, new ByteArrayInputStream(raw));
+        return ImapDroplet.extractMultipartContent((Multipart) message.getContent());
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import foxtrot.AsyncTask;
+import foxtrot.AsyncWorker;
+
+/**
+ * Measures how long a short background job posted from the EDT takes to
+ * complete when it is queued behind a slow job (e.g. an IMAP reconnect),
+ * using foxtrot's single worker thread and using {@link Async}.
+ * 
+ * @author Douglas Teoh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WorkerQueueBenchmark {
+
+    /** Duration of the slow job, in milliseconds. */
+    private static final long SLOW_JOB = 50;
+
+    /** Worker running the jobs. */
+    @Param({ "foxtrot", "async" })
+    public String worker;
+
+    private CountDownLatch slowDone;
+
+    @Benchmark
+    public void fastJobBehindSlowJob() throws Exception {
+        slowDone = new CountDownLatch(1);
+        final CountDownLatch fastDone = new CountDownLatch(1);
+
+        post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(SLOW_JOB);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                slowDone.countDown();
+            }
+        });
+        post(new Runnable() {
+            @Override
+            public void run() {
+                fastDone.countDown();
+            }
+        });
+
+        fastDone.await();
+    }
+
+    @TearDown(Level.Invocation)
+    public void awaitSlowJob() throws InterruptedException {
+        slowDone.await();
+    }
+
+    /**
+     * Post a job from the EDT, the way the application does.
+     */
+    private void post(final Runnable job) throws Exception {
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                if ("foxtrot".equals(worker)) {
+                    AsyncWorker.post(new AsyncTask() {
+                        @Override
+                        public Object run() {
+                            job.run();
+                            return null;
+                        }
+
+                        @Override
+                        public void success(final Object result) {
+                        }
+
+                        @Override
+                        public void failure(final Throwable x) {
+                        }
+                    });
+                } else {
+                    Async.submit(job);
+                }
+            }
+        });
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.views;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.dteoh.tidal.util.ImageCache;
+import com.google.common.collect.Lists;
+
+/**
+ * Measures the time taken on the EDT to construct the droplet views for a
+ * number of accounts, as happens after logging in.
+ * 
+ * @author Douglas Teoh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DropletViewConstructionBenchmark {
+
+    /** Number of accounts to create views for. */
+    @Param({ "1", "10", "50" })
+    public int accounts;
+
+    /** Whether images have to be decoded again for every invocation. */
+    @Param({ "false", "true" })
+    public boolean coldCache;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        DropletViews.preloadResources();
+    }
+
+    @Setup(Level.Invocation)
+    public void evictCache() {
+        if (coldCache) {
+            ImageCache.clear();
+        }
+    }
+
+    @Benchmark
+    public List<DropletView> createViews() throws Exception {
+        final List<DropletView> views = Lists.newArrayListWithCapacity(accounts);
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < accounts; i++) {
+                    views.add(DropletViews.newListView());
+                }
+            }
+        });
+        return views;
+    }
+
+}
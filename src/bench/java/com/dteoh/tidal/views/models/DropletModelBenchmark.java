@@ -0,0 +1,94 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.views.models;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.dteoh.tidal.bench.Fixtures;
+import com.dteoh.tidal.id.ID;
+import com.dteoh.tidal.id.IDGenerator;
+import com.google.common.collect.Lists;
+
+/**
+ * Measures building droplet models from downloaded emails, and merging the
+ * emails of an update into the model already shown, as happens after every
+ * droplet update. Also measures finding the emails received in the last day.
+ * 
+ * @author Douglas Teoh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DropletModelBenchmark {
+
+    /** Number of unread emails in the mailbox. */
+    @Param({ "100", "1000", "10000" })
+    public int mailbox;
+
+    /** Percentage of the emails of an update that are already shown. */
+    @Param({ "0", "90" })
+    public int overlap;
+
+    private ID identifier;
+    private List<RippleModel> ripples;
+    private DropletModel shown;
+    private DropletModel update;
+
+    @Setup
+    public void setUp() {
+        identifier = IDGenerator.generateID();
+        ripples = Fixtures.mailbox(mailbox, 1);
+        shown = new DropletModel(identifier, "douglas@tidal-app.org", ripples);
+
+        // An update downloads the unread emails again: some are already shown,
+        // the rest arrived since.
+        final Random random = new Random(2);
+        final int repeated = mailbox * overlap / 100;
+        final List<RippleModel> downloaded = Lists.newArrayList(ripples.subList(0, repeated));
+        for (int i = repeated; i < mailbox; i++) {
+            downloaded.add(Fixtures.ripple(random, mailbox + i, Fixtures.NEWEST + TimeUnit.SECONDS.toMillis(i)));
+        }
+        update = new DropletModel(identifier, "douglas@tidal-app.org", downloaded);
+    }
+
+    @Benchmark
+    public DropletModel create() {
+        return new DropletModel(identifier, "douglas@tidal-app.org", ripples);
+    }
+
+    @Benchmark
+    public DropletModel merge() {
+        return shown.mergeWith(update);
+    }
+
+    @Benchmark
+    public int lastDay() {
+        return shown.getRippleStore().range(Fixtures.NEWEST - TimeUnit.DAYS.toMillis(1), Long.MAX_VALUE).size();
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.views.models;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.dteoh.tidal.bench.Fixtures;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Measures the comparisons droplet models rely on: sorting emails with
+ * {@link RippleModel#compareTo(RippleModel)}, and finding duplicates with
+ * {@link RippleModel#equals(Object)} and {@link RippleModel#hashCode()}.
+ * 
+ * @author Douglas Teoh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RippleModelBenchmark {
+
+    /** Number of unread emails in the mailbox. */
+    @Param({ "100", "1000", "10000" })
+    public int mailbox;
+
+    private List<RippleModel> shuffled;
+    private List<RippleModel> ripples;
+    private List<RippleModel> copies;
+
+    @Setup
+    public void setUp() {
+        ripples = Fixtures.mailbox(mailbox, 1);
+        // Equal to the emails above, but different objects, as downloaded
+        // again by the next update.
+        copies = Fixtures.mailbox(mailbox, 1);
+
+        shuffled = Lists.newArrayList(ripples);
+        Collections.shuffle(shuffled, new Random(3));
+    }
+
+    @Benchmark
+    public List<RippleModel> sort() {
+        final List<RippleModel> sorted = Lists.newArrayList(shuffled);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    @Benchmark
+    public int equalsCopies() {
+        int equal = 0;
+        for (int i = 0; i < mailbox; i++) {
+            if (ripples.get(i).equals(copies.get(i))) {
+                equal++;
+            }
+        }
+        return equal;
+    }
+
+    @Benchmark
+    public Set<RippleModel> hashSet() {
+        final Set<RippleModel> set = Sets.newHashSetWithExpectedSize(mailbox * 2);
+        set.addAll(ripples);
+        set.addAll(copies);
+        return set;
+    }
+
+}
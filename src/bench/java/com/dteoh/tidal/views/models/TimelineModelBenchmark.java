@@ -0,0 +1,101 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.views.models;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.dteoh.tidal.bench.Fixtures;
+import com.dteoh.tidal.id.IDGenerator;
+import com.dteoh.tidal.views.TimelineView;
+import com.google.common.collect.Lists;
+
+/**
+ * Measures updating the timeline of all droplets after one droplet has been
+ * updated, and reading the ripples the timeline view shows, against sorting
+ * the ripples of all droplets again.
+ * 
+ * @author Douglas Teoh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TimelineModelBenchmark {
+
+    /** Number of droplets. */
+    @Param({ "10", "50" })
+    public int droplets;
+
+    /** Number of ripples over all droplets. */
+    @Param({ "5000", "50000" })
+    public int ripples;
+
+    private DropletModel[] models;
+    private TimelineModel timeline;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        models = new DropletModel[droplets];
+        timeline = TimelineModel.EMPTY;
+        for (int i = 0; i < droplets; i++) {
+            models[i] = new DropletModel(IDGenerator.generateID(), "droplet" + i + "@tidal-app.org", Fixtures
+                    .mailbox(ripples / droplets, i));
+            timeline = timeline.withDropletModel(models[i]);
+        }
+    }
+
+    @Benchmark
+    public List<TimelineModel.Entry> update() {
+        final DropletModel model = models[next];
+        next = (next + 1) % droplets;
+        timeline = timeline.withDropletModel(model);
+        return timeline.getNewest(TimelineView.LENGTH);
+    }
+
+    @Benchmark
+    public List<RippleModel> resort() {
+        final List<RippleModel> all = Lists.newArrayListWithCapacity(ripples);
+        for (final DropletModel model : models) {
+            for (final RippleModel ripple : model.getDropletContents()) {
+                all.add(ripple);
+            }
+        }
+        Collections.sort(all);
+        return all.subList(0, TimelineView.LENGTH);
+    }
+
+    @Benchmark
+    public int iterate() {
+        int count = 0;
+        for (final TimelineModel.Entry entry : timeline) {
+            count += entry.getRipple().getReceived() > 0 ? 1 : 0;
+        }
+        return count;
+    }
+
+}
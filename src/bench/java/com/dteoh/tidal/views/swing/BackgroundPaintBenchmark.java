@@ -0,0 +1,122 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.views.swing;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.swing.RepaintManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures a full-window repaint of the tiled application background with a
+ * number of droplet headers laid over it, as painted after every droplet
+ * update.
+ * 
+ * The component tree is never shown, so it is only ever touched by the
+ * benchmark thread and can be painted directly into an offscreen image.
+ * 
+ * @author Douglas Teoh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BackgroundPaintBenchmark {
+
+    private static final int WINDOW_WIDTH = 1024;
+    private static final int HEADER_HEIGHT = 36;
+    private static final int DROPLET_HEIGHT = 160;
+
+    /** Number of droplets shown in the window. */
+    @Param({ "5", "20", "50" })
+    public int droplets;
+
+    private TiledImagePanel window;
+    private BufferedImage target;
+    private Graphics2D g;
+    private int windowHeight;
+    private boolean narrow;
+
+    @Setup
+    public void setUp() throws Exception {
+        RepaintManager.currentManager(null).setDoubleBufferingEnabled(false);
+
+        final Image background = ImageIO.read(BackgroundPaintBenchmark.class
+                .getResource("/com/dteoh/tidal/controllers/resources/background.png"));
+
+        windowHeight = droplets * DROPLET_HEIGHT;
+
+        window = new TiledImagePanel();
+        window.setLayout(null);
+        window.setBackground(new Color(90, 100, 115));
+        window.setBackground(background);
+
+        for (int i = 0; i < droplets; i++) {
+            final GradientPanel header = new GradientPanel(new Color(235, 240, 250), new Color(215, 225, 235));
+            header.setBounds(0, i * DROPLET_HEIGHT, WINDOW_WIDTH, HEADER_HEIGHT);
+            window.add(header);
+        }
+        window.setSize(WINDOW_WIDTH, windowHeight);
+
+        target = new BufferedImage(WINDOW_WIDTH, windowHeight, BufferedImage.TYPE_INT_ARGB);
+        g = target.createGraphics();
+    }
+
+    @TearDown
+    public void tearDown() {
+        g.dispose();
+    }
+
+    /**
+     * Repaint of an unchanged window, the common case.
+     */
+    @Benchmark
+    public BufferedImage fullWindowRepaint() {
+        window.paint(g);
+        return target;
+    }
+
+    /**
+     * Repaint after every resize, the worst case where every cached surface
+     * has to be rendered again.
+     */
+    @Benchmark
+    public BufferedImage fullWindowRepaintWhileResizing() {
+        narrow = !narrow;
+        final int width = narrow ? WINDOW_WIDTH - 1 : WINDOW_WIDTH;
+        window.setSize(width, windowHeight);
+        for (int i = 0; i < window.getComponentCount(); i++) {
+            window.getComponent(i).setSize(width, HEADER_HEIGHT);
+        }
+        window.paint(g);
+        return target;
+    }
+
+}
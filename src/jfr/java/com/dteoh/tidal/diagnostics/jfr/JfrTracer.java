@@ -0,0 +1,96 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.diagnostics.jfr;
+
+import com.dteoh.tidal.diagnostics.TraceSpan;
+import com.dteoh.tidal.diagnostics.Tracer;
+import com.dteoh.tidal.diagnostics.Tracing;
+
+/**
+ * Traces droplet updates as Flight Recorder events. Loaded by
+ * {@link Tracing#install()}, which needs a public no argument constructor.
+ * 
+ * @author Douglas Teoh
+ */
+public final class JfrTracer implements Tracer {
+
+    @Override
+    public TraceSpan beginUpdatePhase(final String phase, final String droplet, final String host) {
+        final UpdatePhaseEvent event = new UpdatePhaseEvent();
+        if (!event.isEnabled()) {
+            return Tracing.NO_SPAN;
+        }
+        event.phase = phase;
+        event.droplet = droplet;
+        event.host = host;
+        event.begin();
+
+        return new TraceSpan() {
+            private boolean ended;
+
+            @Override
+            public void setMessages(final int messages) {
+                event.messages = messages;
+            }
+
+            @Override
+            public void setBytes(final long bytes) {
+                event.bytes = bytes;
+            }
+
+            @Override
+            public void end() {
+                if (!ended) {
+                    ended = true;
+                    event.commit();
+                }
+            }
+        };
+    }
+
+    @Override
+    public TraceSpan beginViewUpdate(final String droplet) {
+        final ViewUpdateEvent event = new ViewUpdateEvent();
+        if (!event.isEnabled()) {
+            return Tracing.NO_SPAN;
+        }
+        event.droplet = droplet;
+        event.begin();
+
+        return new TraceSpan() {
+            private boolean ended;
+
+            @Override
+            public void setMessages(final int messages) {
+                event.ripples = messages;
+            }
+
+            @Override
+            public void setBytes(final long bytes) {
+            }
+
+            @Override
+            public void end() {
+                if (!ended) {
+                    ended = true;
+                    event.commit();
+                }
+            }
+        };
+    }
+
+}
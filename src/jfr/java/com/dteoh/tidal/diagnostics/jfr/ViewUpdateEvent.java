@@ -0,0 +1,44 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.diagnostics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for applying a droplet model to its view on the EDT.
+ * 
+ * @author Douglas Teoh
+ */
+@Name("com.dteoh.tidal.ViewUpdate")
+@Label("Droplet View Update")
+@Description("Applying the results of a droplet update to its view")
+@Category({ "Tidal", "EDT" })
+@StackTrace(false)
+final class ViewUpdateEvent extends Event {
+
+    @Label("Droplet")
+    String droplet;
+
+    @Label("Ripples")
+    int ripples;
+
+}
@@ -22,6 +22,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.dteoh.tidal.controllers.TidalController;
+import com.dteoh.tidal.diagnostics.EDTWatchdog;
+import com.dteoh.tidal.diagnostics.MetricsRegistry;
+import com.dteoh.tidal.diagnostics.Tracing;
+import com.dteoh.tidal.headless.HeadlessTidal;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 
@@ -40,6 +44,13 @@ public class Tidal {
      * @param args
      */
     public static void main(final String[] args) {
+        for (final String arg : args) {
+            if (HeadlessTidal.OPTION.equals(arg)) {
+                HeadlessTidal.main(args);
+                return;
+            }
+        }
+
         // Use system configured proxies.
         System.setProperty("java.net.useSystemProxies", "true");
 
@@ -50,6 +61,11 @@ public class Tidal {
             LOGGER.error("Look and feel error", e);
         }
 
+        // Watch the EDT for stalls before any UI is created.
+        EDTWatchdog.install();
+        MetricsRegistry.startDumping();
+        Tracing.install();
+
         Injector injector = Guice.createInjector(new TidalModule());
         injector.getInstance(TidalController.class);
     }
@@ -22,9 +22,13 @@ import com.dteoh.tidal.configuration.SaveConfigurable;
 import com.dteoh.tidal.controllers.DropletsViewManager;
 import com.dteoh.tidal.controllers.MenuBarController;
 import com.dteoh.tidal.controllers.TidalController;
+import com.dteoh.tidal.controllers.TimelineController;
 import com.dteoh.tidal.controllers.ViewManager;
 import com.dteoh.tidal.guice.LoggerListener;
+import com.dteoh.tidal.sources.DropletModelListener;
 import com.dteoh.tidal.sources.email.EmailDropletsController;
+import com.dteoh.tidal.util.Clock;
+import com.dteoh.tidal.util.SystemClock;
 import com.google.inject.AbstractModule;
 import com.google.inject.matcher.Matchers;
 
@@ -43,10 +47,16 @@ public class TidalModule extends AbstractModule {
         bind(DropletsViewManager.class).toInstance(dropletsViewC);
         bind(ViewManager.class).toInstance(dropletsViewC);
 
+        TimelineController timelineC = TimelineController.create();
+        bind(TimelineController.class).toInstance(timelineC);
+        bind(DropletModelListener.class).toInstance(timelineC);
+
         ConfigurationController configC = new ConfigurationController();
         bind(ConfigurationController.class).toInstance(configC);
         bind(SaveConfigurable.class).toInstance(configC);
 
+        bind(Clock.class).toInstance(SystemClock.INSTANCE);
+
         bind(MenuBarController.class);
 
         bind(EmailDropletsController.class);
@@ -0,0 +1,248 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.configuration;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import com.dteoh.tidal.sources.email.models.EmailSettings;
+import com.dteoh.tidal.sources.email.models.Protocol;
+import com.google.common.collect.Lists;
+
+/**
+ * A compact binary format for droplet settings. The format is:
+ * 
+ * <pre>
+ * magic 'TDBS' | version (1 byte) | record count (4 bytes) | records
+ * record: type (1 byte) | body length (4 bytes) | body
+ * email body: host | protocol | username | password
+ * string: length (2 bytes, 0xFFFF for null) | UTF-8 bytes
+ * </pre>
+ * 
+ * All numbers are big endian. Records of unknown types are skipped, so newer
+ * droplet types do not prevent older settings from being read.
+ * 
+ * @author Douglas Teoh
+ */
+final class BinarySettingsCodec {
+
+    /** Current version of the format. */
+    static final int VERSION = 1;
+
+    /** Record type of {@link EmailSettings}. */
+    private static final int RECORD_EMAIL = 1;
+
+    private static final byte[] MAGIC = { 'T', 'D', 'B', 'S' };
+    private static final int HEADER_LENGTH = MAGIC.length + 1 + 4;
+    private static final int NULL_STRING = 0xFFFF;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private BinarySettingsCodec() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Determine if the given data is in the binary settings format.
+     */
+    static boolean isBinary(final byte[] data) {
+        if (data == null || data.length < HEADER_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Encode droplet settings. Settings of unsupported types are left out.
+     * 
+     * @param allSettings
+     *            Settings to encode.
+     * @return the encoded settings.
+     */
+    static byte[] encode(final List<Object> allSettings) {
+        final List<byte[][]> records = Lists.newArrayListWithCapacity(allSettings.size());
+        int size = HEADER_LENGTH;
+        for (final Object settings : allSettings) {
+            if (!(settings instanceof EmailSettings)) {
+                continue;
+            }
+            final EmailSettings email = (EmailSettings) settings;
+            final byte[][] fields = { utf8(email.getHost()), utf8(email.getProtocol().name()),
+                    utf8(email.getUsername()), utf8(email.getPassword()) };
+            records.add(fields);
+            size += 1 + 4 + bodyLength(fields);
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(MAGIC);
+        buffer.put((byte) VERSION);
+        buffer.putInt(records.size());
+        for (final byte[][] fields : records) {
+            buffer.put((byte) RECORD_EMAIL);
+            buffer.putInt(bodyLength(fields));
+            for (final byte[] field : fields) {
+                if (field == null) {
+                    buffer.putShort((short) NULL_STRING);
+                } else {
+                    buffer.putShort((short) field.length);
+                    buffer.put(field);
+                }
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Decode droplet settings in a single pass over the buffer.
+     * 
+     * @param buffer
+     *            Encoded settings, read from its current position.
+     * @return the decoded settings.
+     * @throws IOException
+     *             If the data is not valid.
+     */
+    static List<Object> decode(final ByteBuffer buffer) throws IOException {
+        final List<Object> allSettings = Lists.newArrayList();
+        decode(buffer, new SettingsHandler() {
+            @Override
+            public void handle(final Object settings) {
+                allSettings.add(settings);
+            }
+        });
+        return allSettings;
+    }
+
+    /**
+     * Decode droplet settings in a single pass over the buffer, handing each
+     * setting to the handler as soon as it has been decoded.
+     * 
+     * @param buffer
+     *            Encoded settings, read from its current position.
+     * @param handler
+     *            Receives the decoded settings.
+     * @return the number of settings decoded.
+     * @throws IOException
+     *             If the data is not valid. Settings decoded before the
+     *             invalid data was found have already been handled.
+     */
+    static int decode(final ByteBuffer buffer, final SettingsHandler handler) throws IOException {
+        try {
+            for (final byte b : MAGIC) {
+                if (buffer.get() != b) {
+                    throw new IOException("Not binary droplet settings");
+                }
+            }
+            final int version = buffer.get() & 0xFF;
+            if (version != VERSION) {
+                throw new IOException("Unsupported binary settings version " + version);
+            }
+
+            final int count = buffer.getInt();
+            if (count < 0) {
+                throw new IOException("Corrupt binary settings");
+            }
+
+            int decoded = 0;
+            for (int i = 0; i < count; i++) {
+                final int type = buffer.get() & 0xFF;
+                final int length = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    throw new IOException("Corrupt binary settings");
+                }
+                final int end = buffer.position() + length;
+
+                if (type == RECORD_EMAIL) {
+                    final EmailSettings settings = decodeEmail(buffer);
+                    if (settings != null) {
+                        decoded++;
+                        handler.handle(settings);
+                    }
+                }
+                buffer.position(end);
+            }
+            return decoded;
+        } catch (final BufferUnderflowException e) {
+            throw new IOException("Truncated binary settings", e);
+        }
+    }
+
+    private static EmailSettings decodeEmail(final ByteBuffer buffer) {
+        final String host = readString(buffer);
+        final String protStr = readString(buffer);
+        final String username = readString(buffer);
+        final String password = readString(buffer);
+        if (host == null || protStr == null || username == null || password == null) {
+            return null;
+        }
+
+        final Protocol protocol;
+        try {
+            protocol = Protocol.valueOf(protStr);
+        } catch (final IllegalArgumentException e) {
+            return null;
+        }
+        return new EmailSettings(host, protocol, username, password);
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        final int length = buffer.getShort() & 0xFFFF;
+        if (length == NULL_STRING) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+
+        final String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF8);
+            buffer.position(buffer.position() + length);
+        } else {
+            final byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            value = new String(bytes, UTF8);
+        }
+        return value;
+    }
+
+    private static byte[] utf8(final String value) {
+        if (value == null) {
+            return null;
+        }
+        final byte[] bytes = value.getBytes(UTF8);
+        if (bytes.length >= NULL_STRING) {
+            throw new IllegalArgumentException("Setting too long: " + bytes.length + " bytes");
+        }
+        return bytes;
+    }
+
+    private static int bodyLength(final byte[][] fields) {
+        int length = 0;
+        for (final byte[] field : fields) {
+            length += 2 + (field == null ? 0 : field.length);
+        }
+        return length;
+    }
+
+}
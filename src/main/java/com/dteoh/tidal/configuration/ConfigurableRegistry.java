@@ -0,0 +1,204 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.configuration;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.dteoh.tidal.configuration.models.Configurable;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * A thread safe registry of {@link Configurable} objects. The registry is an
+ * immutable snapshot that is replaced atomically on every change, so readers
+ * never lock and always see a consistent set of objects.
+ * 
+ * Every change, including a change to the settings of a registered object,
+ * increments the version of the registry. Comparing versions tells whether
+ * anything changed between two snapshots.
+ * 
+ * @author Douglas Teoh
+ */
+final class ConfigurableRegistry {
+
+    /**
+     * Listener for registry changes.
+     */
+    interface ChangeListener {
+
+        /**
+         * Invoked after the registry has changed, on the thread that changed
+         * it.
+         * 
+         * @param snapshot
+         *            The registry after the change.
+         */
+        void registryChanged(Snapshot snapshot);
+
+    }
+
+    /**
+     * An immutable view of the registry at one version.
+     */
+    static final class Snapshot {
+        private final ImmutableSet<Configurable> configurables;
+        private final long version;
+
+        Snapshot(final ImmutableSet<Configurable> configurables, final long version) {
+            this.configurables = configurables;
+            this.version = version;
+        }
+
+        /**
+         * Registered objects, in registration order.
+         */
+        Set<Configurable> getConfigurables() {
+            return configurables;
+        }
+
+        long getVersion() {
+            return version;
+        }
+    }
+
+    private final AtomicReference<Snapshot> current;
+    private final List<ChangeListener> listeners;
+
+    ConfigurableRegistry() {
+        current = new AtomicReference<Snapshot>(new Snapshot(ImmutableSet.<Configurable> of(), 0));
+        listeners = new CopyOnWriteArrayList<ChangeListener>();
+    }
+
+    /**
+     * Register an object.
+     * 
+     * @param configurable
+     *            The object to register.
+     * @return true if the object was registered, false if it is null or
+     *         already registered.
+     */
+    boolean add(final Configurable configurable) {
+        if (configurable == null) {
+            return false;
+        }
+
+        Snapshot before;
+        Snapshot after;
+        do {
+            before = current.get();
+            if (before.configurables.contains(configurable)) {
+                return false;
+            }
+            final ImmutableSet<Configurable> configurables = ImmutableSet.<Configurable> builder().addAll(
+                    before.configurables).add(configurable).build();
+            after = new Snapshot(configurables, before.version + 1);
+        } while (!current.compareAndSet(before, after));
+
+        fireChanged(after);
+        return true;
+    }
+
+    /**
+     * Unregister an object.
+     * 
+     * @param configurable
+     *            The object to unregister.
+     * @return true if the object was unregistered, false if it is null or not
+     *         registered.
+     */
+    boolean remove(final Configurable configurable) {
+        if (configurable == null) {
+            return false;
+        }
+
+        Snapshot before;
+        Snapshot after;
+        do {
+            before = current.get();
+            if (!before.configurables.contains(configurable)) {
+                return false;
+            }
+            final ImmutableSet.Builder<Configurable> builder = ImmutableSet.builder();
+            for (final Configurable c : before.configurables) {
+                if (!c.equals(configurable)) {
+                    builder.add(c);
+                }
+            }
+            after = new Snapshot(builder.build(), before.version + 1);
+        } while (!current.compareAndSet(before, after));
+
+        fireChanged(after);
+        return true;
+    }
+
+    /**
+     * Record that the settings of a registered object have changed.
+     * 
+     * @param configurable
+     *            The changed object.
+     * @return true if the object is registered, false otherwise.
+     */
+    boolean changed(final Configurable configurable) {
+        if (configurable == null) {
+            return false;
+        }
+
+        Snapshot before;
+        Snapshot after;
+        do {
+            before = current.get();
+            if (!before.configurables.contains(configurable)) {
+                return false;
+            }
+            after = new Snapshot(before.configurables, before.version + 1);
+        } while (!current.compareAndSet(before, after));
+
+        fireChanged(after);
+        return true;
+    }
+
+    /**
+     * Retrieve the current state of the registry.
+     */
+    Snapshot getSnapshot() {
+        return current.get();
+    }
+
+    /**
+     * Retrieve the current version of the registry.
+     */
+    long getVersion() {
+        return current.get().version;
+    }
+
+    void addChangeListener(final ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    void removeChangeListener(final ChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void fireChanged(final Snapshot snapshot) {
+        for (final ChangeListener listener : listeners) {
+            listener.registryChanged(snapshot);
+        }
+    }
+
+}
@@ -31,18 +31,40 @@ import com.dteoh.tidal.sources.email.models.Protocol;
 /**
  * This class contains all custom constructors for the various Droplets.
  * 
+ * Sensitive fields are either decrypted individually (the legacy format), or
+ * read as they are when the whole document is encrypted.
+ * 
  * @author Douglas Teoh
  */
 public final class ConfigurablesConstructor extends Constructor {
 
+    /** Decrypts sensitive fields, null if they are not encrypted. */
     private final StrongTextEncryptor decryptor;
 
+    /**
+     * Creates a constructor for documents with unencrypted fields.
+     */
+    public ConfigurablesConstructor() {
+        this(null);
+    }
+
+    /**
+     * Creates a constructor for documents with individually encrypted
+     * sensitive fields.
+     * 
+     * @param decryptor
+     *            Used to decrypt sensitive fields.
+     */
     public ConfigurablesConstructor(final StrongTextEncryptor decryptor) {
         super();
         this.decryptor = decryptor;
         yamlConstructors.put(new Tag("!email"), new ConstructEmailSettings());
     }
 
+    private String decrypt(final String value) {
+        return decryptor == null ? value : decryptor.decrypt(value);
+    }
+
     /**
      * Used to re-create an {@link EmailSettings} object.
      * 
@@ -81,14 +103,14 @@ public final class ConfigurablesConstructor extends Constructor {
             if (username == null) {
                 return null;
             } else {
-                username = decryptor.decrypt(username);
+                username = decrypt(username);
             }
 
             String password = (String) enc.get("pass");
             if (password == null) {
                 return null;
             } else {
-                password = decryptor.decrypt(password);
+                password = decrypt(password);
             }
 
             final EmailSettings settings = new EmailSettings(host, protocol,
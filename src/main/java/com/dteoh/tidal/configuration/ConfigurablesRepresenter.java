@@ -30,18 +30,39 @@ import com.dteoh.tidal.sources.email.models.EmailSettings;
 /**
  * This class contains all custom representers for the various Droplets.
  * 
+ * Sensitive fields are either encrypted individually (the legacy format), or
+ * written as they are when the whole document is encrypted afterwards.
+ * 
  * @author Douglas Teoh
  */
 public final class ConfigurablesRepresenter extends Representer {
 
+    /** Encrypts sensitive fields, null if they are not encrypted. */
     private final StrongTextEncryptor encryptor;
 
+    /**
+     * Creates a representer that does not encrypt fields.
+     */
+    public ConfigurablesRepresenter() {
+        this(null);
+    }
+
+    /**
+     * Creates a representer that encrypts sensitive fields individually.
+     * 
+     * @param encryptor
+     *            Used to encrypt sensitive fields.
+     */
     public ConfigurablesRepresenter(final StrongTextEncryptor encryptor) {
         super();
         this.encryptor = encryptor;
         representers.put(EmailSettings.class, new RepresentEmailSettings());
     }
 
+    private String encrypt(final String value) {
+        return encryptor == null ? value : encryptor.encrypt(value);
+    }
+
     /**
      * Used to serialize an {@link EmailSettings} object.
      * 
@@ -63,8 +84,8 @@ public final class ConfigurablesRepresenter extends Representer {
             enc.put("host", settings.getHost());
             enc.put("prot", settings.getProtocol() != null ? settings
                     .getProtocol().toString() : null);
-            enc.put("user", encryptor.encrypt(settings.getUsername()));
-            enc.put("pass", encryptor.encrypt(settings.getPassword()));
+            enc.put("user", encrypt(settings.getUsername()));
+            enc.put("pass", encrypt(settings.getPassword()));
             return representMapping(new Tag("!email"), enc, true);
         }
     }
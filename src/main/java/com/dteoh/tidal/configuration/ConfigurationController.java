@@ -18,15 +18,29 @@ package com.dteoh.tidal.configuration;
 
 import static com.dteoh.tidal.util.EDTUtils.outsideEDT;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.IOUtils;
 import org.jasypt.util.password.StrongPasswordEncryptor;
@@ -41,9 +55,7 @@ import com.dteoh.tidal.configuration.models.Configurable;
 import com.dteoh.tidal.configuration.models.Configuration;
 import com.dteoh.tidal.exceptions.UnsecuredException;
 import com.dteoh.tidal.guice.InjectLogger;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
 
 /**
  * This class is responsible for managing program configuration.
@@ -56,33 +68,68 @@ public final class ConfigurationController implements SaveConfigurable {
 
     /** Default file name for droplet settings */
     private static final String DROPLETSRC = "dropletsrc";
+    /** Backup of droplet settings migrated from the legacy format */
+    private static final String DROPLETSRC_BACKUP = "dropletsrc.bak";
+    /** Droplet settings that could not be saved over a replaced file */
+    private static final String DROPLETSRC_CONFLICT = "dropletsrc.conflict";
+    /** Encoding of settings documents */
+    private static final String ENCODING = "UTF-8";
+    /** System property selecting the droplet settings format. */
+    private static final String FORMAT_PROPERTY = "tidal.settings.format";
+    /** Value of {@link #FORMAT_PROPERTY} for saving settings as YAML. */
+    private static final String FORMAT_YAML = "yaml";
     /** Default file name for user settings */
     private static final String TIDALRC = "tidalrc";
     /** Default directory for Tidal user configuration settings */
     private static final String TIDAL_CONFIG_DIR = "/.tidal";
     /** Default property for retrieving user home directory */
     private static final String USER_HOME = "user.home";
+    /** How often the droplet settings file is checked for changes. */
+    private static final long WATCH_INTERVAL = TimeUnit.MILLISECONDS.convert(5, TimeUnit.SECONDS);
 
     @InjectLogger
     private Logger logger;
 
     /** Contains master configuration information */
     private Configuration config;
-    /** Symmetric key cryptography */
-    private final StrongTextEncryptor encryptor;
+    /** Per-field encryption of the legacy droplet settings format */
+    private volatile StrongTextEncryptor encryptor;
+    /** Whole document encryption of droplet settings, set when unlocked */
+    private volatile SettingsCipher cipher;
+    /** Droplet settings decoded while authorizing */
+    private volatile UnlockedSettings prefetched;
 
-    private final Set<Configurable> configurableInstances;
+    /** Droplets whose settings are saved. */
+    private final ConfigurableRegistry registry;
+    /** Saves droplet settings in the background, null until enabled. */
+    private volatile SettingsWriter settingsWriter;
+    /** Registry version last written to the droplet settings file. */
+    private volatile long savedVersion;
+    /** Watches for droplet settings replaced by other programs. */
+    private volatile ConfigurationWatcher watcher;
+    /**
+     * Key the configuration was unlocked with, needed to decrypt settings
+     * files sealed elsewhere with a different salt.
+     */
+    private volatile String unlockKey;
     /**
      * A state for determining if the user's configuration has been unlocked or
      * not
      */
-    private boolean configurationUnlocked;
+    private volatile boolean configurationUnlocked;
 
     public ConfigurationController() {
         outsideEDT();
 
         encryptor = new StrongTextEncryptor();
-        configurableInstances = Sets.newHashSet();
+        registry = new ConfigurableRegistry();
+        registry.addChangeListener(new ConfigurableRegistry.ChangeListener() {
+            @Override
+            public void registryChanged(final ConfigurableRegistry.Snapshot snapshot) {
+                requestSave();
+            }
+        });
+        savedVersion = -1;
 
         configurationUnlocked = false;
     }
@@ -174,14 +221,12 @@ public final class ConfigurationController implements SaveConfigurable {
         configFile.mkdirs();
         configFile = new File(configFile, TIDALRC);
 
-        Writer fw = null;
         try {
-            fw = new FileWriter(configFile);
-            saveMainSettings(fw);
+            final StringWriter writer = new StringWriter();
+            saveMainSettings(writer);
+            writeAtomically(configFile, writer.toString().getBytes(ENCODING));
         } catch (final IOException e) {
             logger.error("Cannot write program settings.", e);
-        } finally {
-            IOUtils.closeQuietly(fw);
         }
     }
 
@@ -208,12 +253,23 @@ public final class ConfigurationController implements SaveConfigurable {
 
     /**
      * Saves the user's droplet settings in the default location. Settings are
-     * only saved if the settings are unlocked by the user.
+     * only saved if the settings are unlocked by the user. While another
+     * program's replacement of the file is waiting to be reloaded, the
+     * settings are saved next to it, to {@value #DROPLETSRC_CONFLICT}.
      * 
      * @throws UnsecuredException
      *             if no authorization key is set.
      */
     public void saveDropletSettings() throws UnsecuredException {
+        saveDropletSettings(registry.getSnapshot());
+    }
+
+    /**
+     * Saves the given droplets' settings in the default location.
+     */
+    private void saveDropletSettings(final ConfigurableRegistry.Snapshot snapshot) throws UnsecuredException {
+        outsideEDT();
+
         if (!configurationUnlocked) {
             logger.error("Configuration has not been unlocked");
             return;
@@ -229,19 +285,275 @@ public final class ConfigurationController implements SaveConfigurable {
         configFile.mkdirs();
         configFile = new File(configFile, DROPLETSRC);
 
-        Writer fw = null;
         try {
-            fw = new FileWriter(configFile);
-            saveDropletSettings(fw);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            saveDropletSettings(out, snapshot);
+
+            final ConfigurationWatcher w = watcher;
+            if (w != null && !w.isKnown()) {
+                // Replaced by another program, the watcher reloads it once
+                // it is complete. Keep these settings next to it instead.
+                final File conflict = new File(configFile.getParentFile(), DROPLETSRC_CONFLICT);
+                writeAtomically(conflict, out.toByteArray());
+                logger.warn("Droplet settings were replaced by another program, saved to {} instead", conflict);
+                return;
+            }
+
+            writeAtomically(configFile, out.toByteArray());
+            savedVersion = snapshot.getVersion();
+
+            if (w != null) {
+                w.expect();
+            }
         } catch (final IOException e) {
             logger.error("Cannot save droplet settings.", e);
+        }
+    }
+
+    /**
+     * Replace the contents of a file, so that the file either has its old
+     * contents or the complete new contents even if the program is killed
+     * while writing. The data is written to a temporary file next to the
+     * target, synced to disk and then renamed over the target.
+     * 
+     * @param target
+     *            File to replace.
+     * @param data
+     *            New contents.
+     * @throws IOException
+     *             If the file cannot be replaced.
+     */
+    private static void writeAtomically(final File target, final byte[] data) throws IOException {
+        final File temp = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+        boolean replaced = false;
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            out.write(data);
+            out.flush();
+            out.getFD().sync();
+            out.close();
+            out = null;
+
+            replaced = temp.renameTo(target);
+            if (!replaced) {
+                // Renaming over an existing file fails on Windows.
+                target.delete();
+                replaced = temp.renameTo(target);
+            }
+            if (!replaced) {
+                throw new IOException("Cannot rename " + temp + " to " + target);
+            }
         } finally {
-            IOUtils.closeQuietly(fw);
+            IOUtils.closeQuietly(out);
+            if (!replaced) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Save droplet settings in the background whenever a droplet is added,
+     * removed or reconfigured. Changes are debounced, see
+     * {@link SettingsWriter}.
+     */
+    public void enableAutosave() {
+        synchronized (registry) {
+            if (settingsWriter != null) {
+                return;
+            }
+            settingsWriter = new SettingsWriter(new Runnable() {
+                @Override
+                public void run() {
+                    final ConfigurableRegistry.Snapshot snapshot = registry.getSnapshot();
+                    if (snapshot.getVersion() == savedVersion) {
+                        logger.debug("Droplet settings unchanged since version {}", savedVersion);
+                        return;
+                    }
+                    try {
+                        final long start = System.nanoTime();
+                        saveDropletSettings(snapshot);
+                        final long elapsed = System.nanoTime() - start;
+                        logger.debug("Droplet settings saved in {}ms", TimeUnit.NANOSECONDS.toMillis(elapsed));
+                    } catch (final UnsecuredException e) {
+                        logger.error("Cannot save droplet settings.", e);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Watch the droplet settings file for changes made by other programs, e.g.
+     * a provisioning tool copying in a new file. Only the droplet settings
+     * file is decoded when it changes; writes made by the controller itself
+     * are ignored.
+     * 
+     * @param listener
+     *            Receives the new settings whenever the file changes.
+     */
+    public void watchDropletSettings(final DropletSettingsListener listener) {
+        final String homeDirectory = System.getProperty(USER_HOME);
+        if (homeDirectory == null) {
+            logger.error("No home directory");
+            return;
+        }
+        final File configDir = new File(homeDirectory, TIDAL_CONFIG_DIR);
+        final File configFile = new File(configDir, DROPLETSRC);
+
+        synchronized (registry) {
+            if (watcher != null) {
+                return;
+            }
+            watcher = new ConfigurationWatcher(configFile, WATCH_INTERVAL, new Runnable() {
+                @Override
+                public void run() {
+                    reloadDropletSettings(configFile, listener);
+                }
+            });
+            watcher.start();
+        }
+    }
+
+    /**
+     * Decode a changed droplet settings file and hand the settings to the
+     * listener. Nothing is reported if the file cannot be decoded.
+     */
+    private void reloadDropletSettings(final File configFile, final DropletSettingsListener listener) {
+        if (!configurationUnlocked || !configFile.exists()) {
+            return;
         }
+
+        final List<Object> allSettings;
+        try {
+            final byte[] data = readFile(configFile);
+
+            SettingsCipher settingsCipher = cipher;
+            if (SettingsCipher.isEnvelope(data) && settingsCipher != null && !settingsCipher.matches(data)) {
+                // Sealed with the same password elsewhere, with another salt.
+                settingsCipher = SettingsCipher.forEnvelope(unlockKey, data);
+            }
+            allSettings = decodeDropletSettings(data, settingsCipher, encryptor);
+        } catch (final IOException e) {
+            logger.error("Cannot reload droplet settings.", e);
+            return;
+        } catch (final GeneralSecurityException e) {
+            logger.error("Cannot reload droplet settings.", e);
+            return;
+        } catch (final RuntimeException e) {
+            // e.g. legacy fields encrypted with a different password.
+            logger.error("Cannot reload droplet settings.", e);
+            return;
+        }
+
+        logger.info("Droplet settings changed, {} settings reloaded", allSettings.size());
+        listener.dropletSettingsChanged(allSettings);
     }
 
     /**
-     * Outputs all current Droplet settings to the given writer.
+     * Save droplet settings changes that have not been saved yet, waiting up
+     * to the given deadline for the save to complete.
+     * 
+     * @param timeout
+     *            Longest time to wait.
+     * @param unit
+     *            Unit of the timeout.
+     * @return true if all changes have been saved, false otherwise.
+     */
+    public boolean flushDropletSettings(final long timeout, final TimeUnit unit) {
+        final SettingsWriter writer = settingsWriter;
+        if (writer == null) {
+            return true;
+        }
+        return writer.flush(timeout, unit);
+    }
+
+    /**
+     * Request a background save of droplet settings, if enabled.
+     */
+    private void requestSave() {
+        final SettingsWriter writer = settingsWriter;
+        if (writer != null && configurationUnlocked) {
+            writer.requestSave();
+        }
+    }
+
+    /**
+     * Collect the settings of all droplets in a registry snapshot.
+     */
+    private static List<Object> collectSettings(final ConfigurableRegistry.Snapshot snapshot) {
+        final List<Object> allSettings = Lists.newLinkedList();
+        for (final Configurable instance : snapshot.getConfigurables()) {
+            allSettings.add(instance.getSettings());
+        }
+        return allSettings;
+    }
+
+    /**
+     * Outputs all current Droplet settings to the given stream, as a single
+     * encrypted and authenticated document.
+     * 
+     * @param out
+     *            Output stream.
+     * @throws UnsecuredException
+     *             If no authorization key is set, or the configuration has not
+     *             been unlocked.
+     * @throws IOException
+     *             If the settings cannot be written.
+     */
+    public void saveDropletSettings(final OutputStream out) throws UnsecuredException, IOException {
+        saveDropletSettings(out, registry.getSnapshot());
+    }
+
+    private void saveDropletSettings(final OutputStream out, final ConfigurableRegistry.Snapshot snapshot)
+            throws UnsecuredException, IOException {
+        outsideEDT();
+
+        if (config.getAuthKeyDigest() == null || config.getAuthKeyDigest().isEmpty()) {
+            throw new UnsecuredException("Authorisation key cannot be blank.");
+        }
+
+        final SettingsCipher settingsCipher = cipher;
+        if (settingsCipher == null) {
+            throw new UnsecuredException("Configuration has not been unlocked.");
+        }
+
+        final List<Object> allSettings = collectSettings(snapshot);
+        logger.debug("{} settings to serialize", allSettings.size());
+
+        out.write(seal(settingsCipher, allSettings));
+        out.flush();
+    }
+
+    /**
+     * Encode and encrypt droplet settings.
+     */
+    private byte[] seal(final SettingsCipher settingsCipher, final List<Object> allSettings) throws IOException {
+        // Binary by default, YAML if asked for.
+        final int contentType;
+        final byte[] plaintext;
+        if (FORMAT_YAML.equalsIgnoreCase(System.getProperty(FORMAT_PROPERTY))) {
+            final ByteArrayOutputStream yamlBytes = new ByteArrayOutputStream();
+            final Writer writer = new OutputStreamWriter(yamlBytes, ENCODING);
+            exportDropletSettings(allSettings, writer);
+            writer.flush();
+            contentType = SettingsCipher.CONTENT_YAML;
+            plaintext = yamlBytes.toByteArray();
+        } else {
+            contentType = SettingsCipher.CONTENT_BINARY;
+            plaintext = BinarySettingsCodec.encode(allSettings);
+        }
+
+        try {
+            return settingsCipher.seal(contentType, plaintext);
+        } catch (final GeneralSecurityException e) {
+            throw new IOException("Cannot encrypt droplet settings", e);
+        }
+    }
+
+    /**
+     * Outputs all current Droplet settings to the given writer, in the legacy
+     * format where sensitive fields are encrypted individually.
      * 
      * @param writer
      *            Output writer.
@@ -260,10 +572,7 @@ public final class ConfigurationController implements SaveConfigurable {
         final Yaml yaml = new Yaml(new Dumper(new ConfigurablesRepresenter(
                 encryptor), new DumperOptions()));
 
-        final List<Object> allSettings = Lists.newLinkedList();
-        for (final Configurable instance : configurableInstances) {
-            allSettings.add(instance.getSettings());
-        }
+        final List<Object> allSettings = collectSettings(registry.getSnapshot());
         logger.debug("{} settings to serialize", allSettings.size());
 
         yaml.dumpAll(allSettings.iterator(), writer);
@@ -275,33 +584,341 @@ public final class ConfigurationController implements SaveConfigurable {
      * @return settings if the file was loaded, empty iteration otherwise.
      */
     public Iterable<Object> loadDropletSettings() {
+        final List<Object> result = Lists.newLinkedList();
+        loadDropletSettings(new SettingsHandler() {
+            @Override
+            public void handle(final Object settings) {
+                result.add(settings);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Load droplet settings from the default droplets configuration file,
+     * handing each setting to the handler as soon as it has been decoded.
+     * Encrypted documents are authenticated as a whole before any setting is
+     * handled.
+     * 
+     * @param handler
+     *            Receives the droplet settings.
+     * @return the number of settings loaded.
+     */
+    public int loadDropletSettings(final SettingsHandler handler) {
         outsideEDT();
 
         final String homeDirectory = System.getProperty(USER_HOME);
         if (homeDirectory == null) {
             logger.error("No home directory");
-            return Lists.newLinkedList();
+            return 0;
         }
-        File configFile = new File(homeDirectory, TIDAL_CONFIG_DIR);
-        configFile = new File(configFile, DROPLETSRC);
+        final File configDir = new File(homeDirectory, TIDAL_CONFIG_DIR);
+        final File configFile = new File(configDir, DROPLETSRC);
 
-        Iterable<Object> result = Lists.newLinkedList();
-        Reader fr = null;
+        // Use the settings decrypted while authorizing, if there are any.
+        final UnlockedSettings unlocked = prefetched;
+        prefetched = null;
+
+        final List<Object> loaded = Lists.newLinkedList();
+        final SettingsHandler collector = new SettingsHandler() {
+            @Override
+            public void handle(final Object settings) {
+                loaded.add(settings);
+                handler.handle(settings);
+            }
+        };
+
+        final byte[] data;
         try {
-            fr = new FileReader(configFile);
-            result = loadDropletSettings(fr);
-            logger.debug("{} settings deserialized", Iterables.size(result));
+            if (unlocked != null && unlocked.cipher == cipher && unlocked.data != null) {
+                data = unlocked.data;
+                if (unlocked.error != null) {
+                    throw unlocked.error;
+                }
+                if (unlocked.plaintext != null) {
+                    parseDropletSettings(unlocked.contentType, unlocked.plaintext, collector);
+                } else {
+                    decodeDropletSettings(data, cipher, encryptor, collector);
+                }
+            } else {
+                data = readFile(configFile);
+                decodeDropletSettings(data, cipher, encryptor, collector);
+            }
         } catch (final FileNotFoundException e) {
             logger.error("Expecting file to exist.", e);
+            return loaded.size();
+        } catch (final IOException e) {
+            logger.error("Cannot load droplet settings.", e);
+            return loaded.size();
+        }
+        logger.debug("{} settings deserialized", loaded.size());
+
+        if (!SettingsCipher.isEnvelope(data)) {
+            migrateDropletSettings(configDir, data, loaded);
+        }
+
+        return loaded.size();
+    }
+
+    /**
+     * Load all droplet settings from the given stream. Both encrypted
+     * documents and the legacy format are accepted.
+     * 
+     * @param in
+     *            Input stream.
+     * @return droplet settings.
+     * @throws IOException
+     *             If the settings cannot be read, failed authentication or the
+     *             configuration has not been unlocked.
+     */
+    public Iterable<Object> loadDropletSettings(final InputStream in) throws IOException {
+        outsideEDT();
+
+        return decodeDropletSettings(IOUtils.toByteArray(in), cipher, encryptor);
+    }
+
+    /**
+     * Decode droplet settings in either format.
+     * 
+     * @param data
+     *            Encoded settings.
+     * @param settingsCipher
+     *            Key for encrypted documents, may be null.
+     * @param legacy
+     *            Key for the legacy format.
+     */
+    private List<Object> decodeDropletSettings(final byte[] data, final SettingsCipher settingsCipher,
+            final StrongTextEncryptor legacy) throws IOException {
+        final List<Object> allSettings = Lists.newLinkedList();
+        decodeDropletSettings(data, settingsCipher, legacy, new SettingsHandler() {
+            @Override
+            public void handle(final Object settings) {
+                allSettings.add(settings);
+            }
+        });
+        return allSettings;
+    }
+
+    /**
+     * Decode droplet settings in either format, handing each setting to the
+     * handler as soon as it has been decoded.
+     * 
+     * @param data
+     *            Encoded settings.
+     * @param settingsCipher
+     *            Key for encrypted documents, may be null.
+     * @param legacy
+     *            Key for the legacy format.
+     * @param handler
+     *            Receives the decoded settings.
+     */
+    private void decodeDropletSettings(final byte[] data, final SettingsCipher settingsCipher,
+            final StrongTextEncryptor legacy, final SettingsHandler handler) throws IOException {
+        if (!SettingsCipher.isEnvelope(data)) {
+            // Fields are decrypted one setting at a time, as the documents
+            // are read.
+            final Yaml yaml = new Yaml(new Loader(new ConfigurablesConstructor(legacy)));
+            for (final Object o : yaml.loadAll(new InputStreamReader(new ByteArrayInputStream(data)))) {
+                handler.handle(o);
+            }
+            return;
+        }
+
+        if (settingsCipher == null) {
+            throw new IOException("Configuration has not been unlocked.");
+        }
+
+        final int contentType;
+        final byte[] plaintext;
+        try {
+            contentType = SettingsCipher.getContentType(data);
+            plaintext = settingsCipher.open(data);
+        } catch (final GeneralSecurityException e) {
+            throw new IOException("Cannot decrypt droplet settings", e);
+        }
+
+        parseDropletSettings(contentType, plaintext, handler);
+    }
+
+    /**
+     * Parse the decrypted contents of an encrypted document.
+     * 
+     * @param contentType
+     *            Content type of the document.
+     * @param plaintext
+     *            Decrypted contents.
+     * @param handler
+     *            Receives the parsed settings.
+     */
+    private static void parseDropletSettings(final int contentType, final byte[] plaintext,
+            final SettingsHandler handler) throws IOException {
+        switch (contentType) {
+        case SettingsCipher.CONTENT_BINARY:
+            BinarySettingsCodec.decode(ByteBuffer.wrap(plaintext), handler);
+            break;
+        case SettingsCipher.CONTENT_YAML:
+            final Yaml yaml = new Yaml(new Loader(new ConfigurablesConstructor()));
+            for (final Object o : yaml.loadAll(new InputStreamReader(new ByteArrayInputStream(plaintext), ENCODING))) {
+                handler.handle(o);
+            }
+            break;
+        default:
+            throw new IOException("Unknown droplet settings content type " + contentType);
+        }
+    }
+
+    /**
+     * Export the current droplet settings as plain, unencrypted YAML, for
+     * editing by hand. The output contains passwords in the clear.
+     * 
+     * @param writer
+     *            Output writer.
+     * @throws UnsecuredException
+     *             If the configuration has not been unlocked.
+     */
+    public void exportDropletSettings(final Writer writer) throws UnsecuredException {
+        outsideEDT();
+
+        if (!configurationUnlocked) {
+            throw new UnsecuredException("Configuration has not been unlocked.");
+        }
+        exportDropletSettings(collectSettings(registry.getSnapshot()), writer);
+    }
+
+    private static void exportDropletSettings(final List<Object> allSettings, final Writer writer) {
+        final Yaml yaml = new Yaml(new Dumper(new ConfigurablesRepresenter(), new DumperOptions()));
+        yaml.dumpAll(allSettings.iterator(), writer);
+    }
+
+    /**
+     * Import droplet settings from plain, unencrypted YAML, as written by
+     * {@link #exportDropletSettings(Writer)}.
+     * 
+     * @param reader
+     *            Input reader.
+     * @return the droplet settings read.
+     */
+    public List<Object> importDropletSettings(final Reader reader) {
+        final Yaml yaml = new Yaml(new Loader(new ConfigurablesConstructor()));
+        final List<Object> copy = Lists.newLinkedList();
+        for (final Object o : yaml.loadAll(reader)) {
+            copy.add(o);
+        }
+        return copy;
+    }
+
+    /**
+     * Rewrite droplet settings loaded from the legacy format as an encrypted
+     * document. The legacy file is kept as a backup, which is written first so
+     * that the settings survive in one of the files whatever happens.
+     */
+    private void migrateDropletSettings(final File configDir, final byte[] legacy, final List<Object> allSettings) {
+        final SettingsCipher settingsCipher = cipher;
+        if (settingsCipher == null) {
+            return;
+        }
+
+        logger.info("Migrating {} droplet settings to version {}", allSettings.size(), SettingsCipher.VERSION);
+
+        final ConfigurableRegistry.Snapshot snapshot = registry.getSnapshot();
+        try {
+            writeAtomically(new File(configDir, DROPLETSRC_BACKUP), legacy);
+            writeAtomically(new File(configDir, DROPLETSRC), seal(settingsCipher, allSettings));
+            // Droplets may not have been registered yet, the file is only up to
+            // date if the registry holds the same settings.
+            if (collectSettings(snapshot).equals(allSettings)) {
+                savedVersion = snapshot.getVersion();
+            }
+
+            final ConfigurationWatcher w = watcher;
+            if (w != null) {
+                w.expect();
+            }
+        } catch (final IOException e) {
+            logger.error("Cannot migrate droplet settings.", e);
+        }
+    }
+
+    /**
+     * Read the entire contents of a file.
+     */
+    private static byte[] readFile(final File file) throws IOException {
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            final FileChannel channel = in.getChannel();
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large: " + file);
+            }
+
+            final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Unexpected end of file: " + file);
+                }
+            }
+            return buffer.array();
         } finally {
-            IOUtils.closeQuietly(fr);
+            IOUtils.closeQuietly(in);
         }
+    }
 
-        return result;
+    /**
+     * Derive the key used to encrypt droplet settings, and decrypt the droplet
+     * settings file with it. The salt of the existing droplet settings file is
+     * reused, so the file can be decrypted.
+     * 
+     * @param authKey
+     *            The user's password. It may not have been checked yet.
+     */
+    private UnlockedSettings unlock(final String authKey) throws GeneralSecurityException {
+        final long start = System.nanoTime();
+
+        byte[] data = null;
+        final String homeDirectory = System.getProperty(USER_HOME);
+        if (homeDirectory != null) {
+            File configFile = new File(homeDirectory, TIDAL_CONFIG_DIR);
+            configFile = new File(configFile, DROPLETSRC);
+            if (configFile.exists()) {
+                try {
+                    data = readFile(configFile);
+                } catch (final IOException e) {
+                    logger.error("Cannot read droplet settings.", e);
+                }
+            }
+        }
+
+        final SettingsCipher settingsCipher;
+        if (data != null && SettingsCipher.isEnvelope(data)) {
+            settingsCipher = SettingsCipher.forEnvelope(authKey, data);
+        } else {
+            settingsCipher = SettingsCipher.create(authKey);
+        }
+        final long derived = System.nanoTime();
+
+        // Authenticate and decrypt the whole document up front. The settings
+        // are parsed as they are loaded. Legacy files are decrypted one field
+        // at a time as they are loaded.
+        final UnlockedSettings unlocked = new UnlockedSettings(settingsCipher, data);
+        if (data != null && SettingsCipher.isEnvelope(data)) {
+            try {
+                unlocked.contentType = SettingsCipher.getContentType(data);
+                unlocked.plaintext = settingsCipher.open(data);
+            } catch (final GeneralSecurityException e) {
+                unlocked.error = new IOException("Cannot decrypt droplet settings", e);
+            }
+        }
+
+        logger.info("Settings key derived in {}ms, settings decrypted in {}ms",
+                TimeUnit.NANOSECONDS.toMillis(derived - start), TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+                        - derived));
+        return unlocked;
     }
 
     /**
-     * Load all droplet settings from the given file.
+     * Load all droplet settings in the legacy format, where sensitive fields
+     * are encrypted individually, from the given reader.
      * 
      * @param reader
      * @return droplet settings if the file was loaded, {@code null} otherwise.
@@ -336,13 +953,54 @@ public final class ConfigurationController implements SaveConfigurable {
     public boolean authorize(final String authKey) {
         outsideEDT();
 
+        // The key is only derived once, here. Derive it and decrypt the
+        // droplet settings while the password digest is being checked.
+        final StrongTextEncryptor legacy = createLegacyEncryptor(authKey);
+        final FutureTask<UnlockedSettings> unlocking = new FutureTask<UnlockedSettings>(
+                new Callable<UnlockedSettings>() {
+                    @Override
+                    public UnlockedSettings call() throws GeneralSecurityException {
+                        return unlock(authKey);
+                    }
+                });
+        final Thread unlocker = new Thread(unlocking, "Settings unlocker");
+        unlocker.setDaemon(true);
+        unlocker.start();
+
+        final long start = System.nanoTime();
         final StrongPasswordEncryptor passwordEncryptor = new StrongPasswordEncryptor();
-        if (passwordEncryptor.checkPassword(authKey, config.getAuthKeyDigest())) {
-            encryptor.setPassword(authKey);
-            configurationUnlocked = true;
-            return true;
+        final boolean passwordOK = passwordEncryptor.checkPassword(authKey, config.getAuthKeyDigest());
+        logger.info("Password checked in {}ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        if (!passwordOK) {
+            // Interrupting the unlocker stops the key derivation.
+            unlocking.cancel(true);
+            return false;
         }
-        return false;
+
+        final UnlockedSettings unlocked;
+        try {
+            unlocked = unlocking.get();
+        } catch (final ExecutionException e) {
+            logger.error("Cannot derive settings key.", e.getCause());
+            return false;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        cipher = unlocked.cipher;
+        encryptor = legacy;
+        unlockKey = authKey;
+        prefetched = unlocked;
+        configurationUnlocked = true;
+        return true;
+    }
+
+    private static StrongTextEncryptor createLegacyEncryptor(final String authKey) {
+        final StrongTextEncryptor legacy = new StrongTextEncryptor();
+        legacy.setPassword(authKey);
+        return legacy;
     }
 
     /**
@@ -361,10 +1019,20 @@ public final class ConfigurationController implements SaveConfigurable {
         }
 
         final StrongPasswordEncryptor passwordEncryptor = new StrongPasswordEncryptor();
+        final SettingsCipher newCipher;
+        try {
+            newCipher = SettingsCipher.create(newAuthKey);
+        } catch (final GeneralSecurityException e) {
+            throw new UnsecuredException("Cannot derive settings key.", e);
+        }
+
         config = new Configuration(
                 passwordEncryptor.encryptPassword(newAuthKey));
 
-        encryptor.setPassword(newAuthKey);
+        cipher = newCipher;
+        encryptor = createLegacyEncryptor(newAuthKey);
+        unlockKey = newAuthKey;
+        prefetched = null;
 
         configurationUnlocked = true;
     }
@@ -383,17 +1051,11 @@ public final class ConfigurationController implements SaveConfigurable {
     public boolean addConfigurable(final Configurable instance) {
         outsideEDT();
 
-        if (instance == null) {
-            return false;
-        }
-
-        if (configurableInstances.contains(instance)) {
+        if (!registry.add(instance)) {
             return false;
         }
 
         logger.debug("Added configurable");
-
-        configurableInstances.add(instance);
         return true;
     }
 
@@ -408,17 +1070,43 @@ public final class ConfigurationController implements SaveConfigurable {
     public boolean removeConfigurable(final Configurable instance) {
         outsideEDT();
 
-        if (instance == null) {
+        if (!registry.remove(instance)) {
             return false;
         }
 
-        if (!configurableInstances.contains(instance)) {
-            return false;
+        logger.debug("Removed configurable");
+        return true;
+    }
+
+    /**
+     * Notify the controller that the settings of a tracked Configurable object
+     * have changed.
+     * 
+     * @param instance
+     *            The changed object.
+     */
+    public void configurableChanged(final Configurable instance) {
+        if (registry.changed(instance)) {
+            logger.debug("Changed configurable");
         }
+    }
 
-        logger.debug("Removed configurable");
+    /**
+     * The settings key and the droplet settings decrypted with it.
+     */
+    private static final class UnlockedSettings {
+        private final SettingsCipher cipher;
+        /** Contents of the droplet settings file, null if there is none. */
+        private final byte[] data;
+        /** Content type of the decrypted document. */
+        private int contentType;
+        /** Decrypted document, null for legacy files. */
+        private byte[] plaintext;
+        private IOException error;
 
-        configurableInstances.remove(instance);
-        return true;
+        UnlockedSettings(final SettingsCipher cipher, final byte[] data) {
+            this.cipher = cipher;
+            this.data = data;
+        }
     }
 }
@@ -0,0 +1,168 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.configuration;
+
+import java.io.File;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a settings file for changes made by other programs, by polling its
+ * modification time and size. A change is only reported once the file has
+ * stayed the same for a whole poll interval, so that files still being copied
+ * into place are not read half written.
+ * 
+ * Changes made by Tidal itself are not reported, as long as
+ * {@link #expect()} is invoked after every write.
+ * 
+ * @author Douglas Teoh
+ */
+final class ConfigurationWatcher {
+
+    /** The watched file. */
+    private final File file;
+    /** Time between polls, in milliseconds. */
+    private final long interval;
+    /** Invoked on the watcher thread when the file has changed. */
+    private final Runnable onChange;
+
+    private ScheduledExecutorService executor;
+
+    /** State of the file as last seen by Tidal. */
+    private Stamp known;
+    /** State of the file at the previous poll. */
+    private Stamp previous;
+
+    /**
+     * Creates a new watcher. Call {@link #start()} to start watching.
+     * 
+     * @param file
+     *            File to watch.
+     * @param interval
+     *            Time between polls, in milliseconds.
+     * @param onChange
+     *            Invoked when the file has changed.
+     */
+    ConfigurationWatcher(final File file, final long interval, final Runnable onChange) {
+        this.file = file;
+        this.interval = interval;
+        this.onChange = onChange;
+        known = Stamp.of(file);
+        previous = known;
+    }
+
+    /**
+     * Start polling the file.
+     */
+    synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "Configuration watcher");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                poll();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop polling the file.
+     */
+    synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Record the current state of the file as known, so that a change made by
+     * Tidal itself is not reported.
+     */
+    synchronized void expect() {
+        known = Stamp.of(file);
+        previous = known;
+    }
+
+    /**
+     * Determine if the file is as Tidal last saw it, i.e. no other program has
+     * changed it since, whether or not the change has been reported yet.
+     */
+    synchronized boolean isKnown() {
+        return Stamp.of(file).equals(known);
+    }
+
+    private void poll() {
+        synchronized (this) {
+            final Stamp current = Stamp.of(file);
+            final boolean stable = current.equals(previous);
+            previous = current;
+
+            if (!stable || current.equals(known)) {
+                return;
+            }
+            known = current;
+        }
+
+        onChange.run();
+    }
+
+    /**
+     * Modification time and size of a file.
+     */
+    private static final class Stamp {
+        private final long modified;
+        private final long length;
+
+        private Stamp(final long modified, final long length) {
+            this.modified = modified;
+            this.length = length;
+        }
+
+        static Stamp of(final File file) {
+            // Both are 0 if the file does not exist.
+            return new Stamp(file.lastModified(), file.length());
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Stamp)) {
+                return false;
+            }
+            final Stamp other = (Stamp) obj;
+            return modified == other.modified && length == other.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (modified ^ (modified >>> 32)) * 31 + (int) length;
+        }
+    }
+
+}
@@ -0,0 +1,36 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.configuration;
+
+/**
+ * Listener for droplet settings files changed by other programs.
+ * 
+ * @author Douglas Teoh
+ * 
+ */
+public interface DropletSettingsListener {
+
+    /**
+     * Invoked when the droplet settings file has been replaced, with every
+     * setting in the new file. Invoked outside of the EDT.
+     * 
+     * @param allSettings
+     *            The new droplet settings.
+     */
+    void dropletSettingsChanged(Iterable<Object> allSettings);
+
+}
@@ -50,4 +50,13 @@ public interface SaveConfigurable {
      */
     boolean removeConfigurable(Configurable droplet);
 
+    /**
+     * Notify that the settings of a tracked Configurable object have changed,
+     * so that they can be persisted.
+     * 
+     * @param droplet
+     *            The changed object.
+     */
+    void configurableChanged(Configurable droplet);
+
 }
@@ -0,0 +1,357 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.configuration;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Authenticated encryption of whole settings documents.
+ * 
+ * A master key is derived from the user's password once, using PBKDF2 with a
+ * random salt. The derivation stops if the deriving thread is interrupted, so
+ * that it can be abandoned when the password turns out to be wrong. Separate
+ * encryption and authentication keys are expanded from the master key.
+ * Documents are encrypted with AES-128 in CBC mode and then authenticated with
+ * HMAC-SHA256 over the header, IV and ciphertext.
+ * 
+ * Sealed documents have the following layout:
+ * 
+ * <pre>
+ * magic "TDRC" | version (1) | content type (1) | iterations (4)
+ * | salt length (1) | salt | IV (16) | ciphertext length (4) | ciphertext
+ * | MAC (32)
+ * </pre>
+ * 
+ * The salt and iteration count are stored in the header, so that the key for
+ * an existing file can be derived again from the password alone. Iteration
+ * counts above {@link #MAX_ITERATIONS} are rejected, so that a crafted file
+ * cannot keep the deriving thread busy for hours.
+ * 
+ * Instances are immutable and thread safe.
+ * 
+ * @author Douglas Teoh
+ */
+final class SettingsCipher {
+
+    /** Current envelope version. */
+    static final int VERSION = 2;
+
+    /** Content type of YAML documents. */
+    static final int CONTENT_YAML = 1;
+
+    /** Content type of documents in the {@link BinarySettingsCodec} format. */
+    static final int CONTENT_BINARY = 2;
+
+    /** Default PBKDF2 iteration count for new keys. */
+    static final int DEFAULT_ITERATIONS = 100000;
+
+    /** Highest PBKDF2 iteration count accepted from a sealed document. */
+    static final int MAX_ITERATIONS = 10 * DEFAULT_ITERATIONS;
+
+    private static final byte[] MAGIC = { 'T', 'D', 'R', 'C' };
+    private static final int SALT_LENGTH = 16;
+    private static final int IV_LENGTH = 16;
+    private static final int MAC_LENGTH = 32;
+    private static final int MASTER_KEY_BITS = 128;
+
+    /** Pseudorandom function of PBKDF2. */
+    private static final String PRF = "HmacSHA1";
+    private static final String CIPHER = "AES/CBC/PKCS5Padding";
+    private static final String MAC = "HmacSHA256";
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final byte[] salt;
+    private final int iterations;
+    private final SecretKeySpec encryptionKey;
+    private final SecretKeySpec macKey;
+
+    private SettingsCipher(final char[] password, final byte[] salt, final int iterations)
+            throws GeneralSecurityException {
+        this.salt = salt.clone();
+        this.iterations = iterations;
+
+        final byte[] master = pbkdf2(password, salt, iterations, MASTER_KEY_BITS / 8);
+
+        // Expand independent keys for encryption and authentication.
+        final Mac expander = Mac.getInstance(MAC);
+        expander.init(new SecretKeySpec(master, MAC));
+        final byte[] encryption = Arrays.copyOf(expander.doFinal(new byte[] { 'e', 'n', 'c', 1 }), 16);
+        final byte[] authentication = expander.doFinal(new byte[] { 'm', 'a', 'c', 2 });
+        Arrays.fill(master, (byte) 0);
+
+        encryptionKey = new SecretKeySpec(encryption, "AES");
+        macKey = new SecretKeySpec(authentication, MAC);
+    }
+
+    /**
+     * Derive a key with PBKDF2 and HMAC-SHA1, as the
+     * {@code PBKDF2WithHmacSHA1} secret key factory does, but checking for
+     * interruption while iterating.
+     * 
+     * @param password
+     *            The password, encoded as UTF-8.
+     * @param salt
+     *            The salt.
+     * @param iterations
+     *            Iteration count.
+     * @param length
+     *            Key length, in bytes.
+     * @return the key.
+     * @throws GeneralSecurityException
+     *             if the password is empty or the thread was interrupted.
+     */
+    static byte[] pbkdf2(final char[] password, final byte[] salt, final int iterations, final int length)
+            throws GeneralSecurityException {
+        final ByteBuffer encoded = Charset.forName("UTF-8").encode(CharBuffer.wrap(password));
+        final byte[] passwordBytes = new byte[encoded.remaining()];
+        encoded.get(passwordBytes);
+        if (passwordBytes.length == 0) {
+            throw new InvalidKeyException("Empty password");
+        }
+
+        final Mac prf = Mac.getInstance(PRF);
+        prf.init(new SecretKeySpec(passwordBytes, PRF));
+        Arrays.fill(passwordBytes, (byte) 0);
+
+        final int hashLength = prf.getMacLength();
+        final byte[] key = new byte[length];
+        final byte[] u = new byte[hashLength];
+        final byte[] t = new byte[hashLength];
+        for (int block = 1, offset = 0; offset < length; block++, offset += hashLength) {
+            prf.update(salt);
+            prf.update(new byte[] { (byte) (block >>> 24), (byte) (block >>> 16), (byte) (block >>> 8),
+                    (byte) block });
+            prf.doFinal(u, 0);
+            System.arraycopy(u, 0, t, 0, hashLength);
+            for (int i = 1; i < iterations; i++) {
+                if ((i & 0x3FF) == 0 && Thread.currentThread().isInterrupted()) {
+                    throw new GeneralSecurityException("Key derivation interrupted");
+                }
+                prf.update(u);
+                prf.doFinal(u, 0);
+                for (int j = 0; j < hashLength; j++) {
+                    t[j] ^= u[j];
+                }
+            }
+            System.arraycopy(t, 0, key, offset, Math.min(hashLength, length - offset));
+        }
+        Arrays.fill(u, (byte) 0);
+        Arrays.fill(t, (byte) 0);
+        return key;
+    }
+
+    /**
+     * Derive a new key with a random salt.
+     * 
+     * @param password
+     *            The user's password.
+     */
+    static SettingsCipher create(final String password) throws GeneralSecurityException {
+        final byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        return new SettingsCipher(password.toCharArray(), salt, DEFAULT_ITERATIONS);
+    }
+
+    /**
+     * Derive the key for an existing sealed document.
+     * 
+     * @param password
+     *            The user's password.
+     * @param envelope
+     *            The sealed document, only the header is read.
+     * @throws GeneralSecurityException
+     *             if the document is not a valid sealed document.
+     */
+    static SettingsCipher forEnvelope(final String password, final byte[] envelope) throws GeneralSecurityException {
+        final Header header = Header.read(envelope);
+        return new SettingsCipher(password.toCharArray(), header.salt, header.iterations);
+    }
+
+    /**
+     * Test if the data looks like a sealed document.
+     * 
+     * @param data
+     *            Data to test.
+     */
+    static boolean isEnvelope(final byte[] data) {
+        if (data.length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Test if the given sealed document was sealed with the same key
+     * parameters as this cipher.
+     */
+    boolean matches(final byte[] envelope) {
+        try {
+            final Header header = Header.read(envelope);
+            return header.iterations == iterations && Arrays.equals(header.salt, salt);
+        } catch (final GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Encrypt and authenticate a document.
+     * 
+     * @param contentType
+     *            Type of the document content.
+     * @param plaintext
+     *            The document.
+     * @return the sealed document.
+     */
+    byte[] seal(final int contentType, final byte[] plaintext) throws GeneralSecurityException {
+        final byte[] iv = new byte[IV_LENGTH];
+        RANDOM.nextBytes(iv);
+
+        final Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(Cipher.ENCRYPT_MODE, encryptionKey, new IvParameterSpec(iv));
+        final byte[] ciphertext = cipher.doFinal(plaintext);
+
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(ciphertext.length + 128);
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(contentType);
+            out.writeInt(iterations);
+            out.writeByte(salt.length);
+            out.write(salt);
+            out.write(iv);
+            out.writeInt(ciphertext.length);
+            out.write(ciphertext);
+            out.flush();
+
+            final Mac mac = Mac.getInstance(MAC);
+            mac.init(macKey);
+            mac.update(bytes.toByteArray());
+            out.write(mac.doFinal());
+            out.flush();
+
+            return bytes.toByteArray();
+        } catch (final IOException e) {
+            // Cannot happen with in-memory streams.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Authenticate and decrypt a sealed document.
+     * 
+     * @param envelope
+     *            The sealed document.
+     * @return the document.
+     * @throws GeneralSecurityException
+     *             if the document is invalid, was tampered with, or was sealed
+     *             with a different key.
+     */
+    byte[] open(final byte[] envelope) throws GeneralSecurityException {
+        final Header header = Header.read(envelope);
+        if (!matches(envelope)) {
+            throw new GeneralSecurityException("Settings were sealed with a different key");
+        }
+
+        final int authenticated = header.ciphertextOffset + header.ciphertextLength;
+        final Mac mac = Mac.getInstance(MAC);
+        mac.init(macKey);
+        mac.update(envelope, 0, authenticated);
+        final byte[] expected = mac.doFinal();
+        final byte[] actual = Arrays.copyOfRange(envelope, authenticated, authenticated + MAC_LENGTH);
+        if (!MessageDigest.isEqual(expected, actual)) {
+            throw new GeneralSecurityException("Settings failed authentication");
+        }
+
+        final Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(Cipher.DECRYPT_MODE, encryptionKey, new IvParameterSpec(header.iv));
+        return cipher.doFinal(envelope, header.ciphertextOffset, header.ciphertextLength);
+    }
+
+    /**
+     * Retrieve the content type of a sealed document.
+     */
+    static int getContentType(final byte[] envelope) throws GeneralSecurityException {
+        return Header.read(envelope).contentType;
+    }
+
+    /** Parsed envelope header. */
+    private static final class Header {
+        private int contentType;
+        private int iterations;
+        private byte[] salt;
+        private byte[] iv;
+        private int ciphertextOffset;
+        private int ciphertextLength;
+
+        static Header read(final byte[] envelope) throws GeneralSecurityException {
+            if (!isEnvelope(envelope)) {
+                throw new GeneralSecurityException("Not a sealed settings document");
+            }
+
+            final Header header = new Header();
+            try {
+                final DataInputStream in = new DataInputStream(new ByteArrayInputStream(envelope));
+                in.skipBytes(MAGIC.length);
+                final int version = in.readUnsignedByte();
+                if (version != VERSION) {
+                    throw new GeneralSecurityException("Unsupported settings version " + version);
+                }
+                header.contentType = in.readUnsignedByte();
+                header.iterations = in.readInt();
+                header.salt = new byte[in.readUnsignedByte()];
+                in.readFully(header.salt);
+                header.iv = new byte[IV_LENGTH];
+                in.readFully(header.iv);
+                header.ciphertextLength = in.readInt();
+                header.ciphertextOffset = MAGIC.length + 1 + 1 + 4 + 1 + header.salt.length + IV_LENGTH + 4;
+            } catch (final IOException e) {
+                throw new GeneralSecurityException("Truncated settings document");
+            }
+
+            if (header.iterations <= 0 || header.iterations > MAX_ITERATIONS || header.ciphertextLength < 0
+                    || (long) header.ciphertextOffset + header.ciphertextLength + MAC_LENGTH > envelope.length) {
+                throw new GeneralSecurityException("Corrupt settings document");
+            }
+            return header;
+        }
+    }
+
+}
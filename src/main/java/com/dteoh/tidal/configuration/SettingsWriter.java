@@ -0,0 +1,150 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.configuration;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Writes droplet settings in the background. Changes are debounced: a save is
+ * only performed once no further changes have been requested for
+ * {@link #DEBOUNCE_DELAY} milliseconds, but a burst of changes never delays a
+ * save for longer than {@link #MAX_DELAY} milliseconds.
+ * 
+ * All saves happen on a single daemon thread, so saves never overlap.
+ * 
+ * @author Douglas Teoh
+ */
+final class SettingsWriter {
+
+    /** Quiet period after the last change before settings are saved. */
+    static final long DEBOUNCE_DELAY = TimeUnit.MILLISECONDS.convert(2, TimeUnit.SECONDS);
+    /** Longest a pending change may wait to be saved. */
+    static final long MAX_DELAY = TimeUnit.MILLISECONDS.convert(10, TimeUnit.SECONDS);
+
+    /** Performs the actual save. */
+    private final Runnable save;
+    /** Clears the pending save and saves. */
+    private final Runnable saveTask;
+
+    private final ScheduledExecutorService executor;
+
+    /** Pending save, null if there are no unsaved changes. */
+    private Future<?> pending;
+    /** When the oldest unsaved change was requested. */
+    private long firstRequest;
+
+    /**
+     * Creates a new settings writer.
+     * 
+     * @param save
+     *            Task saving the settings.
+     */
+    SettingsWriter(final Runnable save) {
+        this.save = save;
+        saveTask = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (SettingsWriter.this) {
+                    pending = null;
+                }
+                save.run();
+            }
+        };
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "Settings writer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Request that settings are saved. The save happens once changes stop
+     * arriving. Can be called from any thread.
+     */
+    synchronized void requestSave() {
+        final long now = System.currentTimeMillis();
+        if (pending == null) {
+            firstRequest = now;
+        } else if (!pending.cancel(false)) {
+            // Already saving, the changes may not have been picked up.
+            firstRequest = now;
+        }
+
+        final long delay = Math.max(0, Math.min(DEBOUNCE_DELAY, firstRequest + MAX_DELAY - now));
+        pending = executor.schedule(saveTask, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Determine if there are changes that have not been saved yet.
+     */
+    synchronized boolean isPending() {
+        return pending != null;
+    }
+
+    /**
+     * Save pending changes immediately and wait for the save, and any save
+     * already in progress, to complete.
+     * 
+     * @param timeout
+     *            Longest time to wait.
+     * @param unit
+     *            Unit of the timeout.
+     * @return true if there was nothing to save or the save completed within
+     *         the deadline, false otherwise.
+     */
+    boolean flush(final long timeout, final TimeUnit unit) {
+        final Future<?> flushed;
+        synchronized (this) {
+            if (pending == null) {
+                // A save may be running, saves run in order so waiting for an
+                // empty task waits for it.
+                flushed = executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                    }
+                });
+            } else if (pending.cancel(false)) {
+                pending = executor.submit(saveTask);
+                flushed = pending;
+            } else {
+                flushed = pending;
+            }
+        }
+
+        try {
+            flushed.get(timeout, unit);
+            return true;
+        } catch (final ExecutionException e) {
+            return false;
+        } catch (final TimeoutException e) {
+            return false;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+}
@@ -75,7 +75,7 @@ public class DropletsViewManager implements ViewManager, View {
             throw new NullPointerException();
         }
         dropletsPanel.add(view.getView(), "growx,pushx");
-        dropletsPanel.validate();
+        dropletsPanel.revalidate();
     }
 
     @Override
@@ -85,7 +85,7 @@ public class DropletsViewManager implements ViewManager, View {
             throw new NullPointerException();
         }
         dropletsPanel.remove(view.getView());
-        dropletsPanel.validate();
+        dropletsPanel.revalidate();
         dropletsPanel.repaint();
     }
 }
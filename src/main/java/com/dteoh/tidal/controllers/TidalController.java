@@ -19,12 +19,20 @@ package com.dteoh.tidal.controllers;
 import java.awt.CardLayout;
 import java.awt.Color;
 import java.awt.Image;
+import java.awt.event.ActionEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import javax.swing.AbstractAction;
 import javax.swing.BorderFactory;
+import javax.swing.JComponent;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
+import javax.swing.JRootPane;
 import javax.swing.JScrollPane;
 import javax.swing.ScrollPaneConstants;
 import javax.swing.SwingUtilities;
@@ -37,13 +45,22 @@ import org.jdesktop.application.ResourceMap;
 import org.slf4j.Logger;
 
 import com.dteoh.tidal.configuration.ConfigurationController;
-import com.dteoh.tidal.exceptions.DropletCreationException;
+import com.dteoh.tidal.configuration.DropletSettingsListener;
+import com.dteoh.tidal.configuration.SettingsHandler;
 import com.dteoh.tidal.exceptions.UnsecuredException;
 import com.dteoh.tidal.guice.InjectLogger;
+import com.dteoh.tidal.platform.PowerStateMonitor;
+import com.dteoh.tidal.platform.windows.events.PowerStateListener;
+import com.dteoh.tidal.sources.email.AbstractEmailDroplet;
 import com.dteoh.tidal.sources.email.EmailDropletsController;
 import com.dteoh.tidal.sources.email.models.EmailSettings;
+import com.dteoh.tidal.util.Async;
+import com.dteoh.tidal.util.AsyncCallback;
+import com.dteoh.tidal.util.ImageCache;
 import com.dteoh.tidal.views.AccessView;
 import com.dteoh.tidal.views.AccountsDialog;
+import com.dteoh.tidal.views.DiagnosticsDialog;
+import com.dteoh.tidal.views.DropletViews;
 import com.dteoh.tidal.views.events.AccessViewEvent;
 import com.dteoh.tidal.views.events.AccessViewListener;
 import com.dteoh.tidal.views.events.MenuBarViewEvent;
@@ -51,6 +68,7 @@ import com.dteoh.tidal.views.events.MenuBarViewListener;
 import com.dteoh.tidal.views.swing.DropShadowPanel;
 import com.dteoh.tidal.views.swing.TiledImagePanel;
 import com.dteoh.treasuremap.ResourceMaps;
+import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 
 import foxtrot.Task;
@@ -71,6 +89,12 @@ public class TidalController implements AccessViewListener, MenuBarViewListener
     /** Resource bundle. */
     private static final ResourceMap BUNDLE = new ResourceMaps(TidalController.class).build();
 
+    /** Longest time to wait for unsaved droplet settings when exiting. */
+    private static final long EXIT_SAVE_DEADLINE = TimeUnit.MILLISECONDS.convert(5, TimeUnit.SECONDS);
+
+    /** Longest time to spend saving settings before exiting regardless. */
+    private static final long EXIT_DEADLINE = TimeUnit.MILLISECONDS.convert(10, TimeUnit.SECONDS);
+
     /** Views */
     /** This is the main application frame. */
     private JFrame mainFrame;
@@ -84,6 +108,10 @@ public class TidalController implements AccessViewListener, MenuBarViewListener
     private final DropletsViewManager dropletsViewC;
     private final ConfigurationController configC;
     private final EmailDropletsController emailC;
+    private final TimelineController timelineC;
+
+    /** Notices when the system resumes from sleep or changes networks. */
+    private final PowerStateMonitor powerMonitor;
 
     /**
      * Creates a new TidalController.
@@ -96,20 +124,59 @@ public class TidalController implements AccessViewListener, MenuBarViewListener
      *            Controller responsible for handling the menu bar.
      * @param dropletsViewManager
      *            Controller responsible for handling the main application view.
+     * @param timelineController
+     *            Controller responsible for the timeline of all droplets.
      */
     @Inject
     private TidalController(final ConfigurationController configurationController,
             final EmailDropletsController emailDropletsController, final MenuBarController menuBarController,
-            final DropletsViewManager dropletsViewManager) {
+            final DropletsViewManager dropletsViewManager, final TimelineController timelineController) {
         configC = configurationController;
         emailC = emailDropletsController;
         menuBarC = menuBarController;
         dropletsViewC = dropletsViewManager;
+        timelineC = timelineController;
         menuBarC.addMenuBarViewListener(this);
 
+        powerMonitor = new PowerStateMonitor();
+        powerMonitor.addPowerStateListener(new PowerStateListener() {
+            @Override
+            public void suspend() {
+                emailC.pause();
+            }
+
+            @Override
+            public void resume() {
+                emailC.resume();
+            }
+        });
+
+        preloadResources();
         initView();
     }
 
+    /**
+     * Decode the images used by the application views on a background thread,
+     * so that they are ready in the image cache by the time the views are
+     * created on the EDT.
+     */
+    private void preloadResources() {
+        final Thread preloader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ImageCache.getImage(BUNDLE, "background.image");
+                    DropletViews.preloadResources();
+                } catch (final RuntimeException e) {
+                    logger.warn("Error preloading resources", e);
+                }
+            }
+        }, "Resource preloader");
+        preloader.setDaemon(true);
+        preloader.setPriority(Thread.MIN_PRIORITY);
+        preloader.start();
+    }
+
     /**
      * Initialize the main application view.
      */
@@ -130,6 +197,17 @@ public class TidalController implements AccessViewListener, MenuBarViewListener
                 mainFrame.setMinimumSize(BUNDLE.getDimension("mainFrame.minimumsize"));
                 mainFrame.setLocationRelativeTo(null);
 
+                // Hidden shortcut to the diagnostics dialog.
+                final JRootPane rootPane = mainFrame.getRootPane();
+                rootPane.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(
+                        BUNDLE.getKeyStroke("diagnostics.keystroke"), "showDiagnostics");
+                rootPane.getActionMap().put("showDiagnostics", new AbstractAction() {
+                    @Override
+                    public void actionPerformed(final ActionEvent e) {
+                        new DiagnosticsDialog(mainFrame).setVisible(true);
+                    }
+                });
+
                 mainFramePanel = new JPanel(new CardLayout());
 
                 mainFrame.add(mainFramePanel);
@@ -144,7 +222,7 @@ public class TidalController implements AccessViewListener, MenuBarViewListener
                     backgroundImage = (Image) Worker.post(new Task() {
                         @Override
                         public Object run() throws Exception {
-                            return BUNDLE.getImage("background.image");
+                            return ImageCache.getImage(BUNDLE, "background.image");
                         }
                     });
                 } catch (final Exception e) {
@@ -192,6 +270,7 @@ public class TidalController implements AccessViewListener, MenuBarViewListener
                 menuBarPanel.add(menuBarC.getView(), "growx");
                 appPanel.add(menuBarPanel, "pushx, growx, north");
 
+                appPanel.add(timelineC.getView(), "pushx, growx, north");
                 appPanel.add(dropletsViewC.getView(), "pushx, growx, north");
 
                 mainFramePanel.add(appPanel, "MAIN_VIEW");
@@ -219,19 +298,50 @@ public class TidalController implements AccessViewListener, MenuBarViewListener
      * Application exit handler.
      */
     private void exitHandler() {
-        try {
-            Worker.post(new Task() {
-                @Override
-                public Object run() throws Exception {
-                    configC.saveMainSettings();
-                    configC.saveDropletSettings();
-                    return null;
+        // Saving may take a while, so get out of the user's way first.
+        mainFrame.setVisible(false);
+
+        Async.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                configC.saveMainSettings();
+                // Droplet settings are saved as they change, only
+                // changes still waiting to be saved are written here.
+                if (!configC.flushDropletSettings(EXIT_SAVE_DEADLINE, TimeUnit.MILLISECONDS)) {
+                    logger.error("Droplet settings not saved within {}ms", EXIT_SAVE_DEADLINE);
                 }
-            });
-        } catch (final Exception e) {
-            logger.error("Error saving application settings", e);
-        }
-        System.exit(0);
+                return null;
+            }
+        }).timeout(EXIT_DEADLINE, TimeUnit.MILLISECONDS).onEDT(new AsyncCallback<Void>() {
+            @Override
+            public void succeeded(final Void result) {
+                System.exit(0);
+            }
+
+            @Override
+            public void failed(final Throwable cause) {
+                logger.error("Error saving application settings", cause);
+                System.exit(0);
+            }
+        });
+    }
+
+    /**
+     * Pick up droplet settings files replaced while Tidal is running.
+     */
+    private void watchDropletSettings() {
+        configC.watchDropletSettings(new DropletSettingsListener() {
+            @Override
+            public void dropletSettingsChanged(final Iterable<Object> allSettings) {
+                final List<EmailSettings> emailSettings = Lists.newArrayList();
+                for (final Object settings : allSettings) {
+                    if (settings instanceof EmailSettings) {
+                        emailSettings.add((EmailSettings) settings);
+                    }
+                }
+                emailC.synchronize(emailSettings);
+            }
+        });
     }
 
     /**
@@ -258,7 +368,9 @@ public class TidalController implements AccessViewListener, MenuBarViewListener
         new SwingWorker<Boolean, Void>() {
             @Override
             protected Boolean doInBackground() {
+                final long start = System.nanoTime();
                 boolean passwordOK = configC.authorize(evt.getPassword());
+                final long authorized = System.nanoTime();
 
                 if (!passwordOK) {
                     return false;
@@ -266,27 +378,39 @@ public class TidalController implements AccessViewListener, MenuBarViewListener
 
                 logger.debug("Login OK");
 
-                final Iterable<Object> dropletSettings = configC.loadDropletSettings();
-
-                for (final Object settings : dropletSettings) {
-                    logger.debug("Processing a user setting");
-
-                    if (settings instanceof EmailSettings) {
-                        logger.debug("Setting is email setting");
-
-                        EmailSettings emailSettings = (EmailSettings) settings;
-                        try {
-                            emailC.addEmailDroplet(emailSettings);
-                            logger.debug("Registered email droplet");
-                        } catch (final DropletCreationException e) {
-                            logger.error("Cannot create droplet", e);
+                // Each droplet is created, displayed and starts connecting as
+                // soon as its settings have been decoded.
+                final List<Future<AbstractEmailDroplet>> creations = Lists.newArrayList();
+                configC.loadDropletSettings(new SettingsHandler() {
+                    @Override
+                    public void handle(final Object settings) {
+                        logger.debug("Processing a user setting");
+
+                        if (settings instanceof EmailSettings) {
+                            logger.debug("Setting is email setting");
+                            if (creations.isEmpty()) {
+                                logger.info("First setting decoded after {}ms", TimeUnit.NANOSECONDS
+                                        .toMillis(System.nanoTime() - authorized));
+                            }
+                            creations.add(emailC.submitEmailDroplet((EmailSettings) settings));
+                        } else if (settings != null) {
+                            logger.debug("Unknown setting: {}", settings.getClass());
                         }
-                    } else {
-                        logger.debug("Unknown setting: {}", settings.getClass());
                     }
-                }
+                });
+                final long loaded = System.nanoTime();
+
+                final int created = emailC.awaitEmailDroplets(creations);
+                emailC.scheduleAfterWarmUp();
+                configC.enableAutosave();
+                watchDropletSettings();
+                powerMonitor.start();
+                final long done = System.nanoTime();
 
-                emailC.schedule();
+                logger.info("Startup: authorize {}ms, load settings {}ms, create {} droplets {}ms", new Object[] {
+                        TimeUnit.NANOSECONDS.toMillis(authorized - start),
+                        TimeUnit.NANOSECONDS.toMillis(loaded - authorized), created,
+                        TimeUnit.NANOSECONDS.toMillis(done - authorized) });
 
                 return true;
             }
@@ -328,6 +452,12 @@ public class TidalController implements AccessViewListener, MenuBarViewListener
                 boolean passwordOK = false;
                 try {
                     configC.changeAuthorizationKey(evt.getPassword());
+                    // Droplet settings can only be read with the new key,
+                    // so save it right away.
+                    configC.saveMainSettings();
+                    configC.enableAutosave();
+                    watchDropletSettings();
+                    powerMonitor.start();
                     passwordOK = true;
                 } catch (final UnsecuredException e) {
                     logger.error("Setup password error", e);
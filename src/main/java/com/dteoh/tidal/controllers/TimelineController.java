@@ -0,0 +1,117 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.controllers;
+
+import static com.dteoh.tidal.util.EDTUtils.inEDT;
+
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+
+import com.dteoh.tidal.id.ID;
+import com.dteoh.tidal.sources.DropletModelListener;
+import com.dteoh.tidal.util.EDTUtils;
+import com.dteoh.tidal.views.TimelineView;
+import com.dteoh.tidal.views.View;
+import com.dteoh.tidal.views.models.DropletModel;
+import com.dteoh.tidal.views.models.TimelineModel;
+
+/**
+ * Keeps the timeline of the ripples of all droplets up to date. Droplet models
+ * are merged into the timeline as the droplets are updated, and the timeline
+ * view is refreshed at most once per EDT event, however many droplets were
+ * updated in the meantime.
+ * 
+ * @author Douglas Teoh
+ */
+public final class TimelineController implements DropletModelListener, View {
+
+    /** The timeline. Guarded by this. */
+    private TimelineModel timeline = TimelineModel.EMPTY;
+
+    /** Whether a refresh of the view is queued on the EDT. Guarded by this. */
+    private boolean refreshQueued;
+
+    /** Shows the timeline. Created on the EDT. */
+    private TimelineView view;
+
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            final TimelineModel current;
+            synchronized (TimelineController.this) {
+                current = timeline;
+                refreshQueued = false;
+            }
+            view.setTimelineModel(current);
+        }
+    };
+
+    /**
+     * Creates a new timeline controller.
+     * 
+     * @return The created controller.
+     */
+    public static TimelineController create() {
+        return new TimelineController();
+    }
+
+    private TimelineController() {
+        EDTUtils.runOnEDT(new Runnable() {
+            @Override
+            public void run() {
+                view = TimelineView.create();
+            }
+        });
+    }
+
+    @Override
+    public synchronized void dropletModelChanged(final DropletModel model, final boolean replace) {
+        timeline = replace ? timeline.withDropletModel(model) : timeline.mergeDropletModel(model);
+        queueRefresh();
+    }
+
+    @Override
+    public synchronized void dropletRemoved(final ID dropletID) {
+        timeline = timeline.withoutDroplet(dropletID);
+        queueRefresh();
+    }
+
+    /**
+     * Retrieve the current timeline.
+     */
+    public synchronized TimelineModel getTimeline() {
+        return timeline;
+    }
+
+    @Override
+    public JComponent getView() {
+        inEDT();
+        return view;
+    }
+
+    /**
+     * Queue a refresh of the view, unless one is queued already. Must hold
+     * the lock on this.
+     */
+    private void queueRefresh() {
+        if (!refreshQueued) {
+            refreshQueued = true;
+            SwingUtilities.invokeLater(refresh);
+        }
+    }
+
+}
@@ -0,0 +1,270 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.diagnostics;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.dteoh.tidal.util.JSONUtils;
+
+/**
+ * Measurements of the updates of one droplet: how long each stage of an update
+ * takes, how much is fetched and how often it fails.
+ * 
+ * Stages are timed by taking {@link System#nanoTime()} when the stage starts
+ * and passing it to {@link #record(Stage, long)} when it ends.
+ * 
+ * This class is thread safe.
+ * 
+ * @author Douglas Teoh
+ */
+public final class DropletMetrics implements DropletMetricsMBean {
+
+    /**
+     * Stages of a droplet update.
+     */
+    public enum Stage {
+        /** Connecting to the server and opening the mailbox. */
+        CONNECT,
+        /** Searching for unread messages. */
+        SEARCH,
+        /** Fetching the headers and content of a message. */
+        FETCH,
+        /** Turning the content of a message into the text of a ripple. */
+        PARSE,
+        /** Handing the results of an update over to the view. */
+        HANDOFF
+    }
+
+    /** Number of samples kept for each stage. */
+    private static final int WINDOW = 1000;
+
+    private final Map<Stage, LatencyHistogram> timers = new EnumMap<Stage, LatencyHistogram>(Stage.class);
+    private final AtomicLong bytesFetched = new AtomicLong();
+    private final AtomicLong messagesFetched = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private volatile int backlog;
+    private volatile String droplet;
+
+    /**
+     * @param droplet
+     *            Name of the droplet.
+     */
+    public DropletMetrics(final String droplet) {
+        this.droplet = droplet;
+        for (final Stage stage : Stage.values()) {
+            timers.put(stage, new LatencyHistogram(WINDOW));
+        }
+    }
+
+    /**
+     * Record the time taken by a stage.
+     * 
+     * @param stage
+     *            The stage.
+     * @param startNanos
+     *            Value of {@link System#nanoTime()} when the stage started.
+     */
+    public void record(final Stage stage, final long startNanos) {
+        timers.get(stage).record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Record that a message was fetched.
+     * 
+     * @param bytes
+     *            Size of the message, ignored if negative.
+     */
+    public void messageFetched(final int bytes) {
+        messagesFetched.incrementAndGet();
+        if (bytes > 0) {
+            bytesFetched.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * Record a failed update or fetch.
+     */
+    public void error() {
+        errors.incrementAndGet();
+    }
+
+    /**
+     * Set the number of messages still to be fetched.
+     */
+    public void setBacklog(final int backlog) {
+        this.backlog = backlog;
+    }
+
+    /**
+     * Set the name of the droplet, when its settings have changed.
+     */
+    public void setDroplet(final String droplet) {
+        this.droplet = droplet;
+    }
+
+    /**
+     * @return the times taken by a stage.
+     */
+    public LatencyHistogram getTimer(final Stage stage) {
+        return timers.get(stage);
+    }
+
+    @Override
+    public String getDroplet() {
+        return droplet;
+    }
+
+    @Override
+    public long getConnectCount() {
+        return count(Stage.CONNECT);
+    }
+
+    @Override
+    public double getConnectMedianMillis() {
+        return percentile(Stage.CONNECT, 50);
+    }
+
+    @Override
+    public double getConnect99thPercentileMillis() {
+        return percentile(Stage.CONNECT, 99);
+    }
+
+    @Override
+    public long getSearchCount() {
+        return count(Stage.SEARCH);
+    }
+
+    @Override
+    public double getSearchMedianMillis() {
+        return percentile(Stage.SEARCH, 50);
+    }
+
+    @Override
+    public double getSearch99thPercentileMillis() {
+        return percentile(Stage.SEARCH, 99);
+    }
+
+    @Override
+    public long getFetchCount() {
+        return count(Stage.FETCH);
+    }
+
+    @Override
+    public double getFetchMedianMillis() {
+        return percentile(Stage.FETCH, 50);
+    }
+
+    @Override
+    public double getFetch99thPercentileMillis() {
+        return percentile(Stage.FETCH, 99);
+    }
+
+    @Override
+    public long getParseCount() {
+        return count(Stage.PARSE);
+    }
+
+    @Override
+    public double getParseMedianMillis() {
+        return percentile(Stage.PARSE, 50);
+    }
+
+    @Override
+    public double getParse99thPercentileMillis() {
+        return percentile(Stage.PARSE, 99);
+    }
+
+    @Override
+    public long getHandoffCount() {
+        return count(Stage.HANDOFF);
+    }
+
+    @Override
+    public double getHandoffMedianMillis() {
+        return percentile(Stage.HANDOFF, 50);
+    }
+
+    @Override
+    public double getHandoff99thPercentileMillis() {
+        return percentile(Stage.HANDOFF, 99);
+    }
+
+    @Override
+    public long getBytesFetched() {
+        return bytesFetched.get();
+    }
+
+    @Override
+    public long getMessagesFetched() {
+        return messagesFetched.get();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.get();
+    }
+
+    @Override
+    public int getBacklog() {
+        return backlog;
+    }
+
+    @Override
+    public void reset() {
+        for (final LatencyHistogram timer : timers.values()) {
+            timer.reset();
+        }
+        bytesFetched.set(0);
+        messagesFetched.set(0);
+        errors.set(0);
+    }
+
+    /**
+     * Formats the metrics as a single line JSON object.
+     * 
+     * @param time
+     *            Time of the measurement, in ms since the epoch.
+     */
+    public String toJson(final long time) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("{\"time\":").append(time);
+        sb.append(",\"droplet\":").append(JSONUtils.quote(droplet));
+        for (final Stage stage : Stage.values()) {
+            sb.append(",\"").append(stage.name().toLowerCase(Locale.US)).append("\":{\"count\":").append(
+                    count(stage));
+            sb.append(String.format(Locale.US, ",\"p50\":%.3f,\"p99\":%.3f}", percentile(stage, 50), percentile(
+                    stage, 99)));
+        }
+        sb.append(",\"bytes\":").append(getBytesFetched());
+        sb.append(",\"messages\":").append(getMessagesFetched());
+        sb.append(",\"errors\":").append(getErrors());
+        sb.append(",\"backlog\":").append(getBacklog());
+        return sb.append('}').toString();
+    }
+
+    private long count(final Stage stage) {
+        return timers.get(stage).getTotalCount();
+    }
+
+    private double percentile(final Stage stage, final double percentile) {
+        return timers.get(stage).getPercentile(percentile) / 1000000.0;
+    }
+
+}
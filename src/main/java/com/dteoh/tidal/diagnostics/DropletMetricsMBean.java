@@ -0,0 +1,82 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.diagnostics;
+
+/**
+ * Management interface of {@link DropletMetrics}. Times are in milliseconds,
+ * percentiles are over the most recent samples.
+ * 
+ * @author Douglas Teoh
+ */
+public interface DropletMetricsMBean {
+
+    /**
+     * Name of the droplet, usually its user name.
+     */
+    String getDroplet();
+
+    long getConnectCount();
+
+    double getConnectMedianMillis();
+
+    double getConnect99thPercentileMillis();
+
+    long getSearchCount();
+
+    double getSearchMedianMillis();
+
+    double getSearch99thPercentileMillis();
+
+    long getFetchCount();
+
+    double getFetchMedianMillis();
+
+    double getFetch99thPercentileMillis();
+
+    long getParseCount();
+
+    double getParseMedianMillis();
+
+    double getParse99thPercentileMillis();
+
+    long getHandoffCount();
+
+    double getHandoffMedianMillis();
+
+    double getHandoff99thPercentileMillis();
+
+    /**
+     * Size of the messages fetched, in bytes.
+     */
+    long getBytesFetched();
+
+    long getMessagesFetched();
+
+    long getErrors();
+
+    /**
+     * Number of messages found by the update in progress that are still to be
+     * fetched.
+     */
+    int getBacklog();
+
+    /**
+     * Forget all measurements.
+     */
+    void reset();
+
+}
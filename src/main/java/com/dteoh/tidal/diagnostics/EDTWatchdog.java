@@ -0,0 +1,391 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.diagnostics;
+
+import java.awt.AWTEvent;
+import java.awt.Component;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dteoh.tidal.util.EDTUtils;
+import com.dteoh.tidal.util.EDTUtils.EDTCheckListener;
+import com.google.common.collect.Lists;
+
+/**
+ * Watches the event dispatch thread for stalls.
+ * 
+ * The watchdog replaces the system event queue with one that times every event
+ * dispatch, and keeps rolling histograms of dispatch latencies and of the time
+ * heartbeat events wait in the queue. A heartbeat that is not processed within
+ * the stall threshold means the EDT is stuck: the EDT stack is captured and a
+ * report is written to the stall log once the EDT recovers. Reports include
+ * the event being dispatched and the first component that passed an
+ * {@link EDTUtils#inEDT()} check during that dispatch.
+ * 
+ * Heartbeats are processed by nested event pumps (e.g. foxtrot's
+ * {@code Worker.post}), so waiting on a worker is not reported as a stall.
+ * 
+ * @author Douglas Teoh
+ */
+public final class EDTWatchdog {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EDTWatchdog.class);
+
+    /** System property to disable the watchdog. */
+    public static final String ENABLED_PROPERTY = "tidal.edt.watchdog";
+
+    /** System property for the stall threshold, in ms. */
+    public static final String THRESHOLD_PROPERTY = "tidal.edt.stallThreshold";
+
+    private static final long DEFAULT_THRESHOLD = 500;
+
+    /** Time between heartbeats, in ms. */
+    private static final long HEARTBEAT_INTERVAL = 250;
+
+    /** Number of samples kept by the histograms. */
+    private static final int HISTOGRAM_WINDOW = 10000;
+
+    /** Number of stall reports kept in memory. */
+    private static final int MAX_REPORTS = 20;
+
+    /** Stall log file name, in the Tidal configuration directory. */
+    private static final String STALL_LOG = ".tidal/edt-stalls.log";
+
+    /**
+     * Size at which the stall log is rolled over to a single older log, in
+     * bytes, so that frequent stalls cannot fill the disk.
+     */
+    private static final long MAX_LOG_SIZE = 1 << 20;
+
+    /** The installed watchdog. */
+    private static EDTWatchdog instance;
+
+    /** Latencies of event dispatches. */
+    private final LatencyHistogram dispatchLatency = new LatencyHistogram(HISTOGRAM_WINDOW);
+
+    /** Time between posting a heartbeat and its dispatch. */
+    private final LatencyHistogram heartbeatLatency = new LatencyHistogram(HISTOGRAM_WINDOW);
+
+    private final long thresholdNanos;
+    private final File logFile;
+
+    /** Most recent stall reports, newest first. Guarded by itself. */
+    private final LinkedList<String> reports = Lists.newLinkedList();
+
+    /** Number of stalls detected. */
+    private volatile int stallCount;
+
+    /** State of the innermost dispatch, written on the EDT. */
+    private volatile Thread edt;
+    private volatile AWTEvent currentEvent;
+    private volatile String activeCaller;
+
+    /** Last heartbeat acknowledged by the EDT. Guarded by this. */
+    private long acknowledged;
+
+    /**
+     * Install the watchdog, unless disabled through the
+     * {@value #ENABLED_PROPERTY} system property. Stalls are logged to
+     * {@code ~/.tidal/edt-stalls.log}, which is rolled over to
+     * {@code edt-stalls.log.1} when it reaches 1MB.
+     * 
+     * @return the installed watchdog, or null if disabled.
+     */
+    public static synchronized EDTWatchdog install() {
+        if (!Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"))) {
+            return null;
+        }
+        if (instance == null) {
+            final long threshold = Long.getLong(THRESHOLD_PROPERTY, DEFAULT_THRESHOLD);
+            instance = new EDTWatchdog(threshold, new File(System.getProperty("user.home"), STALL_LOG));
+            instance.start();
+        }
+        return instance;
+    }
+
+    /**
+     * @return the installed watchdog, or null if it is not installed.
+     */
+    public static synchronized EDTWatchdog getInstance() {
+        return instance;
+    }
+
+    private EDTWatchdog(final long thresholdMillis, final File logFile) {
+        thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.logFile = logFile;
+    }
+
+    private void start() {
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(new MonitoredEventQueue());
+
+        EDTUtils.setCheckListener(new EDTCheckListener() {
+            @Override
+            public void edtChecked() {
+                recordCaller();
+            }
+        });
+
+        final Thread watcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "EDT watchdog");
+        watcher.setDaemon(true);
+        watcher.start();
+
+        LOGGER.info("EDT watchdog installed, stall threshold {}ms", TimeUnit.NANOSECONDS.toMillis(thresholdNanos));
+    }
+
+    /**
+     * @return latencies of event dispatches.
+     */
+    public LatencyHistogram getDispatchLatency() {
+        return dispatchLatency;
+    }
+
+    /**
+     * @return time heartbeat events spent waiting to be dispatched.
+     */
+    public LatencyHistogram getHeartbeatLatency() {
+        return heartbeatLatency;
+    }
+
+    /**
+     * @return number of stalls detected.
+     */
+    public int getStallCount() {
+        return stallCount;
+    }
+
+    /**
+     * @return most recent stall reports, newest first.
+     */
+    public List<String> getReports() {
+        synchronized (reports) {
+            return Lists.newArrayList(reports);
+        }
+    }
+
+    /**
+     * @return the file stall reports are written to.
+     */
+    public File getLogFile() {
+        return logFile;
+    }
+
+    /**
+     * Remember the first component that passed an EDT check in the current
+     * dispatch. The stack is only walked once per dispatch to keep the check
+     * cheap; where a stalled dispatch got to is in the EDT stack captured by
+     * the watchdog thread.
+     */
+    private void recordCaller() {
+        if (activeCaller != null) {
+            return;
+        }
+
+        for (final StackTraceElement frame : new Throwable().getStackTrace()) {
+            final String className = frame.getClassName();
+            if (!className.startsWith(EDTUtils.class.getName()) && !className.startsWith(EDTWatchdog.class.getName())) {
+                activeCaller = frame.toString();
+                return;
+            }
+        }
+        activeCaller = "unknown";
+    }
+
+    /**
+     * Watchdog loop: post a heartbeat, and report a stall if it is not
+     * dispatched in time.
+     */
+    private void watch() {
+        long heartbeat = 0;
+
+        while (true) {
+            try {
+                heartbeat++;
+                final long posted = System.nanoTime();
+                postHeartbeat(heartbeat, posted);
+
+                if (!awaitHeartbeat(heartbeat, thresholdNanos)) {
+                    final String stall = describeStall();
+                    awaitHeartbeat(heartbeat, Long.MAX_VALUE);
+                    report(System.nanoTime() - posted, stall);
+                }
+
+                Thread.sleep(HEARTBEAT_INTERVAL);
+            } catch (final InterruptedException e) {
+                return;
+            } catch (final RuntimeException e) {
+                LOGGER.error("EDT watchdog error", e);
+            }
+        }
+    }
+
+    private void postHeartbeat(final long heartbeat, final long posted) {
+        EventQueue.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                edt = Thread.currentThread();
+                heartbeatLatency.record(System.nanoTime() - posted);
+                synchronized (EDTWatchdog.this) {
+                    acknowledged = heartbeat;
+                    EDTWatchdog.this.notifyAll();
+                }
+            }
+        });
+    }
+
+    /**
+     * Wait for a heartbeat to be dispatched.
+     * 
+     * @return true if the heartbeat was dispatched before the timeout.
+     */
+    private synchronized boolean awaitHeartbeat(final long heartbeat, final long timeoutNanos)
+            throws InterruptedException {
+        final long deadline = System.nanoTime() + timeoutNanos;
+        while (acknowledged < heartbeat) {
+            final long remaining = timeoutNanos == Long.MAX_VALUE ? Long.MAX_VALUE : deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Capture what the EDT is doing while it is stalled.
+     */
+    private String describeStall() {
+        final StringBuilder sb = new StringBuilder();
+
+        final AWTEvent event = currentEvent;
+        sb.append("Event: ").append(describe(event)).append('\n');
+        sb.append("Active component: ").append(activeCaller == null ? "unknown" : activeCaller).append('\n');
+
+        final Thread thread = edt;
+        sb.append("EDT stack:\n");
+        if (thread != null) {
+            for (final StackTraceElement frame : thread.getStackTrace()) {
+                sb.append("    at ").append(frame).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String describe(final AWTEvent event) {
+        if (event == null) {
+            return "none";
+        }
+
+        final Object source = event.getSource();
+        final StringBuilder sb = new StringBuilder(event.getClass().getName());
+        sb.append(" from ").append(source == null ? "null" : source.getClass().getName());
+        if (source instanceof Component && ((Component) source).getName() != null) {
+            sb.append(" \"").append(((Component) source).getName()).append('"');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Record a stall report in memory and in the stall log.
+     */
+    private void report(final long durationNanos, final String stall) {
+        stallCount++;
+
+        final String report = String.format("=== EDT stall of %dms at %tF %<tT ===%n%s",
+                TimeUnit.NANOSECONDS.toMillis(durationNanos), new Date(), stall);
+
+        synchronized (reports) {
+            reports.addFirst(report);
+            if (reports.size() > MAX_REPORTS) {
+                reports.removeLast();
+            }
+        }
+
+        LOGGER.warn("EDT stalled for {}ms, see {}", TimeUnit.NANOSECONDS.toMillis(durationNanos), logFile);
+
+        Writer writer = null;
+        try {
+            logFile.getParentFile().mkdirs();
+            rollLog();
+            writer = new FileWriter(logFile, true);
+            writer.write(report);
+            writer.write('\n');
+        } catch (final IOException e) {
+            LOGGER.error("Could not write EDT stall report", e);
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
+    }
+
+    /**
+     * Move the stall log aside once it reaches {@link #MAX_LOG_SIZE}, replacing
+     * the previous older log.
+     */
+    private void rollLog() {
+        if (logFile.length() < MAX_LOG_SIZE) {
+            return;
+        }
+        final File older = new File(logFile.getPath() + ".1");
+        older.delete();
+        if (!logFile.renameTo(older)) {
+            LOGGER.warn("Could not roll over {}, starting it again", logFile);
+            logFile.delete();
+        }
+    }
+
+    /**
+     * Event queue that times every dispatch. Dispatches can nest when an event
+     * handler pumps events itself.
+     */
+    private final class MonitoredEventQueue extends EventQueue {
+        @Override
+        protected void dispatchEvent(final AWTEvent event) {
+            final AWTEvent outerEvent = currentEvent;
+            final String outerCaller = activeCaller;
+
+            final long start = System.nanoTime();
+            currentEvent = event;
+            activeCaller = null;
+
+            try {
+                super.dispatchEvent(event);
+            } finally {
+                dispatchLatency.record(System.nanoTime() - start);
+
+                currentEvent = outerEvent;
+                activeCaller = outerCaller;
+            }
+        }
+    }
+
+}
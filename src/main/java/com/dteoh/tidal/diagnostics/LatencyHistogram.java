@@ -0,0 +1,184 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.diagnostics;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A rolling histogram of latencies. Only the most recent samples are kept, the
+ * histogram reflects the samples in that window. Bucket sizes grow
+ * exponentially, from under 1ms up to over 4s.
+ * 
+ * This class is thread safe.
+ * 
+ * @author Douglas Teoh
+ */
+public final class LatencyHistogram {
+
+    /** Exclusive upper bounds of the buckets, in ms. The last bucket is open. */
+    private static final long[] BUCKET_BOUNDS = { 1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024, 2048, 4096 };
+
+    /** Most recent samples, in ns. */
+    private final long[] samples;
+
+    /** Number of samples in the window, per bucket. */
+    private final int[] counts;
+
+    /** Index to write the next sample to. */
+    private int next;
+
+    /** Number of samples in the window. */
+    private int size;
+
+    /** Number of samples ever recorded. */
+    private long total;
+
+    /**
+     * Creates a new histogram.
+     * 
+     * @param window
+     *            Number of recent samples to keep.
+     */
+    public LatencyHistogram(final int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException();
+        }
+        samples = new long[window];
+        counts = new int[BUCKET_BOUNDS.length + 1];
+    }
+
+    /**
+     * Record a latency sample.
+     * 
+     * @param nanos
+     *            Latency in nanoseconds.
+     */
+    public synchronized void record(final long nanos) {
+        if (size == samples.length) {
+            counts[bucketOf(samples[next])]--;
+        } else {
+            size++;
+        }
+        samples[next] = nanos;
+        counts[bucketOf(nanos)]++;
+        next = (next + 1) % samples.length;
+        total++;
+    }
+
+    /**
+     * Remove all samples.
+     */
+    public synchronized void reset() {
+        Arrays.fill(counts, 0);
+        next = 0;
+        size = 0;
+        total = 0;
+    }
+
+    /**
+     * @return number of samples in the window.
+     */
+    public synchronized int getSampleCount() {
+        return size;
+    }
+
+    /**
+     * @return number of samples ever recorded.
+     */
+    public synchronized long getTotalCount() {
+        return total;
+    }
+
+    /**
+     * @return number of samples in the window, per bucket.
+     */
+    public synchronized int[] getCounts() {
+        return counts.clone();
+    }
+
+    /**
+     * @return exclusive upper bounds of the buckets in ms. There is one more
+     *         bucket than bounds, for latencies over the last bound.
+     */
+    public static long[] getBucketBounds() {
+        return BUCKET_BOUNDS.clone();
+    }
+
+    /**
+     * Retrieve a percentile of the samples in the window.
+     * 
+     * @param percentile
+     *            Percentile to retrieve, between 0 and 100.
+     * @return latency in nanoseconds, 0 if there are no samples.
+     */
+    public long getPercentile(final double percentile) {
+        final long[] sorted;
+        synchronized (this) {
+            if (size == 0) {
+                return 0;
+            }
+            sorted = Arrays.copyOf(samples, size);
+        }
+        Arrays.sort(sorted);
+
+        final int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * Formats the histogram as text.
+     */
+    public String format() {
+        final int[] snapshot;
+        final int windowSize;
+        synchronized (this) {
+            snapshot = counts.clone();
+            windowSize = size;
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format("samples=%d p50=%.1fms p99=%.1fms max=%.1fms%n", windowSize,
+                toMillis(getPercentile(50)), toMillis(getPercentile(99)), toMillis(getPercentile(100))));
+
+        long lower = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            if (i < BUCKET_BOUNDS.length) {
+                sb.append(String.format("  %5d - %5d ms : %d%n", lower, BUCKET_BOUNDS[i], snapshot[i]));
+                lower = BUCKET_BOUNDS[i];
+            } else {
+                sb.append(String.format("  %5d+        ms : %d%n", lower, snapshot[i]));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static double toMillis(final long nanos) {
+        return nanos / 1000000.0;
+    }
+
+    private static int bucketOf(final long nanos) {
+        final long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            if (millis < BUCKET_BOUNDS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_BOUNDS.length;
+    }
+
+}
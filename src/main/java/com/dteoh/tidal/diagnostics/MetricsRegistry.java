@@ -0,0 +1,261 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.diagnostics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dteoh.tidal.id.ID;
+import com.google.common.collect.Lists;
+
+/**
+ * Keeps the {@link DropletMetrics} of every droplet and publishes them as
+ * MBeans named <code>com.dteoh.tidal:type=DropletMetrics,id=&lt;n&gt;</code>.
+ * 
+ * The metrics can also be appended to {@code ~/.tidal/metrics.jsonl} every few
+ * seconds, one JSON object per droplet and line, by setting the
+ * {@value #DUMP_PROPERTY} system property to the interval in seconds. The file
+ * is rolled over to {@code metrics.jsonl.1} when it reaches 10MB.
+ * 
+ * @author Douglas Teoh
+ */
+public final class MetricsRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricsRegistry.class);
+
+    /** System property for the dump interval, in seconds. */
+    public static final String DUMP_PROPERTY = "tidal.metrics.dumpInterval";
+
+    /** Dump file name, in the Tidal configuration directory. */
+    private static final String DUMP_FILE = ".tidal/metrics.jsonl";
+
+    /**
+     * Size at which the dump file is rolled over to a single older file, in
+     * bytes. Every dump adds a line per droplet.
+     */
+    private static final long MAX_DUMP_SIZE = 10 << 20;
+
+    private static final String DOMAIN = "com.dteoh.tidal";
+
+    private static final ConcurrentMap<ID, Registration> REGISTRATIONS = new ConcurrentHashMap<ID, Registration>();
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    private static ScheduledExecutorService dumper;
+
+    private MetricsRegistry() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Create the metrics of a droplet and publish them.
+     * 
+     * @param id
+     *            Identifier of the droplet.
+     * @param droplet
+     *            Name of the droplet.
+     * @return the metrics of the droplet. If the droplet already has metrics,
+     *         they are returned instead.
+     */
+    public static DropletMetrics register(final ID id, final String droplet) {
+        final Registration registration = new Registration(new DropletMetrics(droplet));
+        final Registration existing = REGISTRATIONS.putIfAbsent(id, registration);
+        if (existing != null) {
+            return existing.metrics;
+        }
+
+        try {
+            registration.name = new ObjectName(DOMAIN + ":type=DropletMetrics,id=" + NEXT_ID.incrementAndGet());
+            getServer().registerMBean(registration.metrics, registration.name);
+        } catch (final JMException e) {
+            LOGGER.warn("Could not publish droplet metrics", e);
+            registration.name = null;
+        }
+        return registration.metrics;
+    }
+
+    /**
+     * Forget the metrics of a droplet.
+     * 
+     * @param id
+     *            Identifier of the droplet.
+     */
+    public static void unregister(final ID id) {
+        final Registration registration = REGISTRATIONS.remove(id);
+        if (registration == null || registration.name == null) {
+            return;
+        }
+
+        try {
+            getServer().unregisterMBean(registration.name);
+        } catch (final JMException e) {
+            LOGGER.warn("Could not unpublish droplet metrics", e);
+        }
+    }
+
+    /**
+     * @return the metrics of a droplet, or null if it has none.
+     */
+    public static DropletMetrics get(final ID id) {
+        final Registration registration = REGISTRATIONS.get(id);
+        return registration == null ? null : registration.metrics;
+    }
+
+    /**
+     * @return the name of the MBean of a droplet, or null if it is not
+     *         published.
+     */
+    static ObjectName getObjectName(final ID id) {
+        final Registration registration = REGISTRATIONS.get(id);
+        return registration == null ? null : registration.name;
+    }
+
+    /**
+     * @return the metrics of all droplets.
+     */
+    public static Collection<DropletMetrics> getAll() {
+        final List<DropletMetrics> all = Lists.newArrayList();
+        for (final Registration registration : REGISTRATIONS.values()) {
+            all.add(registration.metrics);
+        }
+        return all;
+    }
+
+    /**
+     * Start dumping metrics to {@code ~/.tidal/metrics.jsonl}, if enabled
+     * through the {@value #DUMP_PROPERTY} system property.
+     */
+    public static synchronized void startDumping() {
+        final long interval = Long.getLong(DUMP_PROPERTY, 0);
+        if (interval <= 0 || dumper != null) {
+            return;
+        }
+
+        final File file = new File(System.getProperty("user.home"), DUMP_FILE);
+        dumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "Metrics dump");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        dumper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                dump(file);
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+
+        LOGGER.info("Dumping droplet metrics to {} every {}s", file, interval);
+    }
+
+    /**
+     * Stop dumping metrics.
+     */
+    public static synchronized void stopDumping() {
+        if (dumper != null) {
+            dumper.shutdownNow();
+            dumper = null;
+        }
+    }
+
+    /**
+     * Append the metrics of all droplets to a file.
+     */
+    static void dump(final File file) {
+        dump(file, MAX_DUMP_SIZE);
+    }
+
+    /**
+     * Append the metrics of all droplets to a file, first moving the file
+     * aside if it has reached the given size.
+     */
+    static void dump(final File file, final long maxSize) {
+        final Collection<DropletMetrics> all = getAll();
+        if (all.isEmpty()) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        Writer writer = null;
+        try {
+            file.getParentFile().mkdirs();
+            roll(file, maxSize);
+            writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+            for (final DropletMetrics metrics : all) {
+                writer.write(metrics.toJson(now));
+                writer.write('\n');
+            }
+        } catch (final IOException e) {
+            LOGGER.error("Could not dump droplet metrics", e);
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
+    }
+
+    /**
+     * Move a file aside once it reaches the given size, replacing the previous
+     * older file.
+     */
+    private static void roll(final File file, final long maxSize) {
+        if (file.length() < maxSize) {
+            return;
+        }
+        final File older = new File(file.getPath() + ".1");
+        older.delete();
+        if (!file.renameTo(older)) {
+            LOGGER.warn("Could not roll over {}, starting it again", file);
+            file.delete();
+        }
+    }
+
+    private static MBeanServer getServer() {
+        return ManagementFactory.getPlatformMBeanServer();
+    }
+
+    private static final class Registration {
+        final DropletMetrics metrics;
+        volatile ObjectName name;
+
+        Registration(final DropletMetrics metrics) {
+            this.metrics = metrics;
+        }
+    }
+
+}
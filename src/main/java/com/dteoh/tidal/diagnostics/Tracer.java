@@ -0,0 +1,58 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.diagnostics;
+
+/**
+ * Receives trace spans of droplet updates, so that profilers can show which
+ * droplet and which phase of an update time goes to. Install a tracer with
+ * {@link Tracing#install()}.
+ * 
+ * Implementations must be thread safe, spans are started on update threads
+ * and on the EDT.
+ * 
+ * @author Douglas Teoh
+ */
+public interface Tracer {
+
+    /** Phase spanning a whole droplet update. */
+    String UPDATE = "update";
+
+    /**
+     * Start a phase of a droplet update.
+     * 
+     * @param phase
+     *            {@link #UPDATE}, or the lower case name of a
+     *            {@link DropletMetrics.Stage}.
+     * @param droplet
+     *            Identifier of the droplet.
+     * @param host
+     *            Server the droplet is updated from.
+     * @return the span of the phase, to be ended when the phase ends.
+     */
+    TraceSpan beginUpdatePhase(String phase, String droplet, String host);
+
+    /**
+     * Start applying a droplet model to a droplet view, on the EDT.
+     * 
+     * @param droplet
+     *            Name of the droplet.
+     * @return the span of the view update, to be ended when the view has
+     *         been updated.
+     */
+    TraceSpan beginViewUpdate(String droplet);
+
+}
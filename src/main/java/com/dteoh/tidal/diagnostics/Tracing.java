@@ -0,0 +1,123 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.diagnostics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the installed {@link Tracer}. Until a tracer is installed, tracing
+ * does nothing and costs next to nothing.
+ * 
+ * Tidal is built for Java 6, so the Java Flight Recorder tracer is compiled
+ * separately (see the "jfr" source set) and loaded by name when running on a
+ * JVM that has the {@code jdk.jfr} API.
+ * 
+ * @author Douglas Teoh
+ */
+public final class Tracing {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Tracing.class);
+
+    /** System property to disable Flight Recorder events. */
+    public static final String JFR_PROPERTY = "tidal.jfr";
+
+    private static final String JFR_API = "jdk.jfr.Event";
+    private static final String JFR_TRACER = "com.dteoh.tidal.diagnostics.jfr.JfrTracer";
+
+    /** Span that ignores everything. */
+    public static final TraceSpan NO_SPAN = new TraceSpan() {
+        @Override
+        public void setMessages(final int messages) {
+        }
+
+        @Override
+        public void setBytes(final long bytes) {
+        }
+
+        @Override
+        public void end() {
+        }
+    };
+
+    /** Tracer that does nothing. */
+    public static final Tracer NO_TRACER = new Tracer() {
+        @Override
+        public TraceSpan beginUpdatePhase(final String phase, final String droplet, final String host) {
+            return NO_SPAN;
+        }
+
+        @Override
+        public TraceSpan beginViewUpdate(final String droplet) {
+            return NO_SPAN;
+        }
+    };
+
+    private static volatile Tracer tracer = NO_TRACER;
+
+    private Tracing() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Install the Flight Recorder tracer, if the JVM supports it and it is
+     * not disabled through the {@value #JFR_PROPERTY} system property.
+     * 
+     * @return the installed tracer.
+     */
+    public static synchronized Tracer install() {
+        if (tracer != NO_TRACER || !Boolean.parseBoolean(System.getProperty(JFR_PROPERTY, "true"))) {
+            return tracer;
+        }
+
+        try {
+            Class.forName(JFR_API);
+        } catch (final ClassNotFoundException e) {
+            LOGGER.debug("Flight Recorder is not available, tracing disabled");
+            return tracer;
+        }
+
+        try {
+            tracer = (Tracer) Class.forName(JFR_TRACER).newInstance();
+            LOGGER.info("Flight Recorder tracing enabled");
+        } catch (final Exception e) {
+            LOGGER.info("Flight Recorder tracer not found, tracing disabled");
+        } catch (final LinkageError e) {
+            LOGGER.warn("Could not load the Flight Recorder tracer", e);
+        }
+        return tracer;
+    }
+
+    /**
+     * @return the installed tracer, a tracer that does nothing if none is
+     *         installed.
+     */
+    public static Tracer get() {
+        return tracer;
+    }
+
+    /**
+     * Replace the installed tracer.
+     * 
+     * @param newTracer
+     *            The tracer, or null to disable tracing.
+     */
+    public static void set(final Tracer newTracer) {
+        tracer = newTracer == null ? NO_TRACER : newTracer;
+    }
+
+}
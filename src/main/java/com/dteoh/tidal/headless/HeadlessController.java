@@ -0,0 +1,194 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.headless;
+
+import static com.dteoh.tidal.util.EDTUtils.outsideEDT;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+
+import com.dteoh.tidal.configuration.ConfigurationController;
+import com.dteoh.tidal.configuration.DropletSettingsListener;
+import com.dteoh.tidal.configuration.SettingsHandler;
+import com.dteoh.tidal.guice.InjectLogger;
+import com.dteoh.tidal.platform.PowerStateMonitor;
+import com.dteoh.tidal.platform.windows.events.PowerStateListener;
+import com.dteoh.tidal.sources.email.AbstractEmailDroplet;
+import com.dteoh.tidal.sources.email.EmailDropletsController;
+import com.dteoh.tidal.sources.email.models.EmailSettings;
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+
+/**
+ * Application controller for running Tidal without a user interface. The
+ * droplets are created from the saved settings and updated on the usual
+ * schedule, and their ripples are served by a {@link RippleServer} instead of
+ * being shown.
+ * 
+ * Tidal must have been set up with a user interface first; accounts are still
+ * added and removed there, or by replacing the droplet settings file.
+ * 
+ * @author Douglas Teoh
+ */
+public final class HeadlessController {
+
+    @InjectLogger
+    private Logger logger;
+
+    /** Longest time to wait for unsaved droplet settings when stopping. */
+    private static final long STOP_SAVE_DEADLINE = TimeUnit.MILLISECONDS.convert(5, TimeUnit.SECONDS);
+
+    private final ConfigurationController configC;
+    private final EmailDropletsController emailC;
+    private final RippleFeed feed;
+
+    /** Notices when the system resumes from sleep or changes networks. */
+    private final PowerStateMonitor powerMonitor;
+
+    private RippleServer server;
+
+    /**
+     * Creates a new HeadlessController.
+     * 
+     * @param configurationController
+     *            Controller responsible for configuration (de)serialization.
+     * @param emailDropletsController
+     *            Controller responsible for email droplets.
+     * @param rippleFeed
+     *            Receives the ripples of all droplets.
+     */
+    @Inject
+    private HeadlessController(final ConfigurationController configurationController,
+            final EmailDropletsController emailDropletsController, final RippleFeed rippleFeed) {
+        configC = configurationController;
+        emailC = emailDropletsController;
+        feed = rippleFeed;
+
+        powerMonitor = new PowerStateMonitor();
+        powerMonitor.addPowerStateListener(new PowerStateListener() {
+            @Override
+            public void suspend() {
+                emailC.pause();
+            }
+
+            @Override
+            public void resume() {
+                emailC.resume();
+            }
+        });
+    }
+
+    /**
+     * Unlock the settings, start the droplets and start serving their ripples.
+     * 
+     * @param password
+     *            The Tidal password.
+     * @param address
+     *            Address to serve the ripples on.
+     * @return true if Tidal started, false if it has not been set up or the
+     *         password is wrong.
+     * @throws IOException
+     *             If the ripples cannot be served on the address.
+     */
+    public synchronized boolean start(final String password, final InetSocketAddress address) throws IOException {
+        outsideEDT();
+
+        if (!configC.loadMainSettings()) {
+            logger.error("Tidal has not been set up, set a password by running it with a user interface first");
+            return false;
+        }
+        if (!configC.authorize(password)) {
+            logger.error("Wrong password");
+            return false;
+        }
+
+        // Serve right away, the ripples follow as the droplets warm up.
+        server = new RippleServer(feed, address);
+        server.start();
+
+        final long start = System.nanoTime();
+        final List<Future<AbstractEmailDroplet>> creations = Lists.newArrayList();
+        configC.loadDropletSettings(new SettingsHandler() {
+            @Override
+            public void handle(final Object settings) {
+                if (settings instanceof EmailSettings) {
+                    creations.add(emailC.submitEmailDroplet((EmailSettings) settings));
+                } else if (settings != null) {
+                    logger.debug("Unknown setting: {}", settings.getClass());
+                }
+            }
+        });
+
+        final int created = emailC.awaitEmailDroplets(creations);
+        emailC.scheduleAfterWarmUp();
+        configC.enableAutosave();
+        watchDropletSettings();
+        powerMonitor.start();
+
+        logger.info("Started {} droplets in {}ms", created, TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+                - start));
+        return true;
+    }
+
+    /**
+     * Stop serving, stop updating the droplets and save their settings.
+     */
+    public synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+
+        server.stop();
+        server = null;
+        powerMonitor.stop();
+        emailC.pause();
+        if (!configC.flushDropletSettings(STOP_SAVE_DEADLINE, TimeUnit.MILLISECONDS)) {
+            logger.error("Droplet settings not saved within {}ms", STOP_SAVE_DEADLINE);
+        }
+    }
+
+    /**
+     * Retrieve the address the ripples are served on, or null if not started.
+     */
+    public synchronized InetSocketAddress getAddress() {
+        return server == null ? null : server.getAddress();
+    }
+
+    /**
+     * Pick up droplet settings files replaced while Tidal is running.
+     */
+    private void watchDropletSettings() {
+        configC.watchDropletSettings(new DropletSettingsListener() {
+            @Override
+            public void dropletSettingsChanged(final Iterable<Object> allSettings) {
+                final List<EmailSettings> emailSettings = Lists.newArrayList();
+                for (final Object settings : allSettings) {
+                    if (settings instanceof EmailSettings) {
+                        emailSettings.add((EmailSettings) settings);
+                    }
+                }
+                emailC.synchronize(emailSettings);
+            }
+        });
+    }
+
+}
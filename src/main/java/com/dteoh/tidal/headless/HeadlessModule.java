@@ -0,0 +1,68 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.headless;
+
+import com.dteoh.tidal.configuration.ConfigurationController;
+import com.dteoh.tidal.configuration.SaveConfigurable;
+import com.dteoh.tidal.controllers.ViewManager;
+import com.dteoh.tidal.guice.LoggerListener;
+import com.dteoh.tidal.sources.DropletModelListener;
+import com.dteoh.tidal.sources.email.EmailDropletsController;
+import com.dteoh.tidal.util.Clock;
+import com.dteoh.tidal.util.SystemClock;
+import com.dteoh.tidal.views.View;
+import com.google.inject.AbstractModule;
+import com.google.inject.matcher.Matchers;
+
+/**
+ * Configures the Tidal class bindings for running without a user interface.
+ * 
+ * @author Douglas Teoh
+ */
+public class HeadlessModule extends AbstractModule {
+
+    @Override
+    protected void configure() {
+        // Droplet views are disabled, so nothing is ever displayed.
+        bind(ViewManager.class).toInstance(new ViewManager() {
+            @Override
+            public void displayView(final View view) {
+            }
+
+            @Override
+            public void removeView(final View view) {
+            }
+        });
+
+        ConfigurationController configC = new ConfigurationController();
+        bind(ConfigurationController.class).toInstance(configC);
+        bind(SaveConfigurable.class).toInstance(configC);
+
+        RippleFeed feed = new RippleFeed();
+        bind(RippleFeed.class).toInstance(feed);
+        bind(DropletModelListener.class).toInstance(feed);
+
+        bind(Clock.class).toInstance(SystemClock.INSTANCE);
+
+        bind(EmailDropletsController.class);
+
+        bind(HeadlessController.class);
+
+        bindListener(Matchers.any(), new LoggerListener());
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.headless;
+
+import java.io.Console;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dteoh.tidal.diagnostics.MetricsRegistry;
+import com.dteoh.tidal.diagnostics.Tracing;
+import com.dteoh.tidal.views.DropletViews;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+
+/**
+ * Entry point for running Tidal as a background aggregator, without a user
+ * interface. Started by passing {@value #OPTION} to Tidal.
+ * 
+ * The Tidal password is read from the {@value #PASSWORD_VARIABLE} environment
+ * variable, or from the console if it is not set. The ripples are served on
+ * the loopback interface, on the port given by the {@value #PORT_PROPERTY}
+ * system property.
+ * 
+ * @author Douglas Teoh
+ */
+public final class HeadlessTidal {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HeadlessTidal.class);
+
+    /** Command line option for running without a user interface. */
+    public static final String OPTION = "--headless";
+
+    /** Environment variable holding the Tidal password. */
+    public static final String PASSWORD_VARIABLE = "TIDAL_PASSWORD";
+
+    /** System property for the port to serve the ripples on. */
+    public static final String PORT_PROPERTY = "tidal.http.port";
+
+    /** Port to serve the ripples on by default. */
+    private static final int DEFAULT_PORT = 7070;
+
+    private HeadlessTidal() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Run Tidal without a user interface. Exits if Tidal cannot be started.
+     * 
+     * @param args
+     */
+    public static void main(final String[] args) {
+        // Nothing may touch Swing from here on.
+        System.setProperty("java.awt.headless", "true");
+        System.setProperty(DropletViews.HEADLESS_PROPERTY, "true");
+        System.setProperty("java.net.useSystemProxies", "true");
+
+        MetricsRegistry.startDumping();
+        Tracing.install();
+
+        final String password = readPassword();
+        if (password == null) {
+            LOGGER.error("No password, set {} or run Tidal from a console", PASSWORD_VARIABLE);
+            System.exit(1);
+        }
+
+        final Injector injector = Guice.createInjector(new HeadlessModule());
+        final HeadlessController controller = injector.getInstance(HeadlessController.class);
+
+        final int port = Integer.getInteger(PORT_PROPERTY, DEFAULT_PORT);
+        try {
+            // Only reachable from this machine.
+            final InetSocketAddress address = new InetSocketAddress(InetAddress.getByName(null), port);
+            if (!controller.start(password, address)) {
+                System.exit(1);
+            }
+        } catch (final IOException e) {
+            LOGGER.error("Cannot serve ripples on port " + port, e);
+            System.exit(1);
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                controller.stop();
+            }
+        }, "Shutdown"));
+    }
+
+    private static String readPassword() {
+        final String password = System.getenv(PASSWORD_VARIABLE);
+        if (password != null) {
+            return password;
+        }
+
+        final Console console = System.console();
+        if (console == null) {
+            return null;
+        }
+        final char[] entered = console.readPassword("Tidal password: ");
+        return entered == null ? null : new String(entered);
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.headless;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.dteoh.tidal.id.ID;
+import com.dteoh.tidal.sources.DropletModelListener;
+import com.dteoh.tidal.views.models.DropletModel;
+import com.dteoh.tidal.views.models.RippleModel;
+import com.dteoh.tidal.views.models.TimelineModel;
+import com.dteoh.tidal.views.models.TimelineModel.Entry;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Aggregates the ripples of all droplets, taking the place of the droplet
+ * views when Tidal runs without a user interface. Droplet models are merged
+ * the same way a droplet view merges them, and the ripples of all droplets are
+ * kept as a {@link TimelineModel}.
+ * 
+ * The aggregated ripples are published as immutable snapshots. Every change
+ * increments the version of the feed, so comparing versions tells whether
+ * anything changed between two snapshots.
+ * 
+ * @author Douglas Teoh
+ */
+public final class RippleFeed implements DropletModelListener {
+
+    /**
+     * Listener for feed changes.
+     */
+    public interface Listener {
+
+        /**
+         * Invoked after the feed has changed, while holding the lock of the
+         * feed so that changes are seen in order. Must not block.
+         * 
+         * @param snapshot
+         *            The feed after the change.
+         * @param added
+         *            Ripples that were not in the feed before the change,
+         *            newest first. May be empty.
+         */
+        void feedChanged(Snapshot snapshot, List<Entry> added);
+
+    }
+
+    /**
+     * An immutable view of the feed at one version.
+     */
+    public static final class Snapshot {
+        private final long version;
+        private final TimelineModel timeline;
+
+        Snapshot(final long version, final TimelineModel timeline) {
+            this.version = version;
+            this.timeline = timeline;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Ripples of all droplets, merged newest first as they are iterated.
+         */
+        public TimelineModel getTimeline() {
+            return timeline;
+        }
+    }
+
+    private volatile Snapshot snapshot;
+
+    private final List<Listener> listeners;
+
+    public RippleFeed() {
+        snapshot = new Snapshot(0, TimelineModel.EMPTY);
+        listeners = new CopyOnWriteArrayList<Listener>();
+    }
+
+    @Override
+    public synchronized void dropletModelChanged(final DropletModel model, final boolean replace) {
+        final TimelineModel timeline = snapshot.timeline;
+        final DropletModel previous = timeline.getDropletModel(model.getIdentifier());
+        final DropletModel current = replace || previous == null ? model : previous.mergeWith(model);
+
+        final Set<RippleModel> known = previous == null ? Collections.<RippleModel> emptySet() : Sets
+                .newHashSet(previous.getDropletContents());
+        final List<Entry> added = Lists.newArrayList();
+        for (final RippleModel ripple : current.getDropletContents()) {
+            if (!known.contains(ripple)) {
+                added.add(new Entry(current, ripple));
+            }
+        }
+        if (previous != null && added.isEmpty()
+                && (!replace || current.getRippleStore().size() == previous.getRippleStore().size())) {
+            // Nothing new, the merge only dropped duplicates or the update
+            // found the same ripples again.
+            return;
+        }
+
+        publish(timeline.withDropletModel(current), added);
+    }
+
+    @Override
+    public synchronized void dropletRemoved(final ID dropletID) {
+        final TimelineModel timeline = snapshot.timeline.withoutDroplet(dropletID);
+        if (timeline != snapshot.timeline) {
+            publish(timeline, Collections.<Entry> emptyList());
+        }
+    }
+
+    /**
+     * Retrieve the current state of the feed.
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public void addListener(final Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(final Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Publish a new snapshot of the feed. Must hold the lock on this.
+     */
+    private void publish(final TimelineModel timeline, final List<Entry> added) {
+        snapshot = new Snapshot(snapshot.version + 1, timeline);
+        final List<Entry> addedView = Collections.unmodifiableList(added);
+        for (final Listener listener : listeners) {
+            listener.feedChanged(snapshot, addedView);
+        }
+    }
+
+}
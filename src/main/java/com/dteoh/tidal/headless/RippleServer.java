@@ -0,0 +1,381 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.headless;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dteoh.tidal.util.JSONUtils;
+import com.dteoh.tidal.views.models.RippleModel;
+import com.dteoh.tidal.views.models.TimelineModel.Entry;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves a {@link RippleFeed} over HTTP, using the HTTP server of the JDK.
+ * 
+ * <ul>
+ * <li><code>GET /ripples</code> returns the current snapshot of the feed as
+ * JSON. Responses carry an ETag made from the feed version, and a request whose
+ * <code>If-None-Match</code> header names the current ETag is answered with
+ * <code>304 Not Modified</code> and no body.</li>
+ * <li><code>GET /events</code> is a server-sent events stream. Every change
+ * that adds ripples is sent as a <code>ripples</code> event whose id is the
+ * feed version and whose data is a JSON array of the added ripples.</li>
+ * </ul>
+ * 
+ * Clients that poll <code>/ripples</code> or listen to <code>/events</code>
+ * never cause the mail servers to be contacted; droplets are still only updated
+ * on their own schedule.
+ * 
+ * @author Douglas Teoh
+ */
+public final class RippleServer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RippleServer.class);
+
+    /** Most event stream clients served at once. */
+    static final int MAX_SUBSCRIBERS = 32;
+    /** Most events queued for a client before it is disconnected. */
+    static final int MAX_QUEUED_EVENTS = 64;
+    /** Time between keep-alive comments on idle event streams, in ms. */
+    static final long KEEP_ALIVE = TimeUnit.MILLISECONDS.convert(15, TimeUnit.SECONDS);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] KEEP_ALIVE_COMMENT = ":\n\n".getBytes(UTF8);
+
+    private final RippleFeed feed;
+    private final InetSocketAddress address;
+
+    /**
+     * Identifies this run of the server in ETags, so that an ETag from before
+     * a restart does not match a feed version after it.
+     */
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+
+    /** The last snapshot encoded as JSON. */
+    private final AtomicReference<Encoded> encoded = new AtomicReference<Encoded>();
+
+    private final Set<Subscriber> subscribers = new CopyOnWriteArraySet<Subscriber>();
+
+    private final RippleFeed.Listener feedListener = new RippleFeed.Listener() {
+        @Override
+        public void feedChanged(final RippleFeed.Snapshot snapshot, final List<Entry> added) {
+            if (added.isEmpty() || subscribers.isEmpty()) {
+                return;
+            }
+            final StringBuilder sb = new StringBuilder();
+            sb.append("id: ").append(snapshot.getVersion()).append('\n');
+            sb.append("event: ripples\n");
+            appendEntries(sb.append("data: "), added).append("\n\n");
+            final byte[] event = sb.toString().getBytes(UTF8);
+            for (final Subscriber subscriber : subscribers) {
+                subscriber.send(event);
+            }
+        }
+    };
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Creates a new server. Call {@link #start()} to start serving.
+     * 
+     * @param feed
+     *            Feed to serve.
+     * @param address
+     *            Address to listen on. Use a loopback address unless the feed
+     *            is meant to be reachable from other machines.
+     */
+    public RippleServer(final RippleFeed feed, final InetSocketAddress address) {
+        this.feed = feed;
+        this.address = address;
+    }
+
+    /**
+     * Start serving.
+     * 
+     * @throws IOException
+     *             If the address cannot be listened on.
+     */
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            return;
+        }
+
+        server = HttpServer.create(address, 0);
+        server.createContext("/ripples", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                try {
+                    handleRipples(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.createContext("/events", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                try {
+                    handleEvents(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+
+        // Event streams hold on to their threads, so the pool is not bounded.
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "HTTP worker-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        server.setExecutor(executor);
+        feed.addListener(feedListener);
+        server.start();
+
+        LOGGER.info("Serving ripples on http://{}:{}/ripples", server.getAddress().getHostName(), server
+                .getAddress().getPort());
+    }
+
+    /**
+     * Stop serving, disconnecting event stream clients.
+     */
+    public synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+
+        feed.removeListener(feedListener);
+        for (final Subscriber subscriber : subscribers) {
+            subscriber.close();
+        }
+        server.stop(0);
+        executor.shutdownNow();
+        server = null;
+        executor = null;
+    }
+
+    /**
+     * Retrieve the address the server listens on, e.g. to find out which port
+     * was picked when started with port 0.
+     */
+    public synchronized InetSocketAddress getAddress() {
+        return server == null ? address : server.getAddress();
+    }
+
+    private void handleRipples(final HttpExchange exchange) throws IOException {
+        final String method = exchange.getRequestMethod();
+        final boolean head = "HEAD".equals(method);
+        if (!head && !"GET".equals(method)) {
+            exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+            exchange.sendResponseHeaders(405, -1);
+            return;
+        }
+
+        final Encoded current = encode(feed.getSnapshot());
+        final Headers headers = exchange.getResponseHeaders();
+        headers.set("ETag", current.etag);
+        headers.set("Cache-Control", "no-cache");
+
+        if (matches(exchange.getRequestHeaders().getFirst("If-None-Match"), current.etag)) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+
+        headers.set("Content-Type", "application/json; charset=UTF-8");
+        if (head) {
+            headers.set("Content-Length", Integer.toString(current.json.length));
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(200, current.json.length);
+        final OutputStream out = exchange.getResponseBody();
+        out.write(current.json);
+        out.flush();
+    }
+
+    private void handleEvents(final HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Allow", "GET");
+            exchange.sendResponseHeaders(405, -1);
+            return;
+        }
+
+        final Subscriber subscriber = new Subscriber();
+        if (subscribers.size() >= MAX_SUBSCRIBERS || !subscribers.add(subscriber)) {
+            exchange.sendResponseHeaders(503, -1);
+            return;
+        }
+
+        try {
+            final Headers headers = exchange.getResponseHeaders();
+            headers.set("Content-Type", "text/event-stream; charset=UTF-8");
+            headers.set("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(200, 0);
+
+            final OutputStream out = exchange.getResponseBody();
+            // Tell the client where the stream starts, so it can fetch
+            // /ripples once and apply the events from there.
+            out.write(("retry: 5000\nid: " + feed.getSnapshot().getVersion() + "\n\n").getBytes(UTF8));
+            out.flush();
+
+            while (true) {
+                final byte[] event = subscriber.queue.poll(KEEP_ALIVE, TimeUnit.MILLISECONDS);
+                if (subscriber.isClosed()) {
+                    break;
+                }
+                // Idle streams are written to as well, to find out about
+                // clients that have gone away.
+                out.write(event == null ? KEEP_ALIVE_COMMENT : event);
+                out.flush();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final IOException e) {
+            LOGGER.debug("Event stream client went away", e);
+        } finally {
+            subscribers.remove(subscriber);
+            IOUtils.closeQuietly(exchange.getResponseBody());
+        }
+    }
+
+    /**
+     * Retrieve the JSON form of a snapshot, encoding it only if it has changed
+     * since the last request.
+     */
+    private Encoded encode(final RippleFeed.Snapshot snapshot) {
+        final Encoded last = encoded.get();
+        if (last != null && last.snapshot == snapshot) {
+            return last;
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        sb.append("{\"version\":").append(snapshot.getVersion()).append(",\"ripples\":");
+        appendEntries(sb, snapshot.getTimeline()).append('}');
+
+        final Encoded current = new Encoded(snapshot, '"' + epoch + '-' + snapshot.getVersion() + '"', sb
+                .toString().getBytes(UTF8));
+        encoded.compareAndSet(last, current);
+        return current;
+    }
+
+    private static StringBuilder appendEntries(final StringBuilder sb, final Iterable<Entry> entries) {
+        sb.append('[');
+        boolean first = true;
+        for (final Entry entry : entries) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+
+            final RippleModel ripple = entry.getRipple();
+            JSONUtils.quote(sb.append("{\"droplet\":"), entry.getDropletName());
+            JSONUtils.quote(sb.append(",\"origin\":"), ripple.getOrigin());
+            JSONUtils.quote(sb.append(",\"subject\":"), ripple.getSubject());
+            JSONUtils.quote(sb.append(",\"content\":"), ripple.getContent());
+            sb.append(",\"received\":").append(ripple.getReceived()).append('}');
+        }
+        return sb.append(']');
+    }
+
+    /**
+     * Determine if an If-None-Match header names the given ETag.
+     */
+    static boolean matches(final String ifNoneMatch, final String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** A snapshot encoded as JSON. */
+    private static final class Encoded {
+        private final RippleFeed.Snapshot snapshot;
+        private final String etag;
+        private final byte[] json;
+
+        Encoded(final RippleFeed.Snapshot snapshot, final String etag, final byte[] json) {
+            this.snapshot = snapshot;
+            this.etag = etag;
+            this.json = json;
+        }
+    }
+
+    /** An event stream client. */
+    private static final class Subscriber {
+        /** Events waiting to be written to the client. */
+        private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<byte[]>(MAX_QUEUED_EVENTS);
+        private volatile boolean closed;
+
+        /**
+         * Queue an event. A client that has fallen too far behind is
+         * disconnected, it will reconnect and fetch the ripples afresh.
+         */
+        void send(final byte[] event) {
+            if (!queue.offer(event)) {
+                close();
+            }
+        }
+
+        void close() {
+            closed = true;
+            queue.clear();
+            // Wake up the stream so that it notices.
+            queue.offer(KEEP_ALIVE_COMMENT);
+        }
+
+        boolean isClosed() {
+            return closed;
+        }
+    }
+
+}
@@ -78,5 +78,10 @@ public enum IDGenerator {
             }
             return true;
         }
+
+        @Override
+        public String toString() {
+            return String.valueOf(number);
+        }
     }
 }
@@ -0,0 +1,221 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.platform;
+
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dteoh.tidal.platform.windows.events.PowerStateListener;
+import com.google.common.collect.Sets;
+
+/**
+ * Detects that the system has resumed from sleep, or that its network
+ * connections have changed, on any platform.
+ * 
+ * Sleep is detected by comparing the wall clock with the monotonic clock
+ * ({@link System#nanoTime()}) every few seconds. On Linux and Mac OS X the
+ * monotonic clock stops while the system sleeps, so the wall clock jumps ahead
+ * of it; on Windows both clocks keep running, so the check simply runs late.
+ * Network changes are detected by comparing snapshots of the addresses of the
+ * network interfaces that are up.
+ * 
+ * Both are only noticed after they have happened, so listeners are told that
+ * the system suspended immediately before they are told that it resumed.
+ * 
+ * @author Douglas Teoh
+ */
+public final class PowerStateMonitor {
+
+    private static final Logger logger = LoggerFactory.getLogger(PowerStateMonitor.class);
+
+    /** Time between checks, in milliseconds. */
+    static final long CHECK_INTERVAL = TimeUnit.MILLISECONDS.convert(5, TimeUnit.SECONDS);
+
+    /** Time unaccounted for between two checks that means the system slept. */
+    static final long SLEEP_THRESHOLD = TimeUnit.MILLISECONDS.convert(10, TimeUnit.SECONDS);
+
+    /** Listeners interested in power events. */
+    private final List<PowerStateListener> listeners;
+
+    private ScheduledExecutorService executor;
+
+    /** Clocks and network at the previous check, only used by the checks. */
+    private long lastWall;
+    private long lastMono;
+    private Set<String> lastNetwork;
+
+    /**
+     * Creates a new monitor. Call {@link #start()} to start monitoring.
+     */
+    public PowerStateMonitor() {
+        listeners = new CopyOnWriteArrayList<PowerStateListener>();
+    }
+
+    /**
+     * Start monitoring the system.
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+
+        lastWall = System.currentTimeMillis();
+        lastMono = System.nanoTime();
+        lastNetwork = null;
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "Power state monitor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                check(System.currentTimeMillis(), System.nanoTime(), snapshotNetwork());
+            }
+        }, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop monitoring the system.
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Add a listener interested in listening to suspend and resume events.
+     * Listeners are notified on the monitor thread.
+     * 
+     * @param listener
+     *            Listener to add. If null, nothing happens.
+     */
+    public void addPowerStateListener(final PowerStateListener listener) {
+        if (listener != null) {
+            listeners.add(listener);
+        }
+    }
+
+    /**
+     * Unsubscribe the given listener from suspend and resume events.
+     * 
+     * @param listener
+     *            Listener to unsubscribe. If null, nothing happens.
+     */
+    public void removePowerStateListener(final PowerStateListener listener) {
+        if (listener != null) {
+            listeners.remove(listener);
+        }
+    }
+
+    /**
+     * Compare the state of the system with the previous check, and notify the
+     * listeners if the system slept or its network changed.
+     * 
+     * @param wall
+     *            Wall clock time, in milliseconds.
+     * @param mono
+     *            Monotonic clock time, in nanoseconds.
+     * @param network
+     *            Addresses of the network interfaces that are up, or null if
+     *            they could not be determined.
+     * @return true if the listeners were notified.
+     */
+    boolean check(final long wall, final long mono, final Set<String> network) {
+        final long wallElapsed = wall - lastWall;
+        final long monoElapsed = TimeUnit.NANOSECONDS.toMillis(mono - lastMono);
+        final Set<String> previousNetwork = lastNetwork;
+
+        lastWall = wall;
+        lastMono = mono;
+        if (network != null) {
+            lastNetwork = network;
+        }
+
+        String reason = null;
+        if (wallElapsed - monoElapsed > SLEEP_THRESHOLD) {
+            reason = "wall clock jumped " + (wallElapsed - monoElapsed) + "ms ahead";
+        } else if (monoElapsed > CHECK_INTERVAL + SLEEP_THRESHOLD) {
+            reason = "check ran " + (monoElapsed - CHECK_INTERVAL) + "ms late";
+        } else if (network != null && previousNetwork != null && !network.equals(previousNetwork)) {
+            reason = "network changed from " + previousNetwork + " to " + network;
+        }
+
+        if (reason == null) {
+            return false;
+        }
+
+        logger.info("System resumed: {}", reason);
+        for (final PowerStateListener l : listeners) {
+            l.suspend();
+        }
+        for (final PowerStateListener l : listeners) {
+            l.resume();
+        }
+        return true;
+    }
+
+    /**
+     * Retrieve the addresses of the network interfaces that are up, excluding
+     * loopback interfaces.
+     * 
+     * @return the addresses, or null if they could not be retrieved.
+     */
+    static Set<String> snapshotNetwork() {
+        final SortedSet<String> addresses = Sets.newTreeSet();
+        try {
+            final Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+            if (interfaces == null) {
+                // No network interfaces at all.
+                return addresses;
+            }
+            for (final NetworkInterface ni : Collections.list(interfaces)) {
+                if (!ni.isUp() || ni.isLoopback()) {
+                    continue;
+                }
+                for (final InetAddress address : Collections.list(ni.getInetAddresses())) {
+                    addresses.add(ni.getName() + "/" + address.getHostAddress());
+                }
+            }
+        } catch (final SocketException e) {
+            logger.debug("Could not list network interfaces", e);
+            return null;
+        }
+        return addresses;
+    }
+
+}
@@ -42,6 +42,16 @@ public interface Droplet extends Configurable {
      */
     void update();
 
+    /**
+     * Ask the droplet to retrieve new information and display it on the view
+     * defined by {@link #getDropletView()}, unless the given token is
+     * cancelled first.
+     * 
+     * @param token
+     *            Token identifying the update.
+     */
+    void update(UpdateToken token);
+
     /**
      * Destroy the droplet.
      */
@@ -0,0 +1,50 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.sources;
+
+import com.dteoh.tidal.id.ID;
+import com.dteoh.tidal.views.models.DropletModel;
+
+/**
+ * Receives the results of droplet updates without going through a droplet
+ * view, e.g. when Tidal runs without a user interface.
+ * 
+ * @author Douglas Teoh
+ */
+public interface DropletModelListener {
+
+    /**
+     * Invoked with the results of a droplet update, on the thread that ran the
+     * update.
+     * 
+     * @param model
+     *            Results of the update.
+     * @param replace
+     *            True if the model replaces everything the droplet has shown
+     *            before, false if it adds to it.
+     */
+    void dropletModelChanged(DropletModel model, boolean replace);
+
+    /**
+     * Invoked after a droplet has been destroyed.
+     * 
+     * @param dropletID
+     *            Identifier of the droplet.
+     */
+    void dropletRemoved(ID dropletID);
+
+}
@@ -47,9 +47,10 @@ public interface SetupDroplet {
     void cancelSetup();
 
     /**
-     * Create a new droplet from the information in the setup view.
+     * Create a new droplet from the information in the setup view. The droplet
+     * may be created in the background after this method returns.
      * 
-     * @return True if a new droplet was created.
+     * @return True if a new droplet was created or is being created.
      */
     boolean createDropletFromSetup();
 
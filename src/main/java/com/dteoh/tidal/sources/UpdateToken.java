@@ -0,0 +1,183 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.sources;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.dteoh.tidal.util.Clock;
+import com.dteoh.tidal.util.SystemClock;
+import com.google.common.collect.Lists;
+
+/**
+ * Identifies one droplet update. The token is cancelled when the update is no
+ * longer wanted (e.g. updates were paused, or a newer update was started), or
+ * when its deadline passes.
+ * 
+ * Blocking I/O does not respond to interrupts, so cancelling a token closes
+ * the sockets attached to it; this makes the update fail quickly instead of
+ * running on in the background. Droplets must not show the results of an
+ * update whose token is no longer valid.
+ * 
+ * @author Douglas Teoh
+ */
+public final class UpdateToken {
+
+    /** Clock the deadline is measured with. */
+    private final Clock clock;
+
+    /** Deadline of the update, compared with {@link Clock#nanoTime()}. */
+    private final long deadline;
+
+    /** Cancels the token at its deadline. Null until scheduled. */
+    private volatile Clock.Scheduled expiry;
+
+    /** Sockets to close when the token is cancelled. Guarded by this. */
+    private final List<Socket> sockets;
+
+    private volatile boolean cancelled;
+
+    /**
+     * Creates a token for an update that must complete within the given time.
+     * 
+     * @param timeout
+     *            Time allowed for the update.
+     * @param unit
+     *            Unit of the timeout.
+     */
+    public UpdateToken(final long timeout, final TimeUnit unit) {
+        this(SystemClock.INSTANCE, timeout, unit);
+    }
+
+    /**
+     * Creates a token for an update that must complete within the given time,
+     * as measured by the given clock.
+     * 
+     * @param clock
+     *            Clock to measure the deadline with.
+     * @param timeout
+     *            Time allowed for the update.
+     * @param unit
+     *            Unit of the timeout.
+     */
+    public UpdateToken(final Clock clock, final long timeout, final TimeUnit unit) {
+        this.clock = clock;
+        deadline = clock.nanoTime() + unit.toNanos(timeout);
+        sockets = Lists.newArrayList();
+        expiry = clock.schedule(new Runnable() {
+            @Override
+            public void run() {
+                UpdateToken.this.cancel();
+            }
+        }, timeout, unit);
+    }
+
+    /**
+     * Cancel the update and close its sockets. Cancelling a token more than
+     * once has no further effect.
+     */
+    public void cancel() {
+        final List<Socket> toClose;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            toClose = Lists.newArrayList(sockets);
+            sockets.clear();
+        }
+
+        final Clock.Scheduled scheduled = expiry;
+        if (scheduled != null) {
+            scheduled.cancel();
+        }
+        for (final Socket socket : toClose) {
+            close(socket);
+        }
+    }
+
+    /**
+     * Determine if the update was cancelled, either explicitly or because its
+     * deadline passed.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Determine if the results of the update may still be used.
+     * 
+     * @return true if the token was not cancelled and its deadline has not
+     *         passed.
+     */
+    public boolean isValid() {
+        return !cancelled && getRemaining(TimeUnit.NANOSECONDS) > 0;
+    }
+
+    /**
+     * Time left before the deadline, 0 if the deadline has passed.
+     */
+    public long getRemaining(final TimeUnit unit) {
+        return unit.convert(Math.max(0, deadline - clock.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Run the given action if the token is still valid. The token cannot be
+     * cancelled while the action runs, so an action that has run was not
+     * affected by a cancellation.
+     * 
+     * @param action
+     *            Action to run, e.g. showing the results of the update.
+     * @return true if the action was run, false if the token is no longer
+     *         valid.
+     */
+    public synchronized boolean runIfValid(final Runnable action) {
+        if (!isValid()) {
+            return false;
+        }
+        action.run();
+        return true;
+    }
+
+    /**
+     * Close the given socket when the token is cancelled. If the token has
+     * already been cancelled, the socket is closed straight away.
+     * 
+     * @param socket
+     *            Socket used by the update.
+     */
+    public void attach(final Socket socket) {
+        synchronized (this) {
+            if (!cancelled) {
+                sockets.add(socket);
+                return;
+            }
+        }
+        close(socket);
+    }
+
+    private static void close(final Socket socket) {
+        try {
+            socket.close();
+        } catch (final IOException e) {
+            // Nothing more can be done with it.
+        }
+    }
+
+}
@@ -17,33 +17,49 @@
 package com.dteoh.tidal.sources.email;
 
 import static com.dteoh.tidal.util.EDTUtils.inEDT;
+import static com.dteoh.tidal.util.EDTUtils.outsideEDT;
 
 import java.awt.event.ActionEvent;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.swing.SwingUtilities;
 
 import org.slf4j.Logger;
 
+import com.dteoh.tidal.diagnostics.DropletMetrics;
+import com.dteoh.tidal.diagnostics.DropletMetrics.Stage;
+import com.dteoh.tidal.diagnostics.MetricsRegistry;
+import com.dteoh.tidal.diagnostics.TraceSpan;
+import com.dteoh.tidal.diagnostics.Tracing;
 import com.dteoh.tidal.exceptions.DisconnectedException;
 import com.dteoh.tidal.exceptions.DropletInitException;
 import com.dteoh.tidal.id.ID;
 import com.dteoh.tidal.sources.Droplet;
+import com.dteoh.tidal.sources.DropletModelListener;
+import com.dteoh.tidal.sources.UpdateToken;
 import com.dteoh.tidal.sources.email.models.EmailSettings;
 import com.dteoh.tidal.sources.email.models.Protocol;
+import com.dteoh.tidal.util.Async;
+import com.dteoh.tidal.util.AsyncCallback;
+import com.dteoh.tidal.util.AsyncResult;
+import com.dteoh.tidal.util.Clock;
 import com.dteoh.tidal.util.EDTUtils;
+import com.dteoh.tidal.util.SystemClock;
+import com.dteoh.tidal.views.DropletUpdateBatcher;
 import com.dteoh.tidal.views.DropletView;
 import com.dteoh.tidal.views.DropletViews;
 import com.dteoh.tidal.views.events.ConfigDialogListener;
 import com.dteoh.tidal.views.events.DropletViewListener;
 import com.dteoh.tidal.views.models.DropletModel;
 import com.dteoh.tidal.views.models.RippleModel;
+import com.dteoh.tidal.views.models.SnippetArena;
 import com.google.common.collect.ImmutableList;
 
-import foxtrot.Job;
-import foxtrot.Task;
-import foxtrot.Worker;
-
 /**
  * Generic email droplet.
  * 
@@ -54,14 +70,23 @@ public abstract class AbstractEmailDroplet implements Droplet {
     /** Reusable empty list. */
     protected static final List<RippleModel> EMPTY = ImmutableList.of();
 
+    /** Time allowed for an update, in milliseconds. */
+    protected static final long UPDATE_DEADLINE = TimeUnit.MILLISECONDS.convert(2, TimeUnit.MINUTES);
+
     /** Droplet identifier. */
     protected final ID identifier;
 
     /** Email settings. */
     protected EmailSettings settings;
 
-    /** View associated with the droplet. */
-    protected DropletView view;
+    /** Measurements of the updates of the droplet. */
+    protected final DropletMetrics metrics;
+
+    /** Token of the update in progress. */
+    private final AtomicReference<UpdateToken> currentUpdate = new AtomicReference<UpdateToken>();
+
+    /** View associated with the droplet. Created on the EDT. */
+    protected volatile DropletView view;
 
     /** Listener to droplet view events. */
     protected DropletViewListener dvl = new DropletViewListener() {
@@ -110,9 +135,19 @@ public abstract class AbstractEmailDroplet implements Droplet {
     /** Manages email droplets. */
     private EmailsController emc;
 
+    /** Clock that update deadlines are measured with. */
+    private volatile Clock clock = SystemClock.INSTANCE;
+
+    /** Receives the results of updates as well as the droplet view. */
+    private volatile DropletModelListener modelListener;
+
+    /** Keeps the contents of ripples off the heap, null if disabled. */
+    private final SnippetArena snippets = SnippetArena.isEnabled() ? new SnippetArena() : null;
+
     protected AbstractEmailDroplet(final ID identifier, final EmailSettings settings) {
         this.settings = settings;
         this.identifier = identifier;
+        metrics = MetricsRegistry.register(identifier, settings.getUsername());
         initView();
     }
 
@@ -120,13 +155,17 @@ public abstract class AbstractEmailDroplet implements Droplet {
             final String username, final String password) {
         settings = new EmailSettings(host, protocol, username, password);
         this.identifier = identifier;
+        metrics = MetricsRegistry.register(identifier, username);
         initView();
     }
 
     /**
-     * Initialize the droplet view.
+     * Initialize the droplet view, unless droplet views are disabled.
      */
     protected void initView() {
+        if (!DropletViews.isEnabled()) {
+            return;
+        }
         EDTUtils.runOnEDT(new Runnable() {
             @Override
             public void run() {
@@ -160,6 +199,25 @@ public abstract class AbstractEmailDroplet implements Droplet {
         return identifier;
     }
 
+    /**
+     * Returns the measurements of the updates of this droplet.
+     */
+    public DropletMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Start tracing a stage of an update of this droplet.
+     * 
+     * @param stage
+     *            The stage.
+     * @return the span of the stage, to be ended when the stage ends.
+     */
+    protected TraceSpan trace(final Stage stage) {
+        return Tracing.get().beginUpdatePhase(stage.name().toLowerCase(Locale.US), identifier.toString(),
+                settings.getHost());
+    }
+
     /**
      * Set the emails controller to use.
      * 
@@ -170,17 +228,46 @@ public abstract class AbstractEmailDroplet implements Droplet {
         emc = controller;
     }
 
+    /**
+     * Set the clock that update deadlines are measured with.
+     * 
+     * @param clock
+     *            Clock to use.
+     */
+    public void setClock(final Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Set the listener that receives the results of updates as well as the
+     * droplet view.
+     * 
+     * @param listener
+     *            Listener to use, or null to remove the current listener.
+     */
+    public void setModelListener(final DropletModelListener listener) {
+        modelListener = listener;
+    }
+
     @Override
     public abstract void init() throws DropletInitException, DisconnectedException;
 
     @Override
-    public abstract void update();
+    public abstract void update(UpdateToken token);
 
     @Override
     public void destroy() {
+        MetricsRegistry.unregister(identifier);
+        if (snippets != null) {
+            snippets.close();
+        }
+        if (!DropletViews.isEnabled()) {
+            return;
+        }
         SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
+                DropletUpdateBatcher.INSTANCE.discard(view);
                 view.removeDropletViewListener(dvl);
                 configHandler.removeConfigDialogListener(cdl);
             }
@@ -198,6 +285,16 @@ public abstract class AbstractEmailDroplet implements Droplet {
      */
     public abstract Iterable<RippleModel> getRipples();
 
+    /**
+     * Creates a droplet model of this droplet.
+     * 
+     * @param ripples
+     *            Contents of the model.
+     */
+    protected DropletModel createDropletModel(final Iterable<RippleModel> ripples) {
+        return new DropletModel(getIdentifier(), getUsername(), ripples, snippets);
+    }
+
     /**
      * Get logger instance.
      */
@@ -211,52 +308,222 @@ public abstract class AbstractEmailDroplet implements Droplet {
     protected abstract void restart() throws DropletInitException, DisconnectedException;
 
     /**
-     * Reconfigure the current droplet using the given settings.
+     * Reconfigure the droplet with new settings, without going through the
+     * configuration dialog. The droplet is restarted with the new settings.
+     * 
+     * @param settings
+     *            The new settings.
+     */
+    public void reconfigure(final EmailSettings settings) {
+        outsideEDT();
+        try {
+            handleReconfig(settings).get();
+        } catch (final ExecutionException e) {
+            // Already logged, the old settings are being restored.
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reconfigure the current droplet using the given settings. The droplet is
+     * restarted in the background; if the restart fails, the old settings are
+     * restored.
      * 
      * @param settings
      *            The new settings.
+     * @return the pending restart.
      */
-    protected void handleReconfig(final EmailSettings settings) {
+    protected AsyncResult<DropletModel> handleReconfig(final EmailSettings settings) {
         if (settings == null) {
             throw new NullPointerException();
         }
 
-        EmailSettings oldSettings = this.settings;
+        final EmailSettings oldSettings = this.settings;
         this.settings = settings;
-        try {
-            Worker.post(new Task() {
-                @Override
-                public Object run() throws Exception {
-                    restart();
-                    return null;
+        metrics.setDroplet(settings.getUsername());
+
+        return Async.submit(new Callable<DropletModel>() {
+            @Override
+            public DropletModel call() throws Exception {
+                restart();
+
+                if (emc != null) {
+                    emc.dropletReconfigured(getIdentifier());
                 }
-            });
-        } catch (Exception e) {
-            getLogger().error("Droplet reconfiguration error", e);
 
-            // Restore the old settings so that we have something that works.
-            handleReconfig(oldSettings);
-            return;
+                // Success, lets get fresh emails.
+                return createDropletModel(getRipples());
+            }
+        }).onEDT(new AsyncCallback<DropletModel>() {
+            @Override
+            public void succeeded(final DropletModel dm) {
+                postDropletModel(dm, true);
+                // There is no configuration dialog without droplet views.
+                if (configHandler != null) {
+                    configHandler.hide();
+                }
+            }
+
+            @Override
+            public void failed(final Throwable cause) {
+                getLogger().error("Droplet reconfiguration error", cause);
+
+                // Restore the old settings so that we have something that works.
+                handleReconfig(oldSettings);
+            }
+        });
+    }
+
+    /**
+     * Update the droplet, allowing the update {@link #UPDATE_DEADLINE}
+     * milliseconds to complete.
+     */
+    @Override
+    public void update() {
+        update(new UpdateToken(clock, UPDATE_DEADLINE, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Record the given update as the update in progress. An update that was
+     * already in progress has been superseded and is cancelled.
+     * 
+     * @param token
+     *            Token of the new update.
+     */
+    protected void beginUpdate(final UpdateToken token) {
+        final UpdateToken previous = currentUpdate.getAndSet(token);
+        if (previous != null) {
+            previous.cancel();
+        }
+    }
+
+    /**
+     * Record that the given update has finished.
+     * 
+     * @param token
+     *            Token of the finished update.
+     */
+    protected void endUpdate(final UpdateToken token) {
+        currentUpdate.compareAndSet(token, null);
+    }
+
+    /**
+     * Returns the token of the update in progress, or null if there is none.
+     */
+    protected UpdateToken getCurrentUpdate() {
+        return currentUpdate.get();
+    }
+
+    /**
+     * Cancel the update in progress, if any. Its results will not be shown.
+     * Can be called from any thread.
+     */
+    public void cancelUpdate() {
+        final UpdateToken token = currentUpdate.getAndSet(null);
+        if (token != null) {
+            token.cancel();
+            postDropletUpdating(false);
+        }
+    }
+
+    /**
+     * Queue the results of an update to be shown on the droplet view, unless
+     * the update was cancelled or superseded.
+     * 
+     * @param token
+     *            Token of the update.
+     * @param model
+     *            Results of the update.
+     * @param replace
+     *            True if the results replace the model of the view, false to
+     *            add them to it.
+     * @return true if the results were queued, false if they were dropped.
+     */
+    protected boolean postUpdateResult(final UpdateToken token, final DropletModel model, final boolean replace) {
+        // A superseded update has been cancelled, so checking the token is
+        // enough once the update has been seen to be the current one.
+        final boolean posted = currentUpdate.get() == token && token.runIfValid(new Runnable() {
+            @Override
+            public void run() {
+                postDropletModel(model, replace);
+                postDropletUpdating(false);
+            }
+        });
+        if (!posted) {
+            getLogger().debug("Dropped the results of a cancelled update");
+            return false;
         }
+        return true;
+    }
+
+    /**
+     * Queue a model to be shown on the droplet view. The view is updated in
+     * the next batch of droplet view updates, the model listener is notified
+     * right away. Can be called from any thread.
+     * 
+     * @param model
+     *            Model to show.
+     * @param replace
+     *            True to replace the model of the view, false to add to it.
+     */
+    protected void postDropletModel(final DropletModel model, final boolean replace) {
+        final DropletModelListener listener = modelListener;
+        if (listener != null) {
+            listener.dropletModelChanged(model, replace);
+        }
+
+        postViewUpdate(new ViewUpdate() {
+            @Override
+            public void post(final DropletUpdateBatcher batcher, final DropletView target) {
+                if (replace) {
+                    batcher.setDropletModel(target, model);
+                } else {
+                    batcher.addDropletModel(target, model);
+                }
+            }
+        });
+    }
 
-        // Success, lets get fresh emails.
-        @SuppressWarnings("unchecked")
-        Iterable<RippleModel> rms = (Iterable<RippleModel>) Worker.post(new Job() {
+    /**
+     * Queue an updating status change for the droplet view. The view is
+     * updated in the next batch of droplet view updates. Can be called from
+     * any thread.
+     * 
+     * @param status
+     *            True if the droplet is updating, false otherwise.
+     */
+    protected void postDropletUpdating(final boolean status) {
+        postViewUpdate(new ViewUpdate() {
             @Override
-            public Object run() {
-                return getRipples();
+            public void post(final DropletUpdateBatcher batcher, final DropletView target) {
+                batcher.dropletUpdating(target, status);
             }
         });
+    }
 
-        final DropletModel dm = new DropletModel(getIdentifier(), getUsername(), rms);
+    private void postViewUpdate(final ViewUpdate update) {
+        final DropletView target = view;
+        if (target != null) {
+            update.post(DropletUpdateBatcher.INSTANCE, target);
+            return;
+        }
+        if (!DropletViews.isEnabled()) {
+            return;
+        }
 
-        EDTUtils.runOnEDT(new Runnable() {
+        // The view is still waiting to be created on the EDT, queue behind it.
+        SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
-                view.setDropletModel(dm);
-                configHandler.hide();
+                update.post(DropletUpdateBatcher.INSTANCE, view);
             }
         });
     }
 
+    /** An update to queue for the droplet view. */
+    private interface ViewUpdate {
+        void post(DropletUpdateBatcher batcher, DropletView target);
+    }
+
 }
@@ -18,12 +18,20 @@ package com.dteoh.tidal.sources.email;
 
 import static com.dteoh.tidal.util.EDTUtils.outsideEDT;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.Icon;
 import javax.swing.JComponent;
@@ -34,24 +42,31 @@ import org.slf4j.Logger;
 
 import com.dteoh.tidal.configuration.SaveConfigurable;
 import com.dteoh.tidal.controllers.ViewManager;
+import com.dteoh.tidal.diagnostics.DropletMetrics;
+import com.dteoh.tidal.diagnostics.TraceSpan;
+import com.dteoh.tidal.diagnostics.Tracer;
+import com.dteoh.tidal.diagnostics.Tracing;
 import com.dteoh.tidal.exceptions.DropletCreationException;
 import com.dteoh.tidal.guice.InjectLogger;
 import com.dteoh.tidal.id.ID;
+import com.dteoh.tidal.sources.DropletModelListener;
 import com.dteoh.tidal.sources.SetupDroplet;
 import com.dteoh.tidal.sources.email.impl.ImapDroplet;
 import com.dteoh.tidal.sources.email.models.EmailSettings;
 import com.dteoh.tidal.sources.email.models.Protocol;
 import com.dteoh.tidal.sources.email.views.EmailDropletSetup;
+import com.dteoh.tidal.util.Async;
+import com.dteoh.tidal.util.AsyncCallback;
+import com.dteoh.tidal.util.AsyncResult;
+import com.dteoh.tidal.util.Clock;
 import com.dteoh.tidal.util.EDTUtils;
+import com.dteoh.tidal.util.SystemClock;
+import com.dteoh.tidal.views.DropletViews;
 import com.dteoh.treasuremap.ResourceMaps;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 
-import foxtrot.AsyncTask;
-import foxtrot.AsyncWorker;
-import foxtrot.Job;
-import foxtrot.Worker;
-
 /**
  * This controller is used to manage email droplets.
  * 
@@ -69,7 +84,14 @@ public final class EmailDropletsController implements SetupDroplet, EmailsContro
 
     /** Email update schedule. */
     private static final long UPDATE_START_DELAY = TimeUnit.MILLISECONDS.convert(5, TimeUnit.SECONDS);
-    private static final long UPDATE_SCHEDULE = TimeUnit.MILLISECONDS.convert(5, TimeUnit.MINUTES);
+    public static final long UPDATE_SCHEDULE = TimeUnit.MILLISECONDS.convert(5, TimeUnit.MINUTES);
+
+    /**
+     * Reconnection schedule after the system resumes. Reconnections are spread
+     * over a window that does not grow with the number of droplets.
+     */
+    private static final long RESUME_DELAY = TimeUnit.MILLISECONDS.convert(2, TimeUnit.SECONDS);
+    private static final long RESUME_WINDOW = TimeUnit.MILLISECONDS.convert(30, TimeUnit.SECONDS);
 
     /** Mapping between identifiers and email droplets. */
     private final Map<ID, AbstractEmailDroplet> droplets;
@@ -82,14 +104,32 @@ public final class EmailDropletsController implements SetupDroplet, EmailsContro
     @Inject
     private ViewManager viewManager;
 
+    /** Receives the results of droplet updates, may be null. */
+    @Inject(optional = true)
+    private DropletModelListener modelListener;
+
     /** View used for setting up new email droplets. */
     private EmailDropletSetup setupView;
 
-    /** Used to schedule periodic email updates. */
-    private Timer scheduler;
+    /** Used to schedule periodic email updates and update deadlines. */
+    @Inject
+    private Clock clock = SystemClock.INSTANCE;
+
+    /** Scheduled email updates. Guarded by this. */
+    private final List<Clock.Scheduled> scheduled;
 
     /** Used to run tasks. */
-    private ExecutorService executor;
+    private final ExecutorService executor;
+
+    /**
+     * Droplets with an update queued or running. A droplet whose update is
+     * stuck is not updated again until that update ends, so stuck updates
+     * cannot pile up threads.
+     */
+    private final Set<AbstractEmailDroplet> updating;
+
+    /** Used to spread out reconnections. */
+    private final Random random = new Random();
 
     /**
      * Creates a new email droplets controller.
@@ -97,8 +137,22 @@ public final class EmailDropletsController implements SetupDroplet, EmailsContro
     @Inject
     private EmailDropletsController() {
         droplets = Maps.newHashMap();
-        executor = Executors.newCachedThreadPool();
+        scheduled = Lists.newArrayList();
+        updating = Collections.newSetFromMap(new ConcurrentHashMap<AbstractEmailDroplet, Boolean>());
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
 
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "Email worker-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        if (!DropletViews.isEnabled()) {
+            return;
+        }
         Runnable swingTask = new Runnable() {
             @Override
             public void run() {
@@ -122,31 +176,121 @@ public final class EmailDropletsController implements SetupDroplet, EmailsContro
     public AbstractEmailDroplet addEmailDroplet(final EmailSettings emailSettings) throws DropletCreationException {
         outsideEDT();
 
-        synchronized (this) {
-            // Determine what type of droplet to build based on the given
-            // protocol.
-            final Protocol protocol = emailSettings.getProtocol();
-            if (protocol == Protocol.imap || protocol == Protocol.imaps) {
-                // IMAP(S) protocol
-                final ImapDroplet imapsDroplet = ImapDroplet.create(emailSettings);
-                imapsDroplet.setEmailsController(this);
-
+        // Determine what type of droplet to build based on the given
+        // protocol. Droplets are built outside of the lock so that several
+        // droplets can be built at the same time.
+        final Protocol protocol = emailSettings.getProtocol();
+        if (protocol == Protocol.imap || protocol == Protocol.imaps) {
+            // IMAP(S) protocol
+            final ImapDroplet imapsDroplet = ImapDroplet.create(emailSettings);
+            imapsDroplet.setEmailsController(this);
+            imapsDroplet.setClock(clock);
+            imapsDroplet.setModelListener(modelListener);
+
+            synchronized (this) {
                 droplets.put(imapsDroplet.getIdentifier(), imapsDroplet);
                 saveConfig.addConfigurable(imapsDroplet);
+            }
 
-                EDTUtils.runOnEDT(new Runnable() {
-                    @Override
-                    public void run() {
-                        viewManager.displayView(imapsDroplet.getDropletView());
-                    }
-                });
-
+            if (!DropletViews.isEnabled()) {
                 return imapsDroplet;
-            } else {
-                // Unknown/unsupported protocols.
-                throw new DropletCreationException("Unknown protocol: " + protocol);
+            }
+            EDTUtils.runOnEDT(new Runnable() {
+                @Override
+                public void run() {
+                    viewManager.displayView(imapsDroplet.getDropletView());
+                }
+            });
+
+            return imapsDroplet;
+        } else {
+            // Unknown/unsupported protocols.
+            throw new DropletCreationException("Unknown protocol: " + protocol);
+        }
+    }
+
+    /**
+     * Create and add droplets for all of the given email settings in parallel.
+     * Each droplet starts connecting to its server as soon as it has been
+     * created, without waiting for the other droplets or for the update
+     * schedule.
+     * 
+     * @param settings
+     *            Settings of the droplets to create.
+     * @return the number of droplets created.
+     */
+    public int addEmailDroplets(final Iterable<EmailSettings> settings) {
+        outsideEDT();
+
+        final List<Future<AbstractEmailDroplet>> creations = Lists.newArrayList();
+        for (final EmailSettings emailSettings : settings) {
+            creations.add(submitEmailDroplet(emailSettings));
+        }
+        return awaitEmailDroplets(creations);
+    }
+
+    /**
+     * Create and add a droplet in the background. The droplet is displayed and
+     * starts connecting to its server as soon as it has been created.
+     * 
+     * @param emailSettings
+     *            Settings of the droplet to create.
+     * @return the pending droplet creation.
+     */
+    public Future<AbstractEmailDroplet> submitEmailDroplet(final EmailSettings emailSettings) {
+        return executor.submit(new Callable<AbstractEmailDroplet>() {
+            @Override
+            public AbstractEmailDroplet call() throws DropletCreationException {
+                final long start = System.nanoTime();
+                final AbstractEmailDroplet d = addEmailDroplet(emailSettings);
+                logger.debug("Created droplet for {} in {}ms", emailSettings.getHost(), TimeUnit.NANOSECONDS
+                        .toMillis(System.nanoTime() - start));
+                warmUp(d, emailSettings);
+                return d;
+            }
+        });
+    }
+
+    /**
+     * Wait for droplet creations submitted with
+     * {@link #submitEmailDroplet(EmailSettings)} to complete.
+     * 
+     * @param creations
+     *            Pending droplet creations.
+     * @return the number of droplets created.
+     */
+    public int awaitEmailDroplets(final Iterable<Future<AbstractEmailDroplet>> creations) {
+        outsideEDT();
+
+        int created = 0;
+        for (final Future<AbstractEmailDroplet> creation : creations) {
+            try {
+                creation.get();
+                created++;
+            } catch (final ExecutionException e) {
+                logger.error("Cannot create droplet", e.getCause());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
             }
         }
+        return created;
+    }
+
+    /**
+     * Connect a newly created droplet and retrieve its emails.
+     */
+    private void warmUp(final AbstractEmailDroplet d, final EmailSettings emailSettings) {
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                final long start = System.nanoTime();
+                if (updateNow(d)) {
+                    logger.info("Warmed up droplet for {} in {}ms", emailSettings.getHost(), TimeUnit.NANOSECONDS
+                            .toMillis(System.nanoTime() - start));
+                }
+            }
+        });
     }
 
     /**
@@ -157,44 +301,115 @@ public final class EmailDropletsController implements SetupDroplet, EmailsContro
      * @return true if the droplet exists and is destroyed, false otherwise.
      */
     public boolean destroyDroplet(final ID dropletID) {
+        final AbstractEmailDroplet d;
         synchronized (this) {
-            if (SwingUtilities.isEventDispatchThread()) {
-                boolean result = (Boolean) Worker.post(new Job() {
-                    @Override
-                    public Object run() {
-                        final AbstractEmailDroplet abstractEmailDroplet = droplets.remove(dropletID);
-                        if (abstractEmailDroplet != null) {
-                            abstractEmailDroplet.destroy();
-                            saveConfig.removeConfigurable(abstractEmailDroplet);
-
-                            EDTUtils.runOnEDT(new Runnable() {
-                                @Override
-                                public void run() {
-                                    viewManager.removeView(abstractEmailDroplet.getDropletView());
-                                }
-                            });
-                            return true;
-                        }
-                        return false;
-                    }
-                });
-                return result;
+            d = droplets.remove(dropletID);
+        }
+        if (d == null) {
+            return false;
+        }
+
+        if (DropletViews.isEnabled()) {
+            EDTUtils.runOnEDT(new Runnable() {
+                @Override
+                public void run() {
+                    viewManager.removeView(d.getDropletView());
+                }
+            });
+        }
+
+        // Disconnecting may take a while, so never do it on the EDT.
+        final AsyncResult<Void> destroyed = Async.submit(new Runnable() {
+            @Override
+            public void run() {
+                d.destroy();
+                saveConfig.removeConfigurable(d);
+                if (modelListener != null) {
+                    modelListener.dropletRemoved(d.getIdentifier());
+                }
             }
+        });
+
+        if (!SwingUtilities.isEventDispatchThread()) {
+            try {
+                destroyed.get();
+            } catch (final ExecutionException e) {
+                logger.error("Failed to destroy droplet", e.getCause());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Bring the managed droplets in line with the given settings. Accounts are
+     * matched by protocol, host and username. Droplets for accounts that are
+     * no longer present are destroyed, droplets for new accounts are created,
+     * and droplets whose settings changed are reconfigured. Droplets for
+     * unchanged accounts are left alone, keeping their connections.
+     * 
+     * @param settings
+     *            The complete set of email settings.
+     */
+    public void synchronize(final Iterable<EmailSettings> settings) {
+        outsideEDT();
 
-            // Should be a mirror of the posted job.
-            final AbstractEmailDroplet abstractEmailDroplet = droplets.remove(dropletID);
-            if (abstractEmailDroplet != null) {
-                abstractEmailDroplet.destroy();
-                saveConfig.removeConfigurable(abstractEmailDroplet);
-                EDTUtils.runOnEDT(new Runnable() {
+        final Map<String, EmailSettings> wanted = Maps.newLinkedHashMap();
+        for (final EmailSettings emailSettings : settings) {
+            wanted.put(accountKey(emailSettings), emailSettings);
+        }
+
+        final Map<String, AbstractEmailDroplet> live = Maps.newHashMap();
+        synchronized (this) {
+            for (final AbstractEmailDroplet d : droplets.values()) {
+                live.put(accountKey(d.getSettings()), d);
+            }
+        }
+
+        int removed = 0;
+        int reconfigured = 0;
+        for (final Map.Entry<String, AbstractEmailDroplet> entry : live.entrySet()) {
+            final AbstractEmailDroplet d = entry.getValue();
+            final EmailSettings newSettings = wanted.remove(entry.getKey());
+            if (newSettings == null) {
+                destroyDroplet(d.getIdentifier());
+                removed++;
+            } else if (!newSettings.equals(d.getSettings())) {
+                executor.submit(new Runnable() {
                     @Override
                     public void run() {
-                        viewManager.removeView(abstractEmailDroplet.getDropletView());
+                        d.reconfigure(newSettings);
                     }
                 });
-                return true;
+                reconfigured++;
             }
-            return false;
+        }
+
+        // Whatever is left is new.
+        for (final EmailSettings emailSettings : wanted.values()) {
+            submitEmailDroplet(emailSettings);
+        }
+
+        logger.info("Synchronized droplets: {} added, {} removed, {} reconfigured", new Object[] { wanted.size(),
+                removed, reconfigured });
+    }
+
+    /**
+     * Identifies the account that email settings belong to.
+     */
+    private static String accountKey(final EmailSettings settings) {
+        return settings.getProtocol() + "://" + settings.getUsername() + "@" + settings.getHost();
+    }
+
+    @Override
+    public void dropletReconfigured(final ID dropletID) {
+        final AbstractEmailDroplet droplet;
+        synchronized (this) {
+            droplet = droplets.get(dropletID);
+        }
+        if (droplet != null) {
+            saveConfig.configurableChanged(droplet);
         }
     }
 
@@ -202,42 +417,162 @@ public final class EmailDropletsController implements SetupDroplet, EmailsContro
      * Schedules email updates.
      */
     public void schedule() {
-        if (scheduler == null) {
-            // Daemon thread.
-            scheduler = new Timer(true);
-        } else {
-            // Stop currently executing tasks.
-            scheduler.cancel();
-            scheduler = new Timer(true);
-        }
+        schedule(UPDATE_START_DELAY);
+    }
 
-        TimerTask task = new TimerTask() {
+    /**
+     * Schedules email updates for droplets that have just been warmed up by
+     * {@link #addEmailDroplets(Iterable)}. The first scheduled update happens
+     * after a full update period.
+     */
+    public void scheduleAfterWarmUp() {
+        schedule(UPDATE_SCHEDULE);
+    }
+
+    /**
+     * Schedules email updates.
+     * 
+     * @param delay
+     *            Delay in milliseconds before the first update.
+     */
+    private void schedule(final long delay) {
+        final Runnable task = new Runnable() {
             @Override
             public void run() {
-                for (final AbstractEmailDroplet d : droplets.values()) {
-                    executor.submit(new Runnable() {
-                        @Override
-                        public void run() {
-                            d.update();
-                        }
-                    });
+                final List<AbstractEmailDroplet> current;
+                synchronized (EmailDropletsController.this) {
+                    current = Lists.newArrayList(droplets.values());
+                }
+                for (final AbstractEmailDroplet d : current) {
+                    submitUpdate(d);
                 }
             }
         };
 
-        scheduler.schedule(task, UPDATE_START_DELAY, UPDATE_SCHEDULE);
+        synchronized (this) {
+            // Stop currently scheduled tasks.
+            cancelScheduled();
+            scheduled.add(clock.scheduleWithFixedDelay(task, delay, UPDATE_SCHEDULE, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    /**
+     * Cancel all scheduled email updates. Must hold the lock on this.
+     */
+    private void cancelScheduled() {
+        for (final Clock.Scheduled s : scheduled) {
+            s.cancel();
+        }
+        scheduled.clear();
     }
 
     /**
-     * Pause scheduled email updates. Resume by calling {@link #schedule()}.
+     * Resume email updates after the system has resumed from sleep or its
+     * network has changed. Existing connections are likely to be dead, so
+     * every droplet reconnects at a random time within the next
+     * {@link #RESUME_WINDOW} milliseconds, so that the mail servers are not all
+     * contacted at once.
+     */
+    public void resume() {
+        pause();
+
+        final List<AbstractEmailDroplet> current;
+        synchronized (this) {
+            current = Lists.newArrayList(droplets.values());
+        }
+
+        // Regular updates carry on a period after resuming.
+        schedule(UPDATE_SCHEDULE);
+
+        synchronized (this) {
+            for (final AbstractEmailDroplet d : current) {
+                final long delay = RESUME_DELAY + random.nextInt((int) RESUME_WINDOW);
+                scheduled.add(clock.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        submitUpdate(d);
+                    }
+                }, delay, TimeUnit.MILLISECONDS));
+            }
+        }
+    }
+
+    /**
+     * Update a droplet in the background, unless an update of the droplet is
+     * already queued or running.
+     */
+    private void submitUpdate(final AbstractEmailDroplet d) {
+        if (!updating.add(d)) {
+            logger.debug("Skipped update of {}, the previous update has not finished", d.getSettings().getHost());
+            return;
+        }
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runUpdate(d);
+                } finally {
+                    updating.remove(d);
+                }
+            }
+        });
+    }
+
+    /**
+     * Update a droplet on the calling thread, unless an update of the droplet
+     * is already queued or running.
+     * 
+     * @return true if the droplet was updated.
+     */
+    private boolean updateNow(final AbstractEmailDroplet d) {
+        if (!updating.add(d)) {
+            logger.debug("Skipped update of {}, the previous update has not finished", d.getSettings().getHost());
+            return false;
+        }
+        try {
+            runUpdate(d);
+            return true;
+        } finally {
+            updating.remove(d);
+        }
+    }
+
+    /**
+     * Update a droplet, tracing the whole update.
+     */
+    private static void runUpdate(final AbstractEmailDroplet d) {
+        final DropletMetrics metrics = d.getMetrics();
+        final long messages = metrics.getMessagesFetched();
+        final long bytes = metrics.getBytesFetched();
+        final TraceSpan span = Tracing.get().beginUpdatePhase(Tracer.UPDATE, d.getIdentifier().toString(),
+                d.getSettings().getHost());
+        try {
+            d.update();
+        } finally {
+            span.setMessages((int) (metrics.getMessagesFetched() - messages));
+            span.setBytes(metrics.getBytesFetched() - bytes);
+            span.end();
+        }
+    }
+
+    /**
+     * Pause scheduled email updates and cancel the updates in progress. Resume
+     * by calling {@link #schedule()}.
      */
     public void pause() {
-        if (scheduler != null) {
-            scheduler.cancel();
-            scheduler = null;
+        synchronized (this) {
+            cancelScheduled();
+        }
+
+        // Interrupting the update threads would not stop blocking mail I/O,
+        // cancelling the updates closes their connections instead.
+        final List<AbstractEmailDroplet> current;
+        synchronized (this) {
+            current = Lists.newArrayList(droplets.values());
+        }
+        for (final AbstractEmailDroplet d : current) {
+            d.cancelUpdate();
         }
-        executor.shutdownNow();
-        executor = Executors.newCachedThreadPool();
     }
 
     @Override
@@ -267,42 +602,32 @@ public final class EmailDropletsController implements SetupDroplet, EmailsContro
     public boolean createDropletFromSetup() {
         final EmailSettings settings = setupView.getSettings();
 
-        boolean result = (Boolean) Worker.post(new Job() {
+        final Protocol protocol = settings.getProtocol();
+        if (protocol != Protocol.imap && protocol != Protocol.imaps) {
+            logger.error("Failed to create droplet, unknown protocol: {}", protocol);
+            return false;
+        }
+
+        Async.submit(new Callable<AbstractEmailDroplet>() {
             @Override
-            public Object run() {
-                try {
-                    logger.debug("Creating droplet from setup");
-                    final AbstractEmailDroplet d = EmailDropletsController.this.addEmailDroplet(settings);
-
-                    if (SwingUtilities.isEventDispatchThread()) {
-                        AsyncWorker.post(new AsyncTask() {
-
-                            @Override
-                            public Object run() throws Exception {
-                                d.update();
-                                return null;
-                            }
-
-                            @Override
-                            public void success(final Object arg0) {
-                            }
-
-                            @Override
-                            public void failure(final Throwable arg0) {
-                            }
-                        });
-                    } else {
-                        d.update();
-                    }
-                    logger.debug("Sucessfully created droplet");
-                    return true;
-                } catch (DropletCreationException e) {
-                    logger.error("Failed to create droplet", e);
-                }
-                return false;
+            public AbstractEmailDroplet call() throws DropletCreationException {
+                logger.debug("Creating droplet from setup");
+                final AbstractEmailDroplet d = addEmailDroplet(settings);
+                updateNow(d);
+                return d;
+            }
+        }).onEDT(new AsyncCallback<AbstractEmailDroplet>() {
+            @Override
+            public void succeeded(final AbstractEmailDroplet d) {
+                logger.debug("Sucessfully created droplet");
+            }
+
+            @Override
+            public void failed(final Throwable cause) {
+                logger.error("Failed to create droplet", cause);
             }
         });
 
-        return result;
+        return true;
     }
 }
@@ -35,4 +35,12 @@ interface EmailsController {
      */
     boolean destroyDroplet(final ID dropletID);
 
+    /**
+     * Notify that the droplet with the given identifier has been reconfigured.
+     * 
+     * @param dropletID
+     *            droplet identifier.
+     */
+    void dropletReconfigured(final ID dropletID);
+
 }
@@ -18,10 +18,13 @@ package com.dteoh.tidal.sources.email.impl;
 
 import static com.dteoh.tidal.util.EDTUtils.outsideEDT;
 
+import java.io.File;
 import java.io.IOException;
+import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 import javax.mail.Address;
 import javax.mail.BodyPart;
@@ -36,30 +39,40 @@ import javax.mail.Store;
 import javax.mail.internet.ContentType;
 import javax.mail.internet.ParseException;
 import javax.mail.search.FlagTerm;
+import javax.net.SocketFactory;
+import javax.net.ssl.SSLSocketFactory;
 
 import org.jdesktop.application.ResourceMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.dteoh.tidal.diagnostics.DropletMetrics.Stage;
+import com.dteoh.tidal.diagnostics.TraceSpan;
 import com.dteoh.tidal.exceptions.DisconnectedException;
 import com.dteoh.tidal.exceptions.DropletCreationException;
 import com.dteoh.tidal.exceptions.DropletInitException;
 import com.dteoh.tidal.id.ID;
 import com.dteoh.tidal.id.IDGenerator;
+import com.dteoh.tidal.sources.UpdateToken;
 import com.dteoh.tidal.sources.email.AbstractEmailDroplet;
 import com.dteoh.tidal.sources.email.models.EmailSettings;
 import com.dteoh.tidal.sources.email.models.Protocol;
-import com.dteoh.tidal.util.EDTUtils;
 import com.dteoh.tidal.util.HTMLUtils;
 import com.dteoh.tidal.util.NetworkUtils;
 import com.dteoh.tidal.views.models.DropletModel;
 import com.dteoh.tidal.views.models.RippleModel;
 import com.dteoh.treasuremap.ResourceMaps;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 
 /**
  * This Droplet is used to handle imap/imaps email services.
  * 
+ * Setting the {@value #RECORD_PROPERTY} system property to true records the
+ * IMAP conversation of every update, without credentials and content, to
+ * {@code ~/.tidal/recordings}. Recordings can be played back with a
+ * {@link ReplaySocketFactory}.
+ * 
  * @author Douglas Teoh
  */
 public final class ImapDroplet extends AbstractEmailDroplet {
@@ -68,9 +81,19 @@ public final class ImapDroplet extends AbstractEmailDroplet {
 
     private static final ResourceMap BUNDLE = new ResourceMaps(ImapDroplet.class).build();
 
+    /** System property enabling recording of updates. */
+    public static final String RECORD_PROPERTY = "tidal.imap.record";
+    /** Directory of recordings, relative to the home directory. */
+    private static final String RECORDINGS = ".tidal/recordings";
+
     private Store store = null;
     private Folder inbox = null;
 
+    /** Creates the connections of updates instead of the default factory. */
+    private volatile SocketFactory transport;
+    /** Records the update in progress, if recording. */
+    private volatile SessionRecorder recorder;
+
     public static ImapDroplet create(final EmailSettings settings) throws DropletCreationException {
         outsideEDT();
         return new ImapDroplet(IDGenerator.generateID(), settings);
@@ -104,6 +127,9 @@ public final class ImapDroplet extends AbstractEmailDroplet {
     @Override
     public void destroy() {
         outsideEDT();
+        // Closes the connections of an update in progress, which would
+        // otherwise hold up cleaning up.
+        cancelUpdate();
         cleanup();
         super.destroy();
     }
@@ -112,7 +138,12 @@ public final class ImapDroplet extends AbstractEmailDroplet {
     public void init() throws DropletInitException, DisconnectedException {
         outsideEDT();
 
-        if (!NetworkUtils.isGoogleReachable()) {
+        final String host = getHostName(settings.getHost());
+        final int port = getPort(settings.getHost());
+
+        // A server on this machine is reachable whatever the state of the
+        // network.
+        if (!isLoopback(host) && !NetworkUtils.isGoogleReachable()) {
             throw new DisconnectedException();
         }
 
@@ -121,86 +152,175 @@ public final class ImapDroplet extends AbstractEmailDroplet {
         if (settings.getProtocol() == Protocol.imaps) {
             LOGGER.debug("Setting properties");
             props.setProperty("mail.imaps.starttls.enable", "true");
-            props.setProperty("mail.imaps.host", settings.getHost());
-            props.setProperty("mail.imaps.port", "993");
+            props.setProperty("mail.imaps.host", host);
+            props.setProperty("mail.imaps.port", port == -1 ? "993" : String.valueOf(port));
             props.setProperty("mail.imaps.user", settings.getUsername());
         }
 
+        final UpdateToken token = getCurrentUpdate();
+        if (token != null) {
+            // Connections of the update are closed if it is cancelled, and
+            // must not block for longer than the update is allowed to take.
+            final String prefix = "mail." + settings.getProtocol();
+            SocketFactory factory = transport;
+            if (factory == null) {
+                factory = settings.getProtocol() == Protocol.imaps ? SSLSocketFactory.getDefault() : SocketFactory
+                        .getDefault();
+            }
+            final SessionRecorder recording = recorder;
+            if (recording != null) {
+                factory = new RecordingSocketFactory(factory, recording);
+            }
+            props.put(prefix + ".socketFactory", new TrackingSocketFactory(factory, token));
+            props.setProperty(prefix + ".socketFactory.fallback", "false");
+
+            final String timeout = String.valueOf(Math.max(1, token.getRemaining(TimeUnit.MILLISECONDS)));
+            props.setProperty(prefix + ".connectiontimeout", timeout);
+            props.setProperty(prefix + ".timeout", timeout);
+        }
+
         final Session session = Session.getInstance(props, null);
         LOGGER.debug("Got session");
 
         // Set up the mailbox to read from
+        final TraceSpan connectSpan = trace(Stage.CONNECT);
         try {
             LOGGER.debug("Starting MBOX setup");
+            final long connectStart = System.nanoTime();
             store = session.getStore(settings.getProtocol().toString());
             LOGGER.debug("Got MBOX store");
-            store.connect(settings.getHost(), settings.getUsername(), settings.getPassword());
+            store.connect(host, port, settings.getUsername(), settings.getPassword());
             LOGGER.debug("Connected to MBOX store");
             inbox = store.getFolder("INBOX");
             LOGGER.debug("Got inbox");
             inbox.open(Folder.READ_ONLY);
             LOGGER.debug("Inbox opened");
+            metrics.record(Stage.CONNECT, connectStart);
         } catch (final NoSuchProviderException e) {
             LOGGER.error("Init exception", e);
+            metrics.error();
             throw new DropletInitException(e);
         } catch (final MessagingException e) {
             LOGGER.error("Init exception", e);
+            metrics.error();
             throw new DropletInitException(e);
+        } finally {
+            connectSpan.end();
         }
     }
 
     @Override
-    public void update() {
+    public void update(final UpdateToken token) {
         outsideEDT();
 
         LOGGER.info("Starting update");
 
-        EDTUtils.runOnEDT(new Runnable() {
-            @Override
-            public void run() {
-                view.dropletUpdating(true);
+        beginUpdate(token);
+        postDropletUpdating(true);
+        recorder = startRecording();
+
+        try {
+            try {
+                LOGGER.info("Restarting");
+
+                restart();
+
+                LOGGER.info("Restarted");
+            } catch (DropletInitException e) {
+                if (!token.isCancelled()) {
+                    LOGGER.error("Failed to restart IMAP droplet", e);
+                }
+                // The network connection might be down.
+                updateUI(EMPTY, false, token);
+                return;
+            } catch (DisconnectedException e) {
+                LOGGER.error("Network down", e);
+                updateUI(EMPTY, false, token);
+                return;
             }
-        });
 
+            LOGGER.info("Get ripples");
+            final Iterable<RippleModel> rms = fetchUnread();
+            LOGGER.info("Get ripples done");
+            // The unread messages replace the ones shown, which may have been
+            // read since. Keep showing them if the download failed.
+            updateUI(rms == null ? EMPTY : rms, rms != null, token);
+        } finally {
+            endUpdate(token);
+            final SessionRecorder recording = recorder;
+            recorder = null;
+            if (recording != null) {
+                recording.close();
+            }
+        }
+    }
+
+    /**
+     * Start recording an update, if enabled through the
+     * {@value #RECORD_PROPERTY} system property.
+     * 
+     * @return the recorder, or null if not recording.
+     */
+    private SessionRecorder startRecording() {
+        if (!Boolean.getBoolean(RECORD_PROPERTY)) {
+            return null;
+        }
+        final String name = "imap-" + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date()) + "-"
+                + getIdentifier() + ".rec.gz";
+        final File file = new File(new File(System.getProperty("user.home"), RECORDINGS), name);
         try {
-            LOGGER.info("Restarting");
-
-            restart();
-
-            LOGGER.info("Restarted");
-        } catch (DropletInitException e) {
-            LOGGER.error("Failed to restart IMAP droplet", e);
-            // The network connection might be down.
-            updateUI(EMPTY);
-            return;
-        } catch (DisconnectedException e) {
-            LOGGER.error("Network down", e);
-            updateUI(EMPTY);
-            return;
+            return new SessionRecorder(file);
+        } catch (final IOException e) {
+            LOGGER.error("Could not record update", e);
+            return null;
         }
+    }
 
-        LOGGER.info("Get ripples");
-        Iterable<RippleModel> rms = getRipples();
-        LOGGER.info("Get ripples done");
-        updateUI(rms);
+    /**
+     * Create the connections of updates with the given factory, e.g. to play
+     * back a recorded update.
+     * 
+     * @param factory
+     *            Factory to use, or null for the default factory.
+     */
+    void setTransport(final SocketFactory factory) {
+        transport = factory;
     }
 
     @Override
     public Iterable<RippleModel> getRipples() {
         outsideEDT();
 
+        final Iterable<RippleModel> unread = fetchUnread();
+        return unread == null ? EMPTY : unread;
+    }
+
+    /**
+     * Download every unread message of the inbox.
+     * 
+     * @return the unread messages, or null if they could not be downloaded.
+     */
+    private Iterable<RippleModel> fetchUnread() {
         if (inbox == null) {
-            return EMPTY;
+            return null;
         }
 
         try {
             // This search option will only download unread messages.
             final FlagTerm searchOption = new FlagTerm(new Flags(Flags.Flag.SEEN), false);
+            final TraceSpan searchSpan = trace(Stage.SEARCH);
+            final long searchStart = System.nanoTime();
             final Message[] messages = inbox.search(searchOption);
+            metrics.record(Stage.SEARCH, searchStart);
+            searchSpan.setMessages(messages.length);
+            searchSpan.end();
+            metrics.setBacklog(messages.length);
 
             // Make ripple models
             final List<RippleModel> unreadRipples = Lists.newLinkedList();
             for (int i = 0; i < messages.length; i++) {
+                final TraceSpan fetchSpan = trace(Stage.FETCH);
+                final long fetchStart = System.nanoTime();
                 Address[] senderAddresses = messages[i].getFrom();
                 String subject = messages[i].getSubject();
                 Date sent = messages[i].getSentDate();
@@ -208,15 +328,26 @@ public final class ImapDroplet extends AbstractEmailDroplet {
 
                 ContentType ct = new ContentType(messages[i].getContentType());
                 String ctBaseType = ct.getBaseType();
+                boolean text = "text/plain".equalsIgnoreCase(ctBaseType) || "text/html".equalsIgnoreCase(ctBaseType);
+                boolean multipart = "multipart".equalsIgnoreCase(ct.getPrimaryType());
+                Object body = text || multipart ? messages[i].getContent() : null;
+                metrics.record(Stage.FETCH, fetchStart);
+                fetchSpan.setMessages(1);
+                fetchSpan.setBytes(messages[i].getSize());
+                fetchSpan.end();
+
+                // Parts of multipart messages are only downloaded when their
+                // content is extracted, which is timed as parsing.
+                final TraceSpan parseSpan = trace(Stage.PARSE);
+                final long parseStart = System.nanoTime();
                 String content;
 
                 if ("text/plain".equalsIgnoreCase(ctBaseType)) {
-                    content = (String) messages[i].getContent();
+                    content = (String) body;
                 } else if ("text/html".equalsIgnoreCase(ctBaseType)) {
-                    content = (String) messages[i].getContent();
-                    content = HTMLUtils.html2text(content);
-                } else if ("multipart".equalsIgnoreCase(ct.getPrimaryType())) {
-                    content = extractMultipartContent((Multipart) messages[i].getContent());
+                    content = HTMLUtils.html2text((String) body);
+                } else if (multipart) {
+                    content = extractMultipartContent((Multipart) body);
                 } else {
                     content = "Unhandled content type: " + ctBaseType;
                     LOGGER.info(content);
@@ -224,6 +355,10 @@ public final class ImapDroplet extends AbstractEmailDroplet {
 
                 RippleModel rm = new RippleModel.Builder(messages[i].getMessageNumber()).origin(origin)
                         .content(content).subject(subject).received(sent.getTime()).build();
+                metrics.record(Stage.PARSE, parseStart);
+                parseSpan.end();
+                metrics.messageFetched(messages[i].getSize());
+                metrics.setBacklog(messages.length - i - 1);
 
                 unreadRipples.add(rm);
             }
@@ -231,11 +366,14 @@ public final class ImapDroplet extends AbstractEmailDroplet {
             return unreadRipples;
         } catch (final MessagingException e) {
             LOGGER.error("Could not download messages", e);
+            metrics.error();
         } catch (final IOException e) {
             LOGGER.error("Could not download message content", e);
+            metrics.error();
         }
 
-        return EMPTY;
+        metrics.setBacklog(0);
+        return null;
     }
 
     @Override
@@ -260,7 +398,7 @@ public final class ImapDroplet extends AbstractEmailDroplet {
      * @throws IOException
      *             When there is an error retrieving the multipart body content.
      */
-    private String extractMultipartContent(final Multipart message) throws ParseException, IOException {
+    static String extractMultipartContent(final Multipart message) throws ParseException, IOException {
         ContentType ct = new ContentType(message.getContentType());
         String subType = ct.getSubType();
 
@@ -299,8 +437,50 @@ public final class ImapDroplet extends AbstractEmailDroplet {
         return multipartContent;
     }
 
+    /**
+     * Retrieve the host name from a server address of the form
+     * <code>host</code> or <code>host:port</code>.
+     */
+    static String getHostName(final String address) {
+        final int colon = portSeparator(address);
+        final String host = colon == -1 ? address : address.substring(0, colon);
+        return host.startsWith("[") && host.endsWith("]") ? host.substring(1, host.length() - 1) : host;
+    }
+
+    /**
+     * Retrieve the port from a server address of the form <code>host</code>
+     * or <code>host:port</code>.
+     * 
+     * @return the port, or -1 if the address does not have one.
+     */
+    static int getPort(final String address) {
+        final int colon = portSeparator(address);
+        if (colon == -1) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(address.substring(colon + 1));
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static int portSeparator(final String address) {
+        final int colon = address.lastIndexOf(':');
+        if (colon == -1) {
+            return -1;
+        }
+        // IPv6 addresses only have a port when written in brackets.
+        return colon == address.indexOf(':') || address.charAt(colon - 1) == ']' ? colon : -1;
+    }
+
+    private static boolean isLoopback(final String host) {
+        return "localhost".equalsIgnoreCase(host) || host.startsWith("127.") || "::1".equals(host);
+    }
+
     private void cleanup() {
-        if (inbox != null) {
+        // The folder is already closed if the connection was lost.
+        if (inbox != null && inbox.isOpen()) {
             try {
                 // False, because deleted messages get expunged if true.
                 inbox.close(false);
@@ -319,15 +499,19 @@ public final class ImapDroplet extends AbstractEmailDroplet {
     }
 
     private void updateUI(final Iterable<RippleModel> models) {
-        final DropletModel dm = new DropletModel(getIdentifier(), getUsername(), models);
+        final DropletModel dm = createDropletModel(models);
 
-        EDTUtils.runOnEDT(new Runnable() {
-            @Override
-            public void run() {
-                view.addDropletModel(dm);
-                view.dropletUpdating(false);
-            }
-        });
+        postDropletModel(dm, false);
+        postDropletUpdating(false);
+    }
+
+    private void updateUI(final Iterable<RippleModel> models, final boolean replace, final UpdateToken token) {
+        final TraceSpan handoffSpan = trace(Stage.HANDOFF);
+        final long handoffStart = System.nanoTime();
+        postUpdateResult(token, createDropletModel(models), replace);
+        metrics.record(Stage.HANDOFF, handoffStart);
+        handoffSpan.setMessages(Iterables.size(models));
+        handoffSpan.end();
     }
 
 }
@@ -0,0 +1,307 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.sources.email.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+/**
+ * Removes credentials and message content from one direction of an IMAP
+ * conversation, while keeping everything that shapes the work of a client:
+ * the commands, the protocol structure, message sizes and MIME structure.
+ * 
+ * Redaction replaces letters and non-ASCII bytes with {@code x} and digits
+ * with {@code 0}, byte for byte, so literal lengths and message sizes stay
+ * valid. Quoted-printable escapes in content become {@code =78}, an escaped
+ * {@code x}, so they still decode to one byte. Kept as they are:
+ * <ul>
+ * <li>everything outside of quoted strings and literals, except the arguments
+ * of LOGIN and the lines following AUTHENTICATE;</li>
+ * <li>quoted strings naming MIME types, parameters, encodings, charsets and
+ * dispositions, and dates;</li>
+ * <li>the Date, MIME-Version and Content-* headers of messages, and the
+ * boundaries of their parts.</li>
+ * </ul>
+ * 
+ * Data is redacted a line at a time; bytes of an incomplete line are held back
+ * until the line is complete or {@link #flush()} is called.
+ * 
+ * @author Douglas Teoh
+ */
+final class ImapRedactor {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /** Quoted strings describing MIME structure. */
+    private static final Set<String> KEPT_STRINGS = ImmutableSet.of("TEXT", "PLAIN", "HTML", "ENRICHED",
+            "CALENDAR", "MULTIPART", "MIXED", "ALTERNATIVE", "RELATED", "DIGEST", "REPORT", "SIGNED", "ENCRYPTED",
+            "MESSAGE", "RFC822", "DELIVERY-STATUS", "APPLICATION", "OCTET-STREAM", "PDF", "ZIP", "IMAGE", "JPEG",
+            "PNG", "GIF", "AUDIO", "VIDEO", "7BIT", "8BIT", "BINARY", "BASE64", "QUOTED-PRINTABLE", "CHARSET",
+            "BOUNDARY", "NAME", "FILENAME", "FORMAT", "FLOWED", "DELSP", "TYPE", "INLINE", "ATTACHMENT", "INBOX");
+
+    private static final Pattern CHARSET = Pattern.compile("(?i)US-ASCII|UTF-\\d+|ISO-8859-\\d+|WINDOWS-125\\d|"
+            + "ISO-2022-[A-Z]+|SHIFT_JIS|EUC-[A-Z]+|GB2312|GBK|BIG5|KOI8-[A-Z]");
+
+    /** Internal dates and the dates of envelopes. */
+    private static final Pattern DATE = Pattern.compile("(?:[A-Za-z]{3}, ?)? ?\\d{1,2}[ -][A-Za-z]{3}[ -]\\d{4} "
+            + "\\d{1,2}:\\d\\d(?::\\d\\d)?(?: .*)?");
+
+    /** Headers that are kept. */
+    private static final Set<String> KEPT_HEADERS = ImmutableSet.of("date", "mime-version", "content-type",
+            "content-transfer-encoding", "content-disposition", "content-id", "content-description");
+
+    /** Literal at the end of a line, also in its non-synchronizing form. */
+    private static final Pattern LITERAL = Pattern.compile("\\{(\\d+)\\+?\\}\\r?\\n$");
+
+    /** Fetch items whose literal is a message or the headers of one. */
+    private static final Pattern MESSAGE_ITEM = Pattern.compile("(?i)(?:RFC822(?:\\.HEADER)?|BODY\\[(?:[\\d.]*"
+            + "HEADER[^\\]]*|[\\d.]*MIME)?\\](?:<\\d+>)?) \\{\\d+\\+?\\}\\r?\\n$");
+
+    private static final Pattern BOUNDARY = Pattern.compile("(?i)boundary=\"?([^\";\\r\\n]+)");
+
+    private static final Pattern LOGIN = Pattern.compile("(?i)^\\S+ LOGIN ");
+
+    private static final Pattern AUTHENTICATE = Pattern.compile("(?i)^\\S+ AUTHENTICATE ");
+
+    private final boolean fromServer;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+    /** Bytes left of the literal being read, 0 outside of literals. */
+    private long literal;
+    /** If the literal is a message, as opposed to plain text. */
+    private boolean message;
+    /** If the literal is at the headers of a message or part. */
+    private boolean headers;
+    /** If the header being read is kept. */
+    private boolean keepHeader;
+    /** The Content-Type header being read. */
+    private final StringBuilder contentType = new StringBuilder();
+    /** Boundaries of the parts of the message being read. */
+    private final Set<String> boundaries = Sets.newHashSet();
+    /** If the next line is part of an authentication exchange. */
+    private boolean authenticating;
+
+    /**
+     * @param fromServer
+     *            True to redact responses, false to redact commands.
+     */
+    ImapRedactor(final boolean fromServer) {
+        this.fromServer = fromServer;
+    }
+
+    /**
+     * Redact the next bytes of the conversation.
+     * 
+     * @return the redacted bytes of the lines completed by the given bytes.
+     */
+    byte[] redact(final byte[] b, final int off, final int len) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(len);
+        for (int i = off; i < off + len; i++) {
+            line.write(b[i]);
+            if (literal > 0) {
+                literal--;
+                if (b[i] == '\n' || literal == 0) {
+                    final byte[] bytes = takeLine();
+                    redactLiteral(bytes);
+                    out.write(bytes, 0, bytes.length);
+                }
+            } else if (b[i] == '\n') {
+                final byte[] bytes = takeLine();
+                redactLine(bytes);
+                out.write(bytes, 0, bytes.length);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Redact the bytes of an incomplete line, e.g. at the end of the
+     * conversation.
+     */
+    byte[] flush() {
+        final byte[] bytes = takeLine();
+        map(bytes, 0, bytes.length, false);
+        return bytes;
+    }
+
+    private byte[] takeLine() {
+        final byte[] bytes = line.toByteArray();
+        line.reset();
+        return bytes;
+    }
+
+    /**
+     * Redact a command or response line, in place.
+     */
+    private void redactLine(final byte[] bytes) {
+        final String text = new String(bytes, ASCII);
+        final Matcher literalMatcher = LITERAL.matcher(text);
+        final int end = literalMatcher.find() ? literalMatcher.start() : bytes.length;
+        final Matcher login = LOGIN.matcher(text);
+
+        if (authenticating) {
+            // The client's answer to a challenge.
+            authenticating = false;
+            map(bytes, 0, end, false);
+        } else if (!fromServer && login.find()) {
+            map(bytes, login.end(), end, false);
+        } else {
+            redactQuoted(bytes, end);
+            authenticating = !fromServer && AUTHENTICATE.matcher(text).find();
+        }
+
+        if (end < bytes.length) {
+            literal = Long.parseLong(literalMatcher.group(1));
+            message = fromServer && MESSAGE_ITEM.matcher(text).find();
+            headers = message;
+            keepHeader = false;
+            contentType.setLength(0);
+            boundaries.clear();
+        }
+    }
+
+    /**
+     * Redact the quoted strings of a line, in place.
+     */
+    private static void redactQuoted(final byte[] bytes, final int end) {
+        int i = 0;
+        while (i < end) {
+            if (bytes[i] != '"') {
+                i++;
+                continue;
+            }
+            final int start = i + 1;
+            int close = start;
+            while (close < end && bytes[close] != '"') {
+                close += bytes[close] == '\\' ? 2 : 1;
+            }
+            close = Math.min(close, end);
+
+            final String value = new String(bytes, start, close - start, ASCII);
+            if (!KEPT_STRINGS.contains(value.toUpperCase()) && !CHARSET.matcher(value).matches()
+                    && !DATE.matcher(value).matches()) {
+                map(bytes, start, close, false);
+            }
+            i = close + 1;
+        }
+    }
+
+    /**
+     * Redact a line of a literal, in place.
+     */
+    private void redactLiteral(final byte[] bytes) {
+        if (!message) {
+            map(bytes, 0, bytes.length, true);
+            return;
+        }
+
+        final String text = new String(bytes, ASCII);
+        if (headers) {
+            if (text.trim().length() == 0) {
+                headers = false;
+                rememberBoundary();
+                return;
+            }
+            if (text.charAt(0) == ' ' || text.charAt(0) == '\t') {
+                // Folded header.
+                if (keepHeader) {
+                    contentType.append(text);
+                } else {
+                    map(bytes, 0, bytes.length, false);
+                }
+                return;
+            }
+
+            rememberBoundary();
+            final int colon = text.indexOf(':');
+            final String name = colon == -1 ? "" : text.substring(0, colon).trim().toLowerCase();
+            keepHeader = KEPT_HEADERS.contains(name);
+            if (keepHeader) {
+                if ("content-type".equals(name)) {
+                    contentType.append(text);
+                }
+            } else {
+                map(bytes, 0, bytes.length, false);
+            }
+            return;
+        }
+
+        if (isBoundary(text)) {
+            // The headers of the next part follow.
+            headers = true;
+            keepHeader = false;
+            return;
+        }
+        map(bytes, 0, bytes.length, true);
+    }
+
+    /**
+     * Remember the boundary of the Content-Type header just read, if any.
+     */
+    private void rememberBoundary() {
+        if (contentType.length() > 0) {
+            final Matcher matcher = BOUNDARY.matcher(contentType);
+            if (matcher.find()) {
+                boundaries.add(matcher.group(1).trim());
+            }
+            contentType.setLength(0);
+        }
+    }
+
+    private boolean isBoundary(final String text) {
+        if (!text.startsWith("--")) {
+            return false;
+        }
+        for (final String boundary : boundaries) {
+            if (text.startsWith(boundary, 2)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Redact bytes in place.
+     * 
+     * @param keepEscapes
+     *            True to keep quoted-printable escapes valid.
+     */
+    private static void map(final byte[] bytes, final int from, final int to, final boolean keepEscapes) {
+        for (int i = from; i < to; i++) {
+            final byte b = bytes[i];
+            if (keepEscapes && b == '=' && i + 2 < to && isHex(bytes[i + 1]) && isHex(bytes[i + 2])) {
+                bytes[++i] = '7';
+                bytes[++i] = '8';
+            } else if (b < 0 || b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z') {
+                bytes[i] = 'x';
+            } else if (b >= '0' && b <= '9') {
+                bytes[i] = '0';
+            }
+        }
+    }
+
+    private static boolean isHex(final byte b) {
+        return b >= '0' && b <= '9' || b >= 'A' && b <= 'F' || b >= 'a' && b <= 'f';
+    }
+
+}
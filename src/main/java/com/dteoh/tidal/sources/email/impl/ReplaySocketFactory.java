@@ -0,0 +1,328 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.sources.email.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.List;
+
+import javax.net.SocketFactory;
+
+/**
+ * Plays back a {@link SessionRecording} to an IMAP client. Every socket
+ * created plays back the next recorded connection, whatever address it is
+ * connected to; once all connections have been played back, sockets are
+ * connected to nothing and see the end of their stream straight away.
+ * 
+ * The server's data is sent once the client has sent as many lines as it had
+ * in the recording, so the commands themselves (and the credentials used) do
+ * not matter. Playback is deterministic for the same client. Data is sent
+ * either as fast as possible, or with the server taking as long to answer as
+ * it did in the recording.
+ * 
+ * @author Douglas Teoh
+ */
+final class ReplaySocketFactory extends SocketFactory {
+
+    private final SessionRecording recording;
+    private final boolean originalTiming;
+
+    /** Next connection to play back. Guarded by this. */
+    private int next;
+
+    /**
+     * @param recording
+     *            Recording to play back.
+     * @param originalTiming
+     *            True to keep the timing of the recording, false to play back
+     *            as fast as possible.
+     */
+    ReplaySocketFactory(final SessionRecording recording, final boolean originalTiming) {
+        this.recording = recording;
+        this.originalTiming = originalTiming;
+    }
+
+    /**
+     * Play back the recording from its first connection again.
+     */
+    synchronized void rewind() {
+        next = 0;
+    }
+
+    @Override
+    public Socket createSocket() {
+        return new ReplaySocket(nextConnection());
+    }
+
+    @Override
+    public Socket createSocket(final String host, final int port) {
+        return connected(new ReplaySocket(nextConnection()));
+    }
+
+    @Override
+    public Socket createSocket(final InetAddress host, final int port) {
+        return connected(new ReplaySocket(nextConnection()));
+    }
+
+    @Override
+    public Socket createSocket(final String host, final int port, final InetAddress localHost, final int localPort) {
+        return connected(new ReplaySocket(nextConnection()));
+    }
+
+    @Override
+    public Socket createSocket(final InetAddress address, final int port, final InetAddress localAddress,
+            final int localPort) {
+        return connected(new ReplaySocket(nextConnection()));
+    }
+
+    private synchronized List<SessionRecording.Event> nextConnection() {
+        if (next >= recording.getConnectionCount()) {
+            return null;
+        }
+        return recording.getEvents(next++);
+    }
+
+    private static Socket connected(final ReplaySocket socket) {
+        socket.connect(null);
+        return socket;
+    }
+
+    /**
+     * A socket playing back one connection.
+     */
+    private final class ReplaySocket extends Socket {
+        private final List<SessionRecording.Event> events;
+        /** Lines the client must have sent before each event is played. */
+        private final long[] linesBefore;
+
+        private final InputStream in = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                final byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                return ReplaySocket.this.read(b, off, len);
+            }
+        };
+
+        private final OutputStream out = new OutputStream() {
+            @Override
+            public void write(final int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                ReplaySocket.this.write(b, off, len);
+            }
+        };
+
+        // Guarded by this.
+        private boolean connected;
+        private boolean closed;
+        private int timeout;
+        private long linesWritten;
+        private int index;
+        private int position;
+        /** Recorded time of the last event played. */
+        private long lastTime;
+        /** Time the last event was played, from System.nanoTime(). */
+        private long lastPlayed = System.nanoTime();
+
+        ReplaySocket(final List<SessionRecording.Event> events) {
+            this.events = events == null ? Collections.<SessionRecording.Event> emptyList() : events;
+            linesBefore = new long[this.events.size()];
+            long lines = 0;
+            for (int i = 0; i < linesBefore.length; i++) {
+                final SessionRecording.Event event = this.events.get(i);
+                if (!event.isFromServer()) {
+                    lines += countLines(event.getData(), 0, event.getData().length);
+                }
+                linesBefore[i] = lines;
+            }
+        }
+
+        private synchronized int read(final byte[] b, final int off, final int len) throws IOException {
+            final long giveUp = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+            while (true) {
+                if (closed) {
+                    throw new SocketException("Socket closed");
+                }
+                if (index >= events.size()) {
+                    return -1;
+                }
+
+                final SessionRecording.Event event = events.get(index);
+                long wait = 0;
+                if (!event.isFromServer()) {
+                    if (linesWritten >= linesBefore[index]) {
+                        played(event);
+                        continue;
+                    }
+                    wait = giveUp - System.currentTimeMillis();
+                } else if (originalTiming && position == 0) {
+                    wait = (event.getTime() - lastTime) - (System.nanoTime() - lastPlayed) / 1000000L;
+                }
+
+                if (wait > 0) {
+                    try {
+                        wait(Math.min(wait, Math.max(1, giveUp - System.currentTimeMillis())));
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SocketException("Interrupted");
+                    }
+                    if (System.currentTimeMillis() >= giveUp) {
+                        throw new SocketTimeoutException("Read timed out");
+                    }
+                    continue;
+                }
+                if (!event.isFromServer()) {
+                    throw new SocketTimeoutException("Read timed out");
+                }
+
+                final byte[] data = event.getData();
+                final int n = Math.min(len, data.length - position);
+                System.arraycopy(data, position, b, off, n);
+                position += n;
+                if (position == data.length) {
+                    played(event);
+                }
+                return n;
+            }
+        }
+
+        private void played(final SessionRecording.Event event) {
+            index++;
+            position = 0;
+            lastTime = event.getTime();
+            lastPlayed = System.nanoTime();
+        }
+
+        private synchronized void write(final byte[] b, final int off, final int len) throws IOException {
+            if (closed) {
+                throw new SocketException("Socket closed");
+            }
+            linesWritten += countLines(b, off, len);
+            notifyAll();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        @Override
+        public synchronized void connect(final SocketAddress endpoint, final int connectTimeout) {
+            connected = true;
+        }
+
+        @Override
+        public void connect(final SocketAddress endpoint) {
+            connect(endpoint, 0);
+        }
+
+        @Override
+        public void bind(final SocketAddress bindpoint) {
+            // Nothing to bind.
+        }
+
+        @Override
+        public InetAddress getInetAddress() {
+            return getLoopback();
+        }
+
+        @Override
+        public InetAddress getLocalAddress() {
+            return getLoopback();
+        }
+
+        @Override
+        public synchronized void setSoTimeout(final int timeout) {
+            this.timeout = timeout;
+        }
+
+        @Override
+        public synchronized int getSoTimeout() {
+            return timeout;
+        }
+
+        @Override
+        public void setTcpNoDelay(final boolean on) {
+            // No network.
+        }
+
+        @Override
+        public void setKeepAlive(final boolean on) {
+            // No network.
+        }
+
+        @Override
+        public synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        public synchronized boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public String toString() {
+            return "ReplaySocket[" + events.size() + " events]";
+        }
+    }
+
+    private static long countLines(final byte[] b, final int off, final int len) {
+        long lines = 0;
+        for (int i = off; i < off + len; i++) {
+            if (b[i] == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    private static InetAddress getLoopback() {
+        try {
+            return InetAddress.getByAddress("localhost", new byte[] { 127, 0, 0, 1 });
+        } catch (final IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+}
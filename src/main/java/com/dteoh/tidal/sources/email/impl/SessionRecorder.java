@@ -0,0 +1,148 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.sources.email.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Records IMAP conversations in the format of {@link SessionRecording}, with
+ * credentials and content removed by {@link ImapRedactor}. Sockets are
+ * recorded by {@link RecordingSocketFactory}.
+ * 
+ * Data that arrives after the recorder has been closed is not recorded, so a
+ * recording covers exactly one update even though its connections stay open.
+ * 
+ * @author Douglas Teoh
+ */
+final class SessionRecorder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionRecorder.class);
+
+    private final File file;
+    private final DataOutputStream out;
+    private final long start;
+    /** Redactors of each connection, client then server. Guarded by this. */
+    private final List<ImapRedactor[]> redactors = Lists.newArrayList();
+
+    private boolean closed;
+
+    /**
+     * Start recording to a file.
+     * 
+     * @throws IOException
+     *             If the file cannot be created.
+     */
+    SessionRecorder(final File file) throws IOException {
+        this.file = file;
+        file.getParentFile().mkdirs();
+        final OutputStream stream = new FileOutputStream(file);
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(stream)));
+            out.write(SessionRecording.MAGIC);
+            out.writeByte(SessionRecording.VERSION);
+        } catch (final IOException e) {
+            IOUtils.closeQuietly(stream);
+            throw e;
+        }
+        start = System.nanoTime();
+    }
+
+    /**
+     * Start recording a new connection.
+     * 
+     * @return the number of the connection, or -1 if no more connections can
+     *         be recorded.
+     */
+    synchronized int open() {
+        if (closed || redactors.size() == SessionRecording.MAX_CONNECTIONS) {
+            return -1;
+        }
+        redactors.add(new ImapRedactor[] { new ImapRedactor(false), new ImapRedactor(true) });
+        return redactors.size() - 1;
+    }
+
+    /**
+     * Record data sent over a connection.
+     * 
+     * @param connection
+     *            Number of the connection, from {@link #open()}.
+     * @param fromServer
+     *            True if the server sent the data, false if the client did.
+     */
+    synchronized void record(final int connection, final boolean fromServer, final byte[] b, final int off,
+            final int len) {
+        if (closed || connection < 0 || len <= 0) {
+            return;
+        }
+        final ImapRedactor redactor = redactors.get(connection)[fromServer ? 1 : 0];
+        write(connection, fromServer, redactor.redact(b, off, len));
+    }
+
+    /**
+     * Stop recording. Incomplete lines are written out as they are, redacted.
+     */
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        for (int connection = 0; connection < redactors.size(); connection++) {
+            write(connection, false, redactors.get(connection)[0].flush());
+            write(connection, true, redactors.get(connection)[1].flush());
+        }
+        closed = true;
+
+        try {
+            out.writeByte(SessionRecording.END);
+            out.close();
+            LOGGER.info("Recorded {} IMAP connection(s) to {}", redactors.size(), file);
+        } catch (final IOException e) {
+            LOGGER.error("Could not finish recording " + file, e);
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    private void write(final int connection, final boolean fromServer, final byte[] data) {
+        if (closed || data.length == 0) {
+            return;
+        }
+        try {
+            out.writeByte(connection);
+            out.writeByte(fromServer ? SessionRecording.SERVER : SessionRecording.CLIENT);
+            out.writeInt((int) ((System.nanoTime() - start) / 1000000L));
+            out.writeInt(data.length);
+            out.write(data);
+        } catch (final IOException e) {
+            LOGGER.error("Could not record to " + file + ", stopping", e);
+            closed = true;
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+}
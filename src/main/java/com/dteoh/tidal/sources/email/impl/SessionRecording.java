@@ -0,0 +1,190 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.sources.email.impl;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.collect.Lists;
+
+/**
+ * A recorded IMAP conversation, written by {@link SessionRecorder} and played
+ * back by {@link ReplaySocketFactory}. The file format is gzipped:
+ * 
+ * <pre>
+ * magic 'TDIR' | version (1 byte) | events | end (1 byte, 0xFF)
+ * event: connection (1 byte) | direction (1 byte, 0 client, 1 server)
+ *        | time since the recording started in ms (4 bytes) | length (4 bytes) | bytes
+ * </pre>
+ * 
+ * All numbers are big endian. Connections are numbered in the order they were
+ * opened, starting at 0.
+ * 
+ * @author Douglas Teoh
+ */
+final class SessionRecording {
+
+    /** Current version of the format. */
+    static final int VERSION = 1;
+
+    static final byte[] MAGIC = { 'T', 'D', 'I', 'R' };
+    static final int END = 0xFF;
+    static final int CLIENT = 0;
+    static final int SERVER = 1;
+
+    /** Most connections in a recording. */
+    static final int MAX_CONNECTIONS = END;
+
+    /**
+     * Data sent in one direction of a connection.
+     */
+    static final class Event {
+        private final boolean fromServer;
+        private final long time;
+        private final byte[] data;
+
+        Event(final boolean fromServer, final long time, final byte[] data) {
+            this.fromServer = fromServer;
+            this.time = time;
+            this.data = data;
+        }
+
+        /**
+         * True if the server sent the data, false if the client did.
+         */
+        boolean isFromServer() {
+            return fromServer;
+        }
+
+        /**
+         * Time the data was sent, in milliseconds since the recording started.
+         */
+        long getTime() {
+            return time;
+        }
+
+        byte[] getData() {
+            return data;
+        }
+    }
+
+    private final List<List<Event>> connections;
+
+    private SessionRecording(final List<List<Event>> connections) {
+        this.connections = connections;
+    }
+
+    /**
+     * Read a recording from a file.
+     * 
+     * @throws IOException
+     *             If the file cannot be read or is not a recording.
+     */
+    static SessionRecording read(final File file) throws IOException {
+        final InputStream in = new FileInputStream(file);
+        try {
+            return read(in);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Read a recording from a stream. The stream is not closed.
+     * 
+     * @throws IOException
+     *             If the stream cannot be read or is not a recording.
+     */
+    static SessionRecording read(final InputStream stream) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(stream)));
+        for (final byte b : MAGIC) {
+            if (in.readByte() != b) {
+                throw new IOException("Not an IMAP session recording");
+            }
+        }
+        final int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported recording version " + version);
+        }
+
+        final List<List<Event>> connections = Lists.newArrayList();
+        try {
+            while (true) {
+                final int connection = in.readUnsignedByte();
+                if (connection == END) {
+                    break;
+                }
+                final boolean fromServer = in.readUnsignedByte() == SERVER;
+                final long time = in.readInt() & 0xFFFFFFFFL;
+                final int length = in.readInt();
+                if (length < 0 || connection > connections.size()) {
+                    throw new IOException("Corrupt recording");
+                }
+                final byte[] data = new byte[length];
+                in.readFully(data);
+
+                if (connection == connections.size()) {
+                    connections.add(Lists.<Event> newArrayList());
+                }
+                connections.get(connection).add(new Event(fromServer, time, data));
+            }
+        } catch (final EOFException e) {
+            throw new IOException("Truncated recording", e);
+        }
+        return new SessionRecording(connections);
+    }
+
+    /**
+     * Number of connections in the recording.
+     */
+    int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * Events of a connection, in the order they happened.
+     */
+    List<Event> getEvents(final int connection) {
+        return Collections.unmodifiableList(connections.get(connection));
+    }
+
+    /**
+     * Total number of bytes sent by the server.
+     */
+    long getServerBytes() {
+        long bytes = 0;
+        for (final List<Event> events : connections) {
+            for (final Event event : events) {
+                if (event.fromServer) {
+                    bytes += event.data.length;
+                }
+            }
+        }
+        return bytes;
+    }
+
+}
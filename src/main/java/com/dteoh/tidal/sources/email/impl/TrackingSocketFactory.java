@@ -0,0 +1,81 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.sources.email.impl;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import javax.net.SocketFactory;
+
+import com.dteoh.tidal.sources.UpdateToken;
+
+/**
+ * Creates sockets using another factory and attaches them to an update token,
+ * so that the connections of a cancelled update are closed.
+ * 
+ * @author Douglas Teoh
+ */
+final class TrackingSocketFactory extends SocketFactory {
+
+    private final SocketFactory delegate;
+    private final UpdateToken token;
+
+    /**
+     * @param delegate
+     *            Factory creating the sockets.
+     * @param token
+     *            Token the sockets are attached to.
+     */
+    TrackingSocketFactory(final SocketFactory delegate, final UpdateToken token) {
+        this.delegate = delegate;
+        this.token = token;
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+        return track(delegate.createSocket());
+    }
+
+    @Override
+    public Socket createSocket(final String host, final int port) throws IOException {
+        return track(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(final InetAddress host, final int port) throws IOException {
+        return track(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(final String host, final int port, final InetAddress localHost, final int localPort)
+            throws IOException {
+        return track(delegate.createSocket(host, port, localHost, localPort));
+    }
+
+    @Override
+    public Socket createSocket(final InetAddress address, final int port, final InetAddress localAddress,
+            final int localPort) throws IOException {
+        return track(delegate.createSocket(address, port, localAddress, localPort));
+    }
+
+    private Socket track(final Socket socket) {
+        token.attach(socket);
+        return socket;
+    }
+
+}
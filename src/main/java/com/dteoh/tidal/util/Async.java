@@ -0,0 +1,132 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.dteoh.tidal.diagnostics.LatencyHistogram;
+
+/**
+ * Runs tasks in the background without blocking the EDT, and hands their
+ * results back to the EDT through {@link AsyncResult#onEDT(AsyncCallback)}.
+ * 
+ * Unlike foxtrot's workers, which run every posted job one after another on a
+ * single thread, tasks run concurrently on a pool of daemon threads, so a slow
+ * task (e.g. an IMAP reconnect) never holds up other tasks. The time tasks
+ * spend waiting for a thread is recorded in {@link #getQueueLatency()}.
+ * 
+ * @author Douglas Teoh
+ */
+public final class Async {
+
+    /** Number of queue wait samples kept. */
+    private static final int LATENCY_WINDOW = 1024;
+
+    /** Idle worker threads are stopped after this many seconds. */
+    private static final long KEEP_ALIVE = 60;
+
+    private static final LatencyHistogram QUEUE_LATENCY = new LatencyHistogram(LATENCY_WINDOW);
+
+    private static final ExecutorService EXECUTOR = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE,
+            TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new DaemonThreadFactory("Async worker"));
+
+    private static final ScheduledExecutorService TIMER = Executors
+            .newSingleThreadScheduledExecutor(new DaemonThreadFactory("Async timer"));
+
+    private Async() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Run a task in the background.
+     * 
+     * @param task
+     *            Task to run.
+     * @return the pending result of the task.
+     */
+    public static <T> AsyncResult<T> submit(final Callable<T> task) {
+        final long submitted = System.nanoTime();
+        final AsyncResult<T> result = new AsyncResult<T>(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                QUEUE_LATENCY.record(System.nanoTime() - submitted);
+                return task.call();
+            }
+        });
+        EXECUTOR.execute(result.getRunnable());
+        return result;
+    }
+
+    /**
+     * Run a task without a result in the background.
+     * 
+     * @param task
+     *            Task to run.
+     * @return the pending completion of the task.
+     */
+    public static AsyncResult<Void> submit(final Runnable task) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                task.run();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Time tasks waited between being submitted and starting to run.
+     */
+    public static LatencyHistogram getQueueLatency() {
+        return QUEUE_LATENCY;
+    }
+
+    /**
+     * Run a short action after a delay, on the timer thread.
+     */
+    static void schedule(final Runnable action, final long delay, final TimeUnit unit) {
+        TIMER.schedule(action, delay, unit);
+    }
+
+    /**
+     * Creates named daemon threads.
+     */
+    private static final class DaemonThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        DaemonThreadFactory(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+}
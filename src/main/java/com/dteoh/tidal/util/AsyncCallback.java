@@ -0,0 +1,50 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.util;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Receives the outcome of an asynchronous task on the EDT.
+ * 
+ * @author Douglas Teoh
+ * 
+ * @param <T>
+ *            Type of the task result.
+ */
+public interface AsyncCallback<T> {
+
+    /**
+     * Invoked on the EDT when the task has completed.
+     * 
+     * @param result
+     *            Result of the task.
+     */
+    void succeeded(T result);
+
+    /**
+     * Invoked on the EDT when the task has failed.
+     * 
+     * @param cause
+     *            The exception thrown by the task, a
+     *            {@link CancellationException} if the task was cancelled, or a
+     *            {@link TimeoutException} if the task did not complete in time.
+     */
+    void failed(Throwable cause);
+
+}
@@ -0,0 +1,224 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.util;
+
+import static com.dteoh.tidal.util.EDTUtils.outsideEDT;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.swing.SwingUtilities;
+
+import com.google.common.collect.Lists;
+
+/**
+ * The pending result of a task submitted through {@link Async}. Callbacks
+ * added with {@link #onEDT(AsyncCallback)} are invoked on the EDT once the
+ * task completes, fails, is cancelled or times out; callbacks added after that
+ * are invoked straight away (on the EDT).
+ * 
+ * @author Douglas Teoh
+ * 
+ * @param <T>
+ *            Type of the task result.
+ */
+public final class AsyncResult<T> {
+
+    /** The task being run. */
+    private final FutureTask<T> future;
+
+    /** Callbacks waiting for the outcome, null once the task is done. */
+    private List<AsyncCallback<? super T>> callbacks;
+
+    /** Set if the task was cancelled because it took too long. */
+    private volatile boolean timedOut;
+
+    /**
+     * Creates a result for the given task. The task is not run.
+     */
+    AsyncResult(final Callable<T> task) {
+        callbacks = Lists.newArrayList();
+        future = new FutureTask<T>(task) {
+            @Override
+            protected void done() {
+                complete();
+            }
+        };
+    }
+
+    /**
+     * The runnable to hand to an executor.
+     */
+    Runnable getRunnable() {
+        return future;
+    }
+
+    /**
+     * Invoke the given callback on the EDT with the outcome of the task.
+     * 
+     * @param callback
+     *            Callback to invoke.
+     * @return this result.
+     */
+    public AsyncResult<T> onEDT(final AsyncCallback<? super T> callback) {
+        synchronized (this) {
+            if (callbacks != null) {
+                callbacks.add(callback);
+                return this;
+            }
+        }
+        dispatch(callback);
+        return this;
+    }
+
+    /**
+     * Cancel the task if it has not completed within the given time. Waiting
+     * callbacks then fail with a {@link TimeoutException}.
+     * 
+     * @param timeout
+     *            Longest time the task may take.
+     * @param unit
+     *            Unit of the timeout.
+     * @return this result.
+     */
+    public AsyncResult<T> timeout(final long timeout, final TimeUnit unit) {
+        Async.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!future.isDone()) {
+                    timedOut = true;
+                    future.cancel(true);
+                }
+            }
+        }, timeout, unit);
+        return this;
+    }
+
+    /**
+     * Cancel the task, interrupting it if it is running.
+     * 
+     * @return false if the task had already completed, true otherwise.
+     */
+    public boolean cancel() {
+        return future.cancel(true);
+    }
+
+    public boolean isDone() {
+        return future.isDone();
+    }
+
+    public boolean isCancelled() {
+        return future.isCancelled();
+    }
+
+    /**
+     * Wait for the result of the task. Must not be called on the EDT.
+     * 
+     * @return the result of the task.
+     * @throws ExecutionException
+     *             If the task failed or timed out.
+     * @throws CancellationException
+     *             If the task was cancelled.
+     */
+    public T get() throws InterruptedException, ExecutionException {
+        outsideEDT();
+        try {
+            return future.get();
+        } catch (final CancellationException e) {
+            if (timedOut) {
+                throw new ExecutionException(new TimeoutException("Task timed out"));
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Wait up to the given time for the result of the task. Must not be called
+     * on the EDT. The task keeps running if the wait times out.
+     * 
+     * @return the result of the task.
+     * @throws ExecutionException
+     *             If the task failed or timed out.
+     * @throws TimeoutException
+     *             If the wait timed out.
+     * @throws CancellationException
+     *             If the task was cancelled.
+     */
+    public T get(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException,
+            TimeoutException {
+        outsideEDT();
+        try {
+            return future.get(timeout, unit);
+        } catch (final CancellationException e) {
+            if (timedOut) {
+                throw new ExecutionException(new TimeoutException("Task timed out"));
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Hand the outcome to all waiting callbacks.
+     */
+    private void complete() {
+        final List<AsyncCallback<? super T>> waiting;
+        synchronized (this) {
+            waiting = callbacks;
+            callbacks = null;
+        }
+        for (final AsyncCallback<? super T> callback : waiting) {
+            dispatch(callback);
+        }
+    }
+
+    /**
+     * Invoke a callback on the EDT with the outcome. The task must be done.
+     */
+    private void dispatch(final AsyncCallback<? super T> callback) {
+        T result = null;
+        Throwable cause = null;
+        try {
+            result = future.get();
+        } catch (final ExecutionException e) {
+            cause = e.getCause();
+        } catch (final CancellationException e) {
+            cause = timedOut ? new TimeoutException("Task timed out") : e;
+        } catch (final InterruptedException e) {
+            // Cannot happen, the task is done.
+            cause = e;
+        }
+
+        final T value = result;
+        final Throwable failure = cause;
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                if (failure == null) {
+                    callback.succeeded(value);
+                } else {
+                    callback.failed(failure);
+                }
+            }
+        });
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Source of time for code that runs on a timetable, such as email updates and
+ * their deadlines. Tidal runs on {@link SystemClock}; soak tests substitute a
+ * clock that is advanced by hand, so that weeks of updates run in minutes.
+ * 
+ * Scheduled tasks run on a thread owned by the clock and must be short, e.g.
+ * handing work over to an executor.
+ * 
+ * @author Douglas Teoh
+ */
+public interface Clock {
+
+    /**
+     * A task scheduled on a clock.
+     */
+    interface Scheduled {
+
+        /**
+         * Stop the task from running again. Has no effect on a run that is
+         * already in progress.
+         */
+        void cancel();
+
+    }
+
+    /**
+     * Current time in milliseconds since the epoch, like
+     * {@link System#currentTimeMillis()}.
+     */
+    long currentTimeMillis();
+
+    /**
+     * Current value of a monotonic time source in nanoseconds, like
+     * {@link System#nanoTime()}. Only differences between values are
+     * meaningful.
+     */
+    long nanoTime();
+
+    /**
+     * Run a task once after the given delay.
+     * 
+     * @param task
+     *            Task to run.
+     * @param delay
+     *            Delay before the task runs.
+     * @param unit
+     *            Unit of the delay.
+     * @return the scheduled task.
+     */
+    Scheduled schedule(Runnable task, long delay, TimeUnit unit);
+
+    /**
+     * Run a task repeatedly, first after the given delay and then with the
+     * given period between the end of one run and the start of the next.
+     * 
+     * @param task
+     *            Task to run.
+     * @param delay
+     *            Delay before the first run.
+     * @param period
+     *            Time between consecutive runs.
+     * @param unit
+     *            Unit of the delay and the period.
+     * @return the scheduled task.
+     */
+    Scheduled scheduleWithFixedDelay(Runnable task, long delay, long period, TimeUnit unit);
+
+}
@@ -29,6 +29,9 @@ import com.dteoh.tidal.exceptions.LongOperationException;
  */
 public final class EDTUtils {
 
+    /** Notified of every passed {@link #inEDT()} check, may be null. */
+    private static volatile EDTCheckListener checkListener;
+
     /**
      * Used to throw a new {@link EDTViolationException} if caller is not
      * currently in the EDT.
@@ -37,6 +40,23 @@ public final class EDTUtils {
         if (!SwingUtilities.isEventDispatchThread()) {
             throw new EDTViolationException();
         }
+
+        final EDTCheckListener listener = checkListener;
+        if (listener != null) {
+            listener.edtChecked();
+        }
+    }
+
+    /**
+     * Sets the listener to notify whenever an {@link #inEDT()} check passes.
+     * This lets diagnostic tools find out which component is active on the
+     * EDT.
+     * 
+     * @param listener
+     *            The listener, or null to remove the current listener.
+     */
+    public static void setCheckListener(final EDTCheckListener listener) {
+        checkListener = listener;
     }
 
     /**
@@ -65,4 +85,16 @@ public final class EDTUtils {
         }
     }
 
+    /**
+     * Listener notified of passed EDT checks.
+     */
+    public interface EDTCheckListener {
+
+        /**
+         * Invoked on the EDT by the component that passed an EDT check.
+         */
+        void edtChecked();
+
+    }
+
 }
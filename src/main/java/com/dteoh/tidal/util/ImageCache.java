@@ -0,0 +1,168 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.util;
+
+import java.awt.Image;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.swing.Icon;
+
+import org.jdesktop.application.ResourceMap;
+
+/**
+ * Process-wide cache of decoded resource images and the icons derived from
+ * them. Images are keyed by the path their resource resolves to, so that
+ * resource maps sharing an image share the cached copy, and keys that resolve
+ * to different images never collide. Derived icons are additionally keyed by
+ * their effect parameters.
+ * 
+ * Cached values are only softly referenced, so the garbage collector is free
+ * to evict them under memory pressure; they are then simply loaded again on
+ * the next request. Cached images and icons are shared and must not be
+ * modified.
+ * 
+ * This class is thread safe.
+ * 
+ * @author Douglas Teoh
+ */
+public final class ImageCache {
+
+    /** Cached values. */
+    private static final ConcurrentMap<String, CacheEntry> CACHE = new ConcurrentHashMap<String, CacheEntry>();
+
+    /** Entries whose values have been evicted. */
+    private static final ReferenceQueue<Object> EVICTED = new ReferenceQueue<Object>();
+
+    private ImageCache() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Retrieve the image resource with the given key.
+     * 
+     * @param bundle
+     *            Resource map containing the image.
+     * @param key
+     *            Resource key of the image.
+     * @return The image, or null if the resource does not exist.
+     */
+    public static Image getImage(final ResourceMap bundle, final String key) {
+        final String cacheKey = imageKey(bundle, key);
+        if (cacheKey == null) {
+            return null;
+        }
+
+        Image image = (Image) lookup(cacheKey);
+        if (image == null) {
+            image = bundle.getImage(key);
+            if (image != null) {
+                store(cacheKey, image);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Retrieve a punched icon created from the image resource with the given
+     * key.
+     * 
+     * @param bundle
+     *            Resource map containing the image.
+     * @param key
+     *            Resource key of the image.
+     * @param shadowSize
+     *            Size of the inner shadow, in pixels.
+     * @return The icon, or null if the resource does not exist.
+     * @see PunchIconFactory#createPunchedIcon(Image, int)
+     */
+    public static Icon getPunchedIcon(final ResourceMap bundle, final String key, final int shadowSize) {
+        final String imageKey = imageKey(bundle, key);
+        if (imageKey == null) {
+            return null;
+        }
+        final String cacheKey = imageKey + "#punched:" + shadowSize;
+
+        Icon icon = (Icon) lookup(cacheKey);
+        if (icon == null) {
+            final Image image = getImage(bundle, key);
+            if (image == null) {
+                return null;
+            }
+            icon = PunchIconFactory.createPunchedIcon(image, shadowSize);
+            store(cacheKey, icon);
+        }
+        return icon;
+    }
+
+    /**
+     * Remove every entry from the cache.
+     */
+    public static void clear() {
+        CACHE.clear();
+    }
+
+    /**
+     * Resolve an image resource to its path, the same way
+     * {@link ResourceMap#getImage(String)} does.
+     * 
+     * @return the path of the image, or null if the resource does not exist.
+     */
+    private static String imageKey(final ResourceMap bundle, final String key) {
+        final String path = bundle.getString(key);
+        if (path == null) {
+            return null;
+        }
+        return path.startsWith("/") ? path.substring(1) : bundle.getResourcesDir() + path;
+    }
+
+    private static Object lookup(final String cacheKey) {
+        purgeEvicted();
+
+        final CacheEntry entry = CACHE.get(cacheKey);
+        return entry == null ? null : entry.get();
+    }
+
+    private static void store(final String cacheKey, final Object value) {
+        CACHE.put(cacheKey, new CacheEntry(cacheKey, value));
+    }
+
+    /**
+     * Remove the entries of values that have been garbage collected.
+     */
+    private static void purgeEvicted() {
+        CacheEntry entry;
+        while ((entry = (CacheEntry) EVICTED.poll()) != null) {
+            CACHE.remove(entry.cacheKey, entry);
+        }
+    }
+
+    /**
+     * Soft reference that remembers its cache key.
+     */
+    private static final class CacheEntry extends SoftReference<Object> {
+        private final String cacheKey;
+
+        CacheEntry(final String cacheKey, final Object value) {
+            super(value, EVICTED);
+            this.cacheKey = cacheKey;
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.util;
+
+/**
+ * Utility class for writing JSON.
+ * 
+ * @author Douglas Teoh
+ */
+public final class JSONUtils {
+
+    private JSONUtils() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Quotes a string as a JSON string. Control characters are escaped, so the
+     * result never spans several lines.
+     * 
+     * @param s
+     *            The string to quote, may be null.
+     * @return the quoted string, or {@code null} if the string is null.
+     */
+    public static String quote(final String s) {
+        if (s == null) {
+            return "null";
+        }
+        return quote(new StringBuilder(s.length() + 2), s).toString();
+    }
+
+    /**
+     * Appends a string quoted as a JSON string, or {@code null} if the string
+     * is null.
+     * 
+     * @param sb
+     *            Where to append the string.
+     * @param s
+     *            The string to quote, may be null.
+     * @return sb
+     */
+    public static StringBuilder quote(final StringBuilder sb, final String s) {
+        if (s == null) {
+            return sb.append("null");
+        }
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"');
+    }
+
+}
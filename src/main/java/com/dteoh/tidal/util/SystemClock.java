@@ -0,0 +1,78 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.util;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The real clock. Tasks are scheduled on a single daemon thread.
+ * 
+ * @author Douglas Teoh
+ */
+public final class SystemClock implements Clock {
+
+    /** The only instance. */
+    public static final SystemClock INSTANCE = new SystemClock();
+
+    private final ScheduledExecutorService scheduler;
+
+    private SystemClock() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "Clock");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public Scheduled schedule(final Runnable task, final long delay, final TimeUnit unit) {
+        return wrap(scheduler.schedule(task, Math.max(0, delay), unit));
+    }
+
+    @Override
+    public Scheduled scheduleWithFixedDelay(final Runnable task, final long delay, final long period,
+            final TimeUnit unit) {
+        return wrap(scheduler.scheduleWithFixedDelay(task, Math.max(0, delay), period, unit));
+    }
+
+    private static Scheduled wrap(final Future<?> future) {
+        return new Scheduled() {
+            @Override
+            public void cancel() {
+                future.cancel(false);
+            }
+        };
+    }
+
+}
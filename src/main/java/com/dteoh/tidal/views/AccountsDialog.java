@@ -28,6 +28,7 @@ import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -47,13 +48,12 @@ import net.miginfocom.swing.MigLayout;
 import org.jdesktop.application.ResourceMap;
 
 import com.dteoh.tidal.sources.SetupDroplet;
+import com.dteoh.tidal.util.Async;
+import com.dteoh.tidal.util.AsyncCallback;
 import com.dteoh.tidal.views.swing.GradientPanel;
 import com.dteoh.treasuremap.ResourceMaps;
 import com.google.common.collect.Maps;
 
-import foxtrot.Job;
-import foxtrot.Worker;
-
 /**
  * Dialog for setting up new accounts.
  * 
@@ -401,15 +401,24 @@ public final class AccountsDialog extends JDialog {
     public void addSetupView(final SetupDroplet droplet) {
         inEDT();
 
-        Icon icon = (Icon) Worker.post(new Job() {
+        final JButton showSetupButton = new JButton();
+        Async.submit(new Callable<Icon>() {
             @Override
-            public Object run() {
+            public Icon call() {
                 return droplet.getSetupIcon();
             }
+        }).onEDT(new AsyncCallback<Icon>() {
+            @Override
+            public void succeeded(final Icon icon) {
+                showSetupButton.setIcon(icon);
+            }
+
+            @Override
+            public void failed(final Throwable cause) {
+                // Leave the button without an icon.
+            }
         });
 
-        JButton showSetupButton = new JButton();
-        showSetupButton.setIcon(icon);
         showSetupButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(final ActionEvent e) {
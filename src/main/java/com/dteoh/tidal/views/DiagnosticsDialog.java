@@ -0,0 +1,158 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.views;
+
+import static com.dteoh.tidal.util.EDTUtils.inEDT;
+
+import java.awt.Container;
+import java.awt.Frame;
+import java.awt.event.ActionEvent;
+
+import javax.swing.AbstractAction;
+import javax.swing.Action;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.WindowConstants;
+
+import net.miginfocom.swing.MigLayout;
+
+import org.jdesktop.application.ResourceMap;
+
+import com.dteoh.tidal.diagnostics.EDTWatchdog;
+import com.dteoh.tidal.util.Async;
+import com.dteoh.treasuremap.ResourceMaps;
+
+/**
+ * Hidden dialog showing EDT responsiveness diagnostics: dispatch and heartbeat
+ * latency histograms, droplet update batch statistics, and recent EDT stall
+ * reports.
+ * 
+ * @author Douglas Teoh
+ */
+public final class DiagnosticsDialog extends JDialog {
+
+    /** Resource bundle for this class. */
+    private static final ResourceMap BUNDLE = new ResourceMaps(DiagnosticsDialog.class).build();
+
+    /** Shows the diagnostics. */
+    private JTextArea reportArea;
+
+    /**
+     * @see {@link #JDialog()}
+     */
+    public DiagnosticsDialog() {
+        super();
+        initView();
+    }
+
+    /**
+     * @see {@link #JDialog()}
+     */
+    public DiagnosticsDialog(final Frame owner) {
+        super(owner);
+        initView();
+    }
+
+    /**
+     * Initialize UI.
+     */
+    @SuppressWarnings("serial")
+    private void initView() {
+        inEDT();
+
+        setTitle(BUNDLE.getString("dialog.title"));
+        setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+
+        final Container container = getContentPane();
+        container.setLayout(new MigLayout("wrap", "[grow]", "[grow][]"));
+
+        reportArea = new JTextArea();
+        reportArea.setName("DiagnosticsDialogReport");
+        reportArea.setEditable(false);
+        reportArea.setFont(BUNDLE.getFont("report.font"));
+        container.add(new JScrollPane(reportArea), "grow");
+
+        final JButton refreshButton = new JButton();
+        refreshButton.setName("DiagnosticsDialogRefreshButton");
+        final Action refreshAction = new AbstractAction(BUNDLE.getString("refreshAction.name")) {
+            @Override
+            public void actionPerformed(final ActionEvent e) {
+                refresh();
+            }
+        };
+        refreshButton.setAction(refreshAction);
+
+        final JButton closeButton = new JButton();
+        closeButton.setName("DiagnosticsDialogCloseButton");
+        final Action closeAction = new AbstractAction(BUNDLE.getString("closeAction.name")) {
+            @Override
+            public void actionPerformed(final ActionEvent e) {
+                dispose();
+            }
+        };
+        closeButton.setAction(closeAction);
+
+        container.add(refreshButton, "split 2, pushx, tag apply");
+        container.add(closeButton, "tag cancel");
+
+        setSize(BUNDLE.getDimension("dialog.size"));
+        refresh();
+    }
+
+    /**
+     * Show the current diagnostics.
+     */
+    public void refresh() {
+        inEDT();
+
+        final StringBuilder sb = new StringBuilder();
+
+        final EDTWatchdog watchdog = EDTWatchdog.getInstance();
+        if (watchdog == null) {
+            sb.append(BUNDLE.getString("watchdog.disabled")).append("\n\n");
+        } else {
+            sb.append(BUNDLE.getString("dispatch.heading")).append('\n');
+            sb.append(watchdog.getDispatchLatency().format()).append('\n');
+            sb.append(BUNDLE.getString("heartbeat.heading")).append('\n');
+            sb.append(watchdog.getHeartbeatLatency().format()).append('\n');
+        }
+
+        sb.append(BUNDLE.getString("async.heading")).append('\n');
+        sb.append(Async.getQueueLatency().format()).append('\n');
+
+        final DropletUpdateBatcher batcher = DropletUpdateBatcher.INSTANCE;
+        sb.append(BUNDLE.getString("batcher.heading")).append('\n');
+        sb.append(String.format("batches=%d updates=%d last=%d max=%d lastTime=%.1fms totalTime=%.1fms%n%n",
+                batcher.getBatchCount(), batcher.getUpdateCount(), batcher.getLastBatchSize(),
+                batcher.getMaxBatchSize(), batcher.getLastBatchNanos() / 1000000.0,
+                batcher.getTotalBatchNanos() / 1000000.0));
+
+        if (watchdog != null) {
+            sb.append(BUNDLE.getString("stalls.heading", watchdog.getStallCount(), watchdog.getLogFile()));
+            sb.append("\n\n");
+            for (final String report : watchdog.getReports()) {
+                sb.append(report).append('\n');
+            }
+        }
+
+        reportArea.setText(sb.toString());
+        reportArea.setCaretPosition(0);
+    }
+
+}
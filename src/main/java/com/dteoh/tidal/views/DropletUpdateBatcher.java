@@ -0,0 +1,266 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.views;
+
+import static com.dteoh.tidal.util.EDTUtils.inEDT;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.Map;
+
+import javax.swing.Timer;
+
+import com.dteoh.tidal.views.models.DropletModel;
+import com.google.common.collect.Maps;
+
+/**
+ * Collects droplet view updates from any thread and applies them on the EDT in
+ * batches, at most once per frame. All the updates of a batch are applied in
+ * one EDT event, so the resulting layout changes are validated in a single
+ * pass.
+ * 
+ * Within a batch, updates to the same view are collapsed: a model that is set
+ * replaces every model queued before it, a model that is added is merged into
+ * the queued model, and the last updating status wins.
+ * 
+ * @author Douglas Teoh
+ */
+public enum DropletUpdateBatcher {
+
+    /** The only instance of the batcher. */
+    INSTANCE;
+
+    /** Time to wait for more updates before applying a batch, in ms. */
+    private static final int FRAME_DELAY = 16;
+
+    /** Updates waiting to be applied, in the order the views were updated. */
+    private Map<DropletView, PendingUpdate> pending = Maps.newLinkedHashMap();
+
+    /** Guards pending. */
+    private final Object lock = new Object();
+
+    /** Applies the pending updates on the EDT. */
+    private final Timer flushTimer;
+
+    /** Statistics, only written on the EDT. */
+    private volatile long batchCount;
+    private volatile long updateCount;
+    private volatile int lastBatchSize;
+    private volatile int maxBatchSize;
+    private volatile long lastBatchNanos;
+    private volatile long totalBatchNanos;
+
+    private DropletUpdateBatcher() {
+        flushTimer = new Timer(FRAME_DELAY, new ActionListener() {
+            @Override
+            public void actionPerformed(final ActionEvent e) {
+                flush();
+            }
+        });
+        flushTimer.setRepeats(false);
+    }
+
+    /**
+     * Queue a model to replace the model of the given view.
+     * 
+     * @param view
+     *            View to update.
+     * @param model
+     *            The new model.
+     * @see DropletView#setDropletModel(DropletModel)
+     */
+    public void setDropletModel(final DropletView view, final DropletModel model) {
+        if (view == null) {
+            throw new NullPointerException();
+        }
+
+        synchronized (lock) {
+            final PendingUpdate update = pendingFor(view);
+            update.model = model;
+            update.replace = true;
+        }
+    }
+
+    /**
+     * Queue a model to be added to the model of the given view.
+     * 
+     * @param view
+     *            View to update.
+     * @param model
+     *            The model to add.
+     * @see DropletView#addDropletModel(DropletModel)
+     */
+    public void addDropletModel(final DropletView view, final DropletModel model) {
+        if (view == null) {
+            throw new NullPointerException();
+        }
+
+        synchronized (lock) {
+            final PendingUpdate update = pendingFor(view);
+            if (update.model == null) {
+                update.model = model;
+            } else {
+                update.model = update.model.mergeWith(model);
+            }
+        }
+    }
+
+    /**
+     * Queue an updating status change for the given view.
+     * 
+     * @param view
+     *            View to update.
+     * @param status
+     *            True if the droplet is updating, false otherwise.
+     * @see DropletView#dropletUpdating(boolean)
+     */
+    public void dropletUpdating(final DropletView view, final boolean status) {
+        if (view == null) {
+            throw new NullPointerException();
+        }
+
+        synchronized (lock) {
+            pendingFor(view).updating = Boolean.valueOf(status);
+        }
+    }
+
+    /**
+     * Discard all queued updates for the given view, e.g. because the view is
+     * about to be removed.
+     * 
+     * @param view
+     *            View to discard updates for.
+     */
+    public void discard(final DropletView view) {
+        synchronized (lock) {
+            pending.remove(view);
+        }
+    }
+
+    /**
+     * Apply all pending updates immediately. Must be called from the EDT.
+     */
+    public void flush() {
+        inEDT();
+
+        final Map<DropletView, PendingUpdate> batch;
+        synchronized (lock) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = Maps.newLinkedHashMap();
+        }
+
+        final long start = System.nanoTime();
+
+        for (final Map.Entry<DropletView, PendingUpdate> entry : batch.entrySet()) {
+            final DropletView view = entry.getKey();
+            final PendingUpdate update = entry.getValue();
+
+            if (update.model != null) {
+                if (update.replace) {
+                    view.setDropletModel(update.model);
+                } else {
+                    view.addDropletModel(update.model);
+                }
+            }
+            if (update.updating != null) {
+                view.dropletUpdating(update.updating.booleanValue());
+            }
+        }
+
+        final long elapsed = System.nanoTime() - start;
+        final int size = batch.size();
+
+        batchCount++;
+        updateCount += size;
+        lastBatchSize = size;
+        maxBatchSize = Math.max(maxBatchSize, size);
+        lastBatchNanos = elapsed;
+        totalBatchNanos += elapsed;
+    }
+
+    /**
+     * Retrieve the pending update for the view, scheduling a flush if this is
+     * the first update of a batch. Must hold the lock.
+     */
+    private PendingUpdate pendingFor(final DropletView view) {
+        PendingUpdate update = pending.get(view);
+        if (update == null) {
+            if (pending.isEmpty()) {
+                flushTimer.restart();
+            }
+            update = new PendingUpdate();
+            pending.put(view, update);
+        }
+        return update;
+    }
+
+    /**
+     * @return number of batches applied.
+     */
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+    /**
+     * @return number of view updates applied, over all batches.
+     */
+    public long getUpdateCount() {
+        return updateCount;
+    }
+
+    /**
+     * @return number of views updated in the last batch.
+     */
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    /**
+     * @return largest number of views updated in a single batch.
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @return time spent on the EDT applying the last batch, in nanoseconds.
+     */
+    public long getLastBatchNanos() {
+        return lastBatchNanos;
+    }
+
+    /**
+     * @return time spent on the EDT applying all batches, in nanoseconds.
+     */
+    public long getTotalBatchNanos() {
+        return totalBatchNanos;
+    }
+
+    /** Collapsed updates for a single view. */
+    private static final class PendingUpdate {
+        /** Model to apply, null if there is none. */
+        private DropletModel model;
+        /** Whether the model replaces the current model of the view. */
+        private boolean replace;
+        /** Updating status to apply, null if unchanged. */
+        private Boolean updating;
+    }
+
+}
@@ -26,10 +26,24 @@ import com.dteoh.tidal.views.models.DropletModel;
  */
 public final class DropletViews {
 
+    /**
+     * System property that disables droplet views, for running Tidal without
+     * a user interface.
+     */
+    public static final String HEADLESS_PROPERTY = "tidal.headless";
+
     private DropletViews() {
         throw new AssertionError();
     }
 
+    /**
+     * Determine if droplets should create and update views. Views are enabled
+     * unless the {@value #HEADLESS_PROPERTY} system property is set to true.
+     */
+    public static boolean isEnabled() {
+        return !Boolean.getBoolean(HEADLESS_PROPERTY);
+    }
+
     /**
      * Creates a new DropletView for viewing {@link DropletModel}s as a list.
      */
@@ -37,4 +51,13 @@ public final class DropletViews {
         return ListDropletView.create();
     }
 
+    /**
+     * Loads the resources used by droplet views ahead of time, so that
+     * creating views on the EDT does not have to decode images. Must not be
+     * called from the EDT.
+     */
+    public static void preloadResources() {
+        ListDropletView.preloadResources();
+    }
+
 }
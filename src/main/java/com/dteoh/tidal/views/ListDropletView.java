@@ -17,6 +17,7 @@
 package com.dteoh.tidal.views;
 
 import static com.dteoh.tidal.util.EDTUtils.inEDT;
+import static com.dteoh.tidal.util.EDTUtils.outsideEDT;
 
 import java.awt.Color;
 import java.awt.Component;
@@ -38,7 +39,9 @@ import net.miginfocom.swing.MigLayout;
 
 import org.jdesktop.application.ResourceMap;
 
-import com.dteoh.tidal.util.PunchIconFactory;
+import com.dteoh.tidal.diagnostics.TraceSpan;
+import com.dteoh.tidal.diagnostics.Tracing;
+import com.dteoh.tidal.util.ImageCache;
 import com.dteoh.tidal.views.events.DropletViewListener;
 import com.dteoh.tidal.views.models.DropletModel;
 import com.dteoh.tidal.views.models.RippleModel;
@@ -77,6 +80,18 @@ public final class ListDropletView extends DropShadowPanel implements DropletVie
     /** UI settings. */
     private static final Font HEADER_FONT = BUNDLE.getFont("header.font");
     private static final Color HEADER_FOREGROUND = BUNDLE.getColor("header.foreground");
+    private static final int SETTINGS_ICON_SHADOW = 2;
+
+    /**
+     * Load the images used by list droplet views into the image cache. Must
+     * not be called from the EDT.
+     */
+    static void preloadResources() {
+        outsideEDT();
+
+        ImageCache.getImage(BUNDLE, "updating.image");
+        ImageCache.getPunchedIcon(BUNDLE, "settings.icon", SETTINGS_ICON_SHADOW);
+    }
 
     /**
      * Creates a new ListDropletView with no model.
@@ -126,7 +141,7 @@ public final class ListDropletView extends DropShadowPanel implements DropletVie
         headerPanel.add(nameLabel);
 
         Dimension frameSize = BUNDLE.getDimension("updating.frameSize");
-        AnimatedIcon updatingIcon = new AnimatedIcon(BUNDLE.getImage("updating.image"), frameSize.width,
+        AnimatedIcon updatingIcon = new AnimatedIcon(ImageCache.getImage(BUNDLE, "updating.image"), frameSize.width,
                 frameSize.height);
         updatingLabel = new AnimatedLabel(updatingIcon, BUNDLE.getInteger("updating.frameInterval"));
         updatingLabel.setVisible(false);
@@ -142,7 +157,7 @@ public final class ListDropletView extends DropShadowPanel implements DropletVie
             }
         };
         configButton.setAction(configAction);
-        configButton.setIcon(PunchIconFactory.createPunchedIcon(BUNDLE.getImage("settings.icon"), 2));
+        configButton.setIcon(ImageCache.getPunchedIcon(BUNDLE, "settings.icon", SETTINGS_ICON_SHADOW));
         configButton.setHorizontalAlignment(SwingConstants.CENTER);
         headerPanel.add(configButton, "w 24!, h 24!, wrap");
 
@@ -162,6 +177,7 @@ public final class ListDropletView extends DropShadowPanel implements DropletVie
         inEDT();
 
         if (model != null) {
+            final TraceSpan span = Tracing.get().beginViewUpdate(model.getDropletName());
             nameLabel.setText(model.getDropletName().toUpperCase());
 
             ripplesPanel.removeAll();
@@ -175,7 +191,10 @@ public final class ListDropletView extends DropShadowPanel implements DropletVie
                 ripplesPanel.add(new RippleView(contentModel), "growx, w 100px");
             }
 
-            ripplesPanel.validate();
+            ripplesPanel.revalidate();
+            ripplesPanel.repaint();
+            span.setMessages(ripplesPanel.getComponentCount());
+            span.end();
         }
     }
 
@@ -192,6 +211,7 @@ public final class ListDropletView extends DropShadowPanel implements DropletVie
         }
 
         if (model != null) {
+            final TraceSpan span = Tracing.get().beginViewUpdate(model.getDropletName());
             ripplesPanel.removeAll();
             dropletModel = dropletModel.mergeWith(model);
 
@@ -208,7 +228,10 @@ public final class ListDropletView extends DropShadowPanel implements DropletVie
                 }
             }
 
-            ripplesPanel.validate();
+            ripplesPanel.revalidate();
+            ripplesPanel.repaint();
+            span.setMessages(ripplesPanel.getComponentCount());
+            span.end();
         }
     }
 
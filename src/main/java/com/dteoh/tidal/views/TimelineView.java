@@ -0,0 +1,154 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.views;
+
+import static com.dteoh.tidal.util.EDTUtils.inEDT;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.BorderFactory;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+
+import net.miginfocom.swing.MigLayout;
+
+import org.jdesktop.application.ResourceMap;
+
+import com.dteoh.tidal.diagnostics.TraceSpan;
+import com.dteoh.tidal.diagnostics.Tracing;
+import com.dteoh.tidal.views.models.RippleModel;
+import com.dteoh.tidal.views.models.TimelineModel;
+import com.dteoh.tidal.views.swing.DropShadowPanel;
+import com.dteoh.tidal.views.swing.GradientPanel;
+import com.dteoh.treasuremap.ResourceMaps;
+import com.google.common.collect.Maps;
+
+/**
+ * Used to visualize a {@link TimelineModel} on the interface, as a single list
+ * of the newest ripples of all droplets. The view is only shown when there is
+ * more than one droplet.
+ * 
+ * @author Douglas Teoh
+ */
+public final class TimelineView extends DropShadowPanel implements View {
+
+    private static final ResourceMap BUNDLE = new ResourceMaps(TimelineView.class).build();
+
+    /** Most ripples shown. Older ripples are only shown by their droplets. */
+    public static final int LENGTH = 50;
+
+    /** Views of the ripples shown, reused when the timeline changes. */
+    private Map<RippleModel, RippleView> rippleViews;
+
+    /** Panel containing individual data feed items. */
+    private JPanel ripplesPanel;
+
+    /**
+     * Creates a new TimelineView with an empty timeline.
+     * 
+     * @return The created view.
+     */
+    public static TimelineView create() {
+        return new TimelineView();
+    }
+
+    private TimelineView() {
+        super(BUNDLE.getInteger("shadow.size"), BUNDLE.getFloat("shadow.opacity"));
+
+        rippleViews = Maps.newHashMap();
+        initView();
+    }
+
+    /**
+     * Initialize the view.
+     */
+    private void initView() {
+        inEDT();
+
+        setLayout(new MigLayout("wrap", "[grow 100]", "[]0[]"));
+        setOpaque(false);
+        setVisible(false);
+
+        final GradientPanel headerPanel = new GradientPanel(BUNDLE.getColor("header.top.color"),
+                BUNDLE.getColor("header.bottom.color"));
+        headerPanel.setName("TimelineViewHeaderPanel");
+        headerPanel.setLayout(new MigLayout("ins 0", "[]push"));
+        int headerBorderSize = BUNDLE.getInteger("header.border.size");
+        int headerBorderPadding = BUNDLE.getInteger("header.border.padding");
+
+        headerPanel.setBorder(BorderFactory.createCompoundBorder(BorderFactory.createMatteBorder(headerBorderSize,
+                headerBorderSize, headerBorderSize, headerBorderSize, BUNDLE.getColor("header.border.color")),
+                BorderFactory.createEmptyBorder(headerBorderPadding, headerBorderPadding, headerBorderPadding,
+                        headerBorderPadding)));
+
+        final JLabel nameLabel = new JLabel(BUNDLE.getString("header.text").toUpperCase());
+        nameLabel.setForeground(BUNDLE.getColor("header.foreground"));
+        nameLabel.setFont(BUNDLE.getFont("header.font"));
+        nameLabel.setName("TimelineViewNameLabel");
+        headerPanel.add(nameLabel, "h 24!");
+
+        add(headerPanel, "pushx, growx");
+
+        ripplesPanel = new JPanel();
+        ripplesPanel.setName("TimelineViewRipplesPanel");
+        ripplesPanel.setLayout(new MigLayout("wrap 1, gapy 1, ins 0", "[grow 100]", "[]0"));
+        ripplesPanel.setOpaque(false);
+
+        add(ripplesPanel, "pushx, growx");
+    }
+
+    /**
+     * Show the newest {@link #LENGTH} ripples of the given timeline.
+     * 
+     * @param model
+     *            The timeline to show.
+     */
+    public void setTimelineModel(final TimelineModel model) {
+        inEDT();
+
+        final TraceSpan span = Tracing.get().beginViewUpdate("timeline");
+        final List<TimelineModel.Entry> newest = model.getNewest(LENGTH);
+
+        ripplesPanel.removeAll();
+        final Map<RippleModel, RippleView> views = Maps.newHashMap();
+        for (final TimelineModel.Entry entry : newest) {
+            RippleView view = rippleViews.get(entry.getRipple());
+            if (view == null) {
+                view = new RippleView(entry.getRipple());
+            }
+            view.setToolTipText(entry.getDropletName());
+            // See ListDropletView for the 100px width.
+            ripplesPanel.add(view, "growx, w 100px");
+            views.put(entry.getRipple(), view);
+        }
+        rippleViews = views;
+
+        setVisible(model.getDropletCount() > 1);
+        ripplesPanel.revalidate();
+        ripplesPanel.repaint();
+        span.setMessages(newest.size());
+        span.end();
+    }
+
+    @Override
+    public JComponent getView() {
+        return this;
+    }
+
+}
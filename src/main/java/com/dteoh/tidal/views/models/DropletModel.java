@@ -16,18 +16,14 @@
 
 package com.dteoh.tidal.views.models;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-
+import java.util.Arrays;
 
 import com.dteoh.tidal.id.ID;
 import com.dteoh.tidal.views.DropletView;
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
 
 /**
- * View model for {@link DropletView}.
+ * View model for {@link DropletView}. The ripples of the model are kept in a
+ * {@link RippleStore}.
  * 
  * @author Douglas Teoh
  * 
@@ -39,7 +35,7 @@ public class DropletModel {
     /** Name of the model. */
     private final String dropletName;
     /** Droplet contents. */
-    private final List<RippleModel> dropletContents;
+    private final RippleStore dropletContents;
 
     /**
      * @return the identifier of this droplet.
@@ -62,6 +58,13 @@ public class DropletModel {
         return dropletContents;
     }
 
+    /**
+     * @return droplet contents, for queries that do not need every ripple.
+     */
+    public RippleStore getRippleStore() {
+        return dropletContents;
+    }
+
     /**
      * Creates a new droplet view model.
      * 
@@ -75,17 +78,7 @@ public class DropletModel {
         dropletID = identifier;
         this.dropletName = dropletName;
 
-        final List<RippleModel> models = new ArrayList<RippleModel>();
-        for (final RippleModel model : dropletContents) {
-            models.add(model);
-        }
-        Collections.sort(models);
-
-        final ImmutableList.Builder<RippleModel> modelBuilder = ImmutableList
-                .builder();
-        modelBuilder.addAll(models);
-
-        this.dropletContents = modelBuilder.build();
+        this.dropletContents = RippleStore.of(Arrays.asList(dropletContents));
     }
 
     /**
@@ -98,20 +91,27 @@ public class DropletModel {
      */
     public DropletModel(final ID identifier, final String dropletName,
             final Iterable<RippleModel> dropletContents) {
+        this(identifier, dropletName, dropletContents, null);
+    }
+
+    /**
+     * Creates a new droplet view model.
+     * 
+     * @param dropletName
+     *            Name of the droplet.
+     * @param dropletContents
+     *            Contents of the view model.
+     * @param arena
+     *            Arena to keep the contents of ripples in, or null to keep
+     *            them on the heap.
+     */
+    public DropletModel(final ID identifier, final String dropletName,
+            final Iterable<RippleModel> dropletContents,
+            final SnippetArena arena) {
         dropletID = identifier;
         this.dropletName = dropletName;
 
-        final List<RippleModel> models = new ArrayList<RippleModel>();
-        for (final RippleModel model : dropletContents) {
-            models.add(model);
-        }
-        Collections.sort(models);
-
-        final ImmutableList.Builder<RippleModel> modelBuilder = ImmutableList
-                .builder();
-        modelBuilder.addAll(models);
-
-        this.dropletContents = modelBuilder.build();
+        this.dropletContents = RippleStore.of(dropletContents, arena);
     }
 
     /**
@@ -127,27 +127,8 @@ public class DropletModel {
         dropletID = first.getIdentifier();
         dropletName = first.getDropletName();
 
-        ArrayList<RippleModel> models = Lists.newArrayList(first
-                .getDropletContents());
-        models.addAll(second.dropletContents);
-        Collections.sort(models);
-
-        ArrayList<RippleModel> uniques = Lists.newArrayList();
-
-        RippleModel prev = null;
-        for (RippleModel model : models) {
-            if (prev != null && model.equals(prev)) {
-                continue;
-            }
-            uniques.add(model);
-            prev = model;
-        }
-
-        final ImmutableList.Builder<RippleModel> modelBuilder = ImmutableList
-                .builder();
-        modelBuilder.addAll(uniques);
-
-        dropletContents = modelBuilder.build();
+        dropletContents = first.dropletContents.merge(second.dropletContents,
+                Integer.MAX_VALUE);
     }
 
     /**
@@ -0,0 +1,688 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.views.models;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.dteoh.tidal.views.models.SnippetArena.Region;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * An immutable, column oriented store of ripples, sorted newest first and then
+ * by subject, like {@link RippleModel#compareTo(RippleModel)}.
+ * 
+ * Instead of one object per ripple, the store keeps a column per field: receipt
+ * times in a {@code long[]}, origins and subjects as indexes into tables of
+ * unique strings, and contents as offsets into one shared {@code char[]}. Large
+ * mailboxes then cost a handful of arrays, and sorting and range queries by
+ * time only touch primitive arrays. {@link RippleModel}s are created when a
+ * ripple is read, and are not kept.
+ * 
+ * Stores created with a {@link SnippetArena} keep their contents off the heap
+ * instead, as UTF-8 in the buffers of the arena.
+ * 
+ * @author Douglas Teoh
+ */
+public final class RippleStore implements Iterable<RippleModel> {
+
+    /** A store without ripples. */
+    public static final RippleStore EMPTY = new Columns(0, null).build();
+
+    /** Index of null in a string column. */
+    private static final int NULL = -1;
+    /**
+     * Merging copies contents out of buffers that the merged store uses less
+     * than this fraction of.
+     */
+    private static final int SPARSE = 4;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final int size;
+    private final long[] received;
+    private final Object[] ids;
+    private final int[] origins;
+    private final int[] subjects;
+    /** Offsets of contents, into the text or into their buffer. */
+    private final int[] contentOffsets;
+    /** Lengths of contents, in characters or in bytes. */
+    private final int[] contentLengths;
+    /** Indexes of the buffers of contents, null if contents are on the heap. */
+    private final int[] contentBlocks;
+
+    private final String[] originTable;
+    private final String[] subjectTable;
+    private final char[] text;
+
+    /** Arena contents are kept in, null if contents are on the heap. */
+    private final SnippetArena arena;
+    private final ByteBuffer[] blocks;
+
+    private RippleStore(final Columns columns) {
+        size = columns.size;
+        received = Arrays.copyOf(columns.received, size);
+        ids = Arrays.copyOf(columns.ids, size);
+        origins = Arrays.copyOf(columns.origins, size);
+        subjects = Arrays.copyOf(columns.subjects, size);
+        contentOffsets = Arrays.copyOf(columns.contentOffsets, size);
+        contentLengths = Arrays.copyOf(columns.contentLengths, size);
+        contentBlocks = columns.arena == null ? null : Arrays.copyOf(columns.contentBlocks, size);
+        originTable = columns.originTable.toArray(new String[columns.originTable.size()]);
+        subjectTable = columns.subjectTable.toArray(new String[columns.subjectTable.size()]);
+        text = Arrays.copyOf(columns.text, columns.textLength);
+        arena = columns.arena;
+        blocks = columns.blocks.toArray(new ByteBuffer[columns.blocks.size()]);
+    }
+
+    /**
+     * Creates a store holding the given ripples. Duplicated ripples are kept.
+     * 
+     * @param ripples
+     *            Ripples to store, in any order.
+     * @return the store.
+     */
+    public static RippleStore of(final Iterable<RippleModel> ripples) {
+        return of(ripples, null);
+    }
+
+    /**
+     * Creates a store holding the given ripples. Duplicated ripples are kept.
+     * 
+     * @param ripples
+     *            Ripples to store, in any order.
+     * @param arena
+     *            Arena to keep contents in, or null to keep them on the heap.
+     * @return the store.
+     */
+    public static RippleStore of(final Iterable<RippleModel> ripples, final SnippetArena arena) {
+        final Columns unsorted = new Columns(16, arena);
+        for (final RippleModel ripple : ripples) {
+            unsorted.add(ripple);
+        }
+        if (unsorted.size == 0) {
+            return EMPTY;
+        }
+
+        final int[] order = new int[unsorted.size];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        final RippleStore store = unsorted.build();
+        sort(store, order, new int[order.length], 0, order.length);
+
+        final Columns sorted = new Columns(order.length, arena);
+        for (final int row : order) {
+            sorted.add(store, row, false);
+        }
+        return sorted.build();
+    }
+
+    /**
+     * Creates a store holding the ripples of this store and another store.
+     * Duplicated ripples are removed, and only the newest ripples are kept.
+     * Off-heap contents are kept in the arena of this store, or else of the
+     * other store.
+     * 
+     * @param other
+     *            Store to merge with this store.
+     * @param limit
+     *            Most ripples to keep.
+     * @return the merged store.
+     */
+    public RippleStore merge(final RippleStore other, final int limit) {
+        final int capacity = Math.min(limit, size + other.size);
+        final RippleStore[] stores = new RippleStore[capacity];
+        final int[] rows = new int[capacity];
+        int count = 0;
+
+        int i = 0;
+        int j = 0;
+        while ((i < size || j < other.size) && count < limit) {
+            final RippleStore store;
+            final int row;
+            if (j == other.size || (i < size && compare(this, i, other, j) <= 0)) {
+                store = this;
+                row = i++;
+            } else {
+                store = other;
+                row = j++;
+            }
+
+            if (count > 0 && same(stores[count - 1], rows[count - 1], store, row)) {
+                continue;
+            }
+            stores[count] = store;
+            rows[count] = row;
+            count++;
+        }
+
+        final SnippetArena target = arena != null ? arena : other.arena;
+        final Map<ByteBuffer, Integer> sparse = sparseBlocks(stores, rows, count, target);
+        final Columns merged = new Columns(count, target);
+        for (int k = 0; k < count; k++) {
+            final RippleStore store = stores[k];
+            final int row = rows[k];
+            merged.add(store, row, store.arena != null && store.contentLengths[row] != NULL
+                    && sparse.containsKey(store.blocks[store.contentBlocks[row]]));
+        }
+        return merged.build();
+    }
+
+    /**
+     * Find the buffers that the given rows would barely use, so that their
+     * contents are copied instead of keeping the whole buffer alive.
+     */
+    private static Map<ByteBuffer, Integer> sparseBlocks(final RippleStore[] stores, final int[] rows,
+            final int count, final SnippetArena target) {
+        final Map<ByteBuffer, Integer> used = new IdentityHashMap<ByteBuffer, Integer>();
+        if (target == null) {
+            return used;
+        }
+        for (int k = 0; k < count; k++) {
+            final RippleStore store = stores[k];
+            final int row = rows[k];
+            if (store.arena == null || store.contentLengths[row] == NULL) {
+                continue;
+            }
+            final ByteBuffer block = store.blocks[store.contentBlocks[row]];
+            final Integer bytes = used.get(block);
+            used.put(block, (bytes == null ? 0 : bytes) + store.contentLengths[row]);
+        }
+
+        final Iterator<Map.Entry<ByteBuffer, Integer>> it = used.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<ByteBuffer, Integer> entry = it.next();
+            if ((long) entry.getValue() * SPARSE >= entry.getKey().capacity() || target.isCurrent(entry.getKey())) {
+                it.remove();
+            }
+        }
+        return used;
+    }
+
+    /**
+     * @return the number of ripples in this store.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if this store has no ripples.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the number of buffers holding the off-heap contents of this
+     *         store.
+     */
+    int getBlockCount() {
+        return blocks.length;
+    }
+
+    /**
+     * Retrieve a ripple.
+     * 
+     * @param row
+     *            Position of the ripple, 0 being the newest.
+     */
+    public RippleModel get(final int row) {
+        checkRow(row);
+        return new RippleModel(ids[row], getOrigin(row), getSubject(row), getContent(row), received[row]);
+    }
+
+    /**
+     * Retrieve when a ripple was received, without creating the ripple.
+     * 
+     * @param row
+     *            Position of the ripple, 0 being the newest.
+     */
+    public long getReceived(final int row) {
+        checkRow(row);
+        return received[row];
+    }
+
+    /**
+     * Retrieve the origin of a ripple, without creating the ripple.
+     * 
+     * @param row
+     *            Position of the ripple, 0 being the newest.
+     */
+    public String getOrigin(final int row) {
+        checkRow(row);
+        return origins[row] == NULL ? null : originTable[origins[row]];
+    }
+
+    /**
+     * Retrieve the subject of a ripple, without creating the ripple.
+     * 
+     * @param row
+     *            Position of the ripple, 0 being the newest.
+     */
+    public String getSubject(final int row) {
+        checkRow(row);
+        return subjects[row] == NULL ? null : subjectTable[subjects[row]];
+    }
+
+    /**
+     * Retrieve the content of a ripple, without creating the ripple.
+     * 
+     * @param row
+     *            Position of the ripple, 0 being the newest.
+     */
+    public String getContent(final int row) {
+        checkRow(row);
+        final int length = contentLengths[row];
+        if (length == NULL) {
+            return null;
+        }
+        if (arena == null) {
+            return new String(text, contentOffsets[row], length);
+        }
+
+        final ByteBuffer block = blocks[contentBlocks[row]].duplicate();
+        block.limit(contentOffsets[row] + length);
+        block.position(contentOffsets[row]);
+        final byte[] bytes = new byte[length];
+        block.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Find the first ripple received before the given time.
+     * 
+     * @param time
+     *            Time since the epoch, in milliseconds.
+     * @return the position of the newest ripple received before the time, or
+     *         {@link #size()} if there is none.
+     */
+    public int indexBefore(final long time) {
+        // Newest first, so rows received at or after the time come first.
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (received[mid] >= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Retrieve the ripples received in a span of time, newest first. The
+     * returned list is a view of this store.
+     * 
+     * @param from
+     *            Start of the span, inclusive.
+     * @param to
+     *            End of the span, exclusive.
+     */
+    public List<RippleModel> range(final long from, final long to) {
+        final int start = indexBefore(to);
+        return asList().subList(start, Math.max(start, indexBefore(from)));
+    }
+
+    /**
+     * @return the ripples of this store as a list, newest first. The list is a
+     *         view of this store.
+     */
+    public List<RippleModel> asList() {
+        return new AbstractList<RippleModel>() {
+            @Override
+            public RippleModel get(final int index) {
+                return RippleStore.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Iterator<RippleModel> iterator() {
+        return asList().iterator();
+    }
+
+    private void checkRow(final int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row: " + row + ", size: " + size);
+        }
+    }
+
+    /**
+     * Stable merge sort of rows, so that equal ripples keep the order they
+     * were added in.
+     */
+    private static void sort(final RippleStore store, final int[] rows, final int[] scratch, final int from,
+            final int to) {
+        if (to - from < 2) {
+            return;
+        }
+        final int mid = (from + to) >>> 1;
+        sort(store, rows, scratch, from, mid);
+        sort(store, rows, scratch, mid, to);
+        if (compare(store, rows[mid - 1], store, rows[mid]) <= 0) {
+            // Already in order.
+            return;
+        }
+
+        System.arraycopy(rows, from, scratch, from, to - from);
+        int i = from;
+        int j = mid;
+        for (int k = from; k < to; k++) {
+            if (j == to || (i < mid && compare(store, scratch[i], store, scratch[j]) <= 0)) {
+                rows[k] = scratch[i++];
+            } else {
+                rows[k] = scratch[j++];
+            }
+        }
+    }
+
+    private static int compare(final RippleStore first, final int firstRow, final RippleStore second,
+            final int secondRow) {
+        final long a = first.received[firstRow];
+        final long b = second.received[secondRow];
+        if (a != b) {
+            return a > b ? -1 : 1;
+        }
+        return compareSubjects(first.getSubject(firstRow), second.getSubject(secondRow));
+    }
+
+    private static int compareSubjects(final String first, final String second) {
+        if (first == null || second == null) {
+            return first == second ? 0 : first == null ? -1 : 1;
+        }
+        return first.compareTo(second);
+    }
+
+    /**
+     * Determine if two rows hold equal ripples, as defined by
+     * {@link RippleModel#equals(Object)}.
+     */
+    private static boolean same(final RippleStore first, final int firstRow, final RippleStore second,
+            final int secondRow) {
+        if (first.received[firstRow] != second.received[secondRow]) {
+            return false;
+        }
+        final Object firstId = first.ids[firstRow];
+        final Object secondId = second.ids[secondRow];
+        if (firstId == null ? secondId != null : !firstId.equals(secondId)) {
+            return false;
+        }
+        if (!equal(first.getSubject(firstRow), second.getSubject(secondRow))
+                || !equal(first.getOrigin(firstRow), second.getOrigin(secondRow))) {
+            return false;
+        }
+        if ((first.arena == null) != (second.arena == null)) {
+            return equal(first.getContent(firstRow), second.getContent(secondRow));
+        }
+
+        final int length = first.contentLengths[firstRow];
+        if (length != second.contentLengths[secondRow]) {
+            return false;
+        }
+        final int a = first.contentOffsets[firstRow];
+        final int b = second.contentOffsets[secondRow];
+        if (first.arena == null) {
+            for (int k = 0; k < length; k++) {
+                if (first.text[a + k] != second.text[b + k]) {
+                    return false;
+                }
+            }
+        } else if (length != NULL) {
+            final ByteBuffer firstBlock = first.blocks[first.contentBlocks[firstRow]];
+            final ByteBuffer secondBlock = second.blocks[second.contentBlocks[secondRow]];
+            for (int k = 0; k < length; k++) {
+                if (firstBlock.get(a + k) != secondBlock.get(b + k)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean equal(final String first, final String second) {
+        return first == null ? second == null : first.equals(second);
+    }
+
+    /**
+     * Growable columns, used to build a store one ripple at a time. Origins
+     * and subjects are interned as they are added.
+     */
+    private static final class Columns {
+        private int size;
+        private long[] received;
+        private Object[] ids;
+        private int[] origins;
+        private int[] subjects;
+        private int[] contentOffsets;
+        private int[] contentLengths;
+        private int[] contentBlocks;
+
+        private final List<String> originTable = Lists.newArrayList();
+        private final Map<String, Integer> originIndex = Maps.newHashMap();
+        private final List<String> subjectTable = Lists.newArrayList();
+        private final Map<String, Integer> subjectIndex = Maps.newHashMap();
+
+        private char[] text;
+        private int textLength;
+
+        private final SnippetArena arena;
+        private final List<ByteBuffer> blocks = Lists.newArrayList();
+        private final Map<ByteBuffer, Integer> blockIndex = new IdentityHashMap<ByteBuffer, Integer>();
+        private final CharsetEncoder encoder;
+        /** Region contents are written to. */
+        private Region region;
+
+        Columns(final int capacity, final SnippetArena arena) {
+            this.arena = arena;
+            received = new long[capacity];
+            ids = new Object[capacity];
+            origins = new int[capacity];
+            subjects = new int[capacity];
+            contentOffsets = new int[capacity];
+            contentLengths = new int[capacity];
+            if (arena == null) {
+                text = new char[capacity * 64];
+                encoder = null;
+            } else {
+                text = new char[0];
+                contentBlocks = new int[capacity];
+                encoder = UTF8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(
+                        CodingErrorAction.REPLACE);
+            }
+        }
+
+        void add(final RippleModel ripple) {
+            final int row = append(ripple.getId(), ripple.getOrigin(), ripple.getSubject(), ripple.getReceived());
+            final String content = ripple.getContent();
+            if (content == null) {
+                contentLengths[row] = NULL;
+            } else if (arena == null) {
+                putChars(row, content);
+            } else {
+                putBytes(row, CharBuffer.wrap(content));
+            }
+        }
+
+        /**
+         * Add a row of a store.
+         * 
+         * @param copy
+         *            Whether to copy off-heap contents into the arena of these
+         *            columns, instead of referring to them.
+         */
+        void add(final RippleStore store, final int row, final boolean copy) {
+            final int added = append(store.ids[row], store.getOrigin(row), store.getSubject(row),
+                    store.received[row]);
+            final int offset = store.contentOffsets[row];
+            final int length = store.contentLengths[row];
+            if (length == NULL) {
+                contentLengths[added] = NULL;
+            } else if (arena == null) {
+                if (store.arena == null) {
+                    putChars(added, store.text, offset, length);
+                } else {
+                    putChars(added, store.getContent(row));
+                }
+            } else if (store.arena == null) {
+                putBytes(added, CharBuffer.wrap(store.text, offset, length));
+            } else if (copy) {
+                final ByteBuffer in = store.blocks[store.contentBlocks[row]].duplicate();
+                in.limit(offset + length);
+                in.position(offset);
+                putBytes(added, in, length);
+            } else {
+                setBytes(added, store.blocks[store.contentBlocks[row]], offset, length);
+            }
+        }
+
+        /**
+         * Add a row, without its content.
+         * 
+         * @return the added row.
+         */
+        private int append(final Object id, final String origin, final String subject, final long time) {
+            if (size == received.length) {
+                final int capacity = Math.max(16, size * 2);
+                received = Arrays.copyOf(received, capacity);
+                ids = Arrays.copyOf(ids, capacity);
+                origins = Arrays.copyOf(origins, capacity);
+                subjects = Arrays.copyOf(subjects, capacity);
+                contentOffsets = Arrays.copyOf(contentOffsets, capacity);
+                contentLengths = Arrays.copyOf(contentLengths, capacity);
+                if (contentBlocks != null) {
+                    contentBlocks = Arrays.copyOf(contentBlocks, capacity);
+                }
+            }
+
+            final int row = size++;
+            received[row] = time;
+            ids[row] = id;
+            origins[row] = intern(origin, originTable, originIndex);
+            subjects[row] = intern(subject, subjectTable, subjectIndex);
+            return row;
+        }
+
+        private void putChars(final int row, final String content) {
+            final int length = content.length();
+            reserveText(length);
+            content.getChars(0, length, text, textLength);
+            contentOffsets[row] = textLength;
+            contentLengths[row] = length;
+            textLength += length;
+        }
+
+        private void putChars(final int row, final char[] content, final int offset, final int length) {
+            reserveText(length);
+            System.arraycopy(content, offset, text, textLength, length);
+            contentOffsets[row] = textLength;
+            contentLengths[row] = length;
+            textLength += length;
+        }
+
+        private void reserveText(final int length) {
+            if (textLength + length > text.length) {
+                text = Arrays.copyOf(text, Math.max(textLength + length, text.length * 2));
+            }
+        }
+
+        private void putBytes(final int row, final CharBuffer content) {
+            reserve((int) Math.ceil(encoder.maxBytesPerChar() * content.remaining()));
+            final ByteBuffer out = region.buffer.duplicate();
+            out.limit(region.limit);
+            out.position(region.position);
+            encoder.reset();
+            encoder.encode(content, out, true);
+            encoder.flush(out);
+            setBytes(row, region.buffer, region.position, out.position() - region.position);
+            region.position = out.position();
+        }
+
+        private void putBytes(final int row, final ByteBuffer content, final int length) {
+            reserve(length);
+            final ByteBuffer out = region.buffer.duplicate();
+            out.limit(region.limit);
+            out.position(region.position);
+            out.put(content);
+            setBytes(row, region.buffer, region.position, length);
+            region.position += length;
+        }
+
+        private void setBytes(final int row, final ByteBuffer block, final int offset, final int length) {
+            Integer index = blockIndex.get(block);
+            if (index == null) {
+                index = blocks.size();
+                blocks.add(block);
+                blockIndex.put(block, index);
+            }
+            contentBlocks[row] = index;
+            contentOffsets[row] = offset;
+            contentLengths[row] = length;
+        }
+
+        /**
+         * Make sure the current region has room for the given number of bytes.
+         */
+        private void reserve(final int length) {
+            if (region == null || region.remaining() < length) {
+                if (region != null) {
+                    arena.release(region);
+                }
+                region = arena.reserve(length);
+            }
+        }
+
+        RippleStore build() {
+            if (region != null) {
+                arena.release(region);
+                region = null;
+            }
+            return new RippleStore(this);
+        }
+
+        private static int intern(final String value, final List<String> table, final Map<String, Integer> index) {
+            if (value == null) {
+                return NULL;
+            }
+            Integer i = index.get(value);
+            if (i == null) {
+                i = table.size();
+                table.add(value);
+                index.put(value, i);
+            }
+            return i;
+        }
+    }
+
+}
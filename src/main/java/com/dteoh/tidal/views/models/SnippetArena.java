@@ -0,0 +1,133 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.views.models;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Off-heap storage for the contents of ripples, which make up most of the
+ * memory used by droplet models. Each droplet has its own arena, which hands
+ * out regions of large direct buffers that {@link RippleStore}s fill with UTF-8
+ * encoded contents.
+ * 
+ * Stores refer to the buffers directly, so a buffer is freed once no store
+ * refers to it, and the arena has moved on to another buffer or has been
+ * closed. Merging stores copies contents out of buffers that are mostly
+ * unused by the merged store, so that a few surviving ripples do not keep a
+ * whole buffer alive.
+ * 
+ * Off-heap contents are disabled unless the {@value #PROPERTY} system property
+ * is true.
+ * 
+ * @author Douglas Teoh
+ */
+public final class SnippetArena {
+
+    /** System property enabling off-heap contents. */
+    public static final String PROPERTY = "tidal.snippets.offheap";
+
+    /** Size of the buffers regions are taken from. */
+    static final int BLOCK_SIZE = 1 << 20;
+    /** Smallest region handed out, so that small stores share buffers. */
+    static final int MIN_REGION = 16 << 10;
+
+    /** Buffer regions are currently taken from, null if closed. */
+    private ByteBuffer block;
+    /** Start of the unused part of the block. */
+    private int used;
+    /** The region handed out last, which can still be shrunk. */
+    private Region last;
+    private boolean closed;
+
+    /**
+     * @return true if droplets should keep ripple contents off the heap.
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(PROPERTY);
+    }
+
+    /**
+     * Release the buffer regions are taken from. Contents already stored stay
+     * readable until the stores referring to them are gone, and regions handed
+     * out afterwards are on the heap.
+     */
+    public synchronized void close() {
+        closed = true;
+        block = null;
+        last = null;
+    }
+
+    /**
+     * Take a region of at least the given size.
+     */
+    synchronized Region reserve(final int minimum) {
+        if (closed) {
+            return new Region(ByteBuffer.allocate(minimum), 0, minimum);
+        }
+        if (minimum > BLOCK_SIZE / 4) {
+            // Too big to share a buffer.
+            return new Region(ByteBuffer.allocateDirect(minimum), 0, minimum);
+        }
+        if (block == null || block.capacity() - used < minimum) {
+            block = ByteBuffer.allocateDirect(BLOCK_SIZE);
+            used = 0;
+        }
+
+        final int size = Math.min(Math.max(minimum, MIN_REGION), block.capacity() - used);
+        last = new Region(block, used, used + size);
+        used += size;
+        return last;
+    }
+
+    /**
+     * Return the unused end of a region, if nothing has been taken since.
+     */
+    synchronized void release(final Region region) {
+        if (region == last) {
+            used = region.position;
+            last = null;
+        }
+    }
+
+    /**
+     * Determine if regions are still taken from the given buffer.
+     */
+    synchronized boolean isCurrent(final ByteBuffer buffer) {
+        return buffer == block;
+    }
+
+    /**
+     * Part of a buffer for one store to fill. Positions are those of the whole
+     * buffer.
+     */
+    static final class Region {
+        final ByteBuffer buffer;
+        final int limit;
+        int position;
+
+        Region(final ByteBuffer buffer, final int position, final int limit) {
+            this.buffer = buffer;
+            this.position = position;
+            this.limit = limit;
+        }
+
+        int remaining() {
+            return limit - position;
+        }
+    }
+
+}
@@ -0,0 +1,258 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.views.models;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import com.dteoh.tidal.id.ID;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * View model for a timeline of the ripples of several droplets, newest first.
+ * 
+ * The model keeps the sorted {@link DropletModel} of every droplet as it is,
+ * and merges them lazily while being iterated, keeping one cursor per droplet
+ * in a priority queue. Changing the model of one droplet therefore costs
+ * nothing more than replacing it, and reading the newest n ripples costs
+ * O(n log k) for k droplets, however many ripples there are in total.
+ * 
+ * Timeline models are immutable; every change creates a new model.
+ * 
+ * @author Douglas Teoh
+ */
+public final class TimelineModel implements Iterable<TimelineModel.Entry> {
+
+    /**
+     * A ripple of the timeline, together with the droplet it belongs to.
+     */
+    public static final class Entry implements Comparable<Entry> {
+        private final DropletModel droplet;
+        private final RippleModel ripple;
+
+        /**
+         * @param droplet
+         *            Model of the droplet the ripple belongs to.
+         * @param ripple
+         *            The ripple.
+         */
+        public Entry(final DropletModel droplet, final RippleModel ripple) {
+            this.droplet = droplet;
+            this.ripple = ripple;
+        }
+
+        /**
+         * @return the identifier of the droplet of the ripple.
+         */
+        public ID getDroplet() {
+            return droplet.getIdentifier();
+        }
+
+        /**
+         * @return the name of the droplet of the ripple.
+         */
+        public String getDropletName() {
+            return droplet.getDropletName();
+        }
+
+        /**
+         * @return the ripple.
+         */
+        public RippleModel getRipple() {
+            return ripple;
+        }
+
+        @Override
+        public int compareTo(final Entry other) {
+            return ripple.compareTo(other.ripple);
+        }
+    }
+
+    /** A timeline without any droplets. */
+    public static final TimelineModel EMPTY = new TimelineModel(Collections.<ID, DropletModel> emptyMap());
+
+    /** Model of every droplet, in the order the droplets were added. */
+    private final Map<ID, DropletModel> models;
+
+    private TimelineModel(final Map<ID, DropletModel> models) {
+        this.models = models;
+    }
+
+    /**
+     * Creates a new timeline where the given model replaces the model of its
+     * droplet, or is added if the timeline does not have the droplet yet.
+     * 
+     * @param model
+     *            The new model of the droplet.
+     * @return the new timeline.
+     */
+    public TimelineModel withDropletModel(final DropletModel model) {
+        final Map<ID, DropletModel> changed = Maps.newLinkedHashMap(models);
+        changed.put(model.getIdentifier(), model);
+        return new TimelineModel(Collections.unmodifiableMap(changed));
+    }
+
+    /**
+     * Creates a new timeline where the given model is merged into the model of
+     * its droplet, as with {@link DropletModel#mergeWith(DropletModel)}.
+     * 
+     * @param model
+     *            The model to merge.
+     * @return the new timeline.
+     */
+    public TimelineModel mergeDropletModel(final DropletModel model) {
+        final DropletModel previous = models.get(model.getIdentifier());
+        return withDropletModel(previous == null ? model : previous.mergeWith(model));
+    }
+
+    /**
+     * Creates a new timeline without the given droplet.
+     * 
+     * @param dropletID
+     *            Identifier of the droplet.
+     * @return the new timeline, or this timeline if it does not have the
+     *         droplet.
+     */
+    public TimelineModel withoutDroplet(final ID dropletID) {
+        if (!models.containsKey(dropletID)) {
+            return this;
+        }
+        final Map<ID, DropletModel> changed = Maps.newLinkedHashMap(models);
+        changed.remove(dropletID);
+        return new TimelineModel(Collections.unmodifiableMap(changed));
+    }
+
+    /**
+     * @return the model of the given droplet, or null if the timeline does not
+     *         have the droplet.
+     */
+    public DropletModel getDropletModel(final ID dropletID) {
+        return models.get(dropletID);
+    }
+
+    /**
+     * @return the number of droplets in the timeline.
+     */
+    public int getDropletCount() {
+        return models.size();
+    }
+
+    /**
+     * Retrieve the newest ripples of the timeline.
+     * 
+     * @param count
+     *            Most ripples to retrieve.
+     * @return up to count ripples, newest first.
+     */
+    public List<Entry> getNewest(final int count) {
+        final List<Entry> newest = Lists.newArrayListWithCapacity(Math.min(count, 64));
+        final Iterator<Entry> entries = iterator();
+        while (newest.size() < count && entries.hasNext()) {
+            newest.add(entries.next());
+        }
+        return newest;
+    }
+
+    /**
+     * Iterates over the ripples of all droplets, newest first. Ripples are
+     * merged as they are requested.
+     */
+    @Override
+    public Iterator<Entry> iterator() {
+        return new MergingIterator(models.values());
+    }
+
+    /**
+     * Merges the sorted ripples of several droplets.
+     */
+    private static final class MergingIterator implements Iterator<Entry> {
+        private final PriorityQueue<Cursor> cursors;
+
+        MergingIterator(final Iterable<DropletModel> droplets) {
+            cursors = new PriorityQueue<Cursor>();
+            int order = 0;
+            for (final DropletModel droplet : droplets) {
+                final Cursor cursor = new Cursor(droplet, order++);
+                if (cursor.head != null) {
+                    cursors.add(cursor);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !cursors.isEmpty();
+        }
+
+        @Override
+        public Entry next() {
+            final Cursor cursor = cursors.poll();
+            if (cursor == null) {
+                throw new NoSuchElementException();
+            }
+            final Entry entry = new Entry(cursor.droplet, cursor.head);
+            if (cursor.advance()) {
+                cursors.add(cursor);
+            }
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Position in the ripples of one droplet.
+     */
+    private static final class Cursor implements Comparable<Cursor> {
+        private final DropletModel droplet;
+        private final Iterator<RippleModel> ripples;
+        /** Breaks ties, so that equal ripples come in droplet order. */
+        private final int order;
+        /** The next ripple, null once all ripples have been merged. */
+        private RippleModel head;
+
+        Cursor(final DropletModel droplet, final int order) {
+            this.droplet = droplet;
+            this.order = order;
+            ripples = droplet.getDropletContents().iterator();
+            advance();
+        }
+
+        boolean advance() {
+            head = ripples.hasNext() ? ripples.next() : null;
+            return head != null;
+        }
+
+        @Override
+        public int compareTo(final Cursor other) {
+            final int result = head.compareTo(other.head);
+            if (result != 0) {
+                return result;
+            }
+            return order < other.order ? -1 : (order == other.order ? 0 : 1);
+        }
+    }
+
+}
@@ -19,7 +19,6 @@ package com.dteoh.tidal.views.swing;
 import java.awt.Component;
 import java.awt.Graphics;
 import java.awt.Image;
-import java.awt.Point;
 
 import javax.swing.Icon;
 
@@ -46,6 +45,12 @@ public class AnimatedIcon implements Icon {
     /** Total number of frames. */
     private final int frameLen;
 
+    /** Precomputed horizontal offset of each frame in the frame images. */
+    private final int[] frameX;
+
+    /** Precomputed vertical offset of each frame in the frame images. */
+    private final int[] frameY;
+
     public AnimatedIcon(final Image frames, final int frameWidth,
             final int frameHeight) {
         if (frames == null) {
@@ -61,6 +66,10 @@ public class AnimatedIcon implements Icon {
 
         frameIdx = 0;
         frameLen = computeFrameLength();
+
+        frameX = new int[frameLen];
+        frameY = new int[frameLen];
+        computeFrameOffsets();
     }
 
     /**
@@ -73,9 +82,10 @@ public class AnimatedIcon implements Icon {
     @Override
     public void paintIcon(final Component c, final Graphics g, final int x,
             final int y) {
-        Point offset = computeFrameOffset(frameIdx);
-        g.drawImage(frames, x, y, x + frameWidth, y + frameHeight, offset.x,
-                offset.y, offset.x + frameWidth, offset.y + frameHeight, null);
+        final int sx = frameX[frameIdx];
+        final int sy = frameY[frameIdx];
+        g.drawImage(frames, x, y, x + frameWidth, y + frameHeight, sx, sy, sx
+                + frameWidth, sy + frameHeight, null);
     }
 
     @Override
@@ -88,24 +98,17 @@ public class AnimatedIcon implements Icon {
         return frameHeight;
     }
 
-    private Point computeFrameOffset(final int i) {
-        int horFrames = frames.getWidth(null) / frameWidth;
-
-        int vOffset = 0;
-        int hOffset = 0;
+    /**
+     * Compute the source rectangle of every frame once, frames are laid out
+     * left to right, top to bottom.
+     */
+    private void computeFrameOffsets() {
+        final int horFrames = frames.getWidth(null) / frameWidth;
 
-        // Compute vertical offset.
-        int idx = i;
-        while (idx > horFrames) {
-            vOffset += frameHeight;
-            idx -= horFrames;
+        for (int i = 0; i < frameLen; i++) {
+            frameX[i] = (i % horFrames) * frameWidth;
+            frameY[i] = (i / horFrames) * frameHeight;
         }
-
-        // Compute horizontal offset.
-        hOffset = idx * frameWidth;
-
-        Point offset = new Point(hOffset, vOffset);
-        return offset;
     }
 
     private int computeFrameLength() {
@@ -16,15 +16,15 @@
 
 package com.dteoh.tidal.views.swing;
 
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.HierarchyListener;
 
 import javax.swing.JLabel;
-import javax.swing.Timer;
 
 /**
- * A JLabel implementation for displaying an {@link AnimatedIcon}. Handles the
- * timing functionality required for animation.
+ * A JLabel implementation for displaying an {@link AnimatedIcon}. Frames are
+ * advanced by the shared {@link AnimationClock}, so many animated labels do
+ * not each need their own timer.
  * 
  * @author Douglas Teoh
  * 
@@ -33,7 +33,12 @@ public class AnimatedLabel extends JLabel {
 
     private final AnimatedIcon aniIcon;
     private final int frameInterval;
-    private final Timer frameTimer;
+
+    /** Whether the label is currently animating. */
+    private boolean running;
+
+    /** Time at which the next frame is due. */
+    private long nextFrame;
 
     /**
      * Creates a new AnimatedLabel.
@@ -55,11 +60,13 @@ public class AnimatedLabel extends JLabel {
         aniIcon = icon;
         this.frameInterval = frameInterval;
 
-        frameTimer = new Timer(frameInterval, new ActionListener() {
+        // The clock sleeps while nothing is visible, wake it up when we are.
+        addHierarchyListener(new HierarchyListener() {
             @Override
-            public void actionPerformed(final ActionEvent e) {
-                aniIcon.nextFrame();
-                repaint();
+            public void hierarchyChanged(final HierarchyEvent e) {
+                if (running && (e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0) {
+                    AnimationClock.getInstance().refresh();
+                }
             }
         });
     }
@@ -68,14 +75,47 @@ public class AnimatedLabel extends JLabel {
      * Start animating the label.
      */
     public void start() {
-        frameTimer.start();
+        if (running) {
+            return;
+        }
+        running = true;
+        nextFrame = System.currentTimeMillis() + frameInterval;
+        AnimationClock.getInstance().start(this);
     }
 
     /**
      * Stop animating the label.
      */
     public void stop() {
-        frameTimer.stop();
+        if (!running) {
+            return;
+        }
+        running = false;
+        AnimationClock.getInstance().stop(this);
+    }
+
+    /**
+     * Retrieve the interval between frames in milliseconds.
+     */
+    int getFrameInterval() {
+        return frameInterval;
+    }
+
+    /**
+     * Called by the animation clock on every tick. Advances the icon if the
+     * next frame is due.
+     * 
+     * @param now
+     *            Current time in milliseconds.
+     */
+    void advance(final long now) {
+        // Allow for timer jitter, the clock may tick slightly early.
+        if (nextFrame - now > frameInterval / 2) {
+            return;
+        }
+        aniIcon.nextFrame();
+        nextFrame = Math.max(nextFrame + frameInterval, now + frameInterval / 2);
+        repaint();
     }
 
 }
@@ -0,0 +1,219 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.views.swing;
+
+import static com.dteoh.tidal.util.EDTUtils.inEDT;
+
+import java.awt.AWTEvent;
+import java.awt.Frame;
+import java.awt.Toolkit;
+import java.awt.Window;
+import java.awt.event.AWTEventListener;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowEvent;
+import java.util.List;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import com.google.common.collect.Lists;
+
+/**
+ * A single animation clock shared by every {@link AnimatedLabel}. All active
+ * animations are advanced from one timer tick, so that any number of animated
+ * labels only ever costs one timer event on the EDT per frame. The repaints
+ * requested during a tick are coalesced by the repaint manager into a single
+ * paint pass.
+ * 
+ * The clock stops completely when there is nothing to animate, or when every
+ * animated label is hidden or sits inside a minimized window. It is restarted
+ * when a window is restored or a new animation is started.
+ * 
+ * The clock must only be used from the EDT.
+ * 
+ * @author Douglas Teoh
+ */
+final class AnimationClock {
+
+    /** The shared clock instance. */
+    private static AnimationClock instance;
+
+    /** Animations currently running. */
+    private final List<AnimatedLabel> animations;
+
+    /** The only timer driving all animations. */
+    private final Timer timer;
+
+    /** Restarts the clock when a window is restored. */
+    private final AWTEventListener windowStateListener;
+
+    /** Whether the window state listener is installed. */
+    private boolean listening;
+
+    /**
+     * Retrieve the shared animation clock. Must be called from the EDT.
+     */
+    static AnimationClock getInstance() {
+        inEDT();
+        if (instance == null) {
+            instance = new AnimationClock();
+        }
+        return instance;
+    }
+
+    private AnimationClock() {
+        animations = Lists.newArrayList();
+
+        timer = new Timer(Integer.MAX_VALUE, new ActionListener() {
+            @Override
+            public void actionPerformed(final ActionEvent e) {
+                tick();
+            }
+        });
+        timer.setCoalesce(true);
+
+        windowStateListener = new AWTEventListener() {
+            @Override
+            public void eventDispatched(final AWTEvent event) {
+                if (event.getID() == WindowEvent.WINDOW_STATE_CHANGED) {
+                    refresh();
+                }
+            }
+        };
+    }
+
+    /**
+     * Start ticking the given animation.
+     * 
+     * @param animation
+     *            Label to animate.
+     */
+    void start(final AnimatedLabel animation) {
+        inEDT();
+
+        if (!animations.contains(animation)) {
+            animations.add(animation);
+        }
+        refresh();
+    }
+
+    /**
+     * Stop ticking the given animation.
+     * 
+     * @param animation
+     *            Label to stop animating.
+     */
+    void stop(final AnimatedLabel animation) {
+        inEDT();
+
+        animations.remove(animation);
+        refresh();
+    }
+
+    /**
+     * Advance every visible animation whose frame is due, in one pass.
+     */
+    private void tick() {
+        final long now = System.currentTimeMillis();
+        boolean anyVisible = false;
+
+        for (final AnimatedLabel animation : animations) {
+            if (!isVisible(animation)) {
+                continue;
+            }
+            anyVisible = true;
+            animation.advance(now);
+        }
+
+        if (!anyVisible) {
+            // Everything is hidden or minimized, go to sleep until a window
+            // changes state or an animation is started.
+            timer.stop();
+        }
+    }
+
+    /**
+     * Start, stop or retune the timer according to the current animations.
+     * Should be invoked whenever an animated label is shown or hidden.
+     */
+    void refresh() {
+        inEDT();
+
+        int interval = Integer.MAX_VALUE;
+        boolean anyVisible = false;
+
+        for (final AnimatedLabel animation : animations) {
+            interval = Math.min(interval, animation.getFrameInterval());
+            anyVisible |= isVisible(animation);
+        }
+
+        if (animations.isEmpty()) {
+            timer.stop();
+            setListening(false);
+            return;
+        }
+
+        setListening(true);
+
+        if (!anyVisible) {
+            timer.stop();
+            return;
+        }
+
+        if (timer.getDelay() != interval) {
+            timer.setDelay(interval);
+            timer.setInitialDelay(interval);
+        }
+        if (!timer.isRunning()) {
+            timer.start();
+        }
+    }
+
+    /**
+     * Install or remove the window state listener.
+     */
+    private void setListening(final boolean listen) {
+        if (listen == listening) {
+            return;
+        }
+
+        final Toolkit toolkit = Toolkit.getDefaultToolkit();
+        if (listen) {
+            toolkit.addAWTEventListener(windowStateListener, AWTEvent.WINDOW_STATE_EVENT_MASK);
+        } else {
+            toolkit.removeAWTEventListener(windowStateListener);
+        }
+        listening = listen;
+    }
+
+    /**
+     * Test if an animation can currently be seen by the user.
+     */
+    private static boolean isVisible(final AnimatedLabel animation) {
+        if (!animation.isShowing()) {
+            return false;
+        }
+
+        final Window window = SwingUtilities.getWindowAncestor(animation);
+        if (window instanceof Frame) {
+            return (((Frame) window).getExtendedState() & Frame.ICONIFIED) == 0;
+        }
+        return window != null;
+    }
+
+}
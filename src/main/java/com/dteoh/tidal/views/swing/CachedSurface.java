@@ -0,0 +1,151 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.views.swing;
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+
+/**
+ * A cached, pre-rendered surface for panel backgrounds. The surface is rendered
+ * once into an image compatible with the screen, preferably an accelerated
+ * {@link VolatileImage}, and painting it afterwards is a single blit. The
+ * surface is only re-rendered when its size or graphics configuration changes,
+ * when it is explicitly invalidated or when the contents of the volatile image
+ * are lost.
+ * 
+ * If there is no graphics configuration available (e.g. the component is not
+ * displayable, or in a headless environment), a {@link BufferedImage} is used
+ * instead.
+ * 
+ * @author Douglas Teoh
+ */
+abstract class CachedSurface {
+
+    /** Accelerated surface, used when a graphics configuration exists. */
+    private VolatileImage volatileSurface;
+
+    /** Fallback surface. */
+    private BufferedImage bufferedSurface;
+
+    /** Configuration the surface was created for. */
+    private GraphicsConfiguration config;
+
+    /** Size of the cached surface. */
+    private int width;
+    private int height;
+
+    /**
+     * Render the surface contents.
+     * 
+     * @param g
+     *            Graphics to render with.
+     * @param width
+     *            Width of the surface.
+     * @param height
+     *            Height of the surface.
+     */
+    protected abstract void render(Graphics2D g, int width, int height);
+
+    /**
+     * Retrieve the transparency of the rendered contents.
+     * 
+     * @see java.awt.Transparency
+     */
+    protected abstract int getTransparency();
+
+    /**
+     * Paint the cached surface at the origin of the given graphics, rendering
+     * the surface first if required.
+     * 
+     * @param g
+     *            Graphics to paint on.
+     * @param gc
+     *            Graphics configuration of the component being painted. May be
+     *            null.
+     * @param w
+     *            Width of the surface.
+     * @param h
+     *            Height of the surface.
+     */
+    void paint(final Graphics g, final GraphicsConfiguration gc, final int w, final int h) {
+        if (w <= 0 || h <= 0) {
+            return;
+        }
+
+        if (w != width || h != height || gc != config) {
+            invalidate();
+            width = w;
+            height = h;
+            config = gc;
+        }
+
+        if (gc == null) {
+            if (bufferedSurface == null) {
+                bufferedSurface = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+                renderInto(bufferedSurface);
+            }
+            g.drawImage(bufferedSurface, 0, 0, null);
+            return;
+        }
+
+        do {
+            if (volatileSurface == null) {
+                volatileSurface = gc.createCompatibleVolatileImage(w, h, getTransparency());
+                renderInto(volatileSurface);
+            } else {
+                final int status = volatileSurface.validate(gc);
+                if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+                    volatileSurface.flush();
+                    volatileSurface = null;
+                    continue;
+                }
+                if (status == VolatileImage.IMAGE_RESTORED) {
+                    renderInto(volatileSurface);
+                }
+            }
+            g.drawImage(volatileSurface, 0, 0, null);
+        } while (volatileSurface == null || volatileSurface.contentsLost());
+    }
+
+    /**
+     * Discard the cached surface, it will be rendered again on the next paint.
+     */
+    void invalidate() {
+        if (volatileSurface != null) {
+            volatileSurface.flush();
+            volatileSurface = null;
+        }
+        if (bufferedSurface != null) {
+            bufferedSurface.flush();
+            bufferedSurface = null;
+        }
+    }
+
+    private void renderInto(final Image image) {
+        final Graphics2D g2 = (Graphics2D) image.getGraphics();
+        try {
+            render(g2, width, height);
+        } finally {
+            g2.dispose();
+        }
+    }
+
+}
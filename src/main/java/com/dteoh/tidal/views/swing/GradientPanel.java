@@ -20,13 +20,14 @@ import java.awt.Color;
 import java.awt.GradientPaint;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.Paint;
+import java.awt.Transparency;
 
 import javax.swing.JPanel;
 
 /**
  * Used to create a panel with a two-point, top-to-bottom, linear gradient
- * background.
+ * background. The gradient is rendered once into a cached surface and is only
+ * rendered again when the panel size changes.
  * 
  * @author Douglas Teoh
  */
@@ -35,6 +36,23 @@ public class GradientPanel extends JPanel {
     private final Color topGradient;
     private final Color bottomGradient;
 
+    /** Cached gradient background. */
+    private final CachedSurface surface = new CachedSurface() {
+        @Override
+        protected void render(final Graphics2D g, final int width, final int height) {
+            g.setPaint(new GradientPaint(0, 0, topGradient, 0, height, bottomGradient));
+            g.fillRect(0, 0, width, height);
+        }
+
+        @Override
+        protected int getTransparency() {
+            if (topGradient.getAlpha() == 255 && bottomGradient.getAlpha() == 255) {
+                return Transparency.OPAQUE;
+            }
+            return Transparency.TRANSLUCENT;
+        }
+    };
+
     /**
      * Creates a gradient panel with the two specified colors.
      * 
@@ -51,18 +69,13 @@ public class GradientPanel extends JPanel {
 
     @Override
     protected void paintComponent(final Graphics g) {
-        final Graphics2D g2 = (Graphics2D) g;
-        final GradientPaint gradient = new GradientPaint(0, 0, topGradient, 0,
-                getHeight(), bottomGradient);
-
-        // Store old state.
-        final Paint oldPaint = g2.getPaint();
-
-        g2.setPaint(gradient);
-        g2.fillRect(0, 0, getWidth(), getHeight());
+        surface.paint(g, getGraphicsConfiguration(), getWidth(), getHeight());
+    }
 
-        // Restore old state.
-        g2.setPaint(oldPaint);
+    @Override
+    public void removeNotify() {
+        super.removeNotify();
+        surface.invalidate();
     }
 
 }
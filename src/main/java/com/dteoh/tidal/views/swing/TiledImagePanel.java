@@ -16,13 +16,18 @@
 
 package com.dteoh.tidal.views.swing;
 
+import java.awt.Color;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.Transparency;
 
 import javax.swing.JPanel;
 
 /**
- * Used to create a panel with a tiled image background.
+ * Used to create a panel with a tiled image background. The tiled background
+ * is rendered once into a cached surface, so that repainting the panel is a
+ * single image copy regardless of how many tiles cover it.
  * 
  * @author Douglas Teoh
  */
@@ -30,8 +35,45 @@ public class TiledImagePanel extends JPanel {
 
     private Image background;
 
+    /** Cached tiled background. */
+    private final CachedSurface surface = new CachedSurface() {
+        @Override
+        protected void render(final Graphics2D g, final int width, final int height) {
+            g.setColor(getBackground());
+            g.fillRect(0, 0, width, height);
+
+            final int imageWidth = background.getWidth(null);
+            final int imageHeight = background.getHeight(null);
+            if (imageWidth <= 0 || imageHeight <= 0) {
+                return;
+            }
+
+            for (int xCoord = 0; xCoord < width; xCoord += imageWidth) {
+                for (int yCoord = 0; yCoord < height; yCoord += imageHeight) {
+                    g.drawImage(background, xCoord, yCoord, null);
+                }
+            }
+        }
+
+        @Override
+        protected int getTransparency() {
+            return Transparency.OPAQUE;
+        }
+    };
+
     public void setBackground(final Image background) {
         this.background = background;
+        surface.invalidate();
+        repaint();
+    }
+
+    @Override
+    public void setBackground(final Color bg) {
+        super.setBackground(bg);
+        // Called by the JPanel constructor before the surface exists.
+        if (surface != null) {
+            surface.invalidate();
+        }
     }
 
     @Override
@@ -41,15 +83,13 @@ public class TiledImagePanel extends JPanel {
             return;
         }
 
-        final int imageWidth = background.getWidth(null);
-        final int imageHeight = background.getHeight(null);
+        surface.paint(g, getGraphicsConfiguration(), getWidth(), getHeight());
+    }
 
-        final int panelWidth = getWidth();
-        final int panelHeight = getHeight();
-        for (int xCoord = 0; xCoord < panelWidth; xCoord += imageWidth) {
-            for (int yCoord = 0; yCoord < panelHeight; yCoord += imageHeight) {
-                g.drawImage(background, xCoord, yCoord, null);
-            }
-        }
+    @Override
+    public void removeNotify() {
+        super.removeNotify();
+        // Don't hold on to a window sized surface while not displayable.
+        surface.invalidate();
     }
 }
@@ -0,0 +1,85 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.configuration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.dteoh.tidal.sources.email.models.EmailSettings;
+import com.dteoh.tidal.sources.email.models.Protocol;
+import com.google.common.collect.Lists;
+
+/**
+ * Unit tests for the binary droplet settings format.
+ * 
+ * @author Douglas Teoh
+ */
+public class BinarySettingsCodecTests {
+
+    /**
+     * Test that email settings survive encoding and decoding, and that
+     * unsupported settings are left out.
+     */
+    @Test
+    public void testEmailSettings() throws IOException {
+        final EmailSettings first = new EmailSettings("tidal-app.org", Protocol.imap, "unittester", "junittesting");
+        final EmailSettings second = new EmailSettings("imap.tidal-app.org", Protocol.imaps, "\u00fcnittester",
+                "p\u00e4ssword");
+
+        final List<Object> settings = Lists.newArrayList();
+        settings.add(first);
+        settings.add("Not a droplet setting");
+        settings.add(second);
+
+        final byte[] encoded = BinarySettingsCodec.encode(settings);
+        assertTrue(BinarySettingsCodec.isBinary(encoded));
+
+        final List<Object> decoded = BinarySettingsCodec.decode(ByteBuffer.wrap(encoded));
+        assertEquals(2, decoded.size());
+        assertEquals(first, decoded.get(0));
+        assertEquals(second, decoded.get(1));
+    }
+
+    /**
+     * Test that truncated settings are rejected.
+     */
+    @Test(expected = IOException.class)
+    public void testTruncated() throws IOException {
+        final List<Object> settings = Lists.newArrayList();
+        settings.add(new EmailSettings("tidal-app.org", Protocol.imap, "unittester", "junittesting"));
+
+        final byte[] encoded = BinarySettingsCodec.encode(settings);
+        BinarySettingsCodec.decode(ByteBuffer.wrap(Arrays.copyOf(encoded, encoded.length - 1)));
+    }
+
+    /**
+     * Test that YAML is not mistaken for binary settings.
+     */
+    @Test
+    public void testNotBinary() {
+        assertFalse(BinarySettingsCodec.isBinary("--- !email\nhost: tidal-app.org\n".getBytes()));
+    }
+
+}
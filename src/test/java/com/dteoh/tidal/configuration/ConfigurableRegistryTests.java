@@ -0,0 +1,171 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.configuration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dteoh.tidal.configuration.models.Configurable;
+import com.google.common.collect.Lists;
+
+/**
+ * Tests the ConfigurableRegistry class.
+ * 
+ * @author Douglas Teoh
+ */
+public class ConfigurableRegistryTests {
+
+    private ConfigurableRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new ConfigurableRegistry();
+    }
+
+    /**
+     * Test adding and removing objects.
+     */
+    @Test
+    public void testAddRemove() {
+        final Configurable first = mock(Configurable.class);
+        final Configurable second = mock(Configurable.class);
+
+        assertTrue(registry.add(first));
+        assertFalse(registry.add(first));
+        assertFalse(registry.add(null));
+        assertTrue(registry.add(second));
+        assertEquals(2, registry.getSnapshot().getConfigurables().size());
+
+        assertTrue(registry.remove(first));
+        assertFalse(registry.remove(first));
+        assertFalse(registry.remove(null));
+        assertEquals(1, registry.getSnapshot().getConfigurables().size());
+        assertTrue(registry.getSnapshot().getConfigurables().contains(second));
+    }
+
+    /**
+     * Test that only actual changes increment the version.
+     */
+    @Test
+    public void testVersion() {
+        final Configurable configurable = mock(Configurable.class);
+        assertEquals(0, registry.getVersion());
+
+        registry.add(configurable);
+        assertEquals(1, registry.getVersion());
+
+        registry.add(configurable);
+        assertEquals(1, registry.getVersion());
+
+        assertTrue(registry.changed(configurable));
+        assertEquals(2, registry.getVersion());
+
+        registry.remove(configurable);
+        assertEquals(3, registry.getVersion());
+
+        assertFalse(registry.changed(configurable));
+        assertEquals(3, registry.getVersion());
+    }
+
+    /**
+     * Test that snapshots are not affected by later changes.
+     */
+    @Test
+    public void testSnapshot() {
+        final Configurable configurable = mock(Configurable.class);
+        registry.add(configurable);
+
+        final ConfigurableRegistry.Snapshot snapshot = registry.getSnapshot();
+        registry.remove(configurable);
+        registry.add(mock(Configurable.class));
+
+        assertEquals(1, snapshot.getVersion());
+        assertEquals(1, snapshot.getConfigurables().size());
+        assertTrue(snapshot.getConfigurables().contains(configurable));
+    }
+
+    /**
+     * Test that listeners are notified of every change.
+     */
+    @Test
+    public void testListener() {
+        final List<Long> versions = Lists.newArrayList();
+        registry.addChangeListener(new ConfigurableRegistry.ChangeListener() {
+            @Override
+            public void registryChanged(final ConfigurableRegistry.Snapshot snapshot) {
+                versions.add(snapshot.getVersion());
+            }
+        });
+
+        final Configurable configurable = mock(Configurable.class);
+        registry.add(configurable);
+        registry.add(configurable);
+        registry.changed(configurable);
+        registry.remove(configurable);
+
+        assertEquals(Lists.newArrayList(1L, 2L, 3L), versions);
+    }
+
+    /**
+     * Test that concurrent additions are not lost.
+     */
+    @Test
+    public void testConcurrentAdd() throws InterruptedException {
+        final int threads = 8;
+        final int perThread = 100;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        for (int i = 0; i < threads; i++) {
+            final Configurable[] configurables = new Configurable[perThread];
+            for (int j = 0; j < perThread; j++) {
+                configurables[j] = mock(Configurable.class);
+            }
+
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (final Configurable configurable : configurables) {
+                            registry.add(configurable);
+                        }
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        start.countDown();
+        done.await();
+
+        assertEquals(threads * perThread, registry.getSnapshot().getConfigurables().size());
+        assertEquals(threads * perThread, registry.getVersion());
+    }
+
+}
@@ -8,6 +8,9 @@ import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.PipedReader;
 import java.io.PipedWriter;
@@ -16,6 +19,7 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
+import org.apache.commons.io.FileUtils;
 import org.jasypt.util.password.StrongPasswordEncryptor;
 import org.junit.After;
 import org.junit.Before;
@@ -30,6 +34,8 @@ import com.dteoh.tidal.configuration.ConfigurationRepresenter;
 import com.dteoh.tidal.configuration.models.Configurable;
 import com.dteoh.tidal.configuration.models.Configuration;
 import com.dteoh.tidal.exceptions.UnsecuredException;
+import com.dteoh.tidal.sources.email.models.EmailSettings;
+import com.dteoh.tidal.sources.email.models.Protocol;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 
@@ -673,4 +679,138 @@ public class ConfigurationControllerTests {
         }
     }
 
+    /**
+     * Test saving and loading encrypted droplet settings.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testDropletSettingsStream1() throws Exception {
+        controller.changeAuthorizationKey("p@sSW0rD.");
+
+        final EmailSettings settings = new EmailSettings("tidal-app.org", Protocol.imaps, "unittester",
+                "junittesting");
+        final Configurable mockConf = mock(Configurable.class);
+        when(mockConf.getSettings()).thenReturn(settings);
+        controller.addConfigurable(mockConf);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        controller.saveDropletSettings(out);
+
+        final String saved = new String(out.toByteArray(), "ISO-8859-1");
+        assertFalse(saved.contains("tidal-app.org"));
+        assertFalse(saved.contains("unittester"));
+        assertFalse(saved.contains("junittesting"));
+
+        final Iterator<Object> it = controller.loadDropletSettings(new ByteArrayInputStream(out.toByteArray()))
+                .iterator();
+        assertTrue(it.hasNext());
+        assertEquals(settings, it.next());
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Test loading tampered droplet settings.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testDropletSettingsStream2() throws Exception {
+        controller.changeAuthorizationKey("p@sSW0rD.");
+
+        final Configurable mockConf = mock(Configurable.class);
+        when(mockConf.getSettings()).thenReturn("TESTCONF1");
+        controller.addConfigurable(mockConf);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        controller.saveDropletSettings(out);
+
+        final byte[] saved = out.toByteArray();
+        saved[saved.length / 2] ^= 1;
+
+        try {
+            controller.loadDropletSettings(new ByteArrayInputStream(saved));
+            fail("Expecting IOException.");
+        } catch (final IOException e) {
+            // Test passed.
+        }
+    }
+
+    /**
+     * Test loading droplet settings in the legacy format from a stream.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testDropletSettingsStream3() throws Exception {
+        controller.changeAuthorizationKey("p@sSW0rD.");
+
+        final EmailSettings settings = new EmailSettings("tidal-app.org", Protocol.imaps, "unittester",
+                "junittesting");
+        final Configurable mockConf = mock(Configurable.class);
+        when(mockConf.getSettings()).thenReturn(settings);
+        controller.addConfigurable(mockConf);
+
+        final StringWriter legacy = new StringWriter();
+        controller.saveDropletSettings(legacy);
+
+        final Iterator<Object> it = controller.loadDropletSettings(
+                new ByteArrayInputStream(legacy.toString().getBytes())).iterator();
+        assertTrue(it.hasNext());
+        assertEquals(settings, it.next());
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Test that droplet settings in the legacy format, where each sensitive
+     * field is encrypted on its own, are migrated to an encrypted document
+     * when loaded, keeping the legacy file as a backup.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testMigrateDropletSettings() throws Exception {
+        final File home = File.createTempFile("tidal", "home");
+        home.delete();
+        final File configDir = new File(home, ".tidal");
+        configDir.mkdirs();
+        final String previousHome = System.getProperty("user.home");
+        System.setProperty("user.home", home.getPath());
+        try {
+            controller.changeAuthorizationKey("p@sSW0rD.");
+
+            final EmailSettings settings = new EmailSettings("tidal-app.org", Protocol.imaps, "unittester",
+                    "junittesting");
+            final Configurable mockConf = mock(Configurable.class);
+            when(mockConf.getSettings()).thenReturn(settings);
+            controller.addConfigurable(mockConf);
+
+            final StringWriter legacy = new StringWriter();
+            controller.saveDropletSettings(legacy);
+            final File configFile = new File(configDir, "dropletsrc");
+            FileUtils.writeStringToFile(configFile, legacy.toString());
+
+            final List<Object> loaded = new LinkedList<Object>();
+            assertEquals(1, controller.loadDropletSettings(new SettingsHandler() {
+                @Override
+                public void handle(final Object o) {
+                    loaded.add(o);
+                }
+            }));
+            assertEquals(settings, loaded.get(0));
+
+            assertEquals(legacy.toString(), FileUtils.readFileToString(new File(configDir, "dropletsrc.bak")));
+            final byte[] migrated = FileUtils.readFileToByteArray(configFile);
+            assertTrue(SettingsCipher.isEnvelope(migrated));
+            final Iterator<Object> it = controller.loadDropletSettings(new ByteArrayInputStream(migrated))
+                    .iterator();
+            assertTrue(it.hasNext());
+            assertEquals(settings, it.next());
+            assertFalse(it.hasNext());
+        } finally {
+            System.setProperty("user.home", previousHome);
+            FileUtils.deleteDirectory(home);
+        }
+    }
+
 }
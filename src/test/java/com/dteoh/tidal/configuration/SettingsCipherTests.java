@@ -0,0 +1,108 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.configuration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the SettingsCipher class.
+ * 
+ * @author Douglas Teoh
+ */
+public class SettingsCipherTests {
+
+    /**
+     * Test the key derivation against the PBKDF2-HMAC-SHA1 vectors of RFC
+     * 6070.
+     */
+    @Test
+    public void testPbkdf2() throws GeneralSecurityException {
+        assertEquals("0c60c80f961f0e71f3a9b524af6012062fe037a6", hex(SettingsCipher.pbkdf2("password"
+                .toCharArray(), "salt".getBytes(), 1, 20)));
+        assertEquals("4b007901b765489abead49d926f721d065a429c1", hex(SettingsCipher.pbkdf2("password"
+                .toCharArray(), "salt".getBytes(), 4096, 20)));
+        assertEquals("3d2eec4fe41c849b80c8d83662c0e44a8b291a964cf2f07038", hex(SettingsCipher.pbkdf2(
+                "passwordPASSWORDpassword".toCharArray(), "saltSALTsaltSALTsaltSALTsaltSALTsalt".getBytes(), 4096,
+                25)));
+    }
+
+    /**
+     * Test that documents can be opened with a key derived again from the
+     * password.
+     */
+    @Test
+    public void testSealAndOpen() throws GeneralSecurityException {
+        final byte[] document = "settings".getBytes();
+        final byte[] envelope = SettingsCipher.create("p@sSW0rD.").seal(SettingsCipher.CONTENT_YAML, document);
+
+        final SettingsCipher cipher = SettingsCipher.forEnvelope("p@sSW0rD.", envelope);
+        assertTrue(cipher.matches(envelope));
+        assertTrue(Arrays.equals(document, cipher.open(envelope)));
+    }
+
+    /**
+     * Test that documents asking for too many iterations are rejected without
+     * deriving a key.
+     */
+    @Test(timeout = 5000)
+    public void testIterationLimit() throws GeneralSecurityException {
+        final byte[] envelope = SettingsCipher.create("p@sSW0rD.").seal(SettingsCipher.CONTENT_YAML,
+                "settings".getBytes());
+        // Iterations follow the magic, version and content type.
+        ByteBuffer.wrap(envelope).putInt(6, Integer.MAX_VALUE);
+
+        try {
+            SettingsCipher.forEnvelope("p@sSW0rD.", envelope);
+            fail("Expecting GeneralSecurityException.");
+        } catch (final GeneralSecurityException e) {
+            // Test passed.
+        }
+    }
+
+    /**
+     * Test that the key derivation stops when the thread is interrupted.
+     */
+    @Test(timeout = 5000)
+    public void testInterrupt() {
+        Thread.currentThread().interrupt();
+        try {
+            SettingsCipher.pbkdf2("p@sSW0rD.".toCharArray(), new byte[16], Integer.MAX_VALUE, 16);
+            fail("Expecting GeneralSecurityException.");
+        } catch (final GeneralSecurityException e) {
+            // Test passed.
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    private static String hex(final byte[] bytes) {
+        final StringBuilder sb = new StringBuilder();
+        for (final byte b : bytes) {
+            sb.append(String.format("%02x", b & 0xFF));
+        }
+        return sb.toString();
+    }
+
+}
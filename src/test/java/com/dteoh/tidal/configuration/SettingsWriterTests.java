@@ -0,0 +1,123 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.configuration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the SettingsWriter class.
+ * 
+ * @author Douglas Teoh
+ */
+public class SettingsWriterTests {
+
+    private AtomicInteger saves;
+    private SettingsWriter writer;
+
+    @Before
+    public void setUp() {
+        saves = new AtomicInteger();
+        writer = new SettingsWriter(new Runnable() {
+            @Override
+            public void run() {
+                saves.incrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Test that nothing is saved when there are no changes.
+     */
+    @Test
+    public void testNothingPending() {
+        assertFalse(writer.isPending());
+        assertTrue(writer.flush(1, TimeUnit.SECONDS));
+        assertEquals(0, saves.get());
+    }
+
+    /**
+     * Test that a burst of changes is saved once, and not before the debounce
+     * delay.
+     */
+    @Test
+    public void testDebounce() throws InterruptedException {
+        for (int i = 0; i < 10; i++) {
+            writer.requestSave();
+        }
+        assertTrue(writer.isPending());
+        assertEquals(0, saves.get());
+
+        Thread.sleep(SettingsWriter.DEBOUNCE_DELAY + 1000);
+
+        assertFalse(writer.isPending());
+        assertEquals(1, saves.get());
+    }
+
+    /**
+     * Test that flushing saves pending changes immediately.
+     */
+    @Test
+    public void testFlush() {
+        writer.requestSave();
+        writer.requestSave();
+
+        assertTrue(writer.flush(1, TimeUnit.SECONDS));
+        assertEquals(1, saves.get());
+        assertFalse(writer.isPending());
+
+        // Nothing left to save.
+        assertTrue(writer.flush(1, TimeUnit.SECONDS));
+        assertEquals(1, saves.get());
+    }
+
+    /**
+     * Test that flushing waits for a save that is already in progress.
+     */
+    @Test
+    public void testFlushWhileSaving() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final SettingsWriter slow = new SettingsWriter(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    Thread.sleep(1000);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                saves.incrementAndGet();
+            }
+        });
+
+        slow.requestSave();
+        assertTrue(started.await(SettingsWriter.DEBOUNCE_DELAY + 1000, TimeUnit.MILLISECONDS));
+        assertFalse(slow.isPending());
+
+        assertTrue(slow.flush(5, TimeUnit.SECONDS));
+        assertEquals(1, saves.get());
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.diagnostics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dteoh.tidal.diagnostics.DropletMetrics.Stage;
+
+/**
+ * Tests the DropletMetrics class.
+ * 
+ * @author Douglas Teoh
+ */
+public class DropletMetricsTests {
+
+    private DropletMetrics metrics;
+
+    @Before
+    public void setUp() {
+        metrics = new DropletMetrics("tester");
+    }
+
+    /**
+     * Test that stages are timed separately.
+     */
+    @Test
+    public void testRecord() {
+        metrics.record(Stage.CONNECT, System.nanoTime() - 5000000L);
+        metrics.record(Stage.FETCH, System.nanoTime());
+        metrics.record(Stage.FETCH, System.nanoTime());
+
+        assertEquals(1, metrics.getConnectCount());
+        assertTrue(metrics.getConnectMedianMillis() >= 5);
+        assertEquals(2, metrics.getFetchCount());
+        assertEquals(0, metrics.getSearchCount());
+        assertEquals(0, metrics.getSearchMedianMillis(), 0);
+    }
+
+    /**
+     * Test the counters, and that resetting clears them.
+     */
+    @Test
+    public void testCounters() {
+        metrics.messageFetched(100);
+        metrics.messageFetched(-1);
+        metrics.error();
+        metrics.setBacklog(3);
+
+        assertEquals(2, metrics.getMessagesFetched());
+        assertEquals(100, metrics.getBytesFetched());
+        assertEquals(1, metrics.getErrors());
+        assertEquals(3, metrics.getBacklog());
+
+        metrics.reset();
+        assertEquals(0, metrics.getMessagesFetched());
+        assertEquals(0, metrics.getBytesFetched());
+        assertEquals(0, metrics.getErrors());
+    }
+
+    /**
+     * Test the JSON format of the metrics.
+     */
+    @Test
+    public void testToJson() {
+        metrics.setDroplet("\"quoted\"");
+        metrics.messageFetched(42);
+
+        final String json = metrics.toJson(1000);
+        assertTrue(json.startsWith("{\"time\":1000,\"droplet\":\"\\\"quoted\\\"\",\"connect\":{\"count\":0,"));
+        assertTrue(json.contains("\"handoff\":{\"count\":0,\"p50\":0.000,\"p99\":0.000}"));
+        assertTrue(json.endsWith(",\"bytes\":42,\"messages\":1,\"errors\":0,\"backlog\":0}"));
+    }
+
+}
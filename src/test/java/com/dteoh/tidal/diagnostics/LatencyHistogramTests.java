@@ -0,0 +1,95 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.diagnostics;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the LatencyHistogram class.
+ * 
+ * @author Douglas Teoh
+ */
+public class LatencyHistogramTests {
+
+    private LatencyHistogram histogram;
+
+    @Before
+    public void setUp() {
+        histogram = new LatencyHistogram(4);
+    }
+
+    private static long millis(final long ms) {
+        return TimeUnit.MILLISECONDS.toNanos(ms);
+    }
+
+    /**
+     * Test if samples are counted in the right buckets.
+     */
+    @Test
+    public void testBuckets() {
+        histogram.record(millis(0));
+        histogram.record(millis(3));
+        histogram.record(millis(10000));
+
+        final int[] counts = histogram.getCounts();
+        assertEquals(LatencyHistogram.getBucketBounds().length + 1, counts.length);
+        assertEquals(1, counts[0]);
+        assertEquals(1, counts[2]);
+        assertEquals(1, counts[counts.length - 1]);
+        assertEquals(3, histogram.getSampleCount());
+    }
+
+    /**
+     * Test if old samples roll out of the window.
+     */
+    @Test
+    public void testRollingWindow() {
+        histogram.record(millis(10000));
+        for (int i = 0; i < 4; i++) {
+            histogram.record(millis(0));
+        }
+
+        final int[] counts = histogram.getCounts();
+        assertEquals(4, counts[0]);
+        assertEquals(0, counts[counts.length - 1]);
+        assertEquals(4, histogram.getSampleCount());
+        assertEquals(5, histogram.getTotalCount());
+    }
+
+    /**
+     * Test percentiles over the window.
+     */
+    @Test
+    public void testPercentile() {
+        assertEquals(0, histogram.getPercentile(50));
+
+        histogram.record(millis(1));
+        histogram.record(millis(2));
+        histogram.record(millis(3));
+        histogram.record(millis(4));
+
+        assertEquals(millis(2), histogram.getPercentile(50));
+        assertEquals(millis(4), histogram.getPercentile(100));
+        assertEquals(millis(1), histogram.getPercentile(0));
+    }
+
+}
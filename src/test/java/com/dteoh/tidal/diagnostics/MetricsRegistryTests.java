@@ -0,0 +1,116 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.diagnostics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import com.dteoh.tidal.id.ID;
+
+/**
+ * Tests the MetricsRegistry class.
+ * 
+ * @author Douglas Teoh
+ */
+public class MetricsRegistryTests {
+
+    private final ID id = mock(ID.class);
+
+    @After
+    public void tearDown() {
+        MetricsRegistry.unregister(id);
+    }
+
+    /**
+     * Test that metrics are published as MBeans while registered.
+     */
+    @Test
+    public void testRegister() throws Exception {
+        final DropletMetrics metrics = MetricsRegistry.register(id, "tester");
+        assertSame(metrics, MetricsRegistry.register(id, "tester"));
+        assertSame(metrics, MetricsRegistry.get(id));
+        assertTrue(MetricsRegistry.getAll().contains(metrics));
+
+        final ObjectName name = MetricsRegistry.getObjectName(id);
+        assertNotNull(name);
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        metrics.error();
+        assertEquals("tester", server.getAttribute(name, "Droplet"));
+        assertEquals(1L, server.getAttribute(name, "Errors"));
+
+        MetricsRegistry.unregister(id);
+        assertNull(MetricsRegistry.get(id));
+        assertFalse(server.isRegistered(name));
+    }
+
+    /**
+     * Test that metrics are dumped one droplet per line.
+     */
+    @Test
+    public void testDump() throws IOException {
+        MetricsRegistry.register(id, "tester");
+
+        final File file = File.createTempFile("metrics", ".jsonl");
+        file.deleteOnExit();
+        MetricsRegistry.dump(file);
+        MetricsRegistry.dump(file);
+
+        final List<?> lines = FileUtils.readLines(file);
+        assertTrue(lines.size() >= 2);
+        assertTrue(lines.get(lines.size() - 1).toString().contains("\"droplet\":\"tester\""));
+    }
+
+    /**
+     * Test that the dump is written as UTF-8 and rolled over once it is full.
+     */
+    @Test
+    public void testDumpRollover() throws IOException {
+        MetricsRegistry.register(id, "t\u00e9ster");
+
+        final File file = File.createTempFile("metrics", ".jsonl");
+        final File older = new File(file.getPath() + ".1");
+        file.deleteOnExit();
+        older.deleteOnExit();
+        MetricsRegistry.dump(file, 1);
+        final long size = file.length();
+        MetricsRegistry.dump(file, 1);
+
+        assertTrue(older.exists());
+        assertEquals(size, older.length());
+        assertEquals(size, file.length());
+        final List<?> lines = FileUtils.readLines(file, "UTF-8");
+        assertTrue(lines.get(lines.size() - 1).toString().contains("\"droplet\":\"t\u00e9ster\""));
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.diagnostics;
+
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the Tracing class.
+ * 
+ * @author Douglas Teoh
+ */
+public class TracingTests {
+
+    @After
+    public void tearDown() {
+        Tracing.set(null);
+    }
+
+    /**
+     * Test that tracing does nothing until a tracer is set.
+     */
+    @Test
+    public void testNoTracer() {
+        assertSame(Tracing.NO_TRACER, Tracing.get());
+
+        final TraceSpan span = Tracing.get().beginUpdatePhase(Tracer.UPDATE, "1", "tidal-app.org");
+        assertSame(Tracing.NO_SPAN, span);
+        span.setMessages(1);
+        span.setBytes(1);
+        span.end();
+        assertSame(Tracing.NO_SPAN, Tracing.get().beginViewUpdate("tester"));
+    }
+
+    /**
+     * Test replacing the tracer.
+     */
+    @Test
+    public void testSet() {
+        final Tracer tracer = mock(Tracer.class);
+        Tracing.set(tracer);
+        assertSame(tracer, Tracing.get());
+
+        Tracing.set(null);
+        assertSame(Tracing.NO_TRACER, Tracing.get());
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.headless;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dteoh.tidal.id.ID;
+import com.dteoh.tidal.views.models.DropletModel;
+import com.dteoh.tidal.views.models.RippleModel;
+import com.dteoh.tidal.views.models.TimelineModel.Entry;
+import com.google.common.collect.Lists;
+
+/**
+ * Tests the RippleFeed class.
+ * 
+ * @author Douglas Teoh
+ */
+public class RippleFeedTests {
+
+    private RippleFeed feed;
+    private ID first;
+    private ID second;
+
+    /** Ripples added by each change. */
+    private List<List<Entry>> changes;
+
+    @Before
+    public void setUp() {
+        feed = new RippleFeed();
+        first = mock(ID.class);
+        second = mock(ID.class);
+
+        changes = Lists.newArrayList();
+        feed.addListener(new RippleFeed.Listener() {
+            @Override
+            public void feedChanged(final RippleFeed.Snapshot snapshot, final List<Entry> added) {
+                changes.add(added);
+            }
+        });
+    }
+
+    /**
+     * Test that the ripples of all droplets are merged, newest first.
+     */
+    @Test
+    public void testMerge() {
+        feed.dropletModelChanged(new DropletModel(first, "first", ripple(1, 100), ripple(2, 300)), false);
+        feed.dropletModelChanged(new DropletModel(second, "second", ripple(3, 200)), false);
+
+        assertEquals(2, feed.getSnapshot().getVersion());
+        final List<Entry> entries = entries();
+        assertEquals(3, entries.size());
+        assertEquals(300, entries.get(0).getRipple().getReceived());
+        assertEquals("second", entries.get(1).getDropletName());
+        assertSame(second, entries.get(1).getDroplet());
+        assertEquals(100, entries.get(2).getRipple().getReceived());
+    }
+
+    /**
+     * Test that only new ripples are reported as added, and that updates
+     * without new ripples do not change the feed.
+     */
+    @Test
+    public void testAdded() {
+        feed.dropletModelChanged(new DropletModel(first, "first", ripple(1, 100)), false);
+        feed.dropletModelChanged(new DropletModel(first, "first", ripple(1, 100), ripple(2, 200)), false);
+        feed.dropletModelChanged(new DropletModel(first, "first", ripple(2, 200)), false);
+
+        assertEquals(2, feed.getSnapshot().getVersion());
+        assertEquals(2, entries().size());
+        assertEquals(2, changes.size());
+        assertEquals(1, changes.get(1).size());
+        assertEquals(200, changes.get(1).get(0).getRipple().getReceived());
+    }
+
+    /**
+     * Test that a replacing model drops the ripples of the droplet, and that
+     * replacing with the same ripples does not change the feed.
+     */
+    @Test
+    public void testReplace() {
+        feed.dropletModelChanged(new DropletModel(first, "first", ripple(1, 100), ripple(2, 200)), false);
+        feed.dropletModelChanged(new DropletModel(first, "first", ripple(2, 200)), true);
+        feed.dropletModelChanged(new DropletModel(first, "first", ripple(2, 200)), true);
+
+        assertEquals(2, feed.getSnapshot().getVersion());
+        assertEquals(1, entries().size());
+        assertTrue(changes.get(1).isEmpty());
+    }
+
+    /**
+     * Test that the ripples of a removed droplet are dropped.
+     */
+    @Test
+    public void testRemove() {
+        feed.dropletModelChanged(new DropletModel(first, "first", ripple(1, 100)), false);
+        feed.dropletModelChanged(new DropletModel(second, "second", ripple(2, 200)), false);
+
+        feed.dropletRemoved(first);
+        feed.dropletRemoved(first);
+
+        assertEquals(3, feed.getSnapshot().getVersion());
+        assertEquals(1, entries().size());
+        assertEquals("second", entries().get(0).getDropletName());
+    }
+
+    private List<Entry> entries() {
+        return Lists.newArrayList(feed.getSnapshot().getTimeline());
+    }
+
+    private static RippleModel ripple(final int id, final long received) {
+        return new RippleModel.Builder(id).origin("sender" + id + "@tidal-app.org").subject("Message " + id)
+                .content("Content " + id).received(received).build();
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.headless;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dteoh.tidal.id.ID;
+import com.dteoh.tidal.views.models.DropletModel;
+import com.dteoh.tidal.views.models.RippleModel;
+
+/**
+ * Tests the RippleServer class against a server on a free local port.
+ * 
+ * @author Douglas Teoh
+ */
+public class RippleServerTests {
+
+    private RippleFeed feed;
+    private RippleServer server;
+    private ID droplet;
+
+    @Before
+    public void setUp() throws IOException {
+        feed = new RippleFeed();
+        server = new RippleServer(feed, new InetSocketAddress(InetAddress.getByName(null), 0));
+        server.start();
+        droplet = mock(ID.class);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    /**
+     * Test that the ripples are served as JSON, and that unchanged ripples are
+     * not sent again.
+     */
+    @Test
+    public void testRipples() throws IOException {
+        feed.dropletModelChanged(new DropletModel(droplet, "tester", new RippleModel.Builder(1).origin(
+                "\"Sender\" <sender@tidal-app.org>").subject("Hello").content("Line 1\nLine 2").received(100)
+                .build()), false);
+
+        HttpURLConnection connection = open("/ripples");
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(connection.getContentType().startsWith("application/json"));
+        final String etag = connection.getHeaderField("ETag");
+        assertEquals("{\"version\":1,\"ripples\":[{\"droplet\":\"tester\","
+                + "\"origin\":\"\\\"Sender\\\" <sender@tidal-app.org>\",\"subject\":\"Hello\","
+                + "\"content\":\"Line 1\\u000aLine 2\",\"received\":100}]}", read(connection));
+
+        connection = open("/ripples");
+        connection.setRequestProperty("If-None-Match", etag);
+        assertEquals(304, connection.getResponseCode());
+
+        feed.dropletModelChanged(new DropletModel(droplet, "tester", new RippleModel.Builder(2).subject("Again")
+                .received(200).build()), false);
+        connection = open("/ripples");
+        connection.setRequestProperty("If-None-Match", etag);
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(!etag.equals(connection.getHeaderField("ETag")));
+        assertTrue(read(connection).startsWith("{\"version\":2,"));
+    }
+
+    /**
+     * Test that new ripples are pushed to event stream clients.
+     */
+    @Test
+    public void testEvents() throws Exception {
+        final HttpURLConnection connection = open("/events");
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(connection.getContentType().startsWith("text/event-stream"));
+
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), "UTF-8"));
+        try {
+            assertEquals("retry: 5000", reader.readLine());
+            assertEquals("id: 0", reader.readLine());
+            assertEquals("", reader.readLine());
+
+            feed.dropletModelChanged(new DropletModel(droplet, "tester", new RippleModel.Builder(1).subject(
+                    "Hello").received(100).build()), false);
+
+            assertEquals("id: 1", reader.readLine());
+            assertEquals("event: ripples", reader.readLine());
+            assertEquals("data: [{\"droplet\":\"tester\",\"origin\":null,\"subject\":\"Hello\",\"content\":null,"
+                    + "\"received\":100}]", reader.readLine());
+            assertEquals("", reader.readLine());
+        } finally {
+            IOUtils.closeQuietly(reader);
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Test If-None-Match header matching.
+     */
+    @Test
+    public void testMatches() {
+        assertTrue(RippleServer.matches("\"a-1\"", "\"a-1\""));
+        assertTrue(RippleServer.matches("\"a-0\", W/\"a-1\"", "\"a-1\""));
+        assertTrue(RippleServer.matches("*", "\"a-1\""));
+        assertTrue(!RippleServer.matches("\"a-2\"", "\"a-1\""));
+        assertTrue(!RippleServer.matches(null, "\"a-1\""));
+    }
+
+    private HttpURLConnection open(final String path) throws IOException {
+        final InetSocketAddress address = server.getAddress();
+        final HttpURLConnection connection = (HttpURLConnection) new URL("http", address.getAddress()
+                .getHostAddress(), address.getPort(), path).openConnection();
+        connection.setReadTimeout(5000);
+        return connection;
+    }
+
+    private static String read(final HttpURLConnection connection) throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), "UTF-8"));
+        try {
+            return reader.readLine();
+        } finally {
+            reader.close();
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.platform;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import com.dteoh.tidal.platform.windows.events.PowerStateListener;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Unit tests for {@link PowerStateMonitor}.
+ * 
+ * @author Douglas Teoh
+ */
+public class PowerStateMonitorTests {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final Set<String> WIRED = ImmutableSet.of("eth0/192.168.1.10");
+    private static final Set<String> WIRELESS = ImmutableSet.of("wlan0/10.0.0.7");
+
+    private PowerStateMonitor monitor;
+    private PowerStateListener listener;
+
+    @Before
+    public void setUp() {
+        monitor = new PowerStateMonitor();
+        listener = mock(PowerStateListener.class);
+        monitor.addPowerStateListener(listener);
+        monitor.check(0, 0, WIRED);
+    }
+
+    /**
+     * Test that regular checks do not notify listeners.
+     */
+    @Test
+    public void testNoChange() {
+        final long interval = PowerStateMonitor.CHECK_INTERVAL;
+        assertFalse(monitor.check(interval, interval * MS, WIRED));
+        assertFalse(monitor.check(2 * interval, 2 * interval * MS, WIRED));
+        assertFalse(monitor.check(3 * interval, 3 * interval * MS, null));
+        verifyZeroInteractions(listener);
+    }
+
+    /**
+     * Test detecting sleep when the monotonic clock stops while sleeping.
+     */
+    @Test
+    public void testWallClockJump() {
+        final long interval = PowerStateMonitor.CHECK_INTERVAL;
+        final long slept = TimeUnit.HOURS.toMillis(1);
+        assertTrue(monitor.check(interval + slept, interval * MS, WIRED));
+        verifyResumed();
+    }
+
+    /**
+     * Test detecting sleep when the monotonic clock keeps running while
+     * sleeping.
+     */
+    @Test
+    public void testLateCheck() {
+        final long late = PowerStateMonitor.CHECK_INTERVAL + TimeUnit.HOURS.toMillis(1);
+        assertTrue(monitor.check(late, late * MS, WIRED));
+        verifyResumed();
+    }
+
+    /**
+     * Test detecting network changes.
+     */
+    @Test
+    public void testNetworkChange() {
+        final long interval = PowerStateMonitor.CHECK_INTERVAL;
+        assertTrue(monitor.check(interval, interval * MS, WIRELESS));
+        verifyResumed();
+    }
+
+    private void verifyResumed() {
+        final InOrder order = inOrder(listener);
+        order.verify(listener).suspend();
+        order.verify(listener).resume();
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.sources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.dteoh.tidal.util.VirtualClock;
+
+/**
+ * Unit tests for {@link UpdateToken}.
+ * 
+ * @author Douglas Teoh
+ */
+public class UpdateTokenTests {
+
+    /**
+     * Test that cancelling a token closes its sockets.
+     */
+    @Test
+    public void testCancel() {
+        final UpdateToken token = new UpdateToken(1, TimeUnit.MINUTES);
+        final Socket socket = new Socket();
+        token.attach(socket);
+
+        assertTrue(token.isValid());
+        assertFalse(socket.isClosed());
+
+        token.cancel();
+        assertTrue(token.isCancelled());
+        assertFalse(token.isValid());
+        assertTrue(socket.isClosed());
+    }
+
+    /**
+     * Test that sockets attached after cancelling are closed straight away.
+     */
+    @Test
+    public void testAttachAfterCancel() {
+        final UpdateToken token = new UpdateToken(1, TimeUnit.MINUTES);
+        token.cancel();
+
+        final Socket socket = new Socket();
+        token.attach(socket);
+        assertTrue(socket.isClosed());
+    }
+
+    /**
+     * Test that tokens are cancelled at their deadline.
+     */
+    @Test
+    public void testDeadline() throws InterruptedException {
+        final UpdateToken token = new UpdateToken(10, TimeUnit.MILLISECONDS);
+        final Socket socket = new Socket();
+        token.attach(socket);
+
+        final long giveUp = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (!token.isCancelled() && System.currentTimeMillis() < giveUp) {
+            Thread.sleep(10);
+        }
+        assertTrue(token.isCancelled());
+        assertTrue(socket.isClosed());
+    }
+
+    /**
+     * Test that deadlines are measured with the given clock.
+     */
+    @Test
+    public void testClock() {
+        final VirtualClock clock = new VirtualClock(0);
+        final UpdateToken token = new UpdateToken(clock, 2, TimeUnit.MINUTES);
+        final Socket socket = new Socket();
+        token.attach(socket);
+
+        clock.advance(1, TimeUnit.MINUTES);
+        assertTrue(token.isValid());
+        assertEquals(1, token.getRemaining(TimeUnit.MINUTES));
+
+        clock.advance(1, TimeUnit.MINUTES);
+        assertTrue(token.isCancelled());
+        assertTrue(socket.isClosed());
+        assertEquals(0, clock.getPendingTasks());
+    }
+
+    /**
+     * Test that actions only run while the token is valid.
+     */
+    @Test
+    public void testRunIfValid() {
+        final UpdateToken token = new UpdateToken(1, TimeUnit.MINUTES);
+        final boolean[] ran = new boolean[1];
+        final Runnable action = new Runnable() {
+            @Override
+            public void run() {
+                ran[0] = true;
+            }
+        };
+
+        assertTrue(token.runIfValid(action));
+        assertTrue(ran[0]);
+
+        ran[0] = false;
+        token.cancel();
+        assertFalse(token.runIfValid(action));
+        assertFalse(ran[0]);
+    }
+
+}
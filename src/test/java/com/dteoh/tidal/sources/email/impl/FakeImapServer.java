@@ -0,0 +1,1300 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.sources.email.impl;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.AddressException;
+import javax.mail.internet.ContentType;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.InternetHeaders;
+import javax.mail.internet.MailDateFormat;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeUtility;
+import javax.mail.internet.ParameterList;
+import javax.mail.internet.ParseException;
+
+import com.google.common.collect.Lists;
+
+/**
+ * An IMAP server running inside the test, standing in for a real mail server.
+ * Unlike mock-javamail, it is reached through the real IMAP provider of
+ * JavaMail, so every round trip made by a droplet goes over a loopback socket
+ * and can be counted, slowed down or cut short.
+ * 
+ * The server implements the part of IMAP4rev1 used by Tidal on a single
+ * INBOX: CAPABILITY, LOGIN, SELECT, EXAMINE, LIST, SEARCH, FETCH (including
+ * BODYSTRUCTURE and partial body sections), NOOP, IDLE, CLOSE, UNSELECT and
+ * LOGOUT. Messages are never expunged, so the UID of a message is its
+ * sequence number.
+ * 
+ * Faults are injected per command, by command name without the UID prefix:
+ * <ul>
+ * <li>{@link #setLatency(String, long)} delays the response to a command.</li>
+ * <li>{@link #setBandwidth(long)} limits how fast responses are sent.</li>
+ * <li>{@link #dropConnectionsOn(String...)} closes the connection half way
+ * through the response to a command.</li>
+ * </ul>
+ * 
+ * mock-javamail replaces the IMAP provider while the tests run, call
+ * {@link #useRealProvider()} before connecting to the server.
+ * 
+ * @author Douglas Teoh
+ */
+public final class FakeImapServer {
+
+    /** Session property selecting the class of the IMAP provider. */
+    private static final String PROVIDER_PROPERTY = "mail.imap.class";
+    /** The IMAP provider of JavaMail. */
+    private static final String PROVIDER = "com.sun.mail.imap.IMAPStore";
+
+    private static final String CAPABILITIES = "IMAP4rev1 IDLE UNSELECT";
+    private static final String CRLF = "\r\n";
+    /** Latency key applying to all commands. */
+    private static final String ALL_COMMANDS = "*";
+
+    private final List<Mail> messages = new CopyOnWriteArrayList<Mail>();
+    private final List<String> commands = new CopyOnWriteArrayList<String>();
+    private final List<Connection> connections = new CopyOnWriteArrayList<Connection>();
+    private final Map<String, Long> latencies = new ConcurrentHashMap<String, Long>();
+    private final Set<String> drops = new CopyOnWriteArraySet<String>();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+
+    private volatile long bytesPerSecond;
+    private volatile String username;
+    private volatile String password;
+
+    private ServerSocket serverSocket;
+
+    /**
+     * Make JavaMail use its own IMAP provider instead of mock-javamail.
+     */
+    public static void useRealProvider() {
+        System.setProperty(PROVIDER_PROPERTY, PROVIDER);
+    }
+
+    /**
+     * Undo {@link #useRealProvider()}.
+     */
+    public static void useDefaultProvider() {
+        System.clearProperty(PROVIDER_PROPERTY);
+    }
+
+    /**
+     * Start accepting connections on a free loopback port.
+     * 
+     * @throws IOException
+     *             If the server socket could not be opened.
+     */
+    public synchronized void start() throws IOException {
+        if (serverSocket != null) {
+            return;
+        }
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+
+        final ServerSocket ss = serverSocket;
+        final Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!ss.isClosed()) {
+                    try {
+                        final Connection connection = new Connection(ss.accept());
+                        connections.add(connection);
+                        final Thread t = new Thread(connection, "Fake IMAP connection "
+                                + connectionCount.incrementAndGet());
+                        t.setDaemon(true);
+                        t.start();
+                    } catch (final IOException e) {
+                        // Server stopped.
+                    }
+                }
+            }
+        }, "Fake IMAP server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Stop accepting connections and close all open connections.
+     */
+    public synchronized void stop() {
+        if (serverSocket == null) {
+            return;
+        }
+        closeQuietly(serverSocket);
+        serverSocket = null;
+        for (final Connection connection : connections) {
+            connection.close();
+        }
+    }
+
+    /**
+     * The port the server is listening on.
+     */
+    public synchronized int getPort() {
+        if (serverSocket == null) {
+            throw new IllegalStateException("Server not started");
+        }
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * The address of the server, in the <code>host:port</code> form used for
+     * the host of email settings.
+     */
+    public String getAddress() {
+        return "127.0.0.1:" + getPort();
+    }
+
+    /**
+     * Only accept the given credentials. Any credentials are accepted until
+     * this is called.
+     */
+    public void setCredentials(final String username, final String password) {
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Add a message to the INBOX.
+     * 
+     * @param raw
+     *            The message in RFC 822 format, with CRLF line endings.
+     * @param seen
+     *            Whether the message has been read.
+     * @return The sequence number of the message.
+     * @throws MessagingException
+     *             If the message could not be parsed.
+     */
+    public int addMessage(final byte[] raw, final boolean seen) throws MessagingException {
+        final Mail mail = new Mail(raw, seen);
+        final int msgNo;
+        synchronized (messages) {
+            messages.add(mail);
+            msgNo = messages.size();
+        }
+        for (final Connection connection : connections) {
+            connection.exists(msgNo);
+        }
+        return msgNo;
+    }
+
+    /**
+     * Add a message to the INBOX.
+     * 
+     * @param message
+     *            The message.
+     * @param seen
+     *            Whether the message has been read.
+     * @return The sequence number of the message.
+     * @throws MessagingException
+     *             If the message could not be written.
+     */
+    public int addMessage(final MimeMessage message, final boolean seen) throws MessagingException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            message.writeTo(out);
+        } catch (final IOException e) {
+            throw new MessagingException("Could not write message", e);
+        }
+        return addMessage(out.toByteArray(), seen);
+    }
+
+    /**
+     * Add a plain text message to the INBOX.
+     * 
+     * @return The sequence number of the message.
+     * @throws MessagingException
+     *             If the message could not be parsed.
+     */
+    public int addMessage(final String from, final String subject, final String text, final Date sent,
+            final boolean seen) throws MessagingException {
+        final String encodedSubject;
+        try {
+            encodedSubject = MimeUtility.encodeText(subject, "UTF-8", null);
+        } catch (final UnsupportedEncodingException e) {
+            throw new MessagingException("Could not encode subject", e);
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        sb.append("Date: ").append(new MailDateFormat().format(sent)).append(CRLF);
+        sb.append("From: ").append(from).append(CRLF);
+        sb.append("To: tester@tidal-app.org").append(CRLF);
+        sb.append("Subject: ").append(encodedSubject).append(CRLF);
+        sb.append("Message-ID: <").append(sent.getTime()).append('.').append(messages.size() + 1).append(
+                "@tidal-app.org>").append(CRLF);
+        sb.append("MIME-Version: 1.0").append(CRLF);
+        sb.append("Content-Type: text/plain; charset=UTF-8").append(CRLF);
+        sb.append("Content-Transfer-Encoding: 8bit").append(CRLF);
+        sb.append(CRLF);
+        sb.append(text.replaceAll("\r?\n", CRLF));
+        return addMessage(utf8(sb.toString()), seen);
+    }
+
+    /**
+     * Add unread plain text messages to the INBOX, from a few different
+     * senders and about 1KB in size each.
+     * 
+     * @param count
+     *            Number of messages to add.
+     * @throws MessagingException
+     *             If a message could not be added.
+     */
+    public void seed(final int count) throws MessagingException {
+        final long now = System.currentTimeMillis();
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 16; i++) {
+            text.append("Line ").append(i).append(" of a message seeded into the fake IMAP server.\n");
+        }
+
+        for (int i = 0; i < count; i++) {
+            final int sender = i % 50;
+            addMessage("\"Sender " + sender + "\" <sender" + sender + "@tidal-app.org>", "Message " + i, text
+                    .toString(), new Date(now - (count - i) * 60000L), false);
+        }
+    }
+
+    /**
+     * Remove all messages from the INBOX.
+     */
+    public void clearMessages() {
+        messages.clear();
+    }
+
+    /**
+     * Delay the responses to all commands.
+     * 
+     * @param millis
+     *            The delay, in milliseconds.
+     */
+    public void setLatency(final long millis) {
+        latencies.put(ALL_COMMANDS, millis);
+    }
+
+    /**
+     * Delay the responses to a command, overriding
+     * {@link #setLatency(long)}.
+     * 
+     * @param command
+     *            The command, such as "FETCH".
+     * @param millis
+     *            The delay, in milliseconds.
+     */
+    public void setLatency(final String command, final long millis) {
+        latencies.put(command.toUpperCase(Locale.US), millis);
+    }
+
+    /**
+     * Limit the rate responses are sent at.
+     * 
+     * @param bytesPerSecond
+     *            The rate for each connection, or 0 for no limit.
+     */
+    public void setBandwidth(final long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Close connections half way through the responses to the given
+     * commands. Replaces the commands given previously, no connections are
+     * dropped if none are given.
+     * 
+     * @param commands
+     *            The commands, such as "FETCH".
+     */
+    public void dropConnectionsOn(final String... commands) {
+        drops.clear();
+        for (final String command : commands) {
+            drops.add(command.toUpperCase(Locale.US));
+        }
+    }
+
+    /**
+     * Retrieve every command received so far, in order. Passwords are masked.
+     */
+    public List<String> getCommands() {
+        return Lists.newArrayList(commands);
+    }
+
+    /**
+     * Count the commands received with the given name.
+     * 
+     * @param command
+     *            The command, such as "FETCH". Commands with the UID prefix
+     *            are counted too.
+     */
+    public int countCommands(final String command) {
+        int count = 0;
+        for (final String line : commands) {
+            final String[] words = line.split(" ");
+            String name = words.length > 1 ? words[1] : "";
+            if ("UID".equalsIgnoreCase(name) && words.length > 2) {
+                name = words[2];
+            }
+            if (name.equalsIgnoreCase(command)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Forget the commands received so far.
+     */
+    public void clearCommands() {
+        commands.clear();
+    }
+
+    /**
+     * Number of connections accepted so far.
+     */
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    private long getLatency(final String command) {
+        final Long latency = latencies.get(command);
+        if (latency != null) {
+            return latency;
+        }
+        final Long all = latencies.get(ALL_COMMANDS);
+        return all == null ? 0 : all;
+    }
+
+    private static byte[] utf8(final String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (final UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static byte[] ascii(final String s) {
+        try {
+            return s.getBytes("US-ASCII");
+        } catch (final UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void closeQuietly(final ServerSocket socket) {
+        try {
+            socket.close();
+        } catch (final IOException e) {
+            // Ignored.
+        }
+    }
+
+    /**
+     * A message in the INBOX.
+     */
+    private static final class Mail {
+        final byte[] raw;
+        final Date received;
+        final Entity entity;
+        volatile boolean seen;
+
+        Mail(final byte[] raw, final boolean seen) throws MessagingException {
+            this.raw = raw;
+            this.seen = seen;
+            received = new Date();
+            entity = Entity.parse(raw);
+        }
+    }
+
+    /**
+     * A MIME entity: a message or a body part, split into its header and its
+     * body exactly as it was received, so that the sizes reported in
+     * BODYSTRUCTURE match the bytes sent for each section.
+     */
+    private static final class Entity {
+        final byte[] header;
+        final byte[] body;
+        final InternetHeaders headers;
+        final ContentType type;
+        /** Parts of a multipart entity, null otherwise. */
+        final List<Entity> parts;
+        /** The enclosed message of a message/rfc822 entity, null otherwise. */
+        final Entity message;
+
+        private Entity(final byte[] header, final byte[] body, final InternetHeaders headers,
+                final ContentType type, final List<Entity> parts, final Entity message) {
+            this.header = header;
+            this.body = body;
+            this.headers = headers;
+            this.type = type;
+            this.parts = parts;
+            this.message = message;
+        }
+
+        static Entity parse(final byte[] bytes) throws MessagingException {
+            final int split = headerEnd(bytes);
+            final byte[] header = Arrays.copyOfRange(bytes, 0, split);
+            final byte[] body = Arrays.copyOfRange(bytes, split, bytes.length);
+            final InternetHeaders headers = new InternetHeaders(new ByteArrayInputStream(header));
+
+            ContentType type;
+            try {
+                final String ct = headers.getHeader("Content-Type", null);
+                type = new ContentType(ct == null ? "text/plain; charset=us-ascii" : ct);
+            } catch (final ParseException e) {
+                type = new ContentType("text", "plain", null);
+            }
+
+            List<Entity> parts = null;
+            Entity message = null;
+            if (type.match("multipart/*") && type.getParameter("boundary") != null) {
+                parts = Lists.newArrayList();
+                for (final byte[] part : splitParts(body, type.getParameter("boundary"))) {
+                    parts.add(parse(part));
+                }
+            } else if (type.match("message/rfc822")) {
+                message = parse(body);
+            }
+            return new Entity(header, body, headers, type, parts, message);
+        }
+
+        String getHeader(final String name) {
+            final String value = headers.getHeader(name, ",");
+            return value == null ? null : MimeUtility.unfold(value).trim();
+        }
+
+        int getLines() {
+            int lines = 0;
+            for (final byte b : body) {
+                if (b == '\n') {
+                    lines++;
+                }
+            }
+            return lines;
+        }
+
+        /**
+         * Retrieve the bytes of a body section, such as "", "TEXT", "1.MIME"
+         * or "2.1".
+         * 
+         * @return the bytes, or null if there is no such section.
+         */
+        byte[] getSection(final String section) {
+            if (section.length() == 0) {
+                final byte[] all = Arrays.copyOf(header, header.length + body.length);
+                System.arraycopy(body, 0, all, header.length, body.length);
+                return all;
+            }
+
+            Entity part = null;
+            String rest = section;
+            while (rest.length() > 0 && Character.isDigit(rest.charAt(0))) {
+                final int dot = rest.indexOf('.');
+                final int n = Integer.parseInt(dot == -1 ? rest : rest.substring(0, dot));
+                rest = dot == -1 ? "" : rest.substring(dot + 1);
+
+                final Entity container = part == null ? this : part.message != null ? part.message : part;
+                if (container.parts != null && n >= 1 && n <= container.parts.size()) {
+                    part = container.parts.get(n - 1);
+                } else if (container.parts == null && n == 1) {
+                    // The body of a message that is not multipart is part 1.
+                    part = container;
+                } else {
+                    return null;
+                }
+            }
+
+            if (rest.length() == 0) {
+                return part.body;
+            }
+            final String specifier = rest.toUpperCase(Locale.US);
+            if ("MIME".equals(specifier)) {
+                return part == null ? null : part.header;
+            }
+            final Entity target = part == null ? this : part.message;
+            if (target == null) {
+                return null;
+            }
+            if ("HEADER".equals(specifier)) {
+                return target.header;
+            } else if ("TEXT".equals(specifier)) {
+                return target.body;
+            } else if (specifier.startsWith("HEADER.FIELDS")) {
+                return target.getHeaderFields(specifier);
+            }
+            return null;
+        }
+
+        private byte[] getHeaderFields(final String specifier) {
+            final boolean not = specifier.startsWith("HEADER.FIELDS.NOT");
+            final String list = specifier.substring(specifier.indexOf('(') + 1, specifier.lastIndexOf(')'));
+            final String[] names = list.trim().split("\\s+");
+
+            final StringBuilder sb = new StringBuilder();
+            final Enumeration<?> lines = not ? headers.getNonMatchingHeaderLines(names) : headers
+                    .getMatchingHeaderLines(names);
+            while (lines.hasMoreElements()) {
+                sb.append(lines.nextElement()).append(CRLF);
+            }
+            sb.append(CRLF);
+            return ascii(sb.toString());
+        }
+
+        private static int headerEnd(final byte[] bytes) {
+            if (startsWith(bytes, 0, "\r\n")) {
+                return 2;
+            }
+            final int crlf = indexOf(bytes, ascii("\r\n\r\n"), 0);
+            if (crlf != -1) {
+                return crlf + 4;
+            }
+            final int lf = indexOf(bytes, ascii("\n\n"), 0);
+            return lf == -1 ? bytes.length : lf + 2;
+        }
+
+        private static List<byte[]> splitParts(final byte[] body, final String boundary) {
+            final byte[] delimiter = ascii("--" + boundary);
+            final byte[] nextDelimiter = ascii("\r\n--" + boundary);
+            final List<byte[]> parts = Lists.newArrayList();
+
+            int delim = startsWith(body, 0, "--" + boundary) ? 0 : indexOf(body, nextDelimiter, 0);
+            if (delim > 0) {
+                delim += 2;
+            }
+            while (delim != -1) {
+                final int after = delim + delimiter.length;
+                if (startsWith(body, after, "--")) {
+                    // Close delimiter.
+                    break;
+                }
+                final int lineEnd = indexOf(body, ascii(CRLF), after);
+                if (lineEnd == -1) {
+                    break;
+                }
+                final int start = lineEnd + 2;
+                final int end = indexOf(body, nextDelimiter, start - 2);
+                if (end == -1) {
+                    parts.add(Arrays.copyOfRange(body, start, body.length));
+                    break;
+                }
+                parts.add(Arrays.copyOfRange(body, start, Math.max(start, end)));
+                delim = end + 2;
+            }
+            return parts;
+        }
+
+        private static boolean startsWith(final byte[] bytes, final int offset, final String prefix) {
+            if (offset + prefix.length() > bytes.length) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length(); i++) {
+                if (bytes[offset + i] != prefix.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int indexOf(final byte[] bytes, final byte[] pattern, final int from) {
+            outer: for (int i = Math.max(0, from); i <= bytes.length - pattern.length; i++) {
+                for (int j = 0; j < pattern.length; j++) {
+                    if (bytes[i + j] != pattern[j]) {
+                        continue outer;
+                    }
+                }
+                return i;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * A response being built, written to the client in one go.
+     */
+    private static final class Response extends ByteArrayOutputStream {
+
+        Response text(final String s) {
+            final byte[] bytes = utf8(s);
+            write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        Response line(final String s) {
+            return text(s).text(CRLF);
+        }
+
+        Response literal(final byte[] bytes) {
+            text("{" + bytes.length + "}" + CRLF);
+            write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        Response nstring(final String s) {
+            if (s == null) {
+                return text("NIL");
+            }
+            for (int i = 0; i < s.length(); i++) {
+                final char c = s.charAt(i);
+                if (c < 0x20 || c > 0x7e || c == '"' || c == '\\') {
+                    return literal(utf8(s));
+                }
+            }
+            return text("\"" + s + "\"");
+        }
+
+        Response envelope(final Entity e) {
+            final String from = e.getHeader("From");
+            final String sender = e.getHeader("Sender");
+            final String replyTo = e.getHeader("Reply-To");
+
+            text("(").nstring(e.getHeader("Date")).text(" ").nstring(e.getHeader("Subject")).text(" ");
+            addresses(from).text(" ");
+            addresses(sender == null ? from : sender).text(" ");
+            addresses(replyTo == null ? from : replyTo).text(" ");
+            addresses(e.getHeader("To")).text(" ");
+            addresses(e.getHeader("Cc")).text(" ");
+            addresses(e.getHeader("Bcc")).text(" ");
+            return nstring(e.getHeader("In-Reply-To")).text(" ").nstring(e.getHeader("Message-ID")).text(")");
+        }
+
+        Response addresses(final String header) {
+            final InternetAddress[] addresses;
+            try {
+                addresses = header == null ? null : InternetAddress.parseHeader(header, false);
+            } catch (final AddressException e) {
+                return text("NIL");
+            }
+            if (addresses == null || addresses.length == 0) {
+                return text("NIL");
+            }
+
+            text("(");
+            for (final InternetAddress address : addresses) {
+                final String email = address.getAddress();
+                final int at = email.lastIndexOf('@');
+                String personal = address.getPersonal();
+                if (personal != null) {
+                    try {
+                        personal = MimeUtility.encodeText(personal, "UTF-8", null);
+                    } catch (final UnsupportedEncodingException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+                text("(").nstring(personal).text(" NIL ");
+                nstring(at == -1 ? email : email.substring(0, at)).text(" ");
+                nstring(at == -1 ? null : email.substring(at + 1)).text(")");
+            }
+            return text(")");
+        }
+
+        Response bodyStructure(final Entity e) {
+            final ContentType type = e.type;
+            if (e.parts != null) {
+                text("(");
+                for (final Entity part : e.parts) {
+                    bodyStructure(part);
+                }
+                text(" ").nstring(type.getSubType().toUpperCase(Locale.US)).text(" ");
+                return parameters(type.getParameterList()).text(")");
+            }
+
+            final String encoding = e.getHeader("Content-Transfer-Encoding");
+            text("(").nstring(type.getPrimaryType().toUpperCase(Locale.US)).text(" ");
+            nstring(type.getSubType().toUpperCase(Locale.US)).text(" ");
+            parameters(type.getParameterList()).text(" ");
+            nstring(e.getHeader("Content-ID")).text(" ").nstring(e.getHeader("Content-Description")).text(" ");
+            nstring(encoding == null ? "7BIT" : encoding.toUpperCase(Locale.US)).text(" " + e.body.length);
+            if (type.match("text/*")) {
+                text(" " + e.getLines());
+            } else if (e.message != null) {
+                text(" ").envelope(e.message).text(" ").bodyStructure(e.message).text(" " + e.getLines());
+            }
+            return text(")");
+        }
+
+        Response parameters(final ParameterList parameters) {
+            if (parameters == null || parameters.size() == 0) {
+                return text("NIL");
+            }
+            text("(");
+            final Enumeration<?> names = parameters.getNames();
+            boolean first = true;
+            while (names.hasMoreElements()) {
+                final String name = (String) names.nextElement();
+                if (!first) {
+                    text(" ");
+                }
+                first = false;
+                nstring(name.toUpperCase(Locale.US)).text(" ").nstring(parameters.get(name));
+            }
+            return text(")");
+        }
+    }
+
+    /**
+     * A client connection, served on its own thread.
+     */
+    private final class Connection implements Runnable {
+
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+
+        private boolean selected;
+        private boolean readOnly;
+        private volatile boolean idling;
+
+        Connection(final Socket socket) throws IOException {
+            this.socket = socket;
+            in = new BufferedInputStream(socket.getInputStream());
+            out = socket.getOutputStream();
+        }
+
+        @Override
+        public void run() {
+            try {
+                send(new Response().line("* OK [CAPABILITY " + CAPABILITIES + "] Fake IMAP server ready"));
+                String line;
+                while ((line = readCommand()) != null) {
+                    if (!handle(line)) {
+                        break;
+                    }
+                }
+            } catch (final IOException e) {
+                // Connection closed.
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                close();
+            }
+        }
+
+        void close() {
+            connections.remove(this);
+            try {
+                socket.close();
+            } catch (final IOException e) {
+                // Ignored.
+            }
+        }
+
+        /**
+         * Tell an idling client about new messages.
+         */
+        void exists(final int count) {
+            if (idling) {
+                try {
+                    send(new Response().line("* " + count + " EXISTS"));
+                } catch (final IOException e) {
+                    close();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /**
+         * Handle a command.
+         * 
+         * @return false if the connection should be closed.
+         */
+        private boolean handle(final String line) throws IOException, InterruptedException {
+            final String[] words = line.split(" ", 3);
+            final String tag = words[0];
+            String command = words.length > 1 ? words[1].toUpperCase(Locale.US) : "";
+            String args = words.length > 2 ? words[2] : "";
+            boolean uid = false;
+            if ("UID".equals(command)) {
+                final String[] uidWords = args.split(" ", 2);
+                uid = true;
+                command = uidWords[0].toUpperCase(Locale.US);
+                args = uidWords.length > 1 ? uidWords[1] : "";
+            }
+
+            if ("LOGIN".equals(command)) {
+                final List<String> credentials = parseStrings(args);
+                commands.add(tag + " LOGIN " + (credentials.isEmpty() ? "" : credentials.get(0)) + " ****");
+            } else {
+                commands.add(line);
+            }
+
+            final long latency = getLatency(command);
+            if (latency > 0) {
+                Thread.sleep(latency);
+            }
+
+            final Response response = new Response();
+            boolean keepOpen = true;
+            try {
+                if ("CAPABILITY".equals(command)) {
+                    response.line("* CAPABILITY " + CAPABILITIES).line(tag + " OK CAPABILITY completed");
+                } else if ("NOOP".equals(command) || "CHECK".equals(command)) {
+                    response.line(tag + " OK " + command + " completed");
+                } else if ("LOGOUT".equals(command)) {
+                    response.line("* BYE Fake IMAP server logging out").line(tag + " OK LOGOUT completed");
+                    keepOpen = false;
+                } else if ("LOGIN".equals(command)) {
+                    login(tag, args, response);
+                } else if ("SELECT".equals(command) || "EXAMINE".equals(command)) {
+                    select(tag, command, args, response);
+                } else if ("LIST".equals(command) || "LSUB".equals(command)) {
+                    final List<String> names = parseStrings(args);
+                    final String pattern = names.size() > 1 ? names.get(1) : "";
+                    if ("INBOX".equalsIgnoreCase(pattern) || pattern.contains("*") || pattern.contains("%")) {
+                        response.line("* " + command + " (\\HasNoChildren) \"/\" INBOX");
+                    }
+                    response.line(tag + " OK " + command + " completed");
+                } else if ("NAMESPACE".equals(command)) {
+                    response.line("* NAMESPACE ((\"\" \"/\")) NIL NIL").line(tag + " OK NAMESPACE completed");
+                } else if (!selected) {
+                    response.line(tag + " BAD No mailbox selected");
+                } else if ("SEARCH".equals(command)) {
+                    search(args, response);
+                    response.line(tag + " OK SEARCH completed");
+                } else if ("FETCH".equals(command)) {
+                    fetch(args, uid, response);
+                    response.line(tag + " OK FETCH completed");
+                } else if ("CLOSE".equals(command) || "UNSELECT".equals(command)) {
+                    selected = false;
+                    response.line(tag + " OK " + command + " completed");
+                } else if ("IDLE".equals(command)) {
+                    return idle(tag);
+                } else {
+                    response.line(tag + " BAD Unknown command");
+                }
+            } catch (final IllegalArgumentException e) {
+                response.reset();
+                response.line(tag + " BAD " + e.getMessage());
+            }
+
+            if (drops.contains(command)) {
+                final byte[] bytes = response.toByteArray();
+                sendRaw(bytes, bytes.length / 2);
+                return false;
+            }
+            send(response);
+            return keepOpen;
+        }
+
+        private void login(final String tag, final String args, final Response response) {
+            final List<String> credentials = parseStrings(args);
+            if (credentials.size() != 2) {
+                throw new IllegalArgumentException("LOGIN expects a user name and a password");
+            }
+            final String u = username;
+            if (u == null || u.equals(credentials.get(0)) && password.equals(credentials.get(1))) {
+                response.line(tag + " OK LOGIN completed");
+            } else {
+                response.line(tag + " NO [AUTHENTICATIONFAILED] Invalid credentials");
+            }
+        }
+
+        private void select(final String tag, final String command, final String args, final Response response) {
+            final List<String> names = parseStrings(args);
+            if (names.isEmpty() || !"INBOX".equalsIgnoreCase(names.get(0))) {
+                selected = false;
+                response.line(tag + " NO Mailbox does not exist");
+                return;
+            }
+            selected = true;
+            readOnly = "EXAMINE".equals(command);
+
+            final int count = messages.size();
+            response.line("* FLAGS (\\Answered \\Flagged \\Deleted \\Seen \\Draft)");
+            response.line("* OK [PERMANENTFLAGS (" + (readOnly ? "" : "\\Seen") + ")] Permanent flags");
+            response.line("* " + count + " EXISTS");
+            response.line("* 0 RECENT");
+            response.line("* OK [UIDVALIDITY 1] UIDs valid");
+            response.line("* OK [UIDNEXT " + (count + 1) + "] Predicted next UID");
+            response.line(tag + " OK [" + (readOnly ? "READ-ONLY" : "READ-WRITE") + "] " + command + " completed");
+        }
+
+        private boolean idle(final String tag) throws IOException, InterruptedException {
+            idling = true;
+            try {
+                send(new Response().line("+ idling"));
+                String line;
+                while ((line = readLine()) != null) {
+                    if ("DONE".equalsIgnoreCase(line.trim())) {
+                        break;
+                    }
+                }
+                if (line == null) {
+                    return false;
+                }
+            } finally {
+                idling = false;
+            }
+            send(new Response().line(tag + " OK IDLE terminated"));
+            return true;
+        }
+
+        private void search(final String args, final Response response) {
+            final List<Mail> mails = Lists.newArrayList(messages);
+            final String[] criteria = args.trim().split("\\s+");
+
+            final StringBuilder sb = new StringBuilder("* SEARCH");
+            for (int msgNo = 1; msgNo <= mails.size(); msgNo++) {
+                if (matches(criteria, msgNo, mails)) {
+                    sb.append(' ').append(msgNo);
+                }
+            }
+            response.line(sb.toString());
+        }
+
+        private boolean matches(final String[] criteria, final int msgNo, final List<Mail> mails) {
+            boolean negate = false;
+            for (int i = 0; i < criteria.length; i++) {
+                final String criterion = criteria[i].toUpperCase(Locale.US);
+                final boolean match;
+                if ("NOT".equals(criterion)) {
+                    negate = !negate;
+                    continue;
+                } else if ("CHARSET".equals(criterion)) {
+                    i++;
+                    continue;
+                } else if ("ALL".equals(criterion) || "OLD".equals(criterion) || criterion.length() == 0) {
+                    match = true;
+                } else if ("SEEN".equals(criterion)) {
+                    match = mails.get(msgNo - 1).seen;
+                } else if ("UNSEEN".equals(criterion) || "NEW".equals(criterion)) {
+                    match = !mails.get(msgNo - 1).seen;
+                } else if ("UID".equals(criterion) && i + 1 < criteria.length) {
+                    match = parseSet(criteria[++i], mails.size()).contains(msgNo);
+                } else if (Character.isDigit(criterion.charAt(0)) || criterion.charAt(0) == '*') {
+                    match = parseSet(criterion, mails.size()).contains(msgNo);
+                } else {
+                    throw new IllegalArgumentException("Unsupported search criterion " + criterion);
+                }
+                if (match == negate) {
+                    return false;
+                }
+                negate = false;
+            }
+            return true;
+        }
+
+        private void fetch(final String args, final boolean uid, final Response response) {
+            final int space = args.indexOf(' ');
+            if (space == -1) {
+                throw new IllegalArgumentException("FETCH expects a message set and items");
+            }
+            final List<Mail> mails = Lists.newArrayList(messages);
+            final List<Integer> msgNos = parseSet(args.substring(0, space), mails.size());
+            final List<String> items = parseItems(args.substring(space + 1).trim());
+            if (uid && !items.contains("UID")) {
+                items.add(0, "UID");
+            }
+
+            for (final int msgNo : msgNos) {
+                final Mail mail = mails.get(msgNo - 1);
+                response.text("* " + msgNo + " FETCH (");
+                for (int i = 0; i < items.size(); i++) {
+                    if (i > 0) {
+                        response.text(" ");
+                    }
+                    fetchItem(items.get(i), msgNo, mail, response);
+                }
+                response.line(")");
+            }
+        }
+
+        private void fetchItem(final String item, final int msgNo, final Mail mail, final Response response) {
+            final String name = item.toUpperCase(Locale.US);
+            if ("FLAGS".equals(name)) {
+                response.text(mail.seen ? "FLAGS (\\Seen)" : "FLAGS ()");
+            } else if ("UID".equals(name)) {
+                response.text("UID " + msgNo);
+            } else if ("INTERNALDATE".equals(name)) {
+                final SimpleDateFormat format = new SimpleDateFormat("dd-MMM-yyyy HH:mm:ss Z", Locale.US);
+                response.text("INTERNALDATE \"" + format.format(mail.received) + "\"");
+            } else if ("RFC822.SIZE".equals(name)) {
+                response.text("RFC822.SIZE " + mail.raw.length);
+            } else if ("ENVELOPE".equals(name)) {
+                response.text("ENVELOPE ").envelope(mail.entity);
+            } else if ("BODYSTRUCTURE".equals(name) || "BODY".equals(name)) {
+                response.text(name + " ").bodyStructure(mail.entity);
+            } else if ("RFC822".equals(name)) {
+                markSeen(mail);
+                response.text("RFC822 ").literal(mail.raw);
+            } else if ("RFC822.HEADER".equals(name)) {
+                response.text("RFC822.HEADER ").literal(mail.entity.header);
+            } else if ("RFC822.TEXT".equals(name)) {
+                markSeen(mail);
+                response.text("RFC822.TEXT ").literal(mail.entity.body);
+            } else if (name.startsWith("BODY[") || name.startsWith("BODY.PEEK[")) {
+                fetchSection(item, mail, response);
+            } else {
+                throw new IllegalArgumentException("Unsupported fetch item " + item);
+            }
+        }
+
+        private void fetchSection(final String item, final Mail mail, final Response response) {
+            final int open = item.indexOf('[');
+            final int close = item.lastIndexOf(']');
+            if (close < open) {
+                throw new IllegalArgumentException("Invalid fetch item " + item);
+            }
+            final String section = item.substring(open + 1, close);
+            if (!item.toUpperCase(Locale.US).startsWith("BODY.PEEK")) {
+                markSeen(mail);
+            }
+
+            byte[] data = mail.entity.getSection(section);
+            String origin = "";
+            final String partial = item.substring(close + 1);
+            if (partial.startsWith("<") && partial.endsWith(">") && data != null) {
+                final String[] range = partial.substring(1, partial.length() - 1).split("\\.");
+                final int start = Math.min(Integer.parseInt(range[0]), data.length);
+                final int end = range.length > 1 ? (int) Math.min((long) start + Long.parseLong(range[1]),
+                        data.length) : data.length;
+                data = Arrays.copyOfRange(data, start, end);
+                origin = "<" + range[0] + ">";
+            }
+
+            response.text("BODY[" + section + "]" + origin + " ");
+            if (data == null) {
+                response.text("NIL");
+            } else {
+                response.literal(data);
+            }
+        }
+
+        private void markSeen(final Mail mail) {
+            if (!readOnly) {
+                mail.seen = true;
+            }
+        }
+
+        /**
+         * Parse a message set such as "1:4,7,9:*" into sorted message
+         * numbers.
+         */
+        private List<Integer> parseSet(final String set, final int count) {
+            final List<Integer> msgNos = Lists.newArrayList();
+            try {
+                for (final String range : set.split(",")) {
+                    final int colon = range.indexOf(':');
+                    final int first = parseSetNumber(colon == -1 ? range : range.substring(0, colon), count);
+                    final int last = colon == -1 ? first : parseSetNumber(range.substring(colon + 1), count);
+                    for (int msgNo = Math.min(first, last); msgNo <= Math.max(first, last); msgNo++) {
+                        if (msgNo >= 1 && msgNo <= count && !msgNos.contains(msgNo)) {
+                            msgNos.add(msgNo);
+                        }
+                    }
+                }
+            } catch (final NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid message set " + set);
+            }
+            Collections.sort(msgNos);
+            return msgNos;
+        }
+
+        private int parseSetNumber(final String number, final int count) {
+            return "*".equals(number) ? count : Integer.parseInt(number);
+        }
+
+        /**
+         * Split fetch items, such as "(FLAGS BODY.PEEK[HEADER.FIELDS (From)])".
+         */
+        private List<String> parseItems(final String args) {
+            String list = args;
+            if (list.startsWith("(") && list.endsWith(")")) {
+                list = list.substring(1, list.length() - 1);
+            }
+
+            final List<String> items = Lists.newArrayList();
+            int depth = 0;
+            int start = 0;
+            for (int i = 0; i < list.length(); i++) {
+                final char c = list.charAt(i);
+                if (c == '[' || c == '(') {
+                    depth++;
+                } else if (c == ']' || c == ')') {
+                    depth--;
+                } else if (c == ' ' && depth == 0) {
+                    if (i > start) {
+                        items.add(list.substring(start, i));
+                    }
+                    start = i + 1;
+                }
+            }
+            if (start < list.length()) {
+                items.add(list.substring(start));
+            }
+
+            final String macro = items.size() == 1 ? items.get(0).toUpperCase(Locale.US) : "";
+            if ("ALL".equals(macro) || "FAST".equals(macro) || "FULL".equals(macro)) {
+                items.clear();
+                items.addAll(Arrays.asList("FLAGS", "INTERNALDATE", "RFC822.SIZE"));
+                if (!"FAST".equals(macro)) {
+                    items.add("ENVELOPE");
+                }
+                if ("FULL".equals(macro)) {
+                    items.add("BODY");
+                }
+            }
+            return items;
+        }
+
+        /**
+         * Parse atoms and quoted strings, such as the arguments of LOGIN.
+         */
+        private List<String> parseStrings(final String args) {
+            final List<String> strings = Lists.newArrayList();
+            int i = 0;
+            while (i < args.length()) {
+                final char c = args.charAt(i);
+                if (c == ' ') {
+                    i++;
+                } else if (c == '"') {
+                    final StringBuilder sb = new StringBuilder();
+                    i++;
+                    while (i < args.length() && args.charAt(i) != '"') {
+                        if (args.charAt(i) == '\\' && i + 1 < args.length()) {
+                            i++;
+                        }
+                        sb.append(args.charAt(i++));
+                    }
+                    strings.add(sb.toString());
+                    i++;
+                } else {
+                    final int end = args.indexOf(' ', i);
+                    strings.add(args.substring(i, end == -1 ? args.length() : end));
+                    i = end == -1 ? args.length() : end;
+                }
+            }
+            return strings;
+        }
+
+        /**
+         * Read a command, replacing literals with quoted strings.
+         * 
+         * @return the command, or null if the client closed the connection.
+         */
+        private String readCommand() throws IOException, InterruptedException {
+            final StringBuilder command = new StringBuilder();
+            while (true) {
+                final String line = readLine();
+                if (line == null) {
+                    return null;
+                }
+                if (!line.endsWith("}") || line.lastIndexOf('{') == -1) {
+                    return command.append(line).toString();
+                }
+
+                final int open = line.lastIndexOf('{');
+                String size = line.substring(open + 1, line.length() - 1);
+                final boolean synchronizing = !size.endsWith("+");
+                if (!synchronizing) {
+                    size = size.substring(0, size.length() - 1);
+                }
+                final int length;
+                try {
+                    length = Integer.parseInt(size);
+                } catch (final NumberFormatException e) {
+                    return command.append(line).toString();
+                }
+
+                if (synchronizing) {
+                    send(new Response().line("+ Ready for literal data"));
+                }
+                final byte[] literal = new byte[length];
+                int read = 0;
+                while (read < length) {
+                    final int n = in.read(literal, read, length - read);
+                    if (n == -1) {
+                        return null;
+                    }
+                    read += n;
+                }
+                final String value = new String(literal, "UTF-8");
+                command.append(line.substring(0, open)).append('"').append(
+                        value.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+            }
+        }
+
+        private String readLine() throws IOException {
+            final ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != -1) {
+                if (b == '\n') {
+                    final byte[] bytes = line.toByteArray();
+                    final int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1
+                            : bytes.length;
+                    return new String(bytes, 0, length, "UTF-8");
+                }
+                line.write(b);
+            }
+            return null;
+        }
+
+        private void send(final Response response) throws IOException, InterruptedException {
+            final byte[] bytes = response.toByteArray();
+            sendRaw(bytes, bytes.length);
+        }
+
+        /**
+         * Write the first bytes of a response, within the bandwidth limit.
+         */
+        private void sendRaw(final byte[] bytes, final int length) throws IOException, InterruptedException {
+            synchronized (out) {
+                final long rate = bytesPerSecond;
+                if (rate <= 0) {
+                    out.write(bytes, 0, length);
+                    out.flush();
+                    return;
+                }
+
+                final long start = System.nanoTime();
+                final int chunk = (int) Math.max(1, Math.min(1024, rate / 10));
+                for (int sent = 0; sent < length;) {
+                    final int n = Math.min(chunk, length - sent);
+                    out.write(bytes, sent, n);
+                    out.flush();
+                    sent += n;
+
+                    final long due = start + sent * 1000000000L / rate;
+                    final long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+                    }
+                }
+            }
+        }
+    }
+
+}
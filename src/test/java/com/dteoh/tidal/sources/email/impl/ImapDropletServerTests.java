@@ -0,0 +1,249 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.sources.email.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.Message;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dteoh.tidal.diagnostics.TraceSpan;
+import com.dteoh.tidal.diagnostics.Tracer;
+import com.dteoh.tidal.diagnostics.Tracing;
+import com.dteoh.tidal.sources.UpdateToken;
+import com.dteoh.tidal.sources.email.models.EmailSettings;
+import com.dteoh.tidal.sources.email.models.Protocol;
+import com.dteoh.tidal.views.models.RippleModel;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+/**
+ * Tests {@link ImapDroplet} end to end, over the IMAP protocol against a
+ * {@link FakeImapServer}.
+ * 
+ * @author Douglas Teoh
+ */
+public class ImapDropletServerTests {
+
+    private final String testUser = "tester";
+    private final String testPassword = "password";
+
+    private FakeImapServer server;
+    private ImapDroplet droplet;
+
+    @Before
+    public void setUp() throws Exception {
+        FakeImapServer.useRealProvider();
+        server = new FakeImapServer();
+        server.setCredentials(testUser, testPassword);
+        server.start();
+        droplet = ImapDroplet.create(new EmailSettings(server.getAddress(), Protocol.imap, testUser, testPassword));
+    }
+
+    @After
+    public void tearDown() {
+        droplet.destroy();
+        server.stop();
+        FakeImapServer.useDefaultProvider();
+    }
+
+    /**
+     * Test parsing server addresses with and without a port.
+     */
+    @Test
+    public void testAddress() {
+        assertEquals("tidal-app.org", ImapDroplet.getHostName("tidal-app.org"));
+        assertEquals(-1, ImapDroplet.getPort("tidal-app.org"));
+        assertEquals("127.0.0.1", ImapDroplet.getHostName("127.0.0.1:1143"));
+        assertEquals(1143, ImapDroplet.getPort("127.0.0.1:1143"));
+        assertEquals("::1", ImapDroplet.getHostName("[::1]:1143"));
+        assertEquals(1143, ImapDroplet.getPort("[::1]:1143"));
+        assertEquals("::1", ImapDroplet.getHostName("::1"));
+        assertEquals(-1, ImapDroplet.getPort("::1"));
+    }
+
+    /**
+     * Test that only unread messages are retrieved.
+     */
+    @Test
+    public void testGetRipples() throws Exception {
+        server.seed(30);
+        server.addMessage("unittests@tidal-app.org", "Read email", "Already read.", new Date(), true);
+
+        droplet.init();
+        assertEquals(30, Iterables.size(droplet.getRipples()));
+    }
+
+    /**
+     * Test retrieving ripple contents.
+     */
+    @Test
+    public void testRippleContents() throws Exception {
+        final Date sent = new Date(150000);
+        server.addMessage("unittests@tidal-app.org", "testRippleContents", "Unit test email.", sent, false);
+
+        droplet.init();
+        final Iterator<RippleModel> it = droplet.getRipples().iterator();
+        assertTrue(it.hasNext());
+
+        final RippleModel ripple = it.next();
+        assertEquals("unittests@tidal-app.org", ripple.getOrigin());
+        assertEquals("testRippleContents", ripple.getSubject());
+        assertEquals("Unit test email.", ripple.getContent());
+        assertEquals(sent.getTime(), ripple.getReceived());
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Test that the plain text part of a multipart message is retrieved.
+     */
+    @Test
+    public void testMultipart() throws Exception {
+        final MimeMessage message = new MimeMessage(Session.getInstance(new Properties()));
+        message.setFrom(new InternetAddress("unittests@tidal-app.org"));
+        message.setRecipients(Message.RecipientType.TO, "tester@tidal-app.org");
+        message.setSentDate(new Date());
+        message.setSubject("testMultipart");
+
+        final MimeBodyPart plain = new MimeBodyPart();
+        plain.setText("Plain text version.");
+        final MimeBodyPart html = new MimeBodyPart();
+        html.setContent("<p>HTML version.</p>", "text/html");
+        final MimeMultipart multipart = new MimeMultipart("alternative");
+        multipart.addBodyPart(plain);
+        multipart.addBodyPart(html);
+        message.setContent(multipart);
+        message.saveChanges();
+        server.addMessage(message, false);
+
+        droplet.init();
+        final RippleModel ripple = Iterables.getOnlyElement(droplet.getRipples());
+        assertEquals("Plain text version.", ripple.getContent());
+    }
+
+    /**
+     * Test that every command is logged, without the password.
+     */
+    @Test
+    public void testCommandLog() throws Exception {
+        server.seed(5);
+
+        droplet.init();
+        droplet.getRipples();
+
+        assertEquals(1, server.countCommands("SEARCH"));
+        // Messages are fetched one at a time.
+        assertTrue(server.countCommands("FETCH") >= 5);
+        for (final String command : server.getCommands()) {
+            assertFalse(command.contains(testPassword));
+        }
+    }
+
+    /**
+     * Test that every stage of an update is traced.
+     */
+    @Test
+    public void testTracing() throws Exception {
+        server.seed(3);
+        final List<String> phases = Collections.synchronizedList(Lists.<String> newArrayList());
+        Tracing.set(new Tracer() {
+            @Override
+            public TraceSpan beginUpdatePhase(final String phase, final String droplet, final String host) {
+                assertEquals(droplet, ImapDropletServerTests.this.droplet.getIdentifier().toString());
+                assertEquals(server.getAddress(), host);
+                phases.add(phase);
+                return Tracing.NO_SPAN;
+            }
+
+            @Override
+            public TraceSpan beginViewUpdate(final String droplet) {
+                return Tracing.NO_SPAN;
+            }
+        });
+
+        try {
+            droplet.update();
+        } finally {
+            Tracing.set(null);
+        }
+
+        assertEquals(Arrays.asList("connect", "search", "fetch", "parse", "fetch", "parse", "fetch", "parse",
+                "handoff"), phases);
+    }
+
+    /**
+     * Test that a slow server does not hold up an update past its deadline.
+     */
+    @Test
+    public void testDeadline() throws Exception {
+        server.seed(5);
+        server.setLatency("FETCH", 5000);
+
+        final UpdateToken token = new UpdateToken(500, TimeUnit.MILLISECONDS);
+        final long start = System.currentTimeMillis();
+        droplet.update(token);
+
+        assertTrue(token.isCancelled());
+        assertTrue(System.currentTimeMillis() - start < 4000);
+    }
+
+    /**
+     * Test that a connection dropped in the middle of a command is handled.
+     */
+    @Test
+    public void testDroppedConnection() throws Exception {
+        server.seed(5);
+        server.dropConnectionsOn("SEARCH");
+
+        droplet.init();
+        assertTrue(Iterables.isEmpty(droplet.getRipples()));
+    }
+
+    /**
+     * Test that responses are slowed down by the bandwidth limit.
+     */
+    @Test
+    public void testBandwidth() throws Exception {
+        server.seed(5);
+        droplet.init();
+        server.setBandwidth(4096);
+
+        final long start = System.currentTimeMillis();
+        assertEquals(5, Iterables.size(droplet.getRipples()));
+        // Over 5KB of messages.
+        assertTrue(System.currentTimeMillis() - start >= 1000);
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.sources.email.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link ImapRedactor}.
+ * 
+ * @author Douglas Teoh
+ */
+public class ImapRedactorTests {
+
+    private static final String MESSAGE = "From: Douglas <douglas@tidal-app.org>\r\n"
+            + "Subject: Dinner plans\r\n"
+            + "Date: Mon, 25 Oct 2010 10:00:00 +1000\r\n"
+            + "Content-Type: multipart/alternative;\r\n"
+            + " boundary=\"b1\"\r\n"
+            + "\r\n"
+            + "--b1\r\n"
+            + "Content-Type: text/plain; charset=UTF-8\r\n"
+            + "Content-Transfer-Encoding: quoted-printable\r\n"
+            + "\r\n"
+            + "Meet at 7 =3D late\r\n"
+            + "--b1--\r\n";
+
+    private static final String REDACTED = "xxxx: xxxxxxx <xxxxxxx@xxxxx-xxx.xxx>\r\n"
+            + "xxxxxxx: xxxxxx xxxxx\r\n"
+            + "Date: Mon, 25 Oct 2010 10:00:00 +1000\r\n"
+            + "Content-Type: multipart/alternative;\r\n"
+            + " boundary=\"b1\"\r\n"
+            + "\r\n"
+            + "--b1\r\n"
+            + "Content-Type: text/plain; charset=UTF-8\r\n"
+            + "Content-Transfer-Encoding: quoted-printable\r\n"
+            + "\r\n"
+            + "xxxx xx 0 =78 xxxx\r\n"
+            + "--b1--\r\n";
+
+    /**
+     * Test that login credentials are redacted, also when sent as a literal.
+     */
+    @Test
+    public void testLogin() {
+        assertEquals("A1 LOGIN xxxxxx xxxxxxxx0\r\n", redact(false, "A1 LOGIN tester password1\r\n"));
+        assertEquals("A1 LOGIN xxxxxx {9}\r\nxxxxxxxx0\r\n", redact(false, "A1 LOGIN tester {9}\r\npassword1\r\n"));
+        assertEquals("A2 EXAMINE INBOX\r\n", redact(false, "A2 EXAMINE INBOX\r\n"));
+    }
+
+    /**
+     * Test that envelopes lose their contents but keep their dates, and that
+     * body structures are kept.
+     */
+    @Test
+    public void testResponses() {
+        assertEquals("* 1 FETCH (ENVELOPE (\"Mon, 25 Oct 2010 10:00:00 +1000\" \"xxxxxx xxxxx\" NIL) "
+                + "INTERNALDATE \"25-Oct-2010 10:00:00 +1000\")\r\n", redact(true,
+                "* 1 FETCH (ENVELOPE (\"Mon, 25 Oct 2010 10:00:00 +1000\" \"Dinner plans\" NIL) "
+                        + "INTERNALDATE \"25-Oct-2010 10:00:00 +1000\")\r\n"));
+
+        final String structure = "* 1 FETCH (BODYSTRUCTURE (\"TEXT\" \"PLAIN\" (\"CHARSET\" \"UTF-8\") NIL NIL "
+                + "\"QUOTED-PRINTABLE\" 19 1))\r\n";
+        assertEquals(structure, redact(true, structure));
+    }
+
+    /**
+     * Test that messages keep their MIME structure, and that the rest of the
+     * response after a literal is not redacted.
+     */
+    @Test
+    public void testMessage() {
+        final String prefix = "* 1 FETCH (BODY[] {" + MESSAGE.length() + "}\r\n";
+        final String suffix = " FLAGS (\\Seen))\r\nA5 OK FETCH completed\r\n";
+        assertEquals(prefix + REDACTED + suffix, redact(true, prefix + MESSAGE + suffix));
+    }
+
+    /**
+     * Test that non-ASCII text, which is sent as quoted-printable escapes, is
+     * redacted while keeping its decoded size.
+     */
+    @Test
+    public void testNonAscii() {
+        final String body = "=E6=97=A5=E6=9C=AC caf=C3=A9\r\n";
+        assertEquals("* 1 FETCH (BODY[1] {" + body.length() + "}\r\n=78=78=78=78=78=78 xxx=78=78\r\n)\r\n",
+                redact(true, "* 1 FETCH (BODY[1] {" + body.length() + "}\r\n" + body + ")\r\n"));
+    }
+
+    /**
+     * Test that redaction does not depend on how the data is split up.
+     */
+    @Test
+    public void testSplit() {
+        final byte[] data = ("* 1 FETCH (BODY[] {" + MESSAGE.length() + "}\r\n" + MESSAGE + ")\r\n").getBytes();
+        final ImapRedactor redactor = new ImapRedactor(true);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < data.length; i++) {
+            final byte[] redacted = redactor.redact(data, i, 1);
+            out.write(redacted, 0, redacted.length);
+        }
+        assertEquals(redact(true, new String(data)), new String(out.toByteArray()));
+    }
+
+    /**
+     * Test that incomplete lines are redacted when flushed.
+     */
+    @Test
+    public void testFlush() {
+        final ImapRedactor redactor = new ImapRedactor(false);
+        final byte[] data = "A1 LOGIN tester pass".getBytes();
+        assertEquals(0, redactor.redact(data, 0, data.length).length);
+        assertEquals("x0 xxxxx xxxxxx xxxx", new String(redactor.flush()));
+    }
+
+    private static String redact(final boolean fromServer, final String data) {
+        final ImapRedactor redactor = new ImapRedactor(fromServer);
+        final byte[] bytes = data.getBytes();
+        return new String(redactor.redact(bytes, 0, bytes.length)) + new String(redactor.flush());
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.sources.email.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Date;
+
+import javax.net.SocketFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dteoh.tidal.sources.email.models.EmailSettings;
+import com.dteoh.tidal.sources.email.models.Protocol;
+
+/**
+ * Tests recording IMAP updates and playing them back.
+ * 
+ * @author Douglas Teoh
+ */
+public class SessionRecordingTests {
+
+    private final String testUser = "tester";
+    private final String testPassword = "secretpassword";
+
+    private FakeImapServer server;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        FakeImapServer.useRealProvider();
+        server = new FakeImapServer();
+        server.setCredentials(testUser, testPassword);
+        server.start();
+        file = File.createTempFile("tidal", ".rec.gz");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        FakeImapServer.useDefaultProvider();
+        file.delete();
+    }
+
+    /**
+     * Test that a recorded update fetches the same messages when played back
+     * without the server.
+     */
+    @Test
+    public void testReplay() throws Exception {
+        server.seed(20);
+        final ImapDroplet recorded = record();
+        assertEquals(20, recorded.getMetrics().getMessagesFetched());
+        // Replay does not connect, the address only has to look the same.
+        final String address = server.getAddress();
+        server.stop();
+
+        final SessionRecording recording = SessionRecording.read(file);
+        assertTrue(recording.getConnectionCount() > 0);
+
+        for (final boolean originalTiming : new boolean[] { false, true }) {
+            final ImapDroplet replayed = ImapDroplet.create(new EmailSettings(address, Protocol.imap, "someone",
+                    "else"));
+            try {
+                replayed.setTransport(new ReplaySocketFactory(recording, originalTiming));
+                replayed.update();
+                assertEquals(20, replayed.getMetrics().getMessagesFetched());
+                assertEquals(recorded.getMetrics().getBytesFetched(), replayed.getMetrics().getBytesFetched());
+                assertEquals(0, replayed.getMetrics().getErrors());
+            } finally {
+                replayed.destroy();
+            }
+        }
+    }
+
+    /**
+     * Test that credentials and content are not recorded.
+     */
+    @Test
+    public void testRedacted() throws Exception {
+        server.addMessage("\"Confidential Sender\" <confidential@tidal-app.org>", "Confidential subject",
+                "Confidential text.", new Date(), false);
+        assertEquals(1, record().getMetrics().getMessagesFetched());
+
+        final SessionRecording recording = SessionRecording.read(file);
+        final StringBuilder all = new StringBuilder();
+        for (int i = 0; i < recording.getConnectionCount(); i++) {
+            for (final SessionRecording.Event event : recording.getEvents(i)) {
+                all.append(new String(event.getData(), "ISO-8859-1"));
+            }
+        }
+        assertTrue(all.indexOf("LOGIN") != -1);
+        assertFalse(all.indexOf(testUser) != -1);
+        assertFalse(all.indexOf(testPassword) != -1);
+        assertFalse(all.toString().toLowerCase().indexOf("confidential") != -1);
+    }
+
+    /**
+     * Record an update of a new droplet.
+     */
+    private ImapDroplet record() throws Exception {
+        final ImapDroplet droplet = ImapDroplet.create(new EmailSettings(server.getAddress(), Protocol.imap,
+                testUser, testPassword));
+        final SessionRecorder recorder = new SessionRecorder(file);
+        try {
+            droplet.setTransport(new RecordingSocketFactory(SocketFactory.getDefault(), recorder));
+            droplet.update();
+        } finally {
+            recorder.close();
+            droplet.destroy();
+        }
+        return droplet;
+    }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.SwingUtilities;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link Async}.
+ * 
+ * @author Douglas Teoh
+ */
+public class AsyncTests {
+
+    /**
+     * Test that results are handed to callbacks on the EDT.
+     */
+    @Test
+    public void testSucceeded() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Object> received = new AtomicReference<Object>();
+
+        final AsyncResult<String> result = Async.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return "result";
+            }
+        }).onEDT(new RecordingCallback(received, done));
+
+        assertEquals("result", result.get());
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals("result", received.get());
+    }
+
+    /**
+     * Test that callbacks added after the task completed are still invoked.
+     */
+    @Test
+    public void testLateCallback() throws Exception {
+        final AsyncResult<String> result = Async.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return "result";
+            }
+        });
+        result.get();
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Object> received = new AtomicReference<Object>();
+        result.onEDT(new RecordingCallback(received, done));
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals("result", received.get());
+    }
+
+    /**
+     * Test that exceptions thrown by the task are handed to callbacks.
+     */
+    @Test
+    public void testFailed() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Object> received = new AtomicReference<Object>();
+        final IllegalStateException failure = new IllegalStateException();
+
+        final AsyncResult<String> result = Async.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                throw failure;
+            }
+        }).onEDT(new RecordingCallback(received, done));
+
+        try {
+            result.get();
+            fail("Expecting ExecutionException.");
+        } catch (final ExecutionException e) {
+            assertEquals(failure, e.getCause());
+        }
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(failure, received.get());
+    }
+
+    /**
+     * Test that tasks taking too long are cancelled.
+     */
+    @Test
+    public void testTimeout() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Object> received = new AtomicReference<Object>();
+
+        final AsyncResult<String> result = Async.submit(new Callable<String>() {
+            @Override
+            public String call() throws InterruptedException {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+                return "result";
+            }
+        }).timeout(50, TimeUnit.MILLISECONDS).onEDT(new RecordingCallback(received, done));
+
+        try {
+            result.get();
+            fail("Expecting ExecutionException.");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertTrue(result.isCancelled());
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertTrue(received.get() instanceof TimeoutException);
+    }
+
+    /**
+     * Test that a slow task does not hold up other tasks.
+     */
+    @Test
+    public void testConcurrent() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AsyncResult<Void> slow = Async.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        final AsyncResult<String> fast = Async.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return "fast";
+            }
+        });
+
+        assertEquals("fast", fast.get(1, TimeUnit.SECONDS));
+        assertFalse(slow.isDone());
+        release.countDown();
+        slow.get();
+    }
+
+    /**
+     * Records the outcome received on the EDT.
+     */
+    private static final class RecordingCallback implements AsyncCallback<Object> {
+        private final AtomicReference<Object> received;
+        private final CountDownLatch done;
+
+        RecordingCallback(final AtomicReference<Object> received, final CountDownLatch done) {
+            this.received = received;
+            this.done = done;
+        }
+
+        @Override
+        public void succeeded(final Object result) {
+            record(result);
+        }
+
+        @Override
+        public void failed(final Throwable cause) {
+            record(cause);
+        }
+
+        private void record(final Object outcome) {
+            if (SwingUtilities.isEventDispatchThread()) {
+                received.set(outcome);
+            }
+            done.countDown();
+        }
+    }
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.util;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A clock that only moves when it is told to. Scheduled tasks run on the
+ * thread calling {@link #advance(long, TimeUnit)}, in the order they fall due,
+ * with the clock set to the time each task was due.
+ * 
+ * @author Douglas Teoh
+ */
+public final class VirtualClock implements Clock {
+
+    private final long startMillis;
+    private final PriorityQueue<Task> tasks = new PriorityQueue<Task>();
+
+    /** Nanoseconds since the clock was created. Guarded by this. */
+    private long now;
+    /** Orders tasks falling due at the same time. Guarded by this. */
+    private long sequence;
+
+    /**
+     * Creates a clock.
+     * 
+     * @param startMillis
+     *            Time in milliseconds since the epoch the clock starts at.
+     */
+    public VirtualClock(final long startMillis) {
+        this.startMillis = startMillis;
+    }
+
+    @Override
+    public synchronized long currentTimeMillis() {
+        return startMillis + TimeUnit.NANOSECONDS.toMillis(now);
+    }
+
+    @Override
+    public synchronized long nanoTime() {
+        return now;
+    }
+
+    @Override
+    public Scheduled schedule(final Runnable task, final long delay, final TimeUnit unit) {
+        return add(task, unit.toNanos(Math.max(0, delay)), 0);
+    }
+
+    @Override
+    public Scheduled scheduleWithFixedDelay(final Runnable task, final long delay, final long period,
+            final TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Period must be positive: " + period);
+        }
+        return add(task, unit.toNanos(Math.max(0, delay)), unit.toNanos(period));
+    }
+
+    /**
+     * Move the clock forward, running the tasks that fall due on the way.
+     * 
+     * @param time
+     *            How far to move the clock.
+     * @param unit
+     *            Unit of the time.
+     */
+    public void advance(final long time, final TimeUnit unit) {
+        final long target;
+        synchronized (this) {
+            target = now + unit.toNanos(time);
+        }
+
+        while (true) {
+            final Task task;
+            synchronized (this) {
+                final Task next = tasks.peek();
+                if (next == null || next.due > target) {
+                    now = target;
+                    return;
+                }
+                task = tasks.poll();
+                now = task.due;
+                if (task.isCancelled()) {
+                    continue;
+                }
+                if (task.period > 0) {
+                    tasks.add(new Task(task, task.due + task.period, sequence++));
+                }
+            }
+            task.runnable.run();
+        }
+    }
+
+    /**
+     * Number of tasks that have not run yet, including the next runs of
+     * repeating tasks.
+     */
+    public synchronized int getPendingTasks() {
+        int pending = 0;
+        for (final Task task : tasks) {
+            if (!task.isCancelled()) {
+                pending++;
+            }
+        }
+        return pending;
+    }
+
+    private synchronized Task add(final Runnable runnable, final long delay, final long period) {
+        final Task task = new Task(runnable, now + delay, period, sequence++);
+        tasks.add(task);
+        return task;
+    }
+
+    /**
+     * One run of a scheduled task. The runs of a repeating task share its
+     * cancellation flag.
+     */
+    private static final class Task implements Scheduled, Comparable<Task> {
+        private final Runnable runnable;
+        private final long due;
+        private final long period;
+        private final long order;
+        /** The first run of the task, holding the cancellation flag. */
+        private final Task first;
+
+        private volatile boolean cancelled;
+
+        Task(final Runnable runnable, final long due, final long period, final long order) {
+            this.runnable = runnable;
+            this.due = due;
+            this.period = period;
+            this.order = order;
+            first = this;
+        }
+
+        Task(final Task previous, final long due, final long order) {
+            runnable = previous.runnable;
+            this.due = due;
+            period = previous.period;
+            this.order = order;
+            first = previous.first;
+        }
+
+        @Override
+        public void cancel() {
+            first.cancelled = true;
+        }
+
+        boolean isCancelled() {
+            return first.cancelled;
+        }
+
+        @Override
+        public int compareTo(final Task other) {
+            if (due != other.due) {
+                return due < other.due ? -1 : 1;
+            }
+            return order < other.order ? -1 : order > other.order ? 1 : 0;
+        }
+    }
+
+}
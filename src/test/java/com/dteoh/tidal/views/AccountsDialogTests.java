@@ -17,6 +17,7 @@
 package com.dteoh.tidal.views;
 
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -33,6 +34,9 @@ import org.fest.swing.edt.GuiActionRunner;
 import org.fest.swing.edt.GuiQuery;
 import org.fest.swing.edt.GuiTask;
 import org.fest.swing.fixture.DialogFixture;
+import org.fest.swing.fixture.JButtonFixture;
+import org.fest.swing.timing.Condition;
+import org.fest.swing.timing.Pause;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -48,6 +52,9 @@ import com.dteoh.tidal.views.AccountsDialog;
  */
 public class AccountsDialogTests {
 
+    /** Time allowed for setup icons to be loaded, in milliseconds. */
+    private static final int ICON_TIMEOUT = 1000;
+
     /** Mock setup handler 1. */
     private SetupDroplet mockSD1;
     private final String mockViewName1 = "TestSetupView1";
@@ -128,17 +135,11 @@ public class AccountsDialogTests {
             }
         });
 
-        verify(mockSD1).getSetupIcon();
+        verify(mockSD1, timeout(ICON_TIMEOUT)).getSetupIcon();
         verify(mockSD1).getSetupView();
 
         // Check if button is set with icon and showing.
-        dialog.button(new GenericTypeMatcher<JButton>(JButton.class) {
-            @Override
-            protected boolean isMatching(final JButton button) {
-                return button.getIcon() != null
-                        && button.getIcon().equals(mockSDIcon1);
-            }
-        }).requireEnabled().requireVisible();
+        setupButton(mockSDIcon1).requireEnabled().requireVisible();
 
         // Check if setup panel is showing
         dialog.panel(mockViewName1).requireEnabled().requireVisible();
@@ -158,28 +159,16 @@ public class AccountsDialogTests {
             }
         });
 
-        verify(mockSD1).getSetupIcon();
+        verify(mockSD1, timeout(ICON_TIMEOUT)).getSetupIcon();
         verify(mockSD1).getSetupView();
 
         // The second view will not be retrieved until we ask for it.
-        verify(mockSD2).getSetupIcon();
+        verify(mockSD2, timeout(ICON_TIMEOUT)).getSetupIcon();
 
         // Check if the buttons are set with their icons and showing.
-        dialog.button(new GenericTypeMatcher<JButton>(JButton.class) {
-            @Override
-            protected boolean isMatching(final JButton button) {
-                return button.getIcon() != null
-                        && button.getIcon().equals(mockSDIcon1);
-            }
-        }).requireEnabled().requireVisible();
+        setupButton(mockSDIcon1).requireEnabled().requireVisible();
 
-        dialog.button(new GenericTypeMatcher<JButton>(JButton.class) {
-            @Override
-            protected boolean isMatching(final JButton button) {
-                return button.getIcon() != null
-                        && button.getIcon().equals(mockSDIcon2);
-            }
-        }).requireEnabled().requireVisible();
+        setupButton(mockSDIcon2).requireEnabled().requireVisible();
 
         // Check if setup panel is showing
         dialog.panel(mockViewName1).requireEnabled().requireVisible();
@@ -202,13 +191,7 @@ public class AccountsDialogTests {
 
         // Check if the buttons are set with their icons, showing, and click on
         // it.
-        dialog.button(new GenericTypeMatcher<JButton>(JButton.class) {
-            @Override
-            protected boolean isMatching(final JButton button) {
-                return button.getIcon() != null
-                        && button.getIcon().equals(mockSDIcon1);
-            }
-        }).requireEnabled().requireVisible().click();
+        setupButton(mockSDIcon1).requireEnabled().requireVisible().click();
 
         // Check if setup panel is still showing
         dialog.panel(mockViewName1).requireEnabled().requireVisible();
@@ -231,13 +214,7 @@ public class AccountsDialogTests {
         dialog.panel(mockViewName1).requireEnabled().requireVisible();
 
         // Show the second setup view.
-        dialog.button(new GenericTypeMatcher<JButton>(JButton.class) {
-            @Override
-            protected boolean isMatching(final JButton button) {
-                return button.getIcon() != null
-                        && button.getIcon().equals(mockSDIcon2);
-            }
-        }).requireEnabled().requireVisible().click();
+        setupButton(mockSDIcon2).requireEnabled().requireVisible().click();
 
         // Check if the second setup view is shown.
         dialog.panel(mockViewName2).requireEnabled().requireVisible();
@@ -349,17 +326,11 @@ public class AccountsDialogTests {
         });
 
         when(mockSD2.createDropletFromSetup()).thenReturn(true);
-        verify(mockSD1).getSetupIcon();
+        verify(mockSD1, timeout(ICON_TIMEOUT)).getSetupIcon();
         verify(mockSD1).getSetupView();
 
         // Show the second setup view.
-        dialog.button(new GenericTypeMatcher<JButton>(JButton.class) {
-            @Override
-            protected boolean isMatching(final JButton button) {
-                return button.getIcon() != null
-                        && button.getIcon().equals(mockSDIcon2);
-            }
-        }).requireEnabled().requireVisible().click();
+        setupButton(mockSDIcon2).requireEnabled().requireVisible().click();
 
         // Click setup
         dialog.button("AccountsViewCreateButton").requireEnabled()
@@ -392,13 +363,7 @@ public class AccountsDialogTests {
         when(mockSD2.createDropletFromSetup()).thenReturn(false);
 
         // Show the second setup view.
-        dialog.button(new GenericTypeMatcher<JButton>(JButton.class) {
-            @Override
-            protected boolean isMatching(final JButton button) {
-                return button.getIcon() != null
-                        && button.getIcon().equals(mockSDIcon2);
-            }
-        }).requireEnabled().requireVisible().click();
+        setupButton(mockSDIcon2).requireEnabled().requireVisible().click();
 
         // Click setup
         dialog.button("AccountsViewCreateButton").requireEnabled()
@@ -411,4 +376,26 @@ public class AccountsDialogTests {
         // ... and there should be an error message.
         dialog.optionPane().requireErrorMessage().requireVisible();
     }
+
+    /**
+     * Find the setup button showing the given icon. Icons are loaded in the
+     * background, so wait for the icon to be set first.
+     */
+    private JButtonFixture setupButton(final ImageIcon icon) {
+        final GenericTypeMatcher<JButton> matcher = new GenericTypeMatcher<JButton>(JButton.class) {
+            @Override
+            protected boolean isMatching(final JButton button) {
+                return button.getIcon() != null && button.getIcon().equals(icon);
+            }
+        };
+
+        Pause.pause(new Condition("setup button icon to be loaded") {
+            @Override
+            public boolean test() {
+                return !dialog.robot.finder().findAll(av, matcher).isEmpty();
+            }
+        }, ICON_TIMEOUT);
+
+        return dialog.button(matcher);
+    }
 }
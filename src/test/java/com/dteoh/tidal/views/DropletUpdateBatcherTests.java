@@ -0,0 +1,206 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.views;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import org.fest.swing.edt.GuiActionRunner;
+import org.fest.swing.edt.GuiTask;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.dteoh.tidal.exceptions.EDTViolationException;
+import com.dteoh.tidal.id.ID;
+import com.dteoh.tidal.views.models.DropletModel;
+import com.dteoh.tidal.views.models.RippleModel;
+import com.google.common.collect.Iterables;
+
+/**
+ * Tests the DropletUpdateBatcher class.
+ * 
+ * @author Douglas Teoh
+ */
+public class DropletUpdateBatcherTests {
+
+    private DropletUpdateBatcher batcher;
+    private DropletView view;
+    private DropletModel first;
+    private DropletModel second;
+
+    @Before
+    public void setUp() {
+        batcher = DropletUpdateBatcher.INSTANCE;
+        view = mock(DropletView.class);
+
+        final ID id = mock(ID.class);
+        first = new DropletModel(id, "Test droplet", new RippleModel("ID1", "test@tidal-app.org", "A", "", 10000));
+        second = new DropletModel(id, "Test droplet", new RippleModel("ID2", "test@tidal-app.org", "B", "", 20000));
+
+        // Apply anything left over from other tests.
+        batchInEDT(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+    }
+
+    /**
+     * Queue updates and flush them within a single EDT task, so that the
+     * batcher's own timer cannot split the batch.
+     */
+    private void batchInEDT(final Runnable updates) {
+        GuiActionRunner.execute(new GuiTask() {
+            @Override
+            protected void executeInEDT() throws Throwable {
+                updates.run();
+                batcher.flush();
+            }
+        });
+    }
+
+    /**
+     * Test if the last model set wins.
+     */
+    @Test
+    public void testLatestSetWins() {
+        batchInEDT(new Runnable() {
+            @Override
+            public void run() {
+                batcher.setDropletModel(view, first);
+                batcher.setDropletModel(view, second);
+            }
+        });
+
+        verify(view).setDropletModel(second);
+        verify(view, never()).setDropletModel(first);
+        verify(view, never()).addDropletModel(any(DropletModel.class));
+    }
+
+    /**
+     * Test if a model added after a model was set replaces the view model with
+     * both models merged.
+     */
+    @Test
+    public void testAddAfterSet() {
+        batchInEDT(new Runnable() {
+            @Override
+            public void run() {
+                batcher.setDropletModel(view, first);
+                batcher.addDropletModel(view, second);
+            }
+        });
+
+        final ArgumentCaptor<DropletModel> applied = ArgumentCaptor.forClass(DropletModel.class);
+        verify(view).setDropletModel(applied.capture());
+        verify(view, never()).addDropletModel(any(DropletModel.class));
+        assertEquals(2, Iterables.size(applied.getValue().getDropletContents()));
+    }
+
+    /**
+     * Test if added models are merged into a single add.
+     */
+    @Test
+    public void testAddsMerged() {
+        batchInEDT(new Runnable() {
+            @Override
+            public void run() {
+                batcher.addDropletModel(view, first);
+                batcher.addDropletModel(view, second);
+            }
+        });
+
+        final ArgumentCaptor<DropletModel> applied = ArgumentCaptor.forClass(DropletModel.class);
+        verify(view).addDropletModel(applied.capture());
+        verify(view, never()).setDropletModel(any(DropletModel.class));
+        assertEquals(2, Iterables.size(applied.getValue().getDropletContents()));
+    }
+
+    /**
+     * Test if the last updating status wins.
+     */
+    @Test
+    public void testLatestUpdatingWins() {
+        batchInEDT(new Runnable() {
+            @Override
+            public void run() {
+                batcher.dropletUpdating(view, true);
+                batcher.addDropletModel(view, first);
+                batcher.dropletUpdating(view, false);
+            }
+        });
+
+        verify(view).addDropletModel(first);
+        verify(view).dropletUpdating(false);
+        verify(view, never()).dropletUpdating(true);
+    }
+
+    /**
+     * Test if updates to many views are applied as one batch.
+     */
+    @Test
+    public void testSingleBatch() {
+        final DropletView other = mock(DropletView.class);
+        final long batches = batcher.getBatchCount();
+
+        batchInEDT(new Runnable() {
+            @Override
+            public void run() {
+                batcher.addDropletModel(view, first);
+                batcher.addDropletModel(other, second);
+                batcher.dropletUpdating(view, false);
+            }
+        });
+
+        verify(view).addDropletModel(first);
+        verify(other).addDropletModel(second);
+        assertEquals(batches + 1, batcher.getBatchCount());
+        assertEquals(2, batcher.getLastBatchSize());
+    }
+
+    /**
+     * Test if discarded updates are not applied.
+     */
+    @Test
+    public void testDiscard() {
+        batchInEDT(new Runnable() {
+            @Override
+            public void run() {
+                batcher.setDropletModel(view, first);
+                batcher.dropletUpdating(view, true);
+                batcher.discard(view);
+            }
+        });
+
+        verify(view, never()).setDropletModel(any(DropletModel.class));
+        verify(view, never()).dropletUpdating(anyBoolean());
+    }
+
+    /**
+     * Test if flushing outside of the EDT is prevented.
+     */
+    @Test(expected = EDTViolationException.class)
+    public void testFlushOutsideEDT() {
+        batcher.flush();
+    }
+
+}
@@ -374,4 +374,26 @@ public class DropletModelTests {
                 .elementsEqual(merged.getDropletContents(), ripples));
     }
 
+    /**
+     * Merge models holding many ripples, no ripples should be dropped.
+     */
+    @Test
+    public void testMergeKeepsEveryRipple() {
+        final List<RippleModel> older = Lists.newArrayList();
+        final List<RippleModel> newer = Lists.newArrayList();
+        for (int i = 0; i < 1000; i++) {
+            older.add(new RippleModel("OLD", "UNIT_TEST", "Old " + i, "", i));
+            newer.add(new RippleModel("NEW", "UNIT_TEST", "New " + i, "",
+                    1000 + i));
+        }
+
+        final DropletModel merged = new DropletModel(mock(ID.class),
+                "TestDroplet", older).mergeWith(new DropletModel(
+                mock(ID.class), "TestDroplet", newer));
+        assertEquals(2000, Iterables.size(merged.getDropletContents()));
+        for (final RippleModel ripple : older) {
+            assertTrue(Iterables.contains(merged.getDropletContents(), ripple));
+        }
+    }
+
 }
@@ -0,0 +1,180 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.views.models;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Unit tests for {@link RippleStore}.
+ * 
+ * @author Douglas Teoh
+ */
+public class RippleStoreTests {
+
+    /**
+     * Test that a store is sorted like a list of ripples.
+     */
+    @Test
+    public void testOf() {
+        final List<RippleModel> ripples = ripples(new Random(1), 1000);
+        final RippleStore store = RippleStore.of(ripples);
+
+        Collections.sort(ripples);
+        assertEquals(ripples, store.asList());
+        assertEquals(ripples.get(10).getReceived(), store.getReceived(10));
+        assertEquals(ripples.get(10).getContent(), store.getContent(10));
+    }
+
+    /**
+     * Test that merging removes duplicates and keeps the newest ripples, like
+     * merging lists of ripples.
+     */
+    @Test
+    public void testMerge() {
+        final Random random = new Random(2);
+        final List<RippleModel> first = ripples(random, 300);
+        final List<RippleModel> second = ripples(random, 300);
+        second.addAll(first.subList(0, 100));
+
+        final RippleStore merged = RippleStore.of(first).merge(RippleStore.of(second), 400);
+
+        final List<RippleModel> all = Lists.newArrayList(first);
+        all.addAll(second);
+        Collections.sort(all);
+        final List<RippleModel> expected = Lists.newArrayList();
+        RippleModel prev = null;
+        for (final RippleModel ripple : all) {
+            if (expected.size() < 400 && !ripple.equals(prev)) {
+                expected.add(ripple);
+                prev = ripple;
+            }
+        }
+        assertEquals(expected, merged.asList());
+    }
+
+    /**
+     * Test finding ripples by the time they were received.
+     */
+    @Test
+    public void testRange() {
+        final List<RippleModel> ripples = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            ripples.add(new RippleModel(i, "origin", "Subject " + i, "", i * 1000));
+        }
+        final RippleStore store = RippleStore.of(ripples);
+
+        final List<RippleModel> range = store.range(3000, 6000);
+        assertEquals(3, range.size());
+        assertEquals(ripples.get(5), range.get(0));
+        assertEquals(ripples.get(3), range.get(2));
+
+        assertEquals(0, store.indexBefore(10000));
+        assertEquals(10, store.indexBefore(0));
+        assertTrue(store.range(20000, 30000).isEmpty());
+        assertTrue(store.range(6000, 3000).isEmpty());
+    }
+
+    /**
+     * Test that null fields are kept, and that equal strings are stored once.
+     */
+    @Test
+    public void testFields() {
+        final RippleStore store = RippleStore.of(Lists.newArrayList(new RippleModel(null, null, "Subject", null, 1),
+                new RippleModel(2, new String("origin"), "Subject", "", 2), new RippleModel(3, new String(
+                        "origin"), "Subject", "Content", 3)));
+
+        assertEquals(new RippleModel(null, null, "Subject", null, 1), store.get(2));
+        assertNull(store.getOrigin(2));
+        assertEquals("", store.getContent(1));
+        assertEquals("Content", store.getContent(0));
+        assertSame(store.getOrigin(0), store.getOrigin(1));
+        assertTrue(RippleStore.of(Collections.<RippleModel> emptyList()).isEmpty());
+    }
+
+    /**
+     * Test that contents kept off the heap read back the same, and merge with
+     * contents kept on the heap.
+     */
+    @Test
+    public void testOffHeap() {
+        final List<RippleModel> ripples = ripples(new Random(3), 200);
+        ripples.add(new RippleModel(1, "origin", "Null", null, 1));
+        ripples.add(new RippleModel(2, "origin", "Empty", "", 2));
+        ripples.add(new RippleModel(3, "origin", "Unicode", "Gr\u00fc\u00dfe \u2603 \ud83d\udce7", 3));
+        final RippleStore offHeap = RippleStore.of(ripples, new SnippetArena());
+
+        final List<RippleModel> sorted = Lists.newArrayList(ripples);
+        Collections.sort(sorted);
+        assertEquals(sorted, offHeap.asList());
+
+        final List<RippleModel> others = ripples(new Random(4), 200);
+        others.addAll(ripples.subList(0, 50));
+        final RippleStore onHeap = RippleStore.of(others);
+        assertEquals(onHeap.merge(RippleStore.of(ripples), 300).asList(), onHeap.merge(offHeap, 300).asList());
+        assertEquals(RippleStore.of(ripples).merge(onHeap, 300).asList(), offHeap.merge(onHeap, 300).asList());
+    }
+
+    /**
+     * Test that merging copies the few contents left in an old buffer, instead
+     * of keeping the buffer alive.
+     */
+    @Test
+    public void testCompaction() {
+        final SnippetArena arena = new SnippetArena();
+        final Random random = new Random(5);
+        final RippleStore older = RippleStore.of(ripples(random, 100), arena);
+        // Use up the rest of the buffer of the older ripples.
+        for (int i = 0; i < 4; i++) {
+            arena.reserve(SnippetArena.BLOCK_SIZE / 4);
+        }
+
+        final List<RippleModel> newRipples = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            newRipples.add(new RippleModel(i, "origin", "Subject", "Content " + i, 100000 + i));
+        }
+        final RippleStore newer = RippleStore.of(newRipples, arena);
+        assertEquals(1, older.getBlockCount());
+        assertEquals(1, newer.getBlockCount());
+
+        final RippleStore merged = newer.merge(older, 110);
+        assertEquals(110, merged.size());
+        assertEquals(1, merged.getBlockCount());
+        assertEquals(older.get(0), merged.get(100));
+    }
+
+    private static List<RippleModel> ripples(final Random random, final int count) {
+        final List<RippleModel> ripples = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            // Few distinct times and subjects, so that ties are common.
+            ripples.add(new RippleModel(random.nextInt(), "sender" + random.nextInt(10) + "@tidal-app.org",
+                    "Subject " + random.nextInt(5), "Content " + random.nextInt(), random.nextInt(50) * 1000L));
+        }
+        return ripples;
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.views.models;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link SnippetArena}.
+ * 
+ * @author Douglas Teoh
+ */
+public class SnippetArenaTests {
+
+    /**
+     * Test that regions share buffers, and that the unused end of the last
+     * region is handed out again.
+     */
+    @Test
+    public void testReserve() {
+        final SnippetArena arena = new SnippetArena();
+        final SnippetArena.Region first = arena.reserve(100);
+        assertTrue(first.buffer.isDirect());
+        assertTrue(first.remaining() >= 100);
+
+        first.position += 100;
+        arena.release(first);
+        final SnippetArena.Region second = arena.reserve(100);
+        assertSame(first.buffer, second.buffer);
+        assertEquals(100, second.position);
+
+        // Only the last region can be shrunk.
+        arena.release(first);
+        assertEquals(100 + second.remaining(), arena.reserve(100).position);
+
+        final SnippetArena.Region large = arena.reserve(SnippetArena.BLOCK_SIZE);
+        assertEquals(SnippetArena.BLOCK_SIZE, large.remaining());
+        assertFalse(arena.isCurrent(large.buffer));
+        assertTrue(arena.isCurrent(second.buffer));
+    }
+
+    /**
+     * Test that a closed arena lets go of its buffer, and hands out regions on
+     * the heap.
+     */
+    @Test
+    public void testClose() {
+        final SnippetArena arena = new SnippetArena();
+        final SnippetArena.Region region = arena.reserve(100);
+        arena.close();
+
+        assertFalse(arena.isCurrent(region.buffer));
+        assertFalse(arena.reserve(100).buffer.isDirect());
+    }
+
+}
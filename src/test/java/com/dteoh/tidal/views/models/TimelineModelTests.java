@@ -0,0 +1,144 @@
+/*
+ * Tidal, a communications aggregation and notification tool. 
+ * Copyright (C) 2010 Douglas Teoh 
+ * 
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version. 
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more 
+ * details. You should have received a copy of the GNU General Public License 
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.dteoh.tidal.views.models;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dteoh.tidal.id.ID;
+import com.google.common.collect.Lists;
+
+/**
+ * Unit tests for {@link TimelineModel}.
+ * 
+ * @author Douglas Teoh
+ */
+public class TimelineModelTests {
+
+    private ID first;
+    private ID second;
+
+    @Before
+    public void setUp() {
+        first = mock(ID.class);
+        second = mock(ID.class);
+    }
+
+    /**
+     * Test that the ripples of all droplets are merged, newest first.
+     */
+    @Test
+    public void testMerge() {
+        final TimelineModel timeline = TimelineModel.EMPTY.withDropletModel(
+                new DropletModel(first, "first", ripple(1, 10000), ripple(3, 30000))).withDropletModel(
+                new DropletModel(second, "second", ripple(2, 20000), ripple(4, 40000)));
+
+        final List<TimelineModel.Entry> entries = Lists.newArrayList(timeline);
+        assertEquals(4, entries.size());
+        assertEquals(40000, entries.get(0).getRipple().getReceived());
+        assertEquals("second", entries.get(0).getDropletName());
+        assertEquals(30000, entries.get(1).getRipple().getReceived());
+        assertSame(first, entries.get(1).getDroplet());
+        assertEquals(20000, entries.get(2).getRipple().getReceived());
+        assertEquals(10000, entries.get(3).getRipple().getReceived());
+        assertEquals(2, timeline.getDropletCount());
+    }
+
+    /**
+     * Test that the merge gives the same order as sorting all ripples.
+     */
+    @Test
+    public void testMergeMany() {
+        final Random random = new Random(1);
+        final List<RippleModel> all = Lists.newArrayList();
+        TimelineModel timeline = TimelineModel.EMPTY;
+        for (int droplet = 0; droplet < 20; droplet++) {
+            final List<RippleModel> ripples = Lists.newArrayList();
+            for (int i = random.nextInt(50); i > 0; i--) {
+                ripples.add(ripple(all.size(), random.nextInt(100) * 1000L));
+                all.add(ripples.get(ripples.size() - 1));
+            }
+            timeline = timeline.withDropletModel(new DropletModel(mock(ID.class), "droplet" + droplet, ripples));
+        }
+        Collections.sort(all);
+
+        final List<RippleModel> merged = Lists.newArrayList();
+        for (final TimelineModel.Entry entry : timeline) {
+            merged.add(entry.getRipple());
+        }
+        assertEquals(all.size(), merged.size());
+        for (int i = 0; i < all.size(); i++) {
+            assertEquals(all.get(i).getReceived(), merged.get(i).getReceived());
+        }
+    }
+
+    /**
+     * Test retrieving only the newest ripples.
+     */
+    @Test
+    public void testGetNewest() {
+        final TimelineModel timeline = TimelineModel.EMPTY.withDropletModel(
+                new DropletModel(first, "first", ripple(1, 10000), ripple(3, 30000))).withDropletModel(
+                new DropletModel(second, "second", ripple(2, 20000)));
+
+        final List<TimelineModel.Entry> newest = timeline.getNewest(2);
+        assertEquals(2, newest.size());
+        assertEquals(30000, newest.get(0).getRipple().getReceived());
+        assertEquals(20000, newest.get(1).getRipple().getReceived());
+        assertEquals(3, timeline.getNewest(10).size());
+        assertTrue(TimelineModel.EMPTY.getNewest(10).isEmpty());
+    }
+
+    /**
+     * Test that changing a droplet only changes the new timeline.
+     */
+    @Test
+    public void testChanges() {
+        final TimelineModel before = TimelineModel.EMPTY.withDropletModel(new DropletModel(first, "first", ripple(
+                1, 10000))).withDropletModel(new DropletModel(second, "second", ripple(2, 20000)));
+
+        final TimelineModel replaced = before.withDropletModel(new DropletModel(first, "first", ripple(3, 30000)));
+        assertEquals(2, replaced.getNewest(10).size());
+        assertEquals(30000, replaced.getNewest(1).get(0).getRipple().getReceived());
+
+        final TimelineModel merged = before.mergeDropletModel(new DropletModel(first, "first", ripple(3, 30000)));
+        assertEquals(3, merged.getNewest(10).size());
+
+        final TimelineModel removed = before.withoutDroplet(second);
+        assertEquals(1, removed.getDropletCount());
+        assertNull(removed.getDropletModel(second));
+        assertSame(removed, removed.withoutDroplet(second));
+
+        assertEquals(2, before.getNewest(10).size());
+        assertEquals(20000, before.getNewest(1).get(0).getRipple().getReceived());
+    }
+
+    private static RippleModel ripple(final int id, final long received) {
+        return new RippleModel(id, "UNIT_TEST", "Ripple " + id, "", received);
+    }
+
+}